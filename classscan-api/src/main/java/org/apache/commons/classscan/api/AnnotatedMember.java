@@ -0,0 +1,107 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.api;
+
+import java.io.Serializable;
+import java.lang.annotation.ElementType;
+
+/**
+ * <p>A field or method carrying an annotation, as returned by
+ * {@link ClassScanner#getAnnotatedMembers(String, String)}.</p>
+ *
+ * <p>The member gets identified by its name and its descriptor as used in the
+ * class file, e.g. <code>(Ljava/lang/String;)V</code> for a method taking a String.
+ * For annotations on method parameters the element kind is PARAMETER and
+ * name and descriptor are the ones of the method.</p>
+ */
+public final class AnnotatedMember implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String className;
+    private final String memberName;
+    private final String descriptor;
+    private final ElementType elementKind;
+
+    /**
+     * @param className the fully qualified name of the class declaring the member
+     * @param memberName the name of the field or method
+     * @param descriptor the field or method descriptor
+     * @param elementKind either FIELD, METHOD or PARAMETER
+     */
+    public AnnotatedMember(String className, String memberName, String descriptor, ElementType elementKind) {
+        if (className == null || memberName == null || descriptor == null || elementKind == null) {
+            throw new IllegalArgumentException("className, memberName, descriptor and elementKind are required");
+        }
+        this.className = className;
+        this.memberName = memberName;
+        this.descriptor = descriptor;
+        this.elementKind = elementKind;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getMemberName() {
+        return memberName;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public ElementType getElementKind() {
+        return elementKind;
+    }
+
+    /**
+     * @return <code>true</code> for methods, also if the annotation is on one of their parameters
+     */
+    public boolean isMethod() {
+        return elementKind != ElementType.FIELD;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AnnotatedMember)) {
+            return false;
+        }
+        AnnotatedMember other = (AnnotatedMember) o;
+        return className.equals(other.className) && memberName.equals(other.memberName)
+               && descriptor.equals(other.descriptor) && elementKind == other.elementKind;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = className.hashCode();
+        result = 31 * result + memberName.hashCode();
+        result = 31 * result + descriptor.hashCode();
+        result = 31 * result + elementKind.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return className + '#' + memberName + descriptor + " (" + elementKind + ')';
+    }
+}
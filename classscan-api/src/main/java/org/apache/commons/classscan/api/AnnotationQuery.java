@@ -0,0 +1,208 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.api;
+
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Boolean expression over the annotations of classes, e.g.</p>
+ * <pre>
+ * AnnotationQuery.all(Entity.class).and(Cacheable.class).not(Deprecated.class)
+ * </pre>
+ * <p>selects all classes which use &#064;Entity and &#064;Cacheable but not &#064;Deprecated.
+ * The terms get evaluated from left to right.</p>
+ *
+ * <p>Queries are immutable, each operation returns a new query.
+ * They get evaluated via {@link ClassScanner#query(String, AnnotationQuery)}.</p>
+ */
+public final class AnnotationQuery {
+
+    public enum Operator {
+        /**
+         * the classes of the first annotation
+         */
+        ALL,
+
+        /**
+         * intersect with the classes of the annotation
+         */
+        AND,
+
+        /**
+         * unite with the classes of the annotation
+         */
+        OR,
+
+        /**
+         * remove the classes of the annotation
+         */
+        NOT
+    }
+
+    private final Operator[] operators;
+    private final String[] annotations;
+
+    private AnnotationQuery(Operator[] operators, String[] annotations) {
+        this.operators = operators;
+        this.annotations = annotations;
+    }
+
+    /**
+     * @param annotationType fully qualified name of the annotation
+     * @return a query for all classes which use the given annotation
+     */
+    public static AnnotationQuery all(String annotationType) {
+        return new AnnotationQuery(new Operator[]{Operator.ALL}, new String[]{checkName(annotationType)});
+    }
+
+    public static AnnotationQuery all(Class<? extends Annotation> annotationType) {
+        return all(annotationType.getName());
+    }
+
+    public AnnotationQuery and(String annotationType) {
+        return append(Operator.AND, annotationType);
+    }
+
+    public AnnotationQuery and(Class<? extends Annotation> annotationType) {
+        return and(annotationType.getName());
+    }
+
+    public AnnotationQuery or(String annotationType) {
+        return append(Operator.OR, annotationType);
+    }
+
+    public AnnotationQuery or(Class<? extends Annotation> annotationType) {
+        return or(annotationType.getName());
+    }
+
+    public AnnotationQuery not(String annotationType) {
+        return append(Operator.NOT, annotationType);
+    }
+
+    public AnnotationQuery not(Class<? extends Annotation> annotationType) {
+        return not(annotationType.getName());
+    }
+
+    /**
+     * @return the number of terms, at least 1
+     */
+    public int size() {
+        return operators.length;
+    }
+
+    /**
+     * @return the operator of the given term, {@link Operator#ALL} for the first one
+     */
+    public Operator getOperator(int term) {
+        return operators[term];
+    }
+
+    /**
+     * @return the fully qualified annotation name of the given term
+     */
+    public String getAnnotation(int term) {
+        return annotations[term];
+    }
+
+    /**
+     * Evaluate this query by combining the Sets of the given annotation index.
+     * This is the fallback for ClassScanner implementations without a dedicated query support.
+     *
+     * @param annotationIndex the index as returned by {@link ClassScanner#getAnnotationsIndex(String)}
+     * @return a new Set with the names of the matching classes
+     */
+    public Set<String> evaluate(Map<String, Set<String>> annotationIndex) {
+        Set<String> result = new HashSet<String>();
+        for (int i = 0; i < operators.length; i++) {
+            Set<String> classes = annotationIndex.get(annotations[i]);
+            switch (operators[i]) {
+                case ALL:
+                case OR:
+                    if (classes != null) {
+                        result.addAll(classes);
+                    }
+                    break;
+                case AND:
+                    if (classes != null) {
+                        result.retainAll(classes);
+                    } else {
+                        result.clear();
+                    }
+                    break;
+                case NOT:
+                    if (classes != null) {
+                        result.removeAll(classes);
+                    }
+                    break;
+            }
+        }
+        return result;
+    }
+
+    private AnnotationQuery append(Operator operator, String annotationType) {
+        Operator[] newOperators = new Operator[operators.length + 1];
+        String[] newAnnotations = new String[annotations.length + 1];
+        System.arraycopy(operators, 0, newOperators, 0, operators.length);
+        System.arraycopy(annotations, 0, newAnnotations, 0, annotations.length);
+        newOperators[operators.length] = operator;
+        newAnnotations[annotations.length] = checkName(annotationType);
+        return new AnnotationQuery(newOperators, newAnnotations);
+    }
+
+    private static String checkName(String annotationType) {
+        if (annotationType == null || annotationType.length() == 0) {
+            throw new IllegalArgumentException("annotationType must not be empty");
+        }
+        return annotationType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AnnotationQuery)) {
+            return false;
+        }
+        AnnotationQuery other = (AnnotationQuery) o;
+        return Arrays.equals(operators, other.operators)
+                && Arrays.equals(annotations, other.annotations);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(operators) + Arrays.hashCode(annotations);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < operators.length; i++) {
+            if (i > 0) {
+                sb.append('.');
+            }
+            sb.append(operators[i].name().toLowerCase()).append("(@").append(annotations[i]).append(')');
+        }
+        return sb.toString();
+    }
+}
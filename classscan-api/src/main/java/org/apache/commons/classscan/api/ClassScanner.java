@@ -19,6 +19,7 @@
 package org.apache.commons.classscan.api;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
@@ -113,4 +114,60 @@ public abstract class ClassScanner {
      */
     public abstract Map<String, Set<String>> getClassesIndex(String clientName);
 
+    /**
+     * Evaluate the given query over the annotations of the classes the client scanned for.
+     * The default implementation combines the Sets of the {@link #getAnnotationsIndex(String)}.
+     * Implementations should override it with a more efficient evaluation.
+     *
+     * @return the names of all classes matching the query or <code>null</code> if no scan result is available
+     */
+    public Set<String> query(String clientName, AnnotationQuery query) {
+        Map<String, Set<String>> annotationsIndex = getAnnotationsIndex(clientName);
+        return annotationsIndex != null ? query.evaluate(annotationsIndex) : null;
+    }
+
+    /**
+     * Find the scanned classes which extend or implement the given type without loading any class.
+     *
+     * @param type the fully qualified name of a class or interface
+     * @param transitive <code>true</code> for all subtypes, <code>false</code> for only the direct ones
+     * @return the names of the subtypes or <code>null</code> if no scan result is available
+     * @throws UnsupportedOperationException if the implementation doesn't index the class hierarchy
+     */
+    public Set<String> getSubtypes(String clientName, String type, boolean transitive) {
+        throw new UnsupportedOperationException(getClass().getName() + " doesn't index the class hierarchy");
+    }
+
+    /**
+     * Read the values of an annotation member from the class annotations without loading any class.
+     * The member must have been declared via {@link ScanJob#setIndexedAnnotationMembers(String[])}.
+     * Default values of annotation members are not contained in the class files, so classes which
+     * don't set the member explicitly have no entry.
+     *
+     * @param annotationType the fully qualified name of the annotation class
+     * @param memberName the name of the annotation member, e.g. <code>value</code>
+     * @return the values keyed by the name of the annotated class, arrays have one entry per element;
+     *         <code>null</code> if no scan result is available
+     * @throws IllegalArgumentException if the client didn't ask for this annotation member
+     * @throws UnsupportedOperationException if the implementation doesn't index annotation values
+     */
+    public Map<String, List<String>> getAnnotationValues(String clientName, String annotationType,
+                                                         String memberName) {
+        throw new UnsupportedOperationException(getClass().getName() + " doesn't index annotation values");
+    }
+
+    /**
+     * Find the fields and methods which carry the given annotation without loading any class.
+     * The client must have asked for the member index via {@link ScanJob#setIndexMembers(boolean)}.
+     *
+     * @param annotationType the fully qualified name of the annotation class
+     * @return the annotated members of all classes the client sees, only of the element kinds
+     *         the client scans for; <code>null</code> if no scan result is available
+     * @throws IllegalArgumentException if the client didn't ask for the member index
+     * @throws UnsupportedOperationException if the implementation doesn't index members
+     */
+    public Set<AnnotatedMember> getAnnotatedMembers(String clientName, String annotationType) {
+        throw new UnsupportedOperationException(getClass().getName() + " doesn't index annotated members");
+    }
+
 }
@@ -35,6 +35,9 @@ public class ScanJob {
     private boolean scanFieldAnnotations;
     private boolean scanParameterAnnotations;
     private Class<?>[] classesToScan;
+    private ScanListener scanListener;
+    private String[] indexedAnnotationMembers;
+    private boolean indexMembers;
 
     /**
      * public ct
@@ -71,6 +74,49 @@ public class ScanJob {
         this.classesToScan = classesToScan;
     }
 
+    /**
+     * Get notified about the found annotations while the classpath gets scanned.
+     * The notifications happen the first time the scan result of the client gets requested.
+     * @param scanListener
+     */
+    public void setScanListener(ScanListener scanListener) {
+        this.scanListener = scanListener;
+    }
+
+    public ScanListener getScanListener() {
+        return scanListener;
+    }
+
+    /**
+     * Index the values of the given annotation members, so they can get read via
+     * {@link ClassScanner#getAnnotationValues(String, String, String)} without loading the classes.
+     * Only annotations on the class declaration get their values indexed, so class annotations
+     * must get scanned.
+     * @param indexedAnnotationMembers the annotation class and the member name separated by '#',
+     *        e.g. <code>javax.ws.rs.Path#value</code>
+     */
+    public void setIndexedAnnotationMembers(String[] indexedAnnotationMembers) {
+        this.indexedAnnotationMembers = indexedAnnotationMembers;
+    }
+
+    public String[] getIndexedAnnotationMembers() {
+        return indexedAnnotationMembers;
+    }
+
+    /**
+     * Additionally index which fields and methods carry the annotations, so they can get read via
+     * {@link ClassScanner#getAnnotatedMembers(String, String)} without reflecting over whole classes.
+     * Only the element kinds this ScanJob scans for get indexed.
+     * @param indexMembers
+     */
+    public void setIndexMembers(boolean indexMembers) {
+        this.indexMembers = indexMembers;
+    }
+
+    public boolean isIndexMembers() {
+        return indexMembers;
+    }
+
     public String[] getMarkerFiles() {
         return markerFiles;
     }
@@ -0,0 +1,41 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.api;
+
+import java.lang.annotation.ElementType;
+
+/**
+ * <p>Receives the annotations of the scanned classes while the classpath scanning is still running.
+ * A {@link ClassScanClient} can register it via {@link ScanJob#setScanListener(ScanListener)} to start
+ * processing classes before the whole classpath got scanned.</p>
+ *
+ * <p>The listener only gets notified about the annotations its ScanJob asked for.
+ * If the ClassScanner scans archives in parallel, the listener gets called
+ * concurrently from several threads.</p>
+ */
+public interface ScanListener {
+
+    /**
+     * @param className the fully qualified name of the class
+     * @param annotationType the fully qualified name of the annotation
+     * @param elementKind where the annotation got found within the class,
+     *        either TYPE, METHOD, FIELD or PARAMETER
+     */
+    void annotationFound(String className, String annotationType, ElementType elementKind);
+}
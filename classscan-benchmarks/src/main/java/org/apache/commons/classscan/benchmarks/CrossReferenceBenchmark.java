@@ -0,0 +1,79 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.benchmarks;
+
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.MetaAnnotationGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving the meta-annotations of a scanned jar, which is what
+ * {@link AnnotationDB#crossReferenceMetaAnnotations()} does with the context ClassLoader.
+ * Each invocation needs a freshly scanned AnnotationDB, the scan doesn't get measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CrossReferenceBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int classCount;
+
+    private String archiveUrl;
+    private ClassLoader loader;
+    private AnnotationDB annotationDB;
+
+    @Setup
+    public void setUp() throws IOException {
+        File archive = SyntheticArchive.getArchive(classCount);
+        archiveUrl = SyntheticArchive.toArchiveUrl(archive);
+        loader = new URLClassLoader(new URL[]{SyntheticArchive.toUrl(archive)}, null);
+    }
+
+    @Setup(Level.Invocation)
+    public void scan() throws IOException {
+        annotationDB = new AnnotationDB();
+        annotationDB.scanArchives(archiveUrl);
+    }
+
+    @Benchmark
+    public MetaAnnotationGraph resolveMetaAnnotations() {
+        return annotationDB.resolveMetaAnnotations(loader);
+    }
+}
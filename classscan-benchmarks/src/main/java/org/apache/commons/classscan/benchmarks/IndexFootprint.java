@@ -0,0 +1,89 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.benchmarks;
+
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+
+import java.io.IOException;
+
+/**
+ * <p>Reports the heap retained by the indexes of a scanned jar, before and after
+ * {@link AnnotationDB#compact() compacting} them. This is no JMH benchmark,
+ * as JMH only reports the allocation rate but not the retained size.</p>
+ *
+ * <p>Usage: <code>java -cp target/benchmarks.jar org.apache.commons.classscan.benchmarks.IndexFootprint [classCount...]</code></p>
+ */
+public final class IndexFootprint {
+
+    private static final String[] DEFAULT_CLASS_COUNTS = {"1000", "10000", "100000"};
+
+    private IndexFootprint() {
+        // utility class
+    }
+
+    public static void main(String[] args) throws IOException {
+        String[] classCounts = args.length > 0 ? args : DEFAULT_CLASS_COUNTS;
+        // load all classes of the scanner upfront, so they don't get counted
+        AnnotationDB warmup = new AnnotationDB();
+        warmup.scanArchives(SyntheticArchive.toArchiveUrl(SyntheticArchive.getArchive(100)));
+        warmup.compact();
+
+        System.out.println("classes\tindex [KB]\tcompact [KB]");
+        for (String classCount : classCounts) {
+            String archiveUrl = SyntheticArchive.toArchiveUrl(SyntheticArchive.getArchive(Integer.parseInt(classCount)));
+
+            long before = usedHeap();
+            AnnotationDB annotationDB = new AnnotationDB();
+            annotationDB.scanArchives(archiveUrl);
+            long index = usedHeap() - before;
+
+            annotationDB.compact();
+            long compact = usedHeap() - before;
+
+            System.out.println(classCount + "\t" + index / 1024 + "\t" + compact / 1024);
+            if (annotationDB.getClassIndex().isEmpty()) {
+                throw new IllegalStateException("nothing got scanned");
+            }
+        }
+    }
+
+    /**
+     * @return the used heap after the garbage got collected
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // repeat until it doesn't shrink anymore
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long current = runtime.totalMemory() - runtime.freeMemory();
+            if (current >= used) {
+                return current;
+            }
+            used = current;
+        }
+        return used;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.benchmarks;
+
+import org.apache.commons.classscan.api.AnnotationQuery;
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.webbeans.classscan.scanner.OwbClassScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the queries against an already scanned ClassLoader,
+ * for a client seeing all classes and one restricted to a single package.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+    private static final String ALL = "all";
+    private static final String FILTERED = "filtered";
+
+    @Param({"1000", "10000", "100000"})
+    private int classCount;
+
+    private OwbClassScanner scanner;
+    private AnnotationQuery query;
+    private String rootType;
+
+    @Setup
+    public void setUp() throws IOException {
+        final ClassLoader loader = new URLClassLoader(
+                new URL[]{SyntheticArchive.toUrl(SyntheticArchive.getArchive(classCount))}, null);
+        scanner = new OwbClassScanner() {
+            @Override
+            protected ClassLoader getClassLoader() {
+                return loader;
+            }
+        };
+
+        String[] markerFiles = {SyntheticArchive.MARKER_FILE};
+        scanner.registerClient(ALL, new ScanJob(markerFiles, null, null, true, true, true, true));
+        scanner.registerClient(FILTERED, new ScanJob(markerFiles, new String[]{SyntheticArchive.PACKAGE + ".p0"},
+                                                     null, true, true, true, true));
+
+        query = AnnotationQuery.all(SyntheticArchive.PLAIN).and(SyntheticArchive.STEREOTYPE);
+        rootType = SyntheticArchive.className(0);
+
+        // perform the scan upfront
+        scanner.getAnnotationsIndex(ALL);
+        scanner.getAnnotationsIndex(FILTERED);
+    }
+
+    @Benchmark
+    public Set<String> annotationsIndexLookup() {
+        return scanner.getAnnotationsIndex(ALL).get(SyntheticArchive.STEREOTYPE);
+    }
+
+    @Benchmark
+    public Set<String> filteredAnnotationsIndexLookup() {
+        return scanner.getAnnotationsIndex(FILTERED).get(SyntheticArchive.STEREOTYPE);
+    }
+
+    @Benchmark
+    public int query() {
+        return scanner.query(ALL, query).size();
+    }
+
+    @Benchmark
+    public int filteredQuery() {
+        return scanner.query(FILTERED, query).size();
+    }
+
+    @Benchmark
+    public int transitiveSubtypes() {
+        return scanner.getSubtypes(ALL, rootType, true).size();
+    }
+}
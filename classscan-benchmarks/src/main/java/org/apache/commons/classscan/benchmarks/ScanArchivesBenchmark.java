@@ -0,0 +1,71 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.benchmarks;
+
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning a whole jar via {@link AnnotationDB#scanArchives(String...)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScanArchivesBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int classCount;
+
+    private String archiveUrl;
+
+    @Setup
+    public void setUp() throws IOException {
+        archiveUrl = SyntheticArchive.toArchiveUrl(SyntheticArchive.getArchive(classCount));
+    }
+
+    @Benchmark
+    public AnnotationDB scanArchives() throws IOException {
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.scanArchives(archiveUrl);
+        return annotationDB;
+    }
+
+    @Benchmark
+    public AnnotationDB scanArchivesAndCompact() throws IOException {
+        AnnotationDB annotationDB = scanArchives();
+        annotationDB.compact();
+        return annotationDB;
+    }
+}
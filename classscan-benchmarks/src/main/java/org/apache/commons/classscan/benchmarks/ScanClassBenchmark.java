@@ -0,0 +1,78 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.benchmarks;
+
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.ClassFileReaderEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of parsing a single class via {@link AnnotationDB#scanClass(java.io.InputStream)}
+ * with each of the {@link ClassFileReaderEngine}s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScanClassBenchmark {
+
+    private static final int CLASS_COUNT = 100;
+
+    @Param({"CONSTANT_POOL", "JAVASSIST", "ASM"})
+    private ClassFileReaderEngine engine;
+
+    private byte[][] classes;
+    private int next;
+    private AnnotationDB annotationDB;
+
+    @Setup
+    public void setUp() throws IOException {
+        classes = new byte[CLASS_COUNT][];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            classes[i] = SyntheticArchive.generateClass(i);
+        }
+        annotationDB = new AnnotationDB();
+        annotationDB.setReaderEngine(engine);
+    }
+
+    @Benchmark
+    public AnnotationDB scanClass() throws IOException {
+        byte[] bytes = classes[next];
+        next = (next + 1) % CLASS_COUNT;
+        // the same classes get scanned over and over again, so the indexes don't grow
+        annotationDB.scanClass(new ByteArrayInputStream(bytes));
+        return annotationDB;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.benchmarks;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.DuplicateMemberException;
+import javassist.bytecode.FieldInfo;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.annotation.Annotation;
+import javassist.bytecode.annotation.EnumMemberValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * <p>Generates jars with synthetic annotated classes, so the benchmarks
+ * don't depend on whatever happens to be on the classpath.</p>
+ *
+ * <p>The classes get spread over packages of 100 classes each. Each tenth class
+ * starts a new inheritance chain, all others extend their predecessor.
+ * Every class carries a class, method and field annotation, every third class the
+ * {@link #STEREOTYPE} which itself is meta-annotated with the {@link #MARKER}.</p>
+ */
+public final class SyntheticArchive {
+
+    public static final String MARKER_FILE = "META-INF/classscan-benchmark.marker";
+
+    public static final String PACKAGE = "org.apache.commons.classscan.benchmarks.generated";
+
+    public static final String MARKER = PACKAGE + ".Marker";
+    public static final String STEREOTYPE = PACKAGE + ".Stereotype";
+    public static final String PLAIN = PACKAGE + ".Plain";
+
+    private static final int CLASSES_PER_PACKAGE = 100;
+    private static final int CHAIN_LENGTH = 10;
+
+    private static final Map<Integer, File> ARCHIVES = new HashMap<Integer, File>();
+
+    private SyntheticArchive() {
+        // utility class
+    }
+
+    /**
+     * @return the name of the i-th generated class
+     */
+    public static String className(int i) {
+        return PACKAGE + ".p" + (i / CLASSES_PER_PACKAGE) + ".Generated" + i;
+    }
+
+    /**
+     * Get the jar with the given number of generated classes and the annotation types.
+     * The jar gets generated once per JVM and deleted on exit.
+     */
+    public static synchronized File getArchive(int classCount) throws IOException {
+        File archive = ARCHIVES.get(classCount);
+        if (archive == null) {
+            archive = File.createTempFile("classscan-benchmark-" + classCount + "-", ".jar");
+            archive.deleteOnExit();
+            write(archive, classCount);
+            ARCHIVES.put(classCount, archive);
+        }
+        return archive;
+    }
+
+    /**
+     * @return the archive url as expected by AnnotationDB#scanArchives
+     */
+    public static String toArchiveUrl(File archive) throws MalformedURLException {
+        return "jar:" + toUrl(archive) + "!/";
+    }
+
+    public static URL toUrl(File archive) throws MalformedURLException {
+        return archive.toURI().toURL();
+    }
+
+    /**
+     * @return the bytes of the i-th generated class
+     */
+    public static byte[] generateClass(int i) throws IOException {
+        String superClass = i % CHAIN_LENGTH == 0 ? "java.lang.Object" : className(i - 1);
+        ClassFile cf = new ClassFile(false, className(i), superClass);
+        cf.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.ABSTRACT);
+        cf.setInterfaces(new String[]{"java.io.Serializable"});
+        ConstPool cp = cf.getConstPool();
+
+        if (i % 3 == 0) {
+            cf.addAttribute(annotations(cp, PLAIN, STEREOTYPE));
+        } else {
+            cf.addAttribute(annotations(cp, PLAIN));
+        }
+
+        try {
+            FieldInfo field = new FieldInfo(cp, "field" + i, "Ljava/lang/String;");
+            field.setAccessFlags(AccessFlag.PRIVATE);
+            field.addAttribute(annotations(cp, PLAIN));
+            cf.addField(field);
+
+            MethodInfo method = new MethodInfo(cp, "method" + i, "(Ljava/lang/String;)V");
+            method.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.ABSTRACT);
+            method.addAttribute(annotations(cp, PLAIN));
+            cf.addMethod(method);
+        } catch (DuplicateMemberException e) {
+            throw new IllegalStateException(e);
+        }
+        return toBytes(cf);
+    }
+
+    private static void write(File archive, int classCount) throws IOException {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(archive));
+        try {
+            out.putNextEntry(new JarEntry(MARKER_FILE));
+
+            writeEntry(out, MARKER, generateAnnotationType(MARKER, null));
+            writeEntry(out, STEREOTYPE, generateAnnotationType(STEREOTYPE, MARKER));
+            writeEntry(out, PLAIN, generateAnnotationType(PLAIN, null));
+
+            for (int i = 0; i < classCount; i++) {
+                writeEntry(out, className(i), generateClass(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeEntry(JarOutputStream out, String className, byte[] bytes) throws IOException {
+        out.putNextEntry(new JarEntry(className.replace('.', '/') + ".class"));
+        out.write(bytes);
+    }
+
+    private static byte[] generateAnnotationType(String name, String metaAnnotation) throws IOException {
+        ClassFile cf = new ClassFile(true, name, "java.lang.Object");
+        cf.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.INTERFACE | AccessFlag.ABSTRACT | AccessFlag.ANNOTATION);
+        cf.setInterfaces(new String[]{"java.lang.annotation.Annotation"});
+        ConstPool cp = cf.getConstPool();
+
+        AnnotationsAttribute attribute = new AnnotationsAttribute(cp, AnnotationsAttribute.visibleTag);
+        Annotation retention = new Annotation("java.lang.annotation.Retention", cp);
+        EnumMemberValue policy = new EnumMemberValue(cp);
+        policy.setType("java.lang.annotation.RetentionPolicy");
+        policy.setValue("RUNTIME");
+        retention.addMemberValue("value", policy);
+        attribute.addAnnotation(retention);
+        if (metaAnnotation != null) {
+            attribute.addAnnotation(new Annotation(metaAnnotation, cp));
+        }
+        cf.addAttribute(attribute);
+        return toBytes(cf);
+    }
+
+    private static AnnotationsAttribute annotations(ConstPool cp, String... annotationTypes) {
+        AnnotationsAttribute attribute = new AnnotationsAttribute(cp, AnnotationsAttribute.visibleTag);
+        for (String annotationType : annotationTypes) {
+            attribute.addAnnotation(new Annotation(annotationType, cp));
+        }
+        return attribute;
+    }
+
+    private static byte[] toBytes(ClassFile cf) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        cf.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.maven;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.ScanIndexFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * <p>Scans the compiled classes of the project and stores the result
+ * as {@link AnnotationDB#PREBUILT_INDEX_RESOURCE} in the output directory.
+ * The AnnotationDB will read this index at runtime instead of scanning
+ * all classes of the archive.</p>
+ *
+ * <p>The index only gets used at runtime if the scan settings configured
+ * here match the ones requested by the ClassScanClients. The defaults are
+ * the same as the defaults of the AnnotationDB.</p>
+ */
+@Mojo(name = "index", defaultPhase = LifecyclePhase.PROCESS_CLASSES, threadSafe = true)
+public class ClassScanIndexMojo extends AbstractMojo {
+
+    /**
+     * The directory containing the compiled classes.
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File classesDirectory;
+
+    @Parameter(defaultValue = "true")
+    private boolean scanClassAnnotations;
+
+    @Parameter(defaultValue = "true")
+    private boolean scanMethodAnnotations;
+
+    @Parameter(defaultValue = "true")
+    private boolean scanFieldAnnotations;
+
+    @Parameter(defaultValue = "true")
+    private boolean scanParameterAnnotations;
+
+    /**
+     * Overrides the packages which should not get scanned.
+     */
+    @Parameter
+    private String[] ignoredPackages;
+
+    /**
+     * The annotation members whose values should get indexed, e.g. <code>javax.inject.Named#value</code>.
+     * Must be the union of the members the ClassScanClients ask for.
+     */
+    @Parameter
+    private String[] indexedAnnotationMembers;
+
+    /**
+     * Index the annotated fields and methods as well.
+     * Must be enabled if any ClassScanClient asks for the member index.
+     */
+    @Parameter(defaultValue = "false")
+    private boolean indexMembers;
+
+    @Parameter(property = "classscan.skip", defaultValue = "false")
+    private boolean skip;
+
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Skipping classscan index");
+            return;
+        }
+        if (!classesDirectory.isDirectory()) {
+            getLog().info("No classes found in " + classesDirectory + ", skipping classscan index");
+            return;
+        }
+
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.setScanClassAnnotations(scanClassAnnotations);
+        annotationDB.setScanMethodAnnotations(scanMethodAnnotations);
+        annotationDB.setScanFieldAnnotations(scanFieldAnnotations);
+        annotationDB.setScanParameterAnnotations(scanParameterAnnotations);
+        if (ignoredPackages != null) {
+            annotationDB.setIgnoredPackages(ignoredPackages);
+        }
+        if (indexedAnnotationMembers != null) {
+            // the scanner uses them sorted and without duplicates as well
+            Set<String> members = new TreeSet<String>(Arrays.asList(indexedAnnotationMembers));
+            annotationDB.setIndexedAnnotationMembers(members.toArray(new String[members.size()]));
+        }
+        annotationDB.setIndexMembers(indexMembers);
+        // never read the index we are about to replace
+        annotationDB.setUsePrebuiltIndexes(false);
+
+        File indexFile = new File(classesDirectory, AnnotationDB.PREBUILT_INDEX_RESOURCE);
+        try {
+            annotationDB.scanArchives(classesDirectory.toURI().toURL().toExternalForm());
+
+            File parent = indexFile.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new MojoExecutionException("Cannot create directory " + parent);
+            }
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+            try {
+                ScanIndexFormat.write(annotationDB, out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error creating the classscan index " + indexFile, e);
+        }
+
+        getLog().info("Created classscan index for " + annotationDB.getClassIndex().size() + " classes: " + indexFile);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.maven;
+
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.ScanIndexFormat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.Field;
+import java.util.Set;
+
+/**
+ * Runs the index goal against a classes directory and reads back the index.
+ */
+public class ClassScanIndexMojoTest {
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Indexed {
+        String value();
+    }
+
+    @Indexed("sample")
+    public static class Sample {
+        @Indexed("field")
+        private String name;
+    }
+
+    private File classesDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        classesDirectory = File.createTempFile("classscan", "classes");
+        classesDirectory.delete();
+        copyClass(Sample.class);
+        copyClass(Indexed.class);
+    }
+
+    @After
+    public void tearDown() {
+        delete(classesDirectory);
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        ClassScanIndexMojo mojo = createMojo();
+        set(mojo, "indexedAnnotationMembers", new String[]{Indexed.class.getName() + "#value"});
+        set(mojo, "indexMembers", true);
+        mojo.execute();
+
+        File indexFile = new File(classesDirectory, AnnotationDB.PREBUILT_INDEX_RESOURCE);
+        Assert.assertTrue(indexFile.isFile());
+
+        AnnotationDB loaded = new AnnotationDB();
+        loaded.setIndexedAnnotationMembers(Indexed.class.getName() + "#value");
+        loaded.setIndexMembers(true);
+        Assert.assertTrue(readIndex(indexFile, loaded));
+
+        Set<String> annotations = loaded.getClassIndex().get(Sample.class.getName());
+        Assert.assertNotNull(annotations);
+        Assert.assertTrue(annotations.contains(Indexed.class.getName()));
+        Assert.assertTrue(loaded.getAnnotationIndex().get(Indexed.class.getName()).contains(Sample.class.getName()));
+        Assert.assertEquals("sample",
+                            loaded.getAnnotationValues(Sample.class.getName(), Indexed.class.getName(), "value").get(0));
+        Assert.assertEquals(1, loaded.getAnnotatedMembers(Sample.class.getName(), Indexed.class.getName()).size());
+
+        // an index with other scan settings doesn't get used
+        Assert.assertFalse(readIndex(indexFile, new AnnotationDB()));
+    }
+
+    @Test
+    public void testSkip() throws Exception {
+        ClassScanIndexMojo mojo = createMojo();
+        set(mojo, "skip", true);
+        mojo.execute();
+        Assert.assertFalse(new File(classesDirectory, AnnotationDB.PREBUILT_INDEX_RESOURCE).exists());
+    }
+
+    @Test
+    public void testMissingClassesDirectory() throws Exception {
+        delete(classesDirectory);
+        createMojo().execute();
+        Assert.assertFalse(classesDirectory.exists());
+    }
+
+    private ClassScanIndexMojo createMojo() throws Exception {
+        ClassScanIndexMojo mojo = new ClassScanIndexMojo();
+        set(mojo, "classesDirectory", classesDirectory);
+        set(mojo, "scanClassAnnotations", true);
+        set(mojo, "scanMethodAnnotations", true);
+        set(mojo, "scanFieldAnnotations", true);
+        set(mojo, "scanParameterAnnotations", true);
+        return mojo;
+    }
+
+    private boolean readIndex(File indexFile, AnnotationDB annotationDB) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            return ScanIndexFormat.read(annotationDB, in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The parameters get injected by Maven, so we set the fields directly.
+     */
+    private void set(ClassScanIndexMojo mojo, String name, Object value) throws Exception {
+        Field field = ClassScanIndexMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+
+    private void copyClass(Class<?> clazz) throws IOException {
+        String resource = clazz.getName().replace('.', '/') + ".class";
+        File target = new File(classesDirectory, resource);
+        target.getParentFile().mkdirs();
+        InputStream in = clazz.getClassLoader().getResourceAsStream(resource);
+        OutputStream out = new FileOutputStream(target);
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -20,25 +20,32 @@ package org.apache.webbeans.classscan.scanner;
 
 
 import javassist.ClassPool;
-import javassist.bytecode.AnnotationsAttribute;
 import javassist.bytecode.ClassFile;
-import javassist.bytecode.FieldInfo;
-import javassist.bytecode.MethodInfo;
-import javassist.bytecode.ParameterAnnotationsAttribute;
 import javassist.bytecode.annotation.Annotation;
-import org.scannotation.archiveiterator.FileIterator;
-import org.scannotation.archiveiterator.Filter;
+import org.apache.commons.classscan.api.AnnotatedMember;
+import org.apache.commons.classscan.api.ScanListener;
 import org.scannotation.archiveiterator.JarIterator;
 import org.scannotation.archiveiterator.StreamIterator;
 
 import java.io.*;
+import java.lang.annotation.ElementType;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * <p>The base of this class has been taken from
@@ -62,9 +69,56 @@ import java.util.Set;
  */
 public class AnnotationDB implements Serializable
 {
+    private static final Logger logger = Logger.getLogger(AnnotationDB.class.getName());
+
+    /**
+     * Archives which contain this resource don't need to get scanned.
+     * The resource contains the pre-computed index in the {@link ScanIndexFormat}.
+     */
+    public static final String PREBUILT_INDEX_RESOURCE = "META-INF/classscan.idx";
+
+    /**
+     * Bits of the element kinds an annotation got found at, see {@link #getElementKinds(String, String)}
+     */
+    public static final int CLASS_ELEMENT = 1;
+    public static final int METHOD_ELEMENT = 2;
+    public static final int FIELD_ELEMENT = 4;
+    public static final int PARAMETER_ELEMENT = 8;
+    public static final int ALL_ELEMENTS = CLASS_ELEMENT | METHOD_ELEMENT | FIELD_ELEMENT | PARAMETER_ELEMENT;
+
+    /**
+     * Separates the annotation class and the member name in the names of
+     * {@link #setIndexedAnnotationMembers(String...) indexed annotation members}
+     */
+    public static final char MEMBER_SEPARATOR = '#';
+
+    private static final ElementType[] ELEMENT_TYPES
+            = {ElementType.TYPE, ElementType.METHOD, ElementType.FIELD, ElementType.PARAMETER};
+
+    private static final String[] NO_MEMBERS = new String[0];
+
     protected Map<String, Set<String>> annotationIndex = new HashMap<String, Set<String>>();
     protected Map<String, Set<String>> implementsIndex = new HashMap<String, Set<String>>();
     protected Map<String, Set<String>> classIndex = new HashMap<String, Set<String>>();
+    protected Map<String, String> superClassIndex = new HashMap<String, String>();
+
+    /**
+     * class name to annotation to the element kinds the annotation got found at
+     */
+    protected Map<String, Map<String, Integer>> elementKindIndex = new HashMap<String, Map<String, Integer>>();
+
+    /**
+     * class name to annotation member to the values of the member, only for the indexed annotation members
+     */
+    protected Map<String, Map<String, List<String>>> annotationValueIndex
+            = new HashMap<String, Map<String, List<String>>>();
+
+    /**
+     * class name to annotation to the fields and methods carrying the annotation,
+     * only filled if {@link #setIndexMembers(boolean) members get indexed}
+     */
+    protected Map<String, Map<String, Set<AnnotatedMember>>> memberIndex
+            = new HashMap<String, Map<String, Set<AnnotatedMember>>>();
 
     protected boolean scanClassAnnotations = true;
     protected boolean scanMethodAnnotations = true;
@@ -72,6 +126,85 @@ public class AnnotationDB implements Serializable
     protected boolean scanFieldAnnotations = true;
     protected String[] ignoredPackages = {"javax", "java", "sun", "com.sun", "javassist"};
 
+    /**
+     * the annotation members whose values of class annotations get indexed,
+     * see {@link #setIndexedAnnotationMembers(String...)}
+     */
+    protected String[] indexedAnnotationMembers = NO_MEMBERS;
+
+    /**
+     * the compiled form of the indexedAnnotationMembers
+     */
+    private transient volatile IndexedMembers indexedMembers;
+
+    /**
+     * if set, the annotated fields and methods get indexed, see {@link #setIndexMembers(boolean)}
+     */
+    protected boolean indexMembers = false;
+
+    /**
+     * the compiled form of the ignoredPackages
+     */
+    private transient volatile IgnoredPackages ignoredPackagesFilter;
+
+    /**
+     * if set, {@link #scanArchives(String...)} will scan the archives in parallel
+     */
+    protected transient ExecutorService executorService;
+    protected int parallelBatchSize = ParallelArchiveScanner.DEFAULT_BATCH_SIZE;
+
+    /**
+     * if set, the scan results of unchanged jars get loaded from this cache
+     */
+    protected transient ScanIndexCache indexCache;
+
+    protected boolean usePrebuiltIndexes = true;
+
+    /**
+     * the bytecode library used for parsing the class files
+     */
+    protected ClassFileReaderEngine readerEngine = ClassFileReaderEngine.CONSTANT_POOL;
+
+    /**
+     * if set, gets notified about each annotation found while scanning
+     */
+    protected transient ScanListener scanListener;
+
+    /**
+     * if set, gets notified about the costs of each archive
+     */
+    protected transient ScanMetricsListener metricsListener;
+
+    /**
+     * if set, exploded directories get rescanned incrementally, see {@link #setIncrementalDirectoryScanning(boolean)}
+     */
+    protected boolean incrementalDirectoryScanning = false;
+
+    /**
+     * the state of the class files of each directory at its last scan
+     */
+    private transient Map<String, DirectorySnapshot> directorySnapshots;
+
+    /**
+     * only classes accepted by this filter get scanned
+     */
+    protected PackageFilter packageFilter = PackageFilter.ACCEPT_ALL;
+
+    /**
+     * the compact form of the indexes, set once this AnnotationDB got {@link #compact() compacted}
+     */
+    private ReadOnlyIndex compactIndex;
+
+    /**
+     * where {@link #compact()} stores the indexes
+     */
+    protected IndexStorage indexStorage = IndexStorage.HEAP;
+    protected transient File indexStorageDirectory;
+
+    private transient ClassFileReader classReader;
+    private transient IndexingVisitor indexingVisitor;
+    private transient byte[] readBuffer;
+
     public void scanClasses(Set<Class<?>> classesToScan) {
         try {
             for (Class<?> cls : classesToScan) {
@@ -83,6 +216,37 @@ public class AnnotationDB implements Serializable
         }
     }
 
+    /**
+     * Scan the given classes. The class files get looked up via the given ClassLoader,
+     * so the classes don't need to be loaded.
+     *
+     * @param classNames fully qualified names of the classes to scan
+     * @param loader the ClassLoader to read the class files from
+     */
+    public void scanClasses(Collection<String> classNames, ClassLoader loader)
+    {
+        try
+        {
+            for (String className : classNames)
+            {
+                URL url = loader.getResource(className.replace('.', '/') + ".class");
+                if (url == null)
+                {
+                    url = ClassPool.getDefault().find(className);
+                }
+                if (url == null)
+                {
+                    throw new IOException("Cannot find the class file of " + className);
+                }
+                scanClass(url.openStream());
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
     public class CrossReferenceException extends Exception
     {
         private Set<String> unresolved;
@@ -125,6 +289,7 @@ public class AnnotationDB implements Serializable
         {
             tmp[i++] = ign;
         }
+        ignoredPackages = tmp;
     }
 
     /**
@@ -138,65 +303,56 @@ public class AnnotationDB implements Serializable
      * <p/>
      * WARNING: If the annotation class has not already been scaned, this method will load all annotation classes indexed
      * as a resource so they must be in your classpath
+     *
+     * @throws CrossReferenceException after the resolution if some annotations couldn't be resolved
+     * @see #resolveMetaAnnotations(ClassLoader)
      */
     public void crossReferenceMetaAnnotations() throws CrossReferenceException
     {
-        Set<String> unresolved = new HashSet<String>();
-
-        Set<String> index = new HashSet<String>();
-        index.addAll(annotationIndex.keySet());
-
-        for (String annotation : index)
+        MetaAnnotationGraph graph = resolveMetaAnnotations(Thread.currentThread().getContextClassLoader());
+        if (!graph.getUnresolved().isEmpty())
         {
-            if (ignoreScan(annotation))
-            {
-                continue;
-            }
-            if (classIndex.containsKey(annotation))
-            {
-                for (String xref : classIndex.get(annotation))
-                {
-                    annotationIndex.get(xref).addAll(annotationIndex.get(annotation));
-                }
-                continue;
-            }
-            InputStream bits = Thread.currentThread().getContextClassLoader().getResourceAsStream(annotation.replace('.', '/') + ".class");
-            if (bits == null)
-            {
-                unresolved.add(annotation);
-                continue;
-            }
-            try
-            {
-                scanClass(bits);
-            }
-            catch (IOException e)
-            {
-                unresolved.add(annotation);
-            }
-            for (String xref : classIndex.get(annotation))
-            {
-                annotationIndex.get(xref).addAll(annotationIndex.get(annotation));
-            }
-
+            throw new CrossReferenceException(new HashSet<String>(graph.getUnresolved()));
         }
-        if (unresolved.size() > 0)
+    }
+
+    /**
+     * Cross reference the annotations in the annotation index with all their direct and transitive
+     * meta-annotations. The declarations of annotations which didn't get scanned yet get read from the
+     * given ClassLoader, each of them only once. Annotations in the ignored packages don't get resolved.
+     * This must be done before the AnnotationDB gets {@link #compact() compacted}.
+     *
+     * @param loader the ClassLoader to read the annotation declarations from
+     * @return the meta-annotation graph with the resolved and unresolved annotations
+     */
+    public MetaAnnotationGraph resolveMetaAnnotations(ClassLoader loader)
+    {
+        if (isCompact())
         {
-            throw new CrossReferenceException(unresolved);
+            throw new IllegalStateException("the AnnotationDB already got compacted");
         }
+        return MetaAnnotationGraph.resolve(this, loader);
     }
 
 
-    private boolean ignoreScan(String intf)
+    boolean ignoreScan(CharSequence className)
+    {
+        return !getIgnoredPackagesFilter().accepts(className);
+    }
+
+    /**
+     * @return a filter which rejects all classes in the ignored packages
+     */
+    PackageFilter getIgnoredPackagesFilter()
     {
-        for (String ignored : ignoredPackages)
+        IgnoredPackages compiled = ignoredPackagesFilter;
+        if (compiled == null || !compiled.packages.equals(Arrays.asList(ignoredPackages)))
         {
-            if (intf.startsWith(ignored + "."))
-            {
-                return true;
-            }
+            // subclasses might also assign or change the protected field directly
+            compiled = new IgnoredPackages(ignoredPackages);
+            ignoredPackagesFilter = compiled;
         }
-        return false;
+        return compiled.filter;
     }
 
     /**
@@ -219,270 +375,1272 @@ public class AnnotationDB implements Serializable
 
 
     /**
-     * Whether or not you want AnnotationDB to scan for class level annotations
-     *
-     * @param scanClassAnnotations
+     * returns a map keyed by the scanned classes. The value set contains the interfaces
+     * the class directly implements.
      */
-    public void setScanClassAnnotations(boolean scanClassAnnotations)
+    public Map<String, Set<String>> getImplementsIndex()
     {
-        this.scanClassAnnotations = scanClassAnnotations;
+        return implementsIndex;
     }
 
     /**
-     * Wheter or not you want AnnotationDB to scan for method level annotations
-     *
-     * @param scanMethodAnnotations
+     * returns a map keyed by the scanned classes. The value is the name of the direct super class.
+     * Classes which directly extend java.lang.Object and interfaces have no entry.
      */
-    public void setScanMethodAnnotations(boolean scanMethodAnnotations)
+    public Map<String, String> getSuperClassIndex()
     {
-        this.scanMethodAnnotations = scanMethodAnnotations;
+        return superClassIndex;
     }
 
     /**
-     * Whether or not you want AnnotationDB to scan for parameter level annotations
-     *
-     * @param scanParameterAnnotations
+     * @param className the name of a scanned class
+     * @param annotation the name of an annotation the class uses
+     * @return the bits of the element kinds the annotation got found at within the class,
+     *         e.g. {@link #CLASS_ELEMENT} | {@link #FIELD_ELEMENT}. {@link #ALL_ELEMENTS}
+     *         if unknown, e.g. for classes added by the meta-annotation resolution.
      */
-    public void setScanParameterAnnotations(boolean scanParameterAnnotations)
+    public int getElementKinds(String className, String annotation)
     {
-        this.scanParameterAnnotations = scanParameterAnnotations;
+        if (compactIndex != null)
+        {
+            return compactIndex.getElementKinds(className, annotation);
+        }
+        Map<String, Integer> annotations = elementKindIndex.get(className);
+        Integer elementKinds = annotations != null ? annotations.get(annotation) : null;
+        return elementKinds != null ? elementKinds : ALL_ELEMENTS;
     }
 
     /**
-     * Whether or not you want AnnotationDB to scan for parameter level annotations
+     * Get the values of an annotation member of a class annotation without loading the class.
+     * Only the values of the {@link #setIndexedAnnotationMembers(String...) indexed annotation members}
+     * are available. Default values of annotation members are not contained in the class file
+     * of the annotated class, members which got not set explicitly have no values.
      *
-     * @param scanFieldAnnotations
+     * @param className the name of a scanned class
+     * @param annotationType the name of an annotation on the class declaration
+     * @param memberName the name of the annotation member, e.g. <code>value</code>
+     * @return the read-only values, arrays have one entry per element;
+     *         <code>null</code> if the class has no value for this member
      */
-    public void setScanFieldAnnotations(boolean scanFieldAnnotations)
+    public List<String> getAnnotationValues(String className, String annotationType, String memberName)
     {
-        this.scanFieldAnnotations = scanFieldAnnotations;
+        Map<String, List<String>> values = getAnnotationValues(className);
+        return values != null ? values.get(annotationMember(annotationType, memberName)) : null;
     }
 
-
     /**
-     * Scan a url that represents an "archive"  this is a classpath directory or jar file
-     *
-     * @param urls variable list of URLs to scan as archives
-     * @throws IOException
+     * @return the read-only values of all indexed annotation members of the class
+     *         or <code>null</code> if the class has none
      */
-    public void scanArchives(String... urls) throws IOException
+    Map<String, List<String>> getAnnotationValues(String className)
     {
-        for (String urlPath : urls)
+        if (compactIndex != null)
         {
-            scanUrlPath(urlPath);
+            return compactIndex.getAnnotationValues(className);
         }
-
+        Map<String, List<String>> values = annotationValueIndex.get(className);
+        return values != null ? Collections.unmodifiableMap(values) : null;
     }
 
-    /**
-     * Scan all classes from the given url
-     * @param urlPath
-     * @throws IOException
-     */
-    private void scanUrlPath(String urlPath) throws IOException
+    void addAnnotationValue(String className, String annotationMember, String value)
     {
-        Filter filter = new Filter()
-        {
-            public boolean accepts(String filename)
-            {
-                if (filename.endsWith(".class"))
-                {
-                    if (filename.startsWith("/"))
-                    {
-                        filename = filename.substring(1);
-                    }
-
-                    if (!ignoreScan(filename.replace('/', '.')))
-                    {
-                        return true;
-                    }
-                }
-                return false;
-            }
-        };
-
-        StreamIterator it;
-        String jarUrlPath = isJarUrl(urlPath);
-        if (jarUrlPath != null)
+        Map<String, List<String>> members = annotationValueIndex.get(className);
+        if (members == null)
         {
-            it = new JarIterator((new URL(jarUrlPath)).openStream(), filter);
+            members = new HashMap<String, List<String>>();
+            annotationValueIndex.put(className, members);
         }
-        else
-        {
-            //X TODO check %20 for spaces ...
-            File f = new File( (new URL(urlPath)).getFile() );
-            it = new FileIterator(f, filter);
-        }
-
-        InputStream stream;
-        while ((stream = it.next()) != null)
+        List<String> values = members.get(annotationMember);
+        if (values == null)
         {
-            scanClass(stream);
+            values = new ArrayList<String>(1);
+            members.put(annotationMember, values);
         }
+        values.add(value);
     }
 
     /**
-     * check if the given url path is a Jar
-     * @param urlPath
-     * @return
+     * @return the name of the annotation member as used in {@link #setIndexedAnnotationMembers(String...)}
      */
-    private String isJarUrl(String urlPath)
+    public static String annotationMember(String annotationType, String memberName)
     {
-        if (urlPath.endsWith("!/") && urlPath.length() > 6)
-        {
-            urlPath = urlPath.substring(4, urlPath.length() - 2);
-            return urlPath;
-        }
+        return annotationType + MEMBER_SEPARATOR + memberName;
+    }
 
-        return null;
+    public String[] getIndexedAnnotationMembers()
+    {
+        return indexedAnnotationMembers;
     }
+
     /**
-     * Parse a .class file for annotations
+     * <p>Index the values of the given annotation members, so clients can read
+     * them via {@link #getAnnotationValues(String, String, String)} without loading
+     * the annotated classes, e.g. the path of a JAX-RS resource.</p>
      *
-     * @param bits input stream pointing to .class file bits
-     * @throws IOException
+     * <p>Only annotations on the class declaration get their values indexed.
+     * Annotation members of other annotations don't get decoded at all.</p>
+     *
+     * @param annotationMembers the annotation class and the member name, separated by
+     *        {@link #MEMBER_SEPARATOR}, e.g. <code>javax.inject.Named#value</code>
      */
-    public void scanClass(InputStream bits) throws IOException
+    public void setIndexedAnnotationMembers(String... annotationMembers)
     {
-        DataInputStream dstream = new DataInputStream(new BufferedInputStream(bits));
-        ClassFile cf = null;
-        try
+        for (String annotationMember : annotationMembers)
         {
-            cf = new ClassFile(dstream);
-            classIndex.put(cf.getName(), new HashSet<String>());
-
-            if (scanClassAnnotations)
-            {
-                scanClass(cf);
-            }
-
-            if (scanMethodAnnotations || scanParameterAnnotations)
-            {
-                scanMethods(cf);
-            }
-
-            if (scanFieldAnnotations)
+            int separator = annotationMember.indexOf(MEMBER_SEPARATOR);
+            if (separator <= 0 || separator == annotationMember.length() - 1)
             {
-                scanFields(cf);
+                throw new IllegalArgumentException("Invalid annotation member " + annotationMember
+                                                   + ", expected <annotation class>" + MEMBER_SEPARATOR + "<member>");
             }
+        }
+        this.indexedAnnotationMembers = annotationMembers;
+    }
 
-            // create an index of interfaces the class implements
-            if (cf.getInterfaces() != null)
-            {
-                Set<String> intfs = new HashSet<String>();
-                for (String intf : cf.getInterfaces())
-                {
-                    intfs.add(intf);
-                }
+    /**
+     * Get the fields and methods of a class which carry the given annotation without loading the class.
+     * Only available if {@link #setIndexMembers(boolean) members get indexed}.
+     *
+     * @param className the name of a scanned class
+     * @param annotation the name of an annotation used on fields, methods or method parameters of the class
+     * @return the read-only members or <code>null</code> if no member of the class carries the annotation
+     */
+    public Set<AnnotatedMember> getAnnotatedMembers(String className, String annotation)
+    {
+        Map<String, Set<AnnotatedMember>> members = getAnnotatedMembers(className);
+        return members != null ? members.get(annotation) : null;
+    }
 
-                implementsIndex.put(cf.getName(), intfs);
-            }
+    /**
+     * @return the read-only annotated members of the class per annotation
+     *         or <code>null</code> if the class has none
+     */
+    Map<String, Set<AnnotatedMember>> getAnnotatedMembers(String className)
+    {
+        if (compactIndex != null)
+        {
+            return compactIndex.getAnnotatedMembers(className);
+        }
+        Map<String, Set<AnnotatedMember>> members = memberIndex.get(className);
+        if (members == null)
+        {
+            return null;
+        }
+        Map<String, Set<AnnotatedMember>> readOnly = new HashMap<String, Set<AnnotatedMember>>(members.size());
+        for (Map.Entry<String, Set<AnnotatedMember>> entry : members.entrySet())
+        {
+            readOnly.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+        }
+        return readOnly;
+    }
 
+    void addAnnotatedMember(String className, String annotation, AnnotatedMember member)
+    {
+        Map<String, Set<AnnotatedMember>> annotations = memberIndex.get(className);
+        if (annotations == null)
+        {
+            annotations = new HashMap<String, Set<AnnotatedMember>>();
+            memberIndex.put(className, annotations);
         }
-        finally
+        Set<AnnotatedMember> members = annotations.get(annotation);
+        if (members == null)
         {
-            dstream.close();
-            bits.close();
+            members = new HashSet<AnnotatedMember>();
+            annotations.put(annotation, members);
         }
+        members.add(member);
     }
 
-    protected void scanClass(ClassFile cf)
+    public boolean isIndexMembers()
+    {
+        return indexMembers;
+    }
+
+    /**
+     * <p>Index which fields and methods carry the annotations, so they can get read via
+     * {@link #getAnnotatedMembers(String, String)} without loading and reflecting
+     * over the whole class.</p>
+     *
+     * <p>Each member gets stored with its name, its descriptor and the element kind.
+     * Member names and descriptors get interned, so a descriptor like
+     * <code>()V</code> only exists once per index.</p>
+     *
+     * @param indexMembers defaults to <code>false</code>
+     */
+    public void setIndexMembers(boolean indexMembers)
     {
-        String className = cf.getName();
-        AnnotationsAttribute visible = (AnnotationsAttribute) cf.getAttribute(AnnotationsAttribute.visibleTag);
-        AnnotationsAttribute invisible = (AnnotationsAttribute) cf.getAttribute(AnnotationsAttribute.invisibleTag);
+        this.indexMembers = indexMembers;
+    }
 
-        if (visible != null)
+    /**
+     * @return the compiled indexedAnnotationMembers
+     */
+    private IndexedMembers getIndexedMembers()
+    {
+        IndexedMembers compiled = indexedMembers;
+        if (compiled == null || !compiled.members.equals(Arrays.asList(indexedAnnotationMembers)))
         {
-            populate(visible.getAnnotations(), className);
+            compiled = new IndexedMembers(indexedAnnotationMembers);
+            indexedMembers = compiled;
         }
+        return compiled;
+    }
+
+    /**
+     * @return the element kinds this AnnotationDB scans for
+     */
+    public int getScannedElementKinds()
+    {
+        return (scanClassAnnotations ? CLASS_ELEMENT : 0)
+               | (scanMethodAnnotations ? METHOD_ELEMENT : 0)
+               | (scanFieldAnnotations ? FIELD_ELEMENT : 0)
+               | (scanParameterAnnotations ? PARAMETER_ELEMENT : 0);
+    }
 
-        if (invisible != null)
+    /**
+     * @return the bit for the given element type in the {@link #getElementKinds(String, String) element kinds}
+     */
+    public static int elementKind(ElementType elementType)
+    {
+        switch (elementType)
         {
-            populate(invisible.getAnnotations(), className);
+            case TYPE:
+                return CLASS_ELEMENT;
+            case METHOD:
+                return METHOD_ELEMENT;
+            case FIELD:
+                return FIELD_ELEMENT;
+            case PARAMETER:
+                return PARAMETER_ELEMENT;
+            default:
+                return ALL_ELEMENTS;
         }
     }
 
     /**
-     * Scanns both the method and its parameters for annotations.
+     * <p>Convert the indexes into a compact read-only form. Every class and annotation
+     * name gets stored only once and the index entries get stored as sorted ids
+     * instead of HashSets. This needs only a fraction of the heap.</p>
+     *
+     * <p>Afterwards the indexes are read-only, this AnnotationDB must not scan
+     * any further classes.</p>
      *
-     * @param cf
+     * <p>The {@link #setIndexStorage(IndexStorage) index storage} decides whether
+     * the compact form stays on the heap or gets moved out of it.</p>
      */
-    protected void scanMethods(ClassFile cf)
+    public void compact()
     {
-        List methods = cf.getMethods();
-        if (methods == null)
+        if (compactIndex != null)
         {
             return;
         }
-
-        for (Object obj : methods)
+        ReadOnlyIndex compact;
+        try
         {
-            MethodInfo method = (MethodInfo) obj;
-            if (scanMethodAnnotations)
-            {
-                AnnotationsAttribute visible = (AnnotationsAttribute) method.getAttribute(AnnotationsAttribute.visibleTag);
-                AnnotationsAttribute invisible = (AnnotationsAttribute) method.getAttribute(AnnotationsAttribute.invisibleTag);
+            compact = indexStorage.createIndex(classIndex, annotationIndex, implementsIndex, superClassIndex,
+                                               elementKindIndex, annotationValueIndex, memberIndex,
+                                               indexStorageDirectory);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Error creating the " + indexStorage + " index", e);
+        }
+        classIndex = compact.getClassIndex();
+        annotationIndex = compact.getAnnotationIndex();
+        implementsIndex = compact.getImplementsIndex();
+        superClassIndex = compact.getSuperClassIndex();
+        elementKindIndex = Collections.emptyMap();
+        annotationValueIndex = Collections.emptyMap();
+        memberIndex = Collections.emptyMap();
+        compactIndex = compact;
 
-                if (visible != null)
-                {
-                    populate(visible.getAnnotations(), cf.getName());
-                }
-                if (invisible != null)
-                {
-                    populate(invisible.getAnnotations(), cf.getName());
-                }
-            }
-            if (scanParameterAnnotations)
-            {
-                ParameterAnnotationsAttribute paramsVisible = (ParameterAnnotationsAttribute) method.getAttribute(ParameterAnnotationsAttribute.visibleTag);
-                ParameterAnnotationsAttribute paramsInvisible = (ParameterAnnotationsAttribute) method.getAttribute(ParameterAnnotationsAttribute.invisibleTag);
+        // no further classes get scanned, so the buffers and symbol tables of the parser can go
+        classReader = null;
+        indexingVisitor = null;
+        readBuffer = null;
+    }
 
-                if (paramsVisible != null && paramsVisible.getAnnotations() != null)
+    /**
+     * Free the memory and files the {@link #compact() compacted} indexes hold outside of the heap,
+     * instead of waiting for the garbage collection. Does nothing for the {@link IndexStorage#HEAP}.
+     * Waits for the reads of the off-heap indexes in progress, all later accesses of the indexes
+     * throw an IllegalStateException, also through a {@link LayeredAnnotationDB}.
+     */
+    public void release()
+    {
+        if (compactIndex != null)
+        {
+            compactIndex.release();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the indexes got {@link #compact() compacted}
+     */
+    public boolean isCompact()
+    {
+        return compactIndex != null;
+    }
+
+    /**
+     * @return the compact form of the indexes or <code>null</code> if not compacted
+     */
+    ReadOnlyIndex getCompactIndex()
+    {
+        return compactIndex;
+    }
+
+    public IndexStorage getIndexStorage()
+    {
+        return indexStorage;
+    }
+
+    /**
+     * <p>Choose where the indexes get stored by {@link #compact()}. For very large
+     * classpaths {@link IndexStorage#DIRECT} or {@link IndexStorage#MAPPED} keep the
+     * symbol table and the postings out of the old generation, at the price of slower
+     * lookups which decode the names on each access.</p>
+     *
+     * @param indexStorage defaults to {@link IndexStorage#HEAP}
+     */
+    public void setIndexStorage(IndexStorage indexStorage)
+    {
+        this.indexStorage = indexStorage;
+    }
+
+    public File getIndexStorageDirectory()
+    {
+        return indexStorageDirectory;
+    }
+
+    /**
+     * @param indexStorageDirectory where {@link IndexStorage#MAPPED} creates its files,
+     *        defaults to <code>java.io.tmpdir</code>
+     */
+    public void setIndexStorageDirectory(File indexStorageDirectory)
+    {
+        this.indexStorageDirectory = indexStorageDirectory;
+    }
+
+    /**
+     * Whether or not you want AnnotationDB to scan for class level annotations
+     *
+     * @param scanClassAnnotations
+     */
+    public void setScanClassAnnotations(boolean scanClassAnnotations)
+    {
+        this.scanClassAnnotations = scanClassAnnotations;
+    }
+
+    /**
+     * Wheter or not you want AnnotationDB to scan for method level annotations
+     *
+     * @param scanMethodAnnotations
+     */
+    public void setScanMethodAnnotations(boolean scanMethodAnnotations)
+    {
+        this.scanMethodAnnotations = scanMethodAnnotations;
+    }
+
+    /**
+     * Whether or not you want AnnotationDB to scan for parameter level annotations
+     *
+     * @param scanParameterAnnotations
+     */
+    public void setScanParameterAnnotations(boolean scanParameterAnnotations)
+    {
+        this.scanParameterAnnotations = scanParameterAnnotations;
+    }
+
+    /**
+     * Whether or not you want AnnotationDB to scan for parameter level annotations
+     *
+     * @param scanFieldAnnotations
+     */
+    public void setScanFieldAnnotations(boolean scanFieldAnnotations)
+    {
+        this.scanFieldAnnotations = scanFieldAnnotations;
+    }
+
+
+    public ScanListener getScanListener()
+    {
+        return scanListener;
+    }
+
+    /**
+     * The listener gets notified about each annotation while the classes get parsed.
+     * For archives whose index got loaded from a cache or a prebuilt index, the
+     * loaded annotations get {@link #replay(ScanListener) replayed}.
+     * If the archives get scanned in parallel, the listener gets called concurrently.
+     *
+     * @param scanListener
+     */
+    public void setScanListener(ScanListener scanListener)
+    {
+        this.scanListener = scanListener;
+    }
+
+    /**
+     * Notify the given listener about all annotations in the class index. Annotations
+     * with unknown element kinds get reported once for each scanned element kind.
+     *
+     * @param listener
+     */
+    public void replay(ScanListener listener)
+    {
+        int scannedKinds = getScannedElementKinds();
+        for (Map.Entry<String, Set<String>> entry : getClassIndex().entrySet())
+        {
+            for (String annotation : entry.getValue())
+            {
+                int elementKinds = getElementKinds(entry.getKey(), annotation) & scannedKinds;
+                for (ElementType elementType : ELEMENT_TYPES)
+                {
+                    if ((elementKinds & elementKind(elementType)) != 0)
+                    {
+                        listener.annotationFound(entry.getKey(), annotation, elementType);
+                    }
+                }
+            }
+        }
+    }
+
+    public ScanMetricsListener getMetricsListener()
+    {
+        return metricsListener;
+    }
+
+    /**
+     * The listener gets notified about the time, bytes and classes of each archive passed to
+     * {@link #scanArchives(String...)} or {@link #scanArchivesSeparately(String...)}.
+     *
+     * @param metricsListener
+     */
+    public void setMetricsListener(ScanMetricsListener metricsListener)
+    {
+        this.metricsListener = metricsListener;
+    }
+
+    public ExecutorService getExecutorService()
+    {
+        return executorService;
+    }
+
+    /**
+     * Set the ExecutorService used to scan archives in parallel.
+     * If <code>null</code> (the default) all archives get scanned
+     * sequentially on the calling thread.
+     * The ExecutorService will not get shut down by the AnnotationDB.
+     *
+     * @param executorService
+     */
+    public void setExecutorService(ExecutorService executorService)
+    {
+        this.executorService = executorService;
+    }
+
+    /**
+     * In parallel mode, the classes of big archives get split into batches
+     * of this size which get scanned by different workers.
+     *
+     * @param parallelBatchSize number of classes per batch, must be &gt; 0
+     */
+    public void setParallelBatchSize(int parallelBatchSize)
+    {
+        if (parallelBatchSize <= 0)
+        {
+            throw new IllegalArgumentException("parallelBatchSize must be > 0 but is " + parallelBatchSize);
+        }
+        this.parallelBatchSize = parallelBatchSize;
+    }
+
+    public ScanIndexCache getIndexCache()
+    {
+        return indexCache;
+    }
+
+    /**
+     * Set a persistent cache for the scan results of single archives.
+     * Archives which didn't change since the last scan will get loaded
+     * from the cache instead of parsing all their classes.
+     *
+     * @param indexCache the cache or <code>null</code> to always scan all archives
+     */
+    public void setIndexCache(ScanIndexCache indexCache)
+    {
+        this.indexCache = indexCache;
+    }
+
+    public boolean isUsePrebuiltIndexes()
+    {
+        return usePrebuiltIndexes;
+    }
+
+    /**
+     * Whether archives containing a {@link #PREBUILT_INDEX_RESOURCE} should
+     * get loaded from this index instead of scanning their classes.
+     * The pre-built index only gets used if it has been created with
+     * the same scan settings. The index of a directory, e.g. <code>target/classes</code>,
+     * additionally must list exactly its class files and must not be older than any of them,
+     * otherwise a class recompiled by an IDE would keep its stale index entries.
+     *
+     * @param usePrebuiltIndexes defaults to <code>true</code>
+     */
+    public void setUsePrebuiltIndexes(boolean usePrebuiltIndexes)
+    {
+        this.usePrebuiltIndexes = usePrebuiltIndexes;
+    }
+
+    public ClassFileReaderEngine getReaderEngine()
+    {
+        return readerEngine;
+    }
+
+    /**
+     * Choose the bytecode library used for parsing the class files.
+     * All engines produce the same indexes.
+     *
+     * @param readerEngine defaults to {@link ClassFileReaderEngine#CONSTANT_POOL}
+     * @throws IllegalStateException if the library of the engine is not available
+     */
+    public void setReaderEngine(ClassFileReaderEngine readerEngine)
+    {
+        if (!readerEngine.isAvailable())
+        {
+            throw new IllegalStateException("ClassFileReaderEngine " + readerEngine + " is not available");
+        }
+        this.readerEngine = readerEngine;
+        classReader = null;
+    }
+
+    public boolean isIncrementalDirectoryScanning()
+    {
+        return incrementalDirectoryScanning;
+    }
+
+    /**
+     * <p>In incremental mode the state of the class files of each exploded directory
+     * passed to {@link #scanArchives(String...)} gets remembered. Scanning the same
+     * directory again, or calling {@link #rescanDirectories()}, only parses the class
+     * files which got added or changed and removes the entries of deleted classes.
+     * This is meant for development and hot redeployment.</p>
+     *
+     * <p>Directories get always scanned sequentially and without the index cache.</p>
+     *
+     * @param incrementalDirectoryScanning defaults to <code>false</code>
+     */
+    public void setIncrementalDirectoryScanning(boolean incrementalDirectoryScanning)
+    {
+        this.incrementalDirectoryScanning = incrementalDirectoryScanning;
+    }
+
+    public PackageFilter getPackageFilter()
+    {
+        return packageFilter;
+    }
+
+    /**
+     * Restrict the scanning of archives to the packages accepted by the given filter.
+     * Directories and jar entries outside of those packages don't get read at all.
+     * Classes passed to {@link #scanClasses(Set)} always get scanned.
+     *
+     * @param packageFilter the filter, <code>null</code> to scan all packages
+     */
+    public void setPackageFilter(PackageFilter packageFilter)
+    {
+        this.packageFilter = packageFilter != null ? packageFilter : PackageFilter.ACCEPT_ALL;
+    }
+
+    /**
+     * Scan a url that represents an "archive"  this is a classpath directory or jar file
+     *
+     * @param urls variable list of URLs to scan as archives
+     * @throws IOException
+     */
+    public void scanArchives(String... urls) throws IOException
+    {
+        if (incrementalDirectoryScanning)
+        {
+            urls = scanDirectoriesIncrementally(urls);
+        }
+
+        if (executorService != null)
+        {
+            new ParallelArchiveScanner(this, executorService, parallelBatchSize).scan(urls);
+            return;
+        }
+
+        for (String urlPath : urls)
+        {
+            AnnotationDB index = loadArchiveIndex(urlPath);
+            if (index != null)
+            {
+                merge(index);
+            }
+            else if (indexCache != null && indexCache.isCacheable(urlPath))
+            {
+                AnnotationDB partial = createPartialIndex();
+                partial.scanUrlPath(urlPath);
+                indexCache.store(urlPath, partial);
+                merge(partial);
+            }
+            else
+            {
+                scanUrlPath(urlPath);
+            }
+        }
+
+    }
+
+    /**
+     * Scan the directories among the given archives incrementally.
+     *
+     * @return the remaining urls which are no directories
+     */
+    private String[] scanDirectoriesIncrementally(String[] urls) throws IOException
+    {
+        List<String> remaining = new ArrayList<String>();
+        for (String urlPath : urls)
+        {
+            if (isJarUrl(urlPath) == null)
+            {
+                scanDirectory(urlPath);
+            }
+            else
+            {
+                remaining.add(urlPath);
+            }
+        }
+        return remaining.toArray(new String[remaining.size()]);
+    }
+
+    /**
+     * Rescan all directories which got scanned so far with
+     * {@link #setIncrementalDirectoryScanning(boolean) incremental directory scanning}.
+     * Only class files which got added, changed or removed since the last scan
+     * get processed.
+     *
+     * @return the number of class files which got parsed
+     * @throws IOException
+     */
+    public int rescanDirectories() throws IOException
+    {
+        if (directorySnapshots == null)
+        {
+            return 0;
+        }
+        int parsed = 0;
+        for (String urlPath : new ArrayList<String>(directorySnapshots.keySet()))
+        {
+            parsed += scanDirectory(urlPath);
+        }
+        return parsed;
+    }
+
+    /**
+     * Compare the class files of the directory with the snapshot of its last scan,
+     * drop the index entries of the removed and changed classes and parse the
+     * added and changed ones. A class file only gets recorded in the snapshot
+     * after it got indexed, if parsing fails it gets parsed again with the next scan.
+     *
+     * @return the number of class files which got parsed
+     */
+    private int scanDirectory(String urlPath) throws IOException
+    {
+        if (isCompact())
+        {
+            throw new IllegalStateException("the AnnotationDB already got compacted");
+        }
+        if (directorySnapshots == null)
+        {
+            directorySnapshots = new HashMap<String, DirectorySnapshot>();
+        }
+
+        long start = System.nanoTime();
+        long bytes = 0;
+        File root = toFile(urlPath);
+        ArchiveFilter filter = new ArchiveFilter(this);
+        // taken before reading the files, so files changing meanwhile get parsed again next time
+        DirectorySnapshot snapshot = DirectorySnapshot.take(root, filter);
+        DirectorySnapshot previous = directorySnapshots.get(urlPath);
+
+        for (String path : snapshot.getRemovedSince(previous))
+        {
+            removeClass(DirectorySnapshot.toClassName(path));
+        }
+
+        List<String> modified = snapshot.getModifiedSince(previous);
+        int indexed = 0;
+        try
+        {
+            for (String path : modified)
+            {
+                if (previous != null)
+                {
+                    removeClass(DirectorySnapshot.toClassName(path));
+                }
+                File classFile = new File(root, path);
+                if (classFile.isFile())
+                {
+                    bytes += classFile.length();
+                    scanClass(new FileInputStream(classFile));
+                }
+                indexed++;
+            }
+        }
+        finally
+        {
+            if (indexed < modified.size())
+            {
+                // drop what the failed class file left in the indexes, it and the
+                // class files after it still differ from the snapshot with the next scan
+                removeClass(DirectorySnapshot.toClassName(modified.get(indexed)));
+                for (String path : modified.subList(indexed, modified.size()))
+                {
+                    snapshot.revert(path, previous);
+                }
+            }
+            directorySnapshots.put(urlPath, snapshot);
+        }
+
+        if (metricsListener != null)
+        {
+            metricsListener.archiveScanned(new ArchiveMetrics(urlPath, ArchiveMetrics.Source.SCANNED,
+                    System.nanoTime() - start, bytes, modified.size(), filter.getSkippedClasses()));
+        }
+        return modified.size();
+    }
+
+    /**
+     * Remove the given class from all indexes, e.g. because its class file got deleted.
+     * Classes which only got added to the indexes by {@link #resolveMetaAnnotations(ClassLoader)}
+     * stay in the annotation index of their meta-annotations until those get resolved again.
+     *
+     * @param className
+     */
+    public void removeClass(String className)
+    {
+        if (isCompact())
+        {
+            throw new IllegalStateException("the AnnotationDB already got compacted");
+        }
+
+        Set<String> annotations = classIndex.remove(className);
+        if (annotations != null)
+        {
+            for (String annotation : annotations)
+            {
+                Set<String> classes = annotationIndex.get(annotation);
+                if (classes != null)
+                {
+                    classes.remove(className);
+                    if (classes.isEmpty())
+                    {
+                        annotationIndex.remove(annotation);
+                    }
+                }
+            }
+        }
+        implementsIndex.remove(className);
+        superClassIndex.remove(className);
+        elementKindIndex.remove(className);
+        annotationValueIndex.remove(className);
+        memberIndex.remove(className);
+    }
+
+    /**
+     * Scan each of the given archives into its own AnnotationDB with the settings
+     * of this instance. This AnnotationDB itself doesn't get changed.
+     * The partial indexes can get shared between several AnnotationDBs,
+     * e.g. via a {@link LayeredAnnotationDB}.
+     *
+     * @param urls variable list of URLs to scan as archives
+     * @return one AnnotationDB per archive in the order of the urls
+     * @throws IOException
+     */
+    public AnnotationDB[] scanArchivesSeparately(String... urls) throws IOException
+    {
+        if (executorService != null)
+        {
+            return new ParallelArchiveScanner(this, executorService, parallelBatchSize).scanSeparately(urls);
+        }
+
+        AnnotationDB[] archiveIndexes = new AnnotationDB[urls.length];
+        for (int i = 0; i < urls.length; i++)
+        {
+            AnnotationDB index = loadArchiveIndex(urls[i]);
+            if (index == null)
+            {
+                index = createPartialIndex();
+                index.scanUrlPath(urls[i]);
+                if (indexCache != null && indexCache.isCacheable(urls[i]))
+                {
+                    indexCache.store(urls[i], index);
+                }
+            }
+            archiveIndexes[i] = index;
+        }
+        return archiveIndexes;
+    }
+
+    /**
+     * Load the index of the given archive without scanning its classes.
+     * This is either the {@link #PREBUILT_INDEX_RESOURCE} contained in the
+     * archive or the entry of the {@link ScanIndexCache}.
+     *
+     * @param urlPath
+     * @return the index of the archive or <code>null</code> if the archive needs to get scanned
+     */
+    AnnotationDB loadArchiveIndex(String urlPath)
+    {
+        long start = System.nanoTime();
+        if (usePrebuiltIndexes)
+        {
+            AnnotationDB prebuilt = createPartialIndex();
+            if (loadPrebuiltIndex(urlPath, prebuilt))
+            {
+                reportLoaded(urlPath, ArchiveMetrics.Source.PREBUILT, start, prebuilt);
+                if (scanListener != null)
+                {
+                    prebuilt.replay(scanListener);
+                }
+                return prebuilt;
+            }
+        }
+
+        if (indexCache != null && indexCache.isCacheable(urlPath))
+        {
+            AnnotationDB cached = createPartialIndex();
+            if (indexCache.load(urlPath, cached))
+            {
+                reportLoaded(urlPath, ArchiveMetrics.Source.CACHED, start, cached);
+                if (scanListener != null)
+                {
+                    cached.replay(scanListener);
+                }
+                return cached;
+            }
+        }
+
+        return null;
+    }
+
+    private void reportLoaded(String urlPath, ArchiveMetrics.Source source, long start, AnnotationDB loaded)
+    {
+        if (metricsListener != null)
+        {
+            metricsListener.archiveScanned(new ArchiveMetrics(urlPath, source, System.nanoTime() - start, 0,
+                                                              loaded.getClassIndex().size(), 0));
+        }
+    }
+
+    private boolean loadPrebuiltIndex(String urlPath, AnnotationDB partial)
+    {
+        InputStream in;
+        try
+        {
+            // don't use the cached JarFile, closing the stream then doesn't close the jar
+            URLConnection connection = new URL(urlPath + PREBUILT_INDEX_RESOURCE).openConnection();
+            connection.setUseCaches(false);
+            in = connection.getInputStream();
+        }
+        catch (IOException e)
+        {
+            // no pre-built index available
+            return false;
+        }
+
+        try
+        {
+            try
+            {
+                if (!ScanIndexFormat.read(partial, new DataInputStream(new BufferedInputStream(in))))
+                {
+                    return false;
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            // the partial index gets dropped and the archive gets scanned instead
+            logger.log(Level.WARNING, "Ignoring the corrupt pre-built index of " + urlPath, e);
+            return false;
+        }
+
+        // the classes of a jar don't change, but the ones of a directory get recompiled
+        return isJarUrl(urlPath) != null || isUpToDate(urlPath, partial);
+    }
+
+    /**
+     * @param urlPath the url of a directory containing a pre-built index
+     * @param partial the content of the pre-built index
+     * @return <code>true</code> if the directory contains exactly the indexed classes
+     *         and none of them changed after the index got written
+     */
+    private boolean isUpToDate(String urlPath, AnnotationDB partial)
+    {
+        try
+        {
+            File root = toFile(urlPath);
+            long indexModified = new File(root, PREBUILT_INDEX_RESOURCE).lastModified();
+            DirectorySnapshot snapshot = DirectorySnapshot.take(root, new ArchiveFilter(partial));
+            if (indexModified != 0 && snapshot.getLastModified() <= indexModified
+                && snapshot.getClassNames().equals(partial.getClassIndex().keySet()))
+            {
+                return true;
+            }
+        }
+        catch (IOException e)
+        {
+            // not a file url, we can't tell whether the index is up to date
+        }
+        logger.info("Ignoring the outdated pre-built index of " + urlPath);
+        return false;
+    }
+
+    /**
+     * The {@link PackageFilter} is not part of the scan settings.
+     * An index created without a filter can get used with any filter.
+     *
+     * @return a String representation of all other settings which influence the scan result
+     */
+    String getScanSettings()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(scanClassAnnotations ? 'C' : '-')
+          .append(scanMethodAnnotations ? 'M' : '-')
+          .append(scanFieldAnnotations ? 'F' : '-')
+          .append(scanParameterAnnotations ? 'P' : '-')
+          .append(indexMembers ? 'I' : '-');
+        for (String ignoredPackage : ignoredPackages)
+        {
+            sb.append(',').append(ignoredPackage);
+        }
+        for (String annotationMember : indexedAnnotationMembers)
+        {
+            sb.append(';').append(annotationMember);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Create an empty AnnotationDB with the same scan settings as this one.
+     * Partial indexes get filled by parallel workers and later get
+     * {@link #merge(AnnotationDB) merged} into this instance.
+     */
+    protected AnnotationDB createPartialIndex()
+    {
+        AnnotationDB partial = new AnnotationDB();
+        partial.scanClassAnnotations = scanClassAnnotations;
+        partial.scanMethodAnnotations = scanMethodAnnotations;
+        partial.scanParameterAnnotations = scanParameterAnnotations;
+        partial.scanFieldAnnotations = scanFieldAnnotations;
+        partial.ignoredPackages = ignoredPackages;
+        partial.indexedAnnotationMembers = indexedAnnotationMembers;
+        partial.indexMembers = indexMembers;
+        partial.packageFilter = packageFilter;
+        partial.readerEngine = readerEngine;
+        partial.indexStorage = indexStorage;
+        partial.indexStorageDirectory = indexStorageDirectory;
+        partial.scanListener = scanListener;
+        partial.metricsListener = metricsListener;
+        return partial;
+    }
+
+    /**
+     * Merge the given partial index into this AnnotationDB.
+     * Merging all partials in the order the classes got found leads
+     * to exactly the same result as a sequential scan.
+     * The Sets of the partial index get taken over, so the partial
+     * must not be used anymore afterwards. The read-only Sets of a
+     * {@link #compact() compacted} partial get copied.
+     *
+     * @param partial
+     */
+    protected void merge(AnnotationDB partial)
+    {
+        boolean copy = partial.isCompact();
+        for (Map.Entry<String, Set<String>> entry : partial.annotationIndex.entrySet())
+        {
+            Set<String> classes = annotationIndex.get(entry.getKey());
+            if (classes == null)
+            {
+                annotationIndex.put(entry.getKey(), copy ? new HashSet<String>(entry.getValue()) : entry.getValue());
+            }
+            else
+            {
+                classes.addAll(entry.getValue());
+            }
+        }
+        if (copy)
+        {
+            for (Map.Entry<String, Set<String>> entry : partial.classIndex.entrySet())
+            {
+                classIndex.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+                for (String annotation : entry.getValue())
+                {
+                    int elementKinds = partial.getElementKinds(entry.getKey(), annotation);
+                    if (elementKinds != ALL_ELEMENTS)
+                    {
+                        addElementKinds(entry.getKey(), annotation, elementKinds);
+                    }
+                }
+            }
+            for (Map.Entry<String, Set<String>> entry : partial.implementsIndex.entrySet())
+            {
+                implementsIndex.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+            }
+            for (String className : partial.indexedAnnotationMembers.length > 0
+                                     ? partial.classIndex.keySet() : Collections.<String>emptySet())
+            {
+                Map<String, List<String>> values = partial.getAnnotationValues(className);
+                if (values != null)
                 {
-                    for (Annotation[] anns : paramsVisible.getAnnotations())
+                    for (Map.Entry<String, List<String>> member : values.entrySet())
                     {
-                        populate(anns, cf.getName());
+                        for (String value : member.getValue())
+                        {
+                            addAnnotationValue(className, member.getKey(), value);
+                        }
                     }
                 }
-                if (paramsInvisible != null && paramsInvisible.getAnnotations() != null)
+            }
+            for (String className : partial.indexMembers ? partial.classIndex.keySet() : Collections.<String>emptySet())
+            {
+                Map<String, Set<AnnotatedMember>> members = partial.getAnnotatedMembers(className);
+                if (members != null)
                 {
-                    for (Annotation[] anns : paramsInvisible.getAnnotations())
+                    for (Map.Entry<String, Set<AnnotatedMember>> annotation : members.entrySet())
                     {
-                        populate(anns, cf.getName());
+                        for (AnnotatedMember member : annotation.getValue())
+                        {
+                            addAnnotatedMember(className, annotation.getKey(), member);
+                        }
                     }
                 }
             }
         }
+        else
+        {
+            classIndex.putAll(partial.classIndex);
+            implementsIndex.putAll(partial.implementsIndex);
+            elementKindIndex.putAll(partial.elementKindIndex);
+            annotationValueIndex.putAll(partial.annotationValueIndex);
+            memberIndex.putAll(partial.memberIndex);
+        }
+        superClassIndex.putAll(partial.superClassIndex);
     }
 
-    protected void scanFields(ClassFile cf)
+    /**
+     * Scan all classes from the given url
+     * @param urlPath
+     * @throws IOException
+     */
+    void scanUrlPath(String urlPath) throws IOException
     {
-        List fields = cf.getFields();
-        if (fields == null)
+        long start = System.nanoTime();
+        int classes = 0;
+        long bytes = 0;
+        ArchiveFilter filter = new ArchiveFilter(this);
+        ArchiveIterator it = openArchive(urlPath, filter);
+        try
         {
-            return;
+            while (it.next())
+            {
+                scanClass(it.getBytes(), it.getLength());
+                classes++;
+                bytes += it.getLength();
+            }
+        }
+        finally
+        {
+            it.close();
+        }
+
+        if (metricsListener != null)
+        {
+            metricsListener.archiveScanned(new ArchiveMetrics(urlPath, ArchiveMetrics.Source.SCANNED,
+                    System.nanoTime() - start, bytes, classes, filter.getSkippedClasses()));
+        }
+    }
+
+    /**
+     * Local jar files get read via a memory mapped {@link MappedJarIterator},
+     * directories via a {@link DirectoryArchiveIterator} and all other
+     * archives via the scannotation iterators.
+     *
+     * @param urlPath
+     * @return an iterator over all not ignored classes of the given archive
+     * @throws IOException
+     */
+    ArchiveIterator openArchive(String urlPath) throws IOException
+    {
+        return openArchive(urlPath, new ArchiveFilter(this));
+    }
+
+    /**
+     * @param filter counts the skipped classes
+     */
+    ArchiveIterator openArchive(String urlPath, ArchiveFilter filter) throws IOException
+    {
+
+        String jarUrlPath = isJarUrl(urlPath);
+        if (jarUrlPath == null)
+        {
+            return new DirectoryArchiveIterator(toFile(urlPath), filter);
+        }
+
+        if (jarUrlPath.startsWith("file:"))
+        {
+            File jarFile = toFile(jarUrlPath);
+            if (jarFile.isFile())
+            {
+                ArchiveIterator mapped = MappedJarIterator.open(jarFile, filter);
+                if (mapped != null)
+                {
+                    return mapped;
+                }
+            }
+        }
+        StreamIterator it = new JarIterator((new URL(jarUrlPath)).openStream(), filter);
+        return new StreamArchiveIterator(it);
+    }
+
+    /**
+     * @param fileUrl a file: url
+     * @return the File for the given url
+     */
+    static File toFile(String fileUrl) throws IOException
+    {
+        try
+        {
+            return new File(new URI(fileUrl));
+        }
+        catch (URISyntaxException e)
+        {
+            // not properly encoded, e.g. containing spaces
+        }
+        catch (IllegalArgumentException e)
+        {
+            // not a hierarchical file uri
         }
+        return new File(new URL(fileUrl).getFile());
+    }
 
-        for (Object obj : fields)
+    /**
+     * check if the given url path is a Jar
+     * @param urlPath
+     * @return
+     */
+    static String isJarUrl(String urlPath)
+    {
+        if (urlPath.endsWith("!/") && urlPath.length() > 6)
         {
-            FieldInfo field = (FieldInfo) obj;
-            AnnotationsAttribute visible = (AnnotationsAttribute) field.getAttribute(AnnotationsAttribute.visibleTag);
-            AnnotationsAttribute invisible = (AnnotationsAttribute) field.getAttribute(AnnotationsAttribute.invisibleTag);
+            urlPath = urlPath.substring(4, urlPath.length() - 2);
+            return urlPath;
+        }
 
-            if (visible != null)
+        return null;
+    }
+    /**
+     * Parse a .class file for annotations
+     *
+     * @param bits input stream pointing to .class file bits
+     * @throws IOException
+     */
+    public void scanClass(InputStream bits) throws IOException
+    {
+        int length = 0;
+        try
+        {
+            if (readBuffer == null)
             {
-                populate(visible.getAnnotations(), cf.getName());
+                readBuffer = new byte[8192];
             }
-            if (invisible != null)
+            int read;
+            while ((read = bits.read(readBuffer, length, readBuffer.length - length)) != -1)
             {
-                populate(invisible.getAnnotations(), cf.getName());
+                length += read;
+                if (length == readBuffer.length)
+                {
+                    byte[] newBuffer = new byte[readBuffer.length * 2];
+                    System.arraycopy(readBuffer, 0, newBuffer, 0, length);
+                    readBuffer = newBuffer;
+                }
             }
         }
+        finally
+        {
+            bits.close();
+        }
+
+        scanClass(readBuffer, length);
+    }
+
+    /**
+     * Parse the bytes of a .class file for annotations
+     * with the {@link ClassFileReader} of the {@link #setReaderEngine(ClassFileReaderEngine) reader engine}.
+     *
+     * @param classBytes buffer containing the .class file bits
+     * @param length number of valid bytes in the buffer
+     * @throws IOException if the bytes are no valid class file
+     */
+    public void scanClass(byte[] classBytes, int length) throws IOException
+    {
+        if (classReader == null)
+        {
+            classReader = readerEngine.createReader();
+            indexingVisitor = new IndexingVisitor();
+        }
+        classReader.read(classBytes, length, indexingVisitor);
+    }
+
+    /**
+     * Index the annotations of the class declaration.
+     *
+     * @deprecated the scan doesn't call this method anymore, the classes get parsed by the {@link ClassFileReader}
+     *             of the {@link #setReaderEngine(ClassFileReaderEngine) reader engine}.
+     *             Delegates to the {@link ClassFileReaderEngine#JAVASSIST} reader.
+     */
+    @Deprecated
+    protected void scanClass(ClassFile cf)
+    {
+        new JavassistClassReader().scanClassAnnotations(cf, visitorFor(cf.getName()));
+    }
 
+    /**
+     * Scans both the method and its parameters for annotations.
+     *
+     * @deprecated the scan doesn't call this method anymore, the classes get parsed by the {@link ClassFileReader}
+     *             of the {@link #setReaderEngine(ClassFileReaderEngine) reader engine}.
+     *             Delegates to the {@link ClassFileReaderEngine#JAVASSIST} reader.
+     */
+    @Deprecated
+    protected void scanMethods(ClassFile cf)
+    {
+        new JavassistClassReader().scanMethods(cf, visitorFor(cf.getName()));
+    }
 
+    /**
+     * @deprecated the scan doesn't call this method anymore, the classes get parsed by the {@link ClassFileReader}
+     *             of the {@link #setReaderEngine(ClassFileReaderEngine) reader engine}.
+     *             Delegates to the {@link ClassFileReaderEngine#JAVASSIST} reader.
+     */
+    @Deprecated
+    protected void scanFields(ClassFile cf)
+    {
+        new JavassistClassReader().scanFields(cf, visitorFor(cf.getName()));
     }
 
+    /**
+     * @deprecated the scan doesn't call this method anymore, use {@link #populate(String, String, int)}
+     */
+    @Deprecated
     protected void populate(Annotation[] annotations, String className)
     {
         if (annotations == null)
@@ -490,17 +1648,205 @@ public class AnnotationDB implements Serializable
             return;
         }
 
-        Set<String> classAnnotations = classIndex.get(className);
+        addClass(className);
         for (Annotation ann : annotations)
         {
-            Set<String> classes = annotationIndex.get(ann.getTypeName());
-            if (classes == null)
+            populate(ann.getTypeName(), className);
+        }
+    }
+
+    /**
+     * @return a visitor which indexes the annotations of the given class without parsing a class file
+     */
+    private IndexingVisitor visitorFor(String className)
+    {
+        addClass(className);
+        IndexingVisitor visitor = new IndexingVisitor();
+        visitor.className = className;
+        return visitor;
+    }
+
+    private void addClass(String className)
+    {
+        if (!classIndex.containsKey(className))
+        {
+            classIndex.put(className, new HashSet<String>());
+        }
+    }
+
+    protected void populate(String annotationType, String className)
+    {
+        Set<String> classes = annotationIndex.get(annotationType);
+        if (classes == null)
+        {
+            classes = new HashSet<String>();
+            annotationIndex.put(annotationType, classes);
+        }
+        classes.add(className);
+        classIndex.get(className).add(annotationType);
+    }
+
+    /**
+     * Index the annotation together with the element kind it got found at.
+     *
+     * @param elementKind one of the element kind bits, e.g. {@link #METHOD_ELEMENT}
+     */
+    protected void populate(String annotationType, String className, int elementKind)
+    {
+        populate(annotationType, className);
+        addElementKinds(className, annotationType, elementKind);
+    }
+
+    void addElementKinds(String className, String annotationType, int elementKinds)
+    {
+        Map<String, Integer> annotations = elementKindIndex.get(className);
+        if (annotations == null)
+        {
+            annotations = new HashMap<String, Integer>();
+            elementKindIndex.put(className, annotations);
+        }
+        Integer known = annotations.get(annotationType);
+        annotations.put(annotationType, known != null ? known | elementKinds : elementKinds);
+    }
+
+    /**
+     * The ignored packages compiled into a {@link PackageFilter}, together with a copy of
+     * the packages they got compiled from so we notice if the ignored packages get replaced
+     * or changed.
+     */
+    private static final class IgnoredPackages
+    {
+        private final List<String> packages;
+        private final PackageFilter filter;
+
+        private IgnoredPackages(String[] packages)
+        {
+            this.packages = Arrays.asList(packages.clone());
+            this.filter = PackageFilter.create(null, packages);
+        }
+    }
+
+    /**
+     * The indexed annotation members compiled into a Set, together with a copy of the
+     * members they got compiled from so we notice if the members get replaced or changed.
+     */
+    private static final class IndexedMembers
+    {
+        private final List<String> members;
+        private final Set<String> memberNames = new HashSet<String>();
+        private final Set<String> annotationTypes = new HashSet<String>();
+
+        private IndexedMembers(String[] members)
+        {
+            this.members = Arrays.asList(members.clone());
+            for (String member : members)
+            {
+                memberNames.add(member);
+                annotationTypes.add(member.substring(0, member.indexOf(MEMBER_SEPARATOR)));
+            }
+        }
+    }
+
+    /**
+     * Fills the indexes with the information of the {@link ClassFileReader}.
+     */
+    private class IndexingVisitor implements ClassFileVisitor
+    {
+        private String className;
+        private String memberName;
+        private String memberDescriptor;
+
+        /**
+         * interns member names and descriptors, they repeat a lot within an archive
+         */
+        private final Map<String, String> memberSymbols = new HashMap<String, String>();
+
+        public void visitClass(String className, String superClassName, String[] interfaces)
+        {
+            this.className = className;
+            memberName = null;
+            memberDescriptor = null;
+            classIndex.put(className, new HashSet<String>());
+
+            // create an index of interfaces the class implements
+            Set<String> intfs = new HashSet<String>();
+            for (String intf : interfaces)
+            {
+                intfs.add(intf);
+            }
+            implementsIndex.put(className, intfs);
+
+            if (superClassName != null && !"java.lang.Object".equals(superClassName))
+            {
+                superClassIndex.put(className, superClassName);
+            }
+        }
+
+        public boolean isInterested(ElementType elementType)
+        {
+            switch (elementType)
+            {
+                case TYPE:
+                    return scanClassAnnotations;
+                case METHOD:
+                    return scanMethodAnnotations;
+                case FIELD:
+                    return scanFieldAnnotations;
+                case PARAMETER:
+                    return scanParameterAnnotations;
+                default:
+                    return false;
+            }
+        }
+
+        public void visitAnnotation(String annotationType, ElementType elementType)
+        {
+            populate(annotationType, className, elementKind(elementType));
+            if (memberName != null && elementType != ElementType.TYPE)
+            {
+                addAnnotatedMember(className, annotationType,
+                                   new AnnotatedMember(className, memberName, memberDescriptor, elementType));
+            }
+            if (scanListener != null)
+            {
+                scanListener.annotationFound(className, annotationType, elementType);
+            }
+        }
+
+        public boolean isInterestedInMembers()
+        {
+            return indexMembers;
+        }
+
+        public void visitMember(String memberName, String descriptor)
+        {
+            this.memberName = intern(memberName);
+            memberDescriptor = intern(descriptor);
+        }
+
+        private String intern(String symbol)
+        {
+            String interned = memberSymbols.get(symbol);
+            if (interned == null)
+            {
+                memberSymbols.put(symbol, symbol);
+                interned = symbol;
+            }
+            return interned;
+        }
+
+        public boolean isInterestedInValues(String annotationType)
+        {
+            return indexedAnnotationMembers.length > 0 && getIndexedMembers().annotationTypes.contains(annotationType);
+        }
+
+        public void visitAnnotationValue(String annotationType, String memberName, String value)
+        {
+            String annotationMember = annotationMember(annotationType, memberName);
+            if (getIndexedMembers().memberNames.contains(annotationMember))
             {
-                classes = new HashSet<String>();
-                annotationIndex.put(ann.getTypeName(), classes);
+                addAnnotationValue(className, annotationMember, value);
             }
-            classes.add(className);
-            classAnnotations.add(ann.getTypeName());
         }
     }
 
@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * <p>Finds the archives containing marker files like <code>META-INF/beans.xml</code>.</p>
+ *
+ * <p>For a URLClassLoader whose classpath consists of local files, each classpath root
+ * gets checked for all requested marker files at once, instead of walking all jars
+ * via {@link ClassLoader#getResources(String)} for every single marker file.
+ * Archives visible via the parent ClassLoader get taken from the result of the parent.
+ * All other ClassLoaders fall back to {@link ClassLoader#getResources(String)}.</p>
+ *
+ * <p>The found archives get cached per ClassLoader and marker file, so further
+ * registrations don't walk the classpath again. Marker files added to the classpath
+ * later on don't get noticed until the ClassLoader gets {@link #evict(ClassLoader) evicted}.</p>
+ */
+class ArchiveDiscovery
+{
+    private final ClassLoaderRegistry<LoaderArchives> loaderArchives;
+
+    /**
+     * @param maxClassLoaders the maximum number of ClassLoaders to cache the archives for, <code>0</code> for no limit
+     */
+    ArchiveDiscovery(int maxClassLoaders)
+    {
+        loaderArchives = new ClassLoaderRegistry<LoaderArchives>(maxClassLoaders, null);
+    }
+
+    /**
+     * Find the base paths of all archives visible to the ClassLoader which contain the given marker files.
+     * The base paths do <i>NOT</i> contain the marker file itself,
+     * e.g. <code>jar:file:/lib/foo.jar!/</code> or <code>file:/classes/</code>.
+     *
+     * @param loader the ClassLoader which should be used
+     * @param markerFiles the names of the resources, e.g. 'META-INF/beans.xml'
+     * @return the base paths of the archives containing each marker file, parent archives first
+     */
+    Map<String, List<String>> findResourceBases(ClassLoader loader, Collection<String> markerFiles)
+    {
+        return getLoaderArchives(loader).getResourceBases(loader, markerFiles);
+    }
+
+    void evict(ClassLoader loader)
+    {
+        loaderArchives.remove(loader);
+    }
+
+    private LoaderArchives getLoaderArchives(ClassLoader loader)
+    {
+        LoaderArchives archives = loaderArchives.get(loader);
+        if (archives == null)
+        {
+            archives = new LoaderArchives();
+            LoaderArchives existing = loaderArchives.putIfAbsent(loader, archives);
+            if (existing != null)
+            {
+                archives = existing;
+            }
+        }
+        return archives;
+    }
+
+    /**
+     * @return the own classpath roots of the loader or <code>null</code> if they can't get checked directly
+     */
+    private static List<URL> getClasspathRoots(ClassLoader loader)
+    {
+        if (!(loader instanceof URLClassLoader))
+        {
+            return null;
+        }
+        URL[] urls = ((URLClassLoader) loader).getURLs();
+        for (URL url : urls)
+        {
+            if (!"file".equals(url.getProtocol()))
+            {
+                return null;
+            }
+        }
+        List<URL> roots = new ArrayList<URL>(urls.length);
+        Collections.addAll(roots, urls);
+        return roots;
+    }
+
+    /**
+     * Check each classpath root for all marker files. Jars referenced in the
+     * Class-Path of a jar manifest get checked as well, like the URLClassLoader does.
+     */
+    private static void findInRoots(List<URL> roots, Collection<String> markerFiles,
+                                    Map<String, Set<String>> resourceBases)
+    {
+        Set<String> visited = new HashSet<String>();
+        for (int i = 0; i < roots.size(); i++)
+        {
+            URL root = roots.get(i);
+            String rootPath = root.toString();
+            if (!visited.add(rootPath))
+            {
+                continue;
+            }
+            try
+            {
+                File file = AnnotationDB.toFile(rootPath);
+                if (rootPath.endsWith("/"))
+                {
+                    for (String markerFile : markerFiles)
+                    {
+                        if (new File(file, markerFile).exists())
+                        {
+                            resourceBases.get(markerFile).add(rootPath);
+                        }
+                    }
+                }
+                else if (file.isFile())
+                {
+                    findInJar(root, file, markerFiles, resourceBases, roots);
+                }
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Error while looking for marker files in " + rootPath, e);
+            }
+        }
+    }
+
+    private static void findInJar(URL root, File file, Collection<String> markerFiles,
+                                  Map<String, Set<String>> resourceBases, List<URL> roots) throws IOException
+    {
+        JarFile jarFile = new JarFile(file);
+        try
+        {
+            String basePath = "jar:" + root + "!/";
+            for (String markerFile : markerFiles)
+            {
+                if (jarFile.getEntry(markerFile) != null)
+                {
+                    resourceBases.get(markerFile).add(basePath);
+                }
+            }
+
+            Manifest manifest = jarFile.getManifest();
+            String classPath = manifest != null ? manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) : null;
+            if (classPath != null)
+            {
+                for (String path : classPath.trim().split("\\s+"))
+                {
+                    if (path.length() > 0)
+                    {
+                        URL url = new URL(root, path);
+                        if ("file".equals(url.getProtocol()))
+                        {
+                            roots.add(url);
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            jarFile.close();
+        }
+    }
+
+    private static void findViaResources(ClassLoader loader, Collection<String> markerFiles,
+                                         Map<String, Set<String>> resourceBases)
+    {
+        try
+        {
+            for (String markerFile : markerFiles)
+            {
+                Enumeration<URL> urls = loader.getResources(markerFile);
+                while (urls.hasMoreElements())
+                {
+                    String urlString = urls.nextElement().toString();
+                    int idx = urlString.lastIndexOf(markerFile);
+                    resourceBases.get(markerFile).add(urlString.substring(0, idx));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The archives found so far for a single ClassLoader.
+     */
+    private final class LoaderArchives
+    {
+        private final ConcurrentMap<String, List<String>> resourceBases = new ConcurrentHashMap<String, List<String>>();
+
+        private Map<String, List<String>> getResourceBases(ClassLoader loader, Collection<String> markerFiles)
+        {
+            Map<String, List<String>> result = new HashMap<String, List<String>>();
+            List<String> missing = new ArrayList<String>();
+            for (String markerFile : markerFiles)
+            {
+                List<String> bases = resourceBases.get(markerFile);
+                if (bases != null)
+                {
+                    result.put(markerFile, bases);
+                }
+                else if (!missing.contains(markerFile))
+                {
+                    missing.add(markerFile);
+                }
+            }
+
+            if (!missing.isEmpty())
+            {
+                // one walk for all missing marker files, concurrent callers wait for it
+                synchronized (this)
+                {
+                    for (Map.Entry<String, List<String>> found : discover(loader, missing).entrySet())
+                    {
+                        List<String> existing = resourceBases.putIfAbsent(found.getKey(), found.getValue());
+                        result.put(found.getKey(), existing != null ? existing : found.getValue());
+                    }
+                }
+            }
+            return result;
+        }
+
+        private Map<String, List<String>> discover(ClassLoader loader, List<String> markerFiles)
+        {
+            Map<String, Set<String>> found = new HashMap<String, Set<String>>();
+            for (String markerFile : markerFiles)
+            {
+                found.put(markerFile, new LinkedHashSet<String>());
+            }
+
+            List<URL> roots = getClasspathRoots(loader);
+            if (roots == null)
+            {
+                findViaResources(loader, markerFiles, found);
+            }
+            else
+            {
+                ClassLoader parent = loader.getParent();
+                if (parent != null)
+                {
+                    for (Map.Entry<String, List<String>> parentBases
+                            : findResourceBases(parent, markerFiles).entrySet())
+                    {
+                        found.get(parentBases.getKey()).addAll(parentBases.getValue());
+                    }
+                }
+                findInRoots(roots, markerFiles, found);
+            }
+
+            Map<String, List<String>> result = new HashMap<String, List<String>>();
+            for (Map.Entry<String, Set<String>> entry : found.entrySet())
+            {
+                result.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<String>(entry.getValue())));
+            }
+            return result;
+        }
+    }
+}
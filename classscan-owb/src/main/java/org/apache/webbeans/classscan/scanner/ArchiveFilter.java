@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import org.scannotation.archiveiterator.Filter;
+
+/**
+ * Decides which entries of an archive get read at all,
+ * based on the ignored packages and the {@link PackageFilter}
+ * of the {@link AnnotationDB}.
+ */
+class ArchiveFilter implements Filter
+{
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final PackageFilter ignoredPackages;
+    private final PackageFilter packageFilter;
+
+    /**
+     * class files which got rejected, only accessed by the thread iterating the archive
+     */
+    private int skippedClasses;
+
+    ArchiveFilter(AnnotationDB annotationDB)
+    {
+        this.ignoredPackages = annotationDB.getIgnoredPackagesFilter();
+        this.packageFilter = annotationDB.getPackageFilter();
+    }
+
+    /**
+     * @param filename path of an archive entry, e.g. <code>/com/acme/Foo.class</code>
+     */
+    public boolean accepts(String filename)
+    {
+        if (!filename.endsWith(CLASS_SUFFIX))
+        {
+            return false;
+        }
+
+        int start = filename.startsWith("/") ? 1 : 0;
+        return acceptsClass(filename, start, filename.length() - CLASS_SUFFIX.length());
+    }
+
+    /**
+     * @param path contains the '/' or '.' separated name of the class in the given range,
+     *             without the .class suffix
+     */
+    boolean acceptsClass(CharSequence path, int start, int end)
+    {
+        if (ignoredPackages.accepts(path, start, end) && packageFilter.accepts(path, start, end))
+        {
+            return true;
+        }
+        skippedClasses++;
+        return false;
+    }
+
+    /**
+     * Count a class file which got skipped without asking the filter,
+     * e.g. because no class in its directory gets accepted.
+     */
+    void skipClass()
+    {
+        skippedClasses++;
+    }
+
+    /**
+     * @return the number of class files which got rejected so far
+     */
+    int getSkippedClasses()
+    {
+        return skippedClasses;
+    }
+
+    /**
+     * @param packagePath '/' separated path of a directory relative to the archive root
+     * @return <code>false</code> if the whole directory tree can get skipped
+     */
+    boolean acceptsPackage(String packagePath)
+    {
+        return ignoredPackages.acceptsPackage(packagePath) && packageFilter.acceptsPackage(packagePath);
+    }
+
+    /**
+     * @param packagePath '/' separated path of a directory relative to the archive root
+     * @return <code>false</code> if none of the classes directly in this directory get accepted
+     */
+    boolean acceptsClassesIn(String packagePath)
+    {
+        return ignoredPackages.acceptsClassesIn(packagePath) && packageFilter.acceptsClassesIn(packagePath);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.IOException;
+
+/**
+ * Iterates over the accepted class files of an archive.
+ * The bytes of the current class are only valid until the next call to {@link #next()},
+ * as implementations reuse their buffers.
+ */
+interface ArchiveIterator
+{
+    /**
+     * Move to the next class file.
+     * @return <code>false</code> if there are no more class files
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return the buffer containing the bytes of the current class file
+     */
+    byte[] getBytes();
+
+    /**
+     * @return number of valid bytes in {@link #getBytes()}
+     */
+    int getLength();
+
+    void close();
+}
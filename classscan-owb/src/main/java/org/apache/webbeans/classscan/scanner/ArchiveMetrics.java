@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.Serializable;
+
+/**
+ * What it cost to get the index of a single archive.
+ */
+public final class ArchiveMetrics implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Where the index of the archive came from.
+     */
+    public enum Source
+    {
+        /**
+         * the classes of the archive got parsed
+         */
+        SCANNED,
+
+        /**
+         * the {@link AnnotationDB#PREBUILT_INDEX_RESOURCE} of the archive got loaded
+         */
+        PREBUILT,
+
+        /**
+         * the index got loaded from the {@link ScanIndexCache}
+         */
+        CACHED,
+
+        /**
+         * the index of a parent ClassLoader got reused, nothing got read at all
+         */
+        SHARED
+    }
+
+    private final String urlPath;
+    private final Source source;
+    private final long nanos;
+    private final long bytesRead;
+    private final int classesParsed;
+    private final int classesSkipped;
+
+    public ArchiveMetrics(String urlPath, Source source, long nanos, long bytesRead,
+                          int classesParsed, int classesSkipped)
+    {
+        this.urlPath = urlPath;
+        this.source = source;
+        this.nanos = nanos;
+        this.bytesRead = bytesRead;
+        this.classesParsed = classesParsed;
+        this.classesSkipped = classesSkipped;
+    }
+
+    public String getUrlPath()
+    {
+        return urlPath;
+    }
+
+    public Source getSource()
+    {
+        return source;
+    }
+
+    /**
+     * @return the wall clock time spent on the archive. With parallel scanning
+     *         this includes the time the batches of the archive waited for a worker.
+     */
+    public long getNanos()
+    {
+        return nanos;
+    }
+
+    /**
+     * @return the number of uncompressed class file bytes which got parsed
+     */
+    public long getBytesRead()
+    {
+        return bytesRead;
+    }
+
+    /**
+     * @return the number of parsed classes, or of the indexed classes for a loaded index
+     */
+    public int getClassesParsed()
+    {
+        return classesParsed;
+    }
+
+    /**
+     * @return the number of class files which got skipped because of the ignored packages
+     *         or the package filter. Class files in directories which got skipped as a whole
+     *         don't get counted, as those directories don't get listed at all.
+     */
+    public int getClassesSkipped()
+    {
+        return classesSkipped;
+    }
+
+    @Override
+    public String toString()
+    {
+        return urlPath + " (" + source + "): " + nanos / 1000000L + " ms, " + classesParsed + " classes, "
+               + classesSkipped + " skipped, " + bytesRead / 1024L + " KB";
+    }
+}
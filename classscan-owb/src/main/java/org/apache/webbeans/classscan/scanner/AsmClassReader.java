@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import org.apache.xbean.asm5.AnnotationVisitor;
+import org.apache.xbean.asm5.ClassReader;
+import org.apache.xbean.asm5.ClassVisitor;
+import org.apache.xbean.asm5.FieldVisitor;
+import org.apache.xbean.asm5.MethodVisitor;
+import org.apache.xbean.asm5.Opcodes;
+import org.apache.xbean.asm5.Type;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.lang.reflect.Array;
+
+/**
+ * <p>ClassFileReader based on the ASM ClassReader shaded by Apache XBean.</p>
+ *
+ * <p>The code, debug information and stack map frames get skipped. Annotation member
+ * values only get visited if the ClassFileVisitor asks for them. The ASM version in use
+ * supports class files up to Java 8.</p>
+ */
+public class AsmClassReader implements ClassFileReader
+{
+    private static final int PARSING_OPTIONS = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    private final IndexingClassVisitor classVisitor = new IndexingClassVisitor();
+
+    public void read(byte[] bytes, int length, ClassFileVisitor visitor) throws IOException
+    {
+        ClassReader classReader;
+        try
+        {
+            classReader = new ClassReader(bytes, 0, length);
+        }
+        catch (RuntimeException e)
+        {
+            // the ClassReader throws an IllegalArgumentException for unsupported class file versions
+            throw new IOException("not a valid class file", e);
+        }
+
+        classVisitor.visitor = visitor;
+        try
+        {
+            classReader.accept(classVisitor, PARSING_OPTIONS);
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("truncated or corrupt class file", e);
+        }
+        finally
+        {
+            classVisitor.visitor = null;
+        }
+    }
+
+    /**
+     * @param desc a field descriptor like <code>Ljavax/inject/Named;</code>
+     * @return the class name, e.g. <code>javax.inject.Named</code>
+     */
+    private static String toClassName(String desc)
+    {
+        return desc.substring(1, desc.length() - 1).replace('/', '.');
+    }
+
+    private static final class IndexingClassVisitor extends ClassVisitor
+    {
+        private final ValueVisitor valueVisitor = new ValueVisitor();
+        private final IndexingFieldVisitor fieldVisitor = new IndexingFieldVisitor();
+        private final IndexingMethodVisitor methodVisitor = new IndexingMethodVisitor();
+
+        private ClassFileVisitor visitor;
+
+        private IndexingClassVisitor()
+        {
+            super(Opcodes.ASM5);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName,
+                          String[] interfaces)
+        {
+            String[] interfaceNames = new String[interfaces != null ? interfaces.length : 0];
+            for (int i = 0; i < interfaceNames.length; i++)
+            {
+                interfaceNames[i] = interfaces[i].replace('/', '.');
+            }
+            visitor.visitClass(name.replace('/', '.'), superName != null ? superName.replace('/', '.') : null,
+                               interfaceNames);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible)
+        {
+            if (visitor.isInterested(ElementType.TYPE))
+            {
+                String annotationType = toClassName(desc);
+                visitor.visitAnnotation(annotationType, ElementType.TYPE);
+                if (visitor.isInterestedInValues(annotationType))
+                {
+                    valueVisitor.visitor = visitor;
+                    valueVisitor.annotationType = annotationType;
+                    return valueVisitor;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value)
+        {
+            if (!visitor.isInterested(ElementType.FIELD))
+            {
+                return null;
+            }
+            if (visitor.isInterestedInMembers())
+            {
+                visitor.visitMember(name, desc);
+            }
+            fieldVisitor.visitor = visitor;
+            return fieldVisitor;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                                         String[] exceptions)
+        {
+            if (!visitor.isInterested(ElementType.METHOD) && !visitor.isInterested(ElementType.PARAMETER))
+            {
+                return null;
+            }
+            if (visitor.isInterestedInMembers())
+            {
+                visitor.visitMember(name, desc);
+            }
+            methodVisitor.visitor = visitor;
+            return methodVisitor;
+        }
+    }
+
+    /**
+     * Reports the member values of a class annotation. Array members get visited
+     * by the same instance, their elements have no name.
+     */
+    private static final class ValueVisitor extends AnnotationVisitor
+    {
+        private ClassFileVisitor visitor;
+        private String annotationType;
+        private String memberName;
+
+        private ValueVisitor()
+        {
+            super(Opcodes.ASM5);
+        }
+
+        @Override
+        public void visit(String name, Object value)
+        {
+            String member = name != null ? name : memberName;
+            if (value instanceof Type)
+            {
+                visitor.visitAnnotationValue(annotationType, member, ((Type) value).getClassName());
+            }
+            else if (value.getClass().isArray())
+            {
+                // arrays of primitives get passed at once
+                for (int i = 0, length = Array.getLength(value); i < length; i++)
+                {
+                    visitor.visitAnnotationValue(annotationType, member, String.valueOf(Array.get(value, i)));
+                }
+            }
+            else
+            {
+                visitor.visitAnnotationValue(annotationType, member, String.valueOf(value));
+            }
+        }
+
+        @Override
+        public void visitEnum(String name, String desc, String value)
+        {
+            visitor.visitAnnotationValue(annotationType, name != null ? name : memberName, value);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String name, String desc)
+        {
+            // nested annotations don't get reported
+            return null;
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name)
+        {
+            memberName = name;
+            return this;
+        }
+    }
+
+    private static final class IndexingFieldVisitor extends FieldVisitor
+    {
+        private ClassFileVisitor visitor;
+
+        private IndexingFieldVisitor()
+        {
+            super(Opcodes.ASM5);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible)
+        {
+            visitor.visitAnnotation(toClassName(desc), ElementType.FIELD);
+            return null;
+        }
+    }
+
+    private static final class IndexingMethodVisitor extends MethodVisitor
+    {
+        private ClassFileVisitor visitor;
+
+        private IndexingMethodVisitor()
+        {
+            super(Opcodes.ASM5);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible)
+        {
+            if (visitor.isInterested(ElementType.METHOD))
+            {
+                visitor.visitAnnotation(toClassName(desc), ElementType.METHOD);
+            }
+            return null;
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible)
+        {
+            if (visitor.isInterested(ElementType.PARAMETER))
+            {
+                visitor.visitAnnotation(toClassName(desc), ElementType.PARAMETER);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.IOException;
+
+/**
+ * <p>Parses class files and reports the class names and annotations
+ * to a {@link ClassFileVisitor}.</p>
+ *
+ * <p>The AnnotationDB only talks to this interface, so the bytecode library
+ * used for parsing can get chosen via the {@link ClassFileReaderEngine}.
+ * Implementations may reuse internal buffers and need not be thread safe.</p>
+ */
+public interface ClassFileReader
+{
+    /**
+     * Parse the given class file.
+     *
+     * @param bytes buffer containing the class file
+     * @param length number of valid bytes in the buffer
+     * @param visitor receives the parsed information
+     * @throws IOException if the bytes do not contain a valid class file
+     */
+    void read(byte[] bytes, int length, ClassFileVisitor visitor) throws IOException;
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.util.Locale;
+
+/**
+ * The available {@link ClassFileReader} implementations.
+ */
+public enum ClassFileReaderEngine
+{
+    /**
+     * The {@link ConstantPoolClassReader}, which only decodes the parts of the
+     * class file needed for the indexes. This is the default.
+     */
+    CONSTANT_POOL
+    {
+        @Override
+        public ClassFileReader createReader()
+        {
+            return new ConstantPoolClassReader();
+        }
+    },
+
+    /**
+     * The {@link JavassistClassReader}, which builds the full javassist ClassFile model.
+     */
+    JAVASSIST
+    {
+        @Override
+        public ClassFileReader createReader()
+        {
+            return new JavassistClassReader();
+        }
+    },
+
+    /**
+     * The {@link AsmClassReader}, which uses the visitor based ClassReader of the ASM
+     * shaded by Apache XBean. Only available if xbean-asm5-shaded is on the classpath.
+     */
+    ASM
+    {
+        @Override
+        public ClassFileReader createReader()
+        {
+            if (!isAvailable())
+            {
+                throw new IllegalStateException("The ASM class reader needs org.apache.xbean:xbean-asm5-shaded");
+            }
+            return new AsmClassReader();
+        }
+
+        @Override
+        public boolean isAvailable()
+        {
+            try
+            {
+                Class.forName("org.apache.xbean.asm5.ClassReader", false, ClassFileReaderEngine.class.getClassLoader());
+                return true;
+            }
+            catch (ClassNotFoundException e)
+            {
+                return false;
+            }
+            catch (LinkageError e)
+            {
+                return false;
+            }
+        }
+    };
+
+    /**
+     * @return a new reader, every thread needs its own one
+     */
+    public abstract ClassFileReader createReader();
+
+    /**
+     * @return <code>false</code> if the bytecode library of this engine is not on the classpath
+     */
+    public boolean isAvailable()
+    {
+        return true;
+    }
+
+    /**
+     * Parse the name of an engine, ignoring the case and allowing '-' instead of '_'.
+     *
+     * @param name e.g. <code>asm</code> or <code>constant-pool</code>
+     * @throws IllegalArgumentException for unknown engines
+     */
+    public static ClassFileReaderEngine parse(String name)
+    {
+        return valueOf(name.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+    }
+}
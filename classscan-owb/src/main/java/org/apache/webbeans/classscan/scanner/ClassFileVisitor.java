@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.lang.annotation.ElementType;
+
+/**
+ * Receives the information a class file reader extracts from a single class.
+ * All class names are fully qualified and use '.' as package separator.
+ */
+public interface ClassFileVisitor
+{
+    /**
+     * Gets called once per class before any annotation gets visited.
+     *
+     * @param className the name of the class
+     * @param superClassName the name of the super class or <code>null</code> for java.lang.Object
+     * @param interfaces the names of all directly implemented interfaces, never <code>null</code>
+     */
+    void visitClass(String className, String superClassName, String[] interfaces);
+
+    /**
+     * The reader will skip all annotations of element types the visitor is not interested in.
+     *
+     * @param elementType one of TYPE, METHOD, FIELD or PARAMETER
+     * @return <code>true</code> if annotations on the given element type should get visited
+     */
+    boolean isInterested(ElementType elementType);
+
+    /**
+     * @return <code>true</code> if {@link #visitMember(String, String)} should get called
+     */
+    boolean isInterestedInMembers();
+
+    /**
+     * Gets called before the annotations of a field or method and its parameters get visited.
+     * Readers may skip the call for members without annotations the visitor is interested in.
+     *
+     * @param memberName the name of the field or method
+     * @param descriptor the field or method descriptor as used in the class file, e.g. <code>(I)V</code>
+     */
+    void visitMember(String memberName, String descriptor);
+
+    /**
+     * Gets called for every annotation found on the class or one of its members.
+     *
+     * @param annotationType the name of the annotation class
+     * @param elementType where the annotation has been found, one of TYPE, METHOD, FIELD or PARAMETER
+     */
+    void visitAnnotation(String annotationType, ElementType elementType);
+
+    /**
+     * Whether the member values of an annotation on the class declaration should get visited.
+     * Gets called right after {@link #visitAnnotation(String, ElementType)} for annotations
+     * at element type TYPE. Annotations on members never get their values reported.
+     *
+     * @param annotationType the name of the annotation class
+     * @return <code>true</code> if {@link #visitAnnotationValue(String, String, String)} should get called
+     *         for the members of this annotation
+     */
+    boolean isInterestedInValues(String annotationType);
+
+    /**
+     * Gets called for each member value of a class annotation the visitor is interested in.
+     * Values of array members get reported once per element. Primitives get reported via
+     * {@link String#valueOf}, enum constants by their name and classes by their name.
+     * Nested annotations don't get reported. Default values are not contained in the class file
+     * using the annotation and therefore don't get reported either.
+     *
+     * @param annotationType the name of the annotation class
+     * @param memberName the name of the annotation member, e.g. <code>value</code>
+     * @param value the value as String
+     */
+    void visitAnnotationValue(String annotationType, String memberName, String value);
+}
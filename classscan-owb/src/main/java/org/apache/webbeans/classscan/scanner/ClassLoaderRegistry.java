@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Concurrent map with weakly referenced ClassLoader keys.</p>
+ *
+ * <p>Entries of ClassLoaders which got garbage collected, e.g. after the undeployment
+ * of a webapp, get removed with the next access of the registry. The values must not
+ * reference their ClassLoader, otherwise the ClassLoader never gets collected.</p>
+ *
+ * <p>Optionally the number of entries can be bounded. If there are more entries,
+ * the ones which didn't get accessed for the longest time get evicted.</p>
+ *
+ * <p>Keys get compared by identity.</p>
+ */
+public class ClassLoaderRegistry<V>
+{
+    /**
+     * Why an entry got removed from the registry.
+     */
+    public enum EvictionCause
+    {
+        /**
+         * the ClassLoader got garbage collected
+         */
+        COLLECTED,
+
+        /**
+         * the entry got removed explicitly
+         */
+        REMOVED,
+
+        /**
+         * the registry exceeded its maximum size
+         */
+        SIZE
+    }
+
+    /**
+     * Gets notified about each entry which got removed from the registry.
+     */
+    public interface EvictionListener<V>
+    {
+        /**
+         * @param loader the ClassLoader of the entry or <code>null</code> if it already got collected
+         * @param value the value of the entry
+         * @param cause why the entry got removed
+         */
+        void evicted(ClassLoader loader, V value, EvictionCause cause);
+    }
+
+    private final ConcurrentMap<Key, Holder<V>> entries = new ConcurrentHashMap<Key, Holder<V>>();
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<ClassLoader>();
+    private final AtomicLong clock = new AtomicLong();
+
+    private final int maxSize;
+    private final EvictionListener<V> listener;
+
+    /**
+     * @param maxSize the maximum number of entries, <code>0</code> for no limit
+     * @param listener gets notified about evicted entries, might be <code>null</code>
+     */
+    public ClassLoaderRegistry(int maxSize, EvictionListener<V> listener)
+    {
+        if (maxSize < 0)
+        {
+            throw new IllegalArgumentException("maxSize must be >= 0 but is " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.listener = listener;
+    }
+
+    public V get(ClassLoader loader)
+    {
+        expungeStaleEntries();
+        Holder<V> holder = entries.get(new Key(loader, null));
+        if (holder == null)
+        {
+            return null;
+        }
+        holder.lastAccess = clock.incrementAndGet();
+        return holder.value;
+    }
+
+    /**
+     * @return the value which already was registered for the loader or <code>null</code>
+     *         if the given value got stored
+     */
+    public V putIfAbsent(ClassLoader loader, V value)
+    {
+        expungeStaleEntries();
+        Holder<V> holder = new Holder<V>(value, clock.incrementAndGet());
+        Holder<V> existing = entries.putIfAbsent(new Key(loader, queue), holder);
+        if (existing != null)
+        {
+            existing.lastAccess = clock.incrementAndGet();
+            return existing.value;
+        }
+        enforceMaxSize();
+        return null;
+    }
+
+    /**
+     * Explicitly remove the entry of the given ClassLoader.
+     *
+     * @return the removed value or <code>null</code>
+     */
+    public V remove(ClassLoader loader)
+    {
+        expungeStaleEntries();
+        Holder<V> holder = entries.remove(new Key(loader, null));
+        if (holder == null)
+        {
+            return null;
+        }
+        fireEvicted(loader, holder.value, EvictionCause.REMOVED);
+        return holder.value;
+    }
+
+    /**
+     * Remove the entry only if it still maps to the given value.
+     *
+     * @return <code>true</code> if the entry got removed
+     */
+    public boolean remove(ClassLoader loader, V value)
+    {
+        expungeStaleEntries();
+        Key key = new Key(loader, null);
+        Holder<V> holder = entries.get(key);
+        if (holder == null || holder.value != value || !entries.remove(key, holder))
+        {
+            return false;
+        }
+        fireEvicted(loader, value, EvictionCause.REMOVED);
+        return true;
+    }
+
+    /**
+     * Remove all entries, e.g. when the owner of the registry gets shut down.
+     */
+    public void clear()
+    {
+        expungeStaleEntries();
+        for (Map.Entry<Key, Holder<V>> entry : entries.entrySet())
+        {
+            if (entries.remove(entry.getKey(), entry.getValue()))
+            {
+                fireEvicted(entry.getKey().get(), entry.getValue().value, EvictionCause.REMOVED);
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the values of all entries
+     */
+    public List<V> values()
+    {
+        expungeStaleEntries();
+        List<V> values = new ArrayList<V>(entries.size());
+        for (Holder<V> holder : entries.values())
+        {
+            values.add(holder.value);
+        }
+        return values;
+    }
+
+    public int size()
+    {
+        expungeStaleEntries();
+        return entries.size();
+    }
+
+    /**
+     * Remove the entries of all ClassLoaders which got garbage collected.
+     */
+    public void expungeStaleEntries()
+    {
+        Reference<? extends ClassLoader> reference;
+        while ((reference = queue.poll()) != null)
+        {
+            Holder<V> holder = entries.remove(reference);
+            if (holder != null)
+            {
+                fireEvicted(null, holder.value, EvictionCause.COLLECTED);
+            }
+        }
+    }
+
+    private void enforceMaxSize()
+    {
+        while (maxSize > 0 && entries.size() > maxSize)
+        {
+            Map.Entry<Key, Holder<V>> eldest = null;
+            for (Map.Entry<Key, Holder<V>> entry : entries.entrySet())
+            {
+                if (eldest == null || entry.getValue().lastAccess < eldest.getValue().lastAccess)
+                {
+                    eldest = entry;
+                }
+            }
+            if (eldest != null && entries.remove(eldest.getKey(), eldest.getValue()))
+            {
+                fireEvicted(eldest.getKey().get(), eldest.getValue().value, EvictionCause.SIZE);
+            }
+        }
+    }
+
+    private void fireEvicted(ClassLoader loader, V value, EvictionCause cause)
+    {
+        if (listener != null)
+        {
+            listener.evicted(loader, value, cause);
+        }
+    }
+
+    private static final class Holder<V>
+    {
+        private final V value;
+        private volatile long lastAccess;
+
+        private Holder(V value, long lastAccess)
+        {
+            this.value = value;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    /**
+     * Weak reference to a ClassLoader which compares by identity.
+     * Keys only used for lookups don't get registered with the queue.
+     */
+    private static final class Key extends WeakReference<ClassLoader>
+    {
+        private final int hash;
+
+        private Key(ClassLoader loader, ReferenceQueue<ClassLoader> queue)
+        {
+            super(loader, queue);
+            hash = System.identityHashCode(loader);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            ClassLoader loader = get();
+            return loader != null && loader == ((Key) o).get();
+        }
+    }
+}
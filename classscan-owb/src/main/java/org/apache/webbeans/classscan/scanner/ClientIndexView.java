@@ -0,0 +1,416 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>Read-only view on the indexes of a shared {@link AnnotationDB}
+ * which only shows the classes a single ScanJob asked for.</p>
+ *
+ * <p>If the ScanJob only asked for some element kinds, e.g. only for class level
+ * annotations, the annotations found at other elements get hidden as well.</p>
+ *
+ * <p>The AnnotationDB contains the merged result of all ScanJobs.
+ * Nothing gets copied, the filter gets applied while accessing the maps.
+ * Only the sizes of the maps and the annotations with visible classes get
+ * computed once with their first use, as the AnnotationDB doesn't change anymore.</p>
+ */
+class ClientIndexView
+{
+    private final AnnotationDB annotationDB;
+    private final PackageFilter packageFilter;
+
+    /**
+     * classes explicitly requested via {@link org.apache.commons.classscan.api.ScanJob#getClassesToScan()}
+     */
+    private final Set<String> explicitClasses;
+
+    /**
+     * the element kinds the client asked for, {@link AnnotationDB#ALL_ELEMENTS} if it sees all
+     */
+    private final int elementKinds;
+
+    private final Map<String, Set<String>> classIndex;
+    private final Map<String, Set<String>> annotationIndex;
+
+    /**
+     * the ids of the visible classes in the {@link QueryIndex}, created with the first query
+     */
+    private volatile BitSet visibleClasses;
+
+    /**
+     * the number of visible classes, <code>-1</code> until the first call of size()
+     */
+    private volatile int classCount = -1;
+
+    /**
+     * the number of visible classes of each annotation which has any, created with the first use
+     */
+    private volatile Map<String, Integer> annotationCounts;
+
+    ClientIndexView(AnnotationDB annotationDB, PackageFilter packageFilter, Set<String> explicitClasses,
+                    int elementKinds)
+    {
+        this.annotationDB = annotationDB;
+        this.packageFilter = packageFilter;
+        this.explicitClasses = explicitClasses;
+        this.elementKinds = elementKinds;
+        this.classIndex = new ClassIndexView();
+        this.annotationIndex = new AnnotationIndexView();
+    }
+
+    Map<String, Set<String>> getClassIndex()
+    {
+        return classIndex;
+    }
+
+    Map<String, Set<String>> getAnnotationIndex()
+    {
+        return annotationIndex;
+    }
+
+    /**
+     * @return the ids of all classes of the given QueryIndex this view shows, must not get changed
+     */
+    BitSet getVisibleClasses(QueryIndex queryIndex)
+    {
+        BitSet visible = visibleClasses;
+        if (visible == null)
+        {
+            visible = queryIndex.select(this);
+            visibleClasses = visible;
+        }
+        return visible;
+    }
+
+    boolean isVisible(Object className)
+    {
+        return className instanceof String
+               && (packageFilter.accepts((String) className) || explicitClasses.contains(className));
+    }
+
+    private int getClassCount()
+    {
+        int count = classCount;
+        if (count < 0)
+        {
+            count = count(classIndex.entrySet().iterator());
+            classCount = count;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of visible classes of all annotations which have at least one, must not get changed
+     */
+    private Map<String, Integer> getAnnotationCounts()
+    {
+        Map<String, Integer> counts = annotationCounts;
+        if (counts == null)
+        {
+            counts = new HashMap<String, Integer>();
+            for (Map.Entry<String, Set<String>> entry : annotationDB.getAnnotationIndex().entrySet())
+            {
+                int count = count(new ClassSetView(entry.getKey(), entry.getValue(), -1).iterator());
+                if (count > 0)
+                {
+                    counts.put(entry.getKey(), count);
+                }
+            }
+            annotationCounts = counts;
+        }
+        return counts;
+    }
+
+    /**
+     * @return the element kinds this view shows, {@link AnnotationDB#ALL_ELEMENTS} if not filtered
+     */
+    int getElementKinds()
+    {
+        return elementKinds;
+    }
+
+    /**
+     * @return <code>true</code> if the annotation of the class got found at one of the element kinds of this view
+     */
+    private boolean isVisible(String className, Object annotation)
+    {
+        return elementKinds == AnnotationDB.ALL_ELEMENTS || !(annotation instanceof String)
+               || (annotationDB.getElementKinds(className, (String) annotation) & elementKinds) != 0;
+    }
+
+    /**
+     * @return the given annotations of the class, filtered by the element kinds
+     */
+    private Set<String> annotationsOf(String className, Set<String> annotations)
+    {
+        if (annotations == null || elementKinds == AnnotationDB.ALL_ELEMENTS)
+        {
+            return annotations;
+        }
+        return new AnnotationSetView(className, annotations);
+    }
+
+    private class ClassIndexView extends AbstractMap<String, Set<String>>
+    {
+        @Override
+        public Set<String> get(Object key)
+        {
+            return isVisible(key) ? annotationsOf((String) key, annotationDB.getClassIndex().get(key)) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return isVisible(key) && annotationDB.getClassIndex().containsKey(key);
+        }
+
+        @Override
+        public Set<Entry<String, Set<String>>> entrySet()
+        {
+            return new AbstractSet<Entry<String, Set<String>>>()
+            {
+                @Override
+                public Iterator<Entry<String, Set<String>>> iterator()
+                {
+                    return new FilteringIterator<Entry<String, Set<String>>>(annotationDB.getClassIndex().entrySet().iterator())
+                    {
+                        @Override
+                        protected Entry<String, Set<String>> filter(Entry<String, Set<String>> entry)
+                        {
+                            if (!isVisible(entry.getKey()))
+                            {
+                                return null;
+                            }
+                            if (elementKinds == AnnotationDB.ALL_ELEMENTS)
+                            {
+                                return entry;
+                            }
+                            return new SimpleImmutableEntry<String, Set<String>>(entry.getKey(),
+                                    annotationsOf(entry.getKey(), entry.getValue()));
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return getClassCount();
+                }
+            };
+        }
+    }
+
+    private class AnnotationIndexView extends AbstractMap<String, Set<String>>
+    {
+        @Override
+        public Set<String> get(Object key)
+        {
+            Integer count = getAnnotationCounts().get(key);
+            if (count == null)
+            {
+                // none of the annotated classes is visible
+                return null;
+            }
+            return new ClassSetView(key, annotationDB.getAnnotationIndex().get(key), count);
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return getAnnotationCounts().containsKey(key);
+        }
+
+        @Override
+        public Set<Entry<String, Set<String>>> entrySet()
+        {
+            return new AbstractSet<Entry<String, Set<String>>>()
+            {
+                @Override
+                public Iterator<Entry<String, Set<String>>> iterator()
+                {
+                    return new FilteringIterator<Entry<String, Set<String>>>(annotationDB.getAnnotationIndex().entrySet().iterator())
+                    {
+                        @Override
+                        protected Entry<String, Set<String>> filter(Entry<String, Set<String>> entry)
+                        {
+                            Integer count = getAnnotationCounts().get(entry.getKey());
+                            if (count == null)
+                            {
+                                // none of the annotated classes is visible
+                                return null;
+                            }
+                            return new SimpleImmutableEntry<String, Set<String>>(entry.getKey(),
+                                    new ClassSetView(entry.getKey(), entry.getValue(), count));
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return getAnnotationCounts().size();
+                }
+            };
+        }
+    }
+
+    private class ClassSetView extends AbstractSet<String>
+    {
+        private final Object annotation;
+        private final Set<String> classes;
+
+        /**
+         * the number of visible classes, <code>-1</code> if not known yet
+         */
+        private final int size;
+
+        private ClassSetView(Object annotation, Set<String> classes, int size)
+        {
+            this.annotation = annotation;
+            this.classes = classes;
+            this.size = size;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            return isVisible(o) && classes.contains(o) && isVisible((String) o, annotation);
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return new FilteringIterator<String>(classes.iterator())
+            {
+                @Override
+                protected String filter(String className)
+                {
+                    return isVisible(className) && isVisible(className, annotation) ? className : null;
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return size >= 0 ? size : count(iterator());
+        }
+    }
+
+    /**
+     * The annotations of a class which got found at the element kinds of this view.
+     */
+    private class AnnotationSetView extends AbstractSet<String>
+    {
+        private final String className;
+        private final Set<String> annotations;
+
+        private AnnotationSetView(String className, Set<String> annotations)
+        {
+            this.className = className;
+            this.annotations = annotations;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            return annotations.contains(o) && isVisible(className, o);
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return new FilteringIterator<String>(annotations.iterator())
+            {
+                @Override
+                protected String filter(String annotation)
+                {
+                    return isVisible(className, annotation) ? annotation : null;
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return count(iterator());
+        }
+    }
+
+    private static int count(Iterator<?> it)
+    {
+        int size = 0;
+        while (it.hasNext())
+        {
+            it.next();
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Read-only iterator which skips all elements the filter maps to <code>null</code>.
+     */
+    private abstract static class FilteringIterator<T> implements Iterator<T>
+    {
+        private final Iterator<T> delegate;
+        private T next;
+
+        private FilteringIterator(Iterator<T> delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        protected abstract T filter(T element);
+
+        public boolean hasNext()
+        {
+            while (next == null && delegate.hasNext())
+            {
+                next = filter(delegate.next());
+            }
+            return next != null;
+        }
+
+        public T next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            T result = next;
+            next = null;
+            return result;
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException("the index is read-only");
+        }
+    }
+}
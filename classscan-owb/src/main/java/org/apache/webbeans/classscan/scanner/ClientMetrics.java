@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.Serializable;
+
+/**
+ * What a client got and how long it had to wait for it.
+ */
+public final class ClientMetrics implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String clientName;
+    private final long registrationTime;
+    private final int indexSize;
+    private final long nanosToFirstResult;
+
+    public ClientMetrics(String clientName, long registrationTime, int indexSize, long nanosToFirstResult)
+    {
+        this.clientName = clientName;
+        this.registrationTime = registrationTime;
+        this.indexSize = indexSize;
+        this.nanosToFirstResult = nanosToFirstResult;
+    }
+
+    public String getClientName()
+    {
+        return clientName;
+    }
+
+    /**
+     * @return when the client got registered, in milliseconds like {@link System#currentTimeMillis()}
+     */
+    public long getRegistrationTime()
+    {
+        return registrationTime;
+    }
+
+    /**
+     * @return the number of classes visible to the client
+     */
+    public int getIndexSize()
+    {
+        return indexSize;
+    }
+
+    /**
+     * @return the time between the registration of the client and its first scan result
+     */
+    public long getNanosToFirstResult()
+    {
+        return nanosToFirstResult;
+    }
+
+    @Override
+    public String toString()
+    {
+        return clientName + ": " + indexSize + " classes, first result after " + nanosToFirstResult / 1000000L + " ms";
+    }
+}
@@ -0,0 +1,638 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import org.apache.commons.classscan.api.AnnotatedMember;
+
+import java.io.Serializable;
+import java.lang.annotation.ElementType;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>Compact read-only form of the indexes of an {@link AnnotationDB}.</p>
+ *
+ * <p>Each class and annotation name gets stored only once in a sorted symbol table,
+ * its position is the id of the name. The classes of an annotation, the annotations
+ * of a class and the interfaces of a class get stored as sorted <code>int[]</code>
+ * of ids, the super class of a class as single id. The element kinds of the
+ * annotations of a class get stored as <code>byte[]</code> in the order of the
+ * annotation ids. The names and values of the indexed annotation members are part
+ * of the symbol table as well, the values of a class get stored as one <code>int[]</code>.
+ * The same goes for the names and descriptors of the annotated members.
+ * Lookups of a name use a binary search on the symbol table.</p>
+ *
+ * <p>The indexes get exposed as read-only <code>Map&lt;String, Set&lt;String&gt;&gt;</code>
+ * views. The Sets of the views always are the same instances.</p>
+ */
+final class CompactIndex implements ReadOnlyIndex, Serializable
+{
+    private static final int[] NO_IDS = new int[0];
+
+    private final String[] symbols;
+
+    private final IndexView classIndex;
+    private final Map<String, Set<String>> annotationIndex;
+    private final Map<String, Set<String>> implementsIndex;
+    private final Map<String, String> superClassIndex;
+
+    /**
+     * the element kinds of the annotations of each class, indexed by the id of the class,
+     * <code>null</code> if unknown
+     */
+    private final byte[][] elementKinds;
+
+    /**
+     * the values of the annotation members of each class, indexed by the id of the class,
+     * <code>null</code> if the class has none. Each member is stored as its id, the number
+     * of values and the ids of the values.
+     */
+    private final int[][] annotationValues;
+
+    /**
+     * the annotated members of each class, indexed by the id of the class, <code>null</code>
+     * if the class has none. Each member is stored as the id of the annotation, the id of
+     * the member name, the id of the descriptor and the ordinal of the element kind.
+     */
+    private final int[][] annotatedMembers;
+
+    private CompactIndex(String[] symbols, Map<String, Set<String>> classIndex,
+                         Map<String, Set<String>> annotationIndex, Map<String, Set<String>> implementsIndex,
+                         Map<String, String> superClassIndex, Map<String, Map<String, Integer>> elementKindIndex,
+                         Map<String, Map<String, List<String>>> annotationValueIndex,
+                         Map<String, Map<String, Set<AnnotatedMember>>> memberIndex)
+    {
+        this.symbols = symbols;
+        this.classIndex = new IndexView(classIndex);
+        this.annotationIndex = new IndexView(annotationIndex);
+        this.implementsIndex = new IndexView(implementsIndex);
+        this.superClassIndex = new SuperClassView(superClassIndex);
+
+        elementKinds = new byte[symbols.length][];
+        for (Map.Entry<String, Map<String, Integer>> entry : elementKindIndex.entrySet())
+        {
+            int classId = idOf(entry.getKey());
+            IdSet annotations = classId >= 0 ? this.classIndex.get(classId) : null;
+            if (annotations == null || annotations.size() == 0)
+            {
+                continue;
+            }
+            int[] annotationIds = annotations.ids();
+            byte[] kinds = new byte[annotationIds.length];
+            Arrays.fill(kinds, (byte) AnnotationDB.ALL_ELEMENTS);
+            for (Map.Entry<String, Integer> annotation : entry.getValue().entrySet())
+            {
+                int position = Arrays.binarySearch(annotationIds, idOf(annotation.getKey()));
+                if (position >= 0)
+                {
+                    kinds[position] = annotation.getValue().byteValue();
+                }
+            }
+            elementKinds[classId] = kinds;
+        }
+
+        annotationValues = new int[symbols.length][];
+        for (Map.Entry<String, Map<String, List<String>>> entry : annotationValueIndex.entrySet())
+        {
+            int length = 0;
+            for (List<String> values : entry.getValue().values())
+            {
+                length += 2 + values.size();
+            }
+            int[] encoded = new int[length];
+            int pos = 0;
+            for (Map.Entry<String, List<String>> member : entry.getValue().entrySet())
+            {
+                encoded[pos++] = idOf(member.getKey());
+                encoded[pos++] = member.getValue().size();
+                for (String value : member.getValue())
+                {
+                    encoded[pos++] = idOf(value);
+                }
+            }
+            annotationValues[idOf(entry.getKey())] = encoded;
+        }
+
+        annotatedMembers = new int[symbols.length][];
+        for (Map.Entry<String, Map<String, Set<AnnotatedMember>>> entry : memberIndex.entrySet())
+        {
+            int length = 0;
+            for (Set<AnnotatedMember> members : entry.getValue().values())
+            {
+                length += 4 * members.size();
+            }
+            int[] encoded = new int[length];
+            int pos = 0;
+            for (Map.Entry<String, Set<AnnotatedMember>> annotation : entry.getValue().entrySet())
+            {
+                int annotationId = idOf(annotation.getKey());
+                for (AnnotatedMember member : annotation.getValue())
+                {
+                    encoded[pos++] = annotationId;
+                    encoded[pos++] = idOf(member.getMemberName());
+                    encoded[pos++] = idOf(member.getDescriptor());
+                    encoded[pos++] = member.getElementKind().ordinal();
+                }
+            }
+            annotatedMembers[idOf(entry.getKey())] = encoded;
+        }
+    }
+
+    /**
+     * Create the compact form of the given indexes. The indexes don't get changed.
+     */
+    static CompactIndex create(Map<String, Set<String>> classIndex, Map<String, Set<String>> annotationIndex,
+                               Map<String, Set<String>> implementsIndex, Map<String, String> superClassIndex,
+                               Map<String, Map<String, Integer>> elementKindIndex,
+                               Map<String, Map<String, List<String>>> annotationValueIndex,
+                               Map<String, Map<String, Set<AnnotatedMember>>> memberIndex)
+    {
+        Set<String> names = collectNames(classIndex, annotationIndex, implementsIndex, superClassIndex,
+                                         annotationValueIndex, memberIndex);
+        String[] symbols = names.toArray(new String[names.size()]);
+        Arrays.sort(symbols);
+        return new CompactIndex(symbols, classIndex, annotationIndex, implementsIndex, superClassIndex,
+                                elementKindIndex, annotationValueIndex, memberIndex);
+    }
+
+    /**
+     * @return all names the symbol table of the given indexes has to contain
+     */
+    static Set<String> collectNames(Map<String, Set<String>> classIndex, Map<String, Set<String>> annotationIndex,
+                                    Map<String, Set<String>> implementsIndex, Map<String, String> superClassIndex,
+                                    Map<String, Map<String, List<String>>> annotationValueIndex,
+                                    Map<String, Map<String, Set<AnnotatedMember>>> memberIndex)
+    {
+        Set<String> names = new HashSet<String>();
+        addNames(names, classIndex);
+        addNames(names, annotationIndex);
+        addNames(names, implementsIndex);
+        names.addAll(superClassIndex.keySet());
+        names.addAll(superClassIndex.values());
+        for (Map.Entry<String, Map<String, List<String>>> entry : annotationValueIndex.entrySet())
+        {
+            names.add(entry.getKey());
+            for (Map.Entry<String, List<String>> member : entry.getValue().entrySet())
+            {
+                names.add(member.getKey());
+                names.addAll(member.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, Set<AnnotatedMember>>> entry : memberIndex.entrySet())
+        {
+            names.add(entry.getKey());
+            for (Map.Entry<String, Set<AnnotatedMember>> annotation : entry.getValue().entrySet())
+            {
+                names.add(annotation.getKey());
+                for (AnnotatedMember member : annotation.getValue())
+                {
+                    names.add(member.getMemberName());
+                    names.add(member.getDescriptor());
+                }
+            }
+        }
+        return names;
+    }
+
+    private static void addNames(Set<String> names, Map<String, Set<String>> index)
+    {
+        for (Map.Entry<String, Set<String>> entry : index.entrySet())
+        {
+            names.add(entry.getKey());
+            names.addAll(entry.getValue());
+        }
+    }
+
+    public Map<String, Set<String>> getClassIndex()
+    {
+        return classIndex;
+    }
+
+    public Map<String, Set<String>> getAnnotationIndex()
+    {
+        return annotationIndex;
+    }
+
+    public Map<String, Set<String>> getImplementsIndex()
+    {
+        return implementsIndex;
+    }
+
+    public Map<String, String> getSuperClassIndex()
+    {
+        return superClassIndex;
+    }
+
+    /**
+     * @see AnnotationDB#getElementKinds(String, String)
+     */
+    public int getElementKinds(String className, String annotation)
+    {
+        int classId = idOf(className);
+        byte[] kinds = classId >= 0 ? elementKinds[classId] : null;
+        if (kinds == null)
+        {
+            return AnnotationDB.ALL_ELEMENTS;
+        }
+        int position = Arrays.binarySearch(classIndex.get(classId).ids(), idOf(annotation));
+        return position >= 0 ? kinds[position] : AnnotationDB.ALL_ELEMENTS;
+    }
+
+    /**
+     * @see AnnotationDB#getAnnotationValues(String)
+     */
+    public Map<String, List<String>> getAnnotationValues(String className)
+    {
+        int classId = idOf(className);
+        int[] encoded = classId >= 0 ? annotationValues[classId] : null;
+        if (encoded == null)
+        {
+            return null;
+        }
+        Map<String, List<String>> values = new HashMap<String, List<String>>();
+        int pos = 0;
+        while (pos < encoded.length)
+        {
+            String member = symbols[encoded[pos++]];
+            String[] memberValues = new String[encoded[pos++]];
+            for (int i = 0; i < memberValues.length; i++)
+            {
+                memberValues[i] = symbols[encoded[pos++]];
+            }
+            values.put(member, Collections.unmodifiableList(Arrays.asList(memberValues)));
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * @see AnnotationDB#getAnnotatedMembers(String)
+     */
+    public Map<String, Set<AnnotatedMember>> getAnnotatedMembers(String className)
+    {
+        int classId = idOf(className);
+        int[] encoded = classId >= 0 ? annotatedMembers[classId] : null;
+        if (encoded == null)
+        {
+            return null;
+        }
+        ElementType[] elementTypes = ElementType.values();
+        Map<String, Set<AnnotatedMember>> members = new HashMap<String, Set<AnnotatedMember>>();
+        for (int pos = 0; pos < encoded.length; pos += 4)
+        {
+            String annotation = symbols[encoded[pos]];
+            Set<AnnotatedMember> annotationMembers = members.get(annotation);
+            if (annotationMembers == null)
+            {
+                annotationMembers = new LinkedHashSet<AnnotatedMember>();
+                members.put(annotation, annotationMembers);
+            }
+            annotationMembers.add(new AnnotatedMember(symbols[classId], symbols[encoded[pos + 1]],
+                                                      symbols[encoded[pos + 2]], elementTypes[encoded[pos + 3]]));
+        }
+        for (Map.Entry<String, Set<AnnotatedMember>> entry : members.entrySet())
+        {
+            entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(members);
+    }
+
+    /**
+     * @return the number of distinct names in the symbol table
+     */
+    public int getSymbolCount()
+    {
+        return symbols.length;
+    }
+
+    public void release()
+    {
+        // everything lives on the heap
+    }
+
+    /**
+     * @return the id of the given name or <code>-1</code> if it isn't contained in the index
+     */
+    int idOf(Object name)
+    {
+        if (!(name instanceof String))
+        {
+            return -1;
+        }
+        int id = Arrays.binarySearch(symbols, name);
+        return id >= 0 ? id : -1;
+    }
+
+    String nameOf(int id)
+    {
+        return symbols[id];
+    }
+
+    private int[] toIds(Set<String> names)
+    {
+        if (names.isEmpty())
+        {
+            return NO_IDS;
+        }
+        int[] ids = new int[names.size()];
+        int i = 0;
+        for (String name : names)
+        {
+            ids[i++] = idOf(name);
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Read-only map with the symbols as keys. The postings get stored in an array indexed by the id of the key.
+     */
+    final class IndexView extends AbstractMap<String, Set<String>> implements Serializable
+    {
+        private final IdSet[] postings;
+        private final int size;
+
+        private IndexView(Map<String, Set<String>> index)
+        {
+            postings = new IdSet[symbols.length];
+            IdSet empty = null;
+            for (Map.Entry<String, Set<String>> entry : index.entrySet())
+            {
+                IdSet ids;
+                if (entry.getValue().isEmpty())
+                {
+                    // all the classes without annotations share the same empty set
+                    if (empty == null)
+                    {
+                        empty = new IdSet(NO_IDS);
+                    }
+                    ids = empty;
+                }
+                else
+                {
+                    ids = new IdSet(toIds(entry.getValue()));
+                }
+                postings[idOf(entry.getKey())] = ids;
+            }
+            size = index.size();
+        }
+
+        /**
+         * @return the set of the given id or <code>null</code> if the id is no key of this index
+         */
+        IdSet get(int id)
+        {
+            return postings[id];
+        }
+
+        @Override
+        public IdSet get(Object key)
+        {
+            int id = idOf(key);
+            return id >= 0 ? postings[id] : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public Set<Entry<String, Set<String>>> entrySet()
+        {
+            return new AbstractSet<Entry<String, Set<String>>>()
+            {
+                @Override
+                public Iterator<Entry<String, Set<String>>> iterator()
+                {
+                    return new Iterator<Entry<String, Set<String>>>()
+                    {
+                        private int next = advance(0);
+
+                        private int advance(int id)
+                        {
+                            while (id < postings.length && postings[id] == null)
+                            {
+                                id++;
+                            }
+                            return id;
+                        }
+
+                        public boolean hasNext()
+                        {
+                            return next < postings.length;
+                        }
+
+                        public Entry<String, Set<String>> next()
+                        {
+                            if (!hasNext())
+                            {
+                                throw new NoSuchElementException();
+                            }
+                            int id = next;
+                            next = advance(id + 1);
+                            return new SimpleImmutableEntry<String, Set<String>>(symbols[id], postings[id]);
+                        }
+
+                        public void remove()
+                        {
+                            throw new UnsupportedOperationException("the index is read-only");
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return size;
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only map from class to super class. The id of the super class gets stored
+     * in an array indexed by the id of the class, <code>-1</code> marks classes without entry.
+     */
+    final class SuperClassView extends AbstractMap<String, String> implements Serializable
+    {
+        private final int[] superClasses;
+        private final int size;
+
+        private SuperClassView(Map<String, String> index)
+        {
+            superClasses = new int[symbols.length];
+            Arrays.fill(superClasses, -1);
+            for (Map.Entry<String, String> entry : index.entrySet())
+            {
+                superClasses[idOf(entry.getKey())] = idOf(entry.getValue());
+            }
+            size = index.size();
+        }
+
+        @Override
+        public String get(Object key)
+        {
+            int id = idOf(key);
+            return id >= 0 && superClasses[id] >= 0 ? symbols[superClasses[id]] : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet()
+        {
+            return new AbstractSet<Entry<String, String>>()
+            {
+                @Override
+                public Iterator<Entry<String, String>> iterator()
+                {
+                    return new Iterator<Entry<String, String>>()
+                    {
+                        private int next = advance(0);
+
+                        private int advance(int id)
+                        {
+                            while (id < superClasses.length && superClasses[id] < 0)
+                            {
+                                id++;
+                            }
+                            return id;
+                        }
+
+                        public boolean hasNext()
+                        {
+                            return next < superClasses.length;
+                        }
+
+                        public Entry<String, String> next()
+                        {
+                            if (!hasNext())
+                            {
+                                throw new NoSuchElementException();
+                            }
+                            int id = next;
+                            next = advance(id + 1);
+                            return new SimpleImmutableEntry<String, String>(symbols[id], symbols[superClasses[id]]);
+                        }
+
+                        public void remove()
+                        {
+                            throw new UnsupportedOperationException("the index is read-only");
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return size;
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only set of names, stored as sorted ids.
+     */
+    final class IdSet extends AbstractSet<String> implements Serializable
+    {
+        private final int[] ids;
+
+        private IdSet(int[] ids)
+        {
+            this.ids = ids;
+        }
+
+        /**
+         * @return the sorted ids of the names, must not get changed
+         */
+        int[] ids()
+        {
+            return ids;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            int id = idOf(o);
+            return id >= 0 && Arrays.binarySearch(ids, id) >= 0;
+        }
+
+        @Override
+        public int size()
+        {
+            return ids.length;
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return new Iterator<String>()
+            {
+                private int position;
+
+                public boolean hasNext()
+                {
+                    return position < ids.length;
+                }
+
+                public String next()
+                {
+                    if (!hasNext())
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    return symbols[ids[position++]];
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException("the index is read-only");
+                }
+            };
+        }
+    }
+}
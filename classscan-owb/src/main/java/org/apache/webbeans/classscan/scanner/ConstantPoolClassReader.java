@@ -0,0 +1,687 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+
+/**
+ * <p>A minimal class file reader which only extracts the information
+ * we need for the annotation indexes.</p>
+ *
+ * <p>Instead of building a full class model like javassist does, this reader
+ * only remembers the offsets of the constant pool entries and decodes just
+ * the class name, the super class, the interfaces and the type names of the
+ * annotations. The member values of class annotations only get decoded if the
+ * visitor asks for them. All other attributes, especially the <code>Code</code> attributes,
+ * get skipped by their length without looking at them.</p>
+ *
+ * <p>Instances reuse their internal buffers and are therefore not thread safe.</p>
+ *
+ * @see <a href="http://java.sun.com/docs/books/jvms/second_edition/html/ClassFile.doc.html">JVM spec, The class File Format</a>
+ */
+public class ConstantPoolClassReader implements ClassFileReader
+{
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private static final int ATTR_OTHER = 0;
+    private static final int ATTR_ANNOTATIONS = 1;
+    private static final int ATTR_PARAMETER_ANNOTATIONS = 2;
+
+    private static final byte[] RUNTIME_VISIBLE_ANNOTATIONS = ascii("RuntimeVisibleAnnotations");
+    private static final byte[] RUNTIME_INVISIBLE_ANNOTATIONS = ascii("RuntimeInvisibleAnnotations");
+    private static final byte[] RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS = ascii("RuntimeVisibleParameterAnnotations");
+    private static final byte[] RUNTIME_INVISIBLE_PARAMETER_ANNOTATIONS = ascii("RuntimeInvisibleParameterAnnotations");
+
+    private byte[] b;
+
+    /**
+     * number of valid bytes in {@link #b}, the buffer might still contain a previous longer class behind them
+     */
+    private int limit;
+
+    /**
+     * number of entries of the constant pool, {@link #cpOffsets} might still contain entries of a previous class behind them
+     */
+    private int cpCount;
+
+    /**
+     * offsets of the constant pool entries, pointing to the byte after the tag
+     */
+    private int[] cpOffsets = new int[256];
+
+    /**
+     * cached kind of the attribute name for each constant pool index, 0 means not yet resolved
+     */
+    private byte[] attributeKinds = new byte[256];
+
+    private char[] chars = new char[128];
+
+    /**
+     * Parse the given class file.
+     *
+     * @param bytes buffer containing the class file
+     * @param length number of valid bytes in the buffer, bytes behind them never get looked at
+     * @param visitor receives the parsed information
+     * @throws IOException if the bytes do not contain a valid class file or any offset exceeds length
+     */
+    public void read(byte[] bytes, int length, ClassFileVisitor visitor) throws IOException
+    {
+        if (length < 10 || length > bytes.length || readInt(bytes, 0) != MAGIC)
+        {
+            throw new IOException("not a valid class file");
+        }
+
+        b = bytes;
+        limit = length;
+        try
+        {
+            int pos = readConstantPool();
+
+            // access flags
+            pos += 2;
+            String className = readClassName(readUnsignedShort(pos));
+            int superIndex = readUnsignedShort(pos + 2);
+            String superClassName = superIndex == 0 ? null : readClassName(superIndex);
+            pos += 4;
+
+            int interfaceCount = readUnsignedShort(pos);
+            pos += 2;
+            String[] interfaces = new String[interfaceCount];
+            for (int i = 0; i < interfaceCount; i++)
+            {
+                interfaces[i] = readClassName(readUnsignedShort(pos));
+                pos += 2;
+            }
+
+            visitor.visitClass(className, superClassName, interfaces);
+
+            pos = readMembers(pos, visitor, ElementType.FIELD);
+            pos = readMembers(pos, visitor, ElementType.METHOD);
+            readAttributes(pos, -1, visitor, ElementType.TYPE);
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            throw new IOException("truncated or corrupt class file");
+        }
+        finally
+        {
+            b = null;
+        }
+    }
+
+    /**
+     * Remember the offsets of all constant pool entries.
+     * @return position of the first byte after the constant pool
+     */
+    private int readConstantPool() throws IOException
+    {
+        int count = readUnsignedShort(8);
+        cpCount = 0;
+        if (cpOffsets.length < count)
+        {
+            int size = Math.max(count, cpOffsets.length * 2);
+            cpOffsets = new int[size];
+            attributeKinds = new byte[size];
+        }
+        else
+        {
+            for (int i = 0; i < count; i++)
+            {
+                attributeKinds[i] = 0;
+            }
+        }
+
+        int pos = 10;
+        for (int i = 1; i < count; i++)
+        {
+            int tag = readByte(pos);
+            cpOffsets[i] = pos + 1;
+            switch (tag)
+            {
+                case CONSTANT_UTF8:
+                    pos += 3 + readUnsignedShort(pos + 1);
+                    break;
+                case CONSTANT_LONG:
+                case CONSTANT_DOUBLE:
+                    pos += 9;
+                    // 8 byte constants take two slots
+                    i++;
+                    break;
+                case CONSTANT_INTEGER:
+                case CONSTANT_FLOAT:
+                case CONSTANT_FIELDREF:
+                case CONSTANT_METHODREF:
+                case CONSTANT_INTERFACE_METHODREF:
+                case CONSTANT_NAME_AND_TYPE:
+                case CONSTANT_DYNAMIC:
+                case CONSTANT_INVOKE_DYNAMIC:
+                    pos += 5;
+                    break;
+                case CONSTANT_METHOD_HANDLE:
+                    pos += 4;
+                    break;
+                case CONSTANT_CLASS:
+                case CONSTANT_STRING:
+                case CONSTANT_METHOD_TYPE:
+                case CONSTANT_MODULE:
+                case CONSTANT_PACKAGE:
+                    pos += 3;
+                    break;
+                default:
+                    throw new IOException("unknown constant pool tag " + tag);
+            }
+        }
+        checkBounds(10, pos - 10);
+        cpCount = count;
+        return pos;
+    }
+
+    /**
+     * Read all field_info or method_info structures.
+     * @return position of the first byte after the members
+     */
+    private int readMembers(int pos, ClassFileVisitor visitor, ElementType elementType) throws IOException
+    {
+        int memberCount = readUnsignedShort(pos);
+        pos += 2;
+        for (int i = 0; i < memberCount; i++)
+        {
+            // access flags, name and descriptor
+            pos = readAttributes(pos + 6, pos, visitor, elementType);
+        }
+        return pos;
+    }
+
+    /**
+     * Read the attributes of a class, field or method.
+     * @param memberPos position of the field_info or method_info, <code>-1</code> for the class itself
+     * @return position of the first byte after the attributes
+     */
+    private int readAttributes(int pos, int memberPos, ClassFileVisitor visitor, ElementType elementType) throws IOException
+    {
+        boolean memberVisited = memberPos < 0 || !visitor.isInterestedInMembers();
+        int attributeCount = readUnsignedShort(pos);
+        pos += 2;
+        for (int i = 0; i < attributeCount; i++)
+        {
+            int nameIndex = readUnsignedShort(pos);
+            checkBounds(pos + 2, 4);
+            int length = readInt(b, pos + 2);
+            pos += 6;
+            checkBounds(pos, length);
+
+            int kind = getAttributeKind(nameIndex);
+            if (kind == ATTR_ANNOTATIONS && visitor.isInterested(elementType))
+            {
+                if (!memberVisited)
+                {
+                    visitMember(memberPos, visitor);
+                    memberVisited = true;
+                }
+                readAnnotations(pos, visitor, elementType);
+            }
+            else if (kind == ATTR_PARAMETER_ANNOTATIONS && visitor.isInterested(ElementType.PARAMETER))
+            {
+                if (!memberVisited)
+                {
+                    visitMember(memberPos, visitor);
+                    memberVisited = true;
+                }
+                int parameterCount = readByte(pos) & 0xFF;
+                int annPos = pos + 1;
+                for (int p = 0; p < parameterCount; p++)
+                {
+                    annPos = readAnnotations(annPos, visitor, ElementType.PARAMETER);
+                }
+            }
+
+            pos += length;
+        }
+        return pos;
+    }
+
+    /**
+     * Decode name and descriptor of a field or method only if it carries annotations.
+     * @param memberPos position of the field_info or method_info
+     */
+    private void visitMember(int memberPos, ClassFileVisitor visitor) throws IOException
+    {
+        visitor.visitMember(readUtf8(readUnsignedShort(memberPos + 2), false),
+                            readUtf8(readUnsignedShort(memberPos + 4), false));
+    }
+
+    /**
+     * Read a Runtime(In)VisibleAnnotations structure.
+     * @return position of the first byte after the annotations
+     */
+    private int readAnnotations(int pos, ClassFileVisitor visitor, ElementType elementType) throws IOException
+    {
+        int annotationCount = readUnsignedShort(pos);
+        pos += 2;
+        for (int i = 0; i < annotationCount; i++)
+        {
+            String annotationType = readTypeDescriptor(readUnsignedShort(pos));
+            visitor.visitAnnotation(annotationType, elementType);
+            if (elementType == ElementType.TYPE && visitor.isInterestedInValues(annotationType))
+            {
+                pos = readAnnotationBody(pos + 2, visitor, annotationType);
+            }
+            else
+            {
+                pos = skipAnnotationBody(pos + 2);
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Report the element_value_pairs of an annotation to the visitor.
+     * @param pos position of the num_element_value_pairs
+     * @return position of the first byte after the annotation
+     */
+    private int readAnnotationBody(int pos, ClassFileVisitor visitor, String annotationType) throws IOException
+    {
+        int pairCount = readUnsignedShort(pos);
+        pos += 2;
+        for (int i = 0; i < pairCount; i++)
+        {
+            String memberName = readUtf8(readUnsignedShort(pos), false);
+            pos = readElementValue(pos + 2, visitor, annotationType, memberName);
+        }
+        return pos;
+    }
+
+    /**
+     * @return position of the first byte after the element_value
+     */
+    private int readElementValue(int pos, ClassFileVisitor visitor, String annotationType, String memberName) throws IOException
+    {
+        int tag = readByte(pos++);
+        String value;
+        switch (tag)
+        {
+            case 'B':
+            case 'I':
+            case 'S':
+                value = String.valueOf(readInt(cpOffset(readUnsignedShort(pos))));
+                break;
+            case 'C':
+                value = String.valueOf((char) readInt(cpOffset(readUnsignedShort(pos))));
+                break;
+            case 'Z':
+                value = String.valueOf(readInt(cpOffset(readUnsignedShort(pos))) != 0);
+                break;
+            case 'J':
+                value = String.valueOf(readLong(cpOffset(readUnsignedShort(pos))));
+                break;
+            case 'F':
+                value = String.valueOf(Float.intBitsToFloat(readInt(cpOffset(readUnsignedShort(pos)))));
+                break;
+            case 'D':
+                value = String.valueOf(Double.longBitsToDouble(readLong(cpOffset(readUnsignedShort(pos)))));
+                break;
+            case 's':
+                value = readUtf8(readUnsignedShort(pos), false);
+                break;
+            case 'c':
+                value = toClassName(readUtf8(readUnsignedShort(pos), true));
+                break;
+            case 'e':
+                // skip the type of the enum, we only report the name of the constant
+                visitor.visitAnnotationValue(annotationType, memberName, readUtf8(readUnsignedShort(pos + 2), false));
+                return pos + 4;
+            case '[':
+                int valueCount = readUnsignedShort(pos);
+                pos += 2;
+                for (int i = 0; i < valueCount; i++)
+                {
+                    pos = readElementValue(pos, visitor, annotationType, memberName);
+                }
+                return pos;
+            default:
+                // nested annotations don't get reported
+                return skipElementValue(pos - 1);
+        }
+        visitor.visitAnnotationValue(annotationType, memberName, value);
+        return pos + 2;
+    }
+
+    /**
+     * Skip the element_value_pairs of an annotation.
+     * @param pos position of the num_element_value_pairs
+     * @return position of the first byte after the annotation
+     */
+    private int skipAnnotationBody(int pos) throws IOException
+    {
+        int pairCount = readUnsignedShort(pos);
+        pos += 2;
+        for (int i = 0; i < pairCount; i++)
+        {
+            pos = skipElementValue(pos + 2);
+        }
+        return pos;
+    }
+
+    private int skipElementValue(int pos) throws IOException
+    {
+        int tag = readByte(pos++);
+        switch (tag)
+        {
+            case 'e':
+                return pos + 4;
+            case '@':
+                return skipAnnotationBody(pos + 2);
+            case '[':
+                int valueCount = readUnsignedShort(pos);
+                pos += 2;
+                for (int i = 0; i < valueCount; i++)
+                {
+                    pos = skipElementValue(pos);
+                }
+                return pos;
+            default:
+                // const values and class infos
+                return pos + 2;
+        }
+    }
+
+    private int getAttributeKind(int nameIndex) throws IOException
+    {
+        int kind = attributeKinds[nameIndex];
+        if (kind == 0)
+        {
+            if (utf8Equals(nameIndex, RUNTIME_VISIBLE_ANNOTATIONS) || utf8Equals(nameIndex, RUNTIME_INVISIBLE_ANNOTATIONS))
+            {
+                kind = ATTR_ANNOTATIONS;
+            }
+            else if (utf8Equals(nameIndex, RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS)
+                     || utf8Equals(nameIndex, RUNTIME_INVISIBLE_PARAMETER_ANNOTATIONS))
+            {
+                kind = ATTR_PARAMETER_ANNOTATIONS;
+            }
+            else
+            {
+                kind = ATTR_OTHER;
+            }
+            // store kind + 1 so that 0 stays 'unresolved'
+            attributeKinds[nameIndex] = (byte) (kind + 1);
+            return kind;
+        }
+        return kind - 1;
+    }
+
+    private boolean utf8Equals(int cpIndex, byte[] expected) throws IOException
+    {
+        int offset = cpOffset(cpIndex);
+        int length = readUnsignedShort(offset);
+        if (length != expected.length)
+        {
+            return false;
+        }
+        offset += 2;
+        checkBounds(offset, length);
+        for (int i = 0; i < length; i++)
+        {
+            if (b[offset + i] != expected[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param cpIndex index of a CONSTANT_Class entry
+     * @return the class name with '.' as package separator
+     */
+    private String readClassName(int cpIndex) throws IOException
+    {
+        int utf8Offset = cpOffset(readUnsignedShort(cpOffset(cpIndex)));
+        return readUtf8(utf8Offset + 2, readUnsignedShort(utf8Offset));
+    }
+
+    /**
+     * @param cpIndex index of a CONSTANT_Utf8 entry containing a field descriptor like <code>Lcom/acme/Foo;</code>
+     * @return the class name with '.' as package separator
+     */
+    private String readTypeDescriptor(int cpIndex) throws IOException
+    {
+        int utf8Offset = cpOffset(cpIndex);
+        int length = readUnsignedShort(utf8Offset);
+        int start = utf8Offset + 2;
+        checkBounds(start, length);
+        if (length > 2 && b[start] == 'L' && b[start + length - 1] == ';')
+        {
+            return readUtf8(start + 1, length - 2);
+        }
+        return readUtf8(start, length);
+    }
+
+    /**
+     * @param cpIndex index of a CONSTANT_Utf8 entry
+     * @param dotted whether '/' should get replaced with '.'
+     */
+    private String readUtf8(int cpIndex, boolean dotted) throws IOException
+    {
+        int utf8Offset = cpOffset(cpIndex);
+        return readUtf8(utf8Offset + 2, readUnsignedShort(utf8Offset), dotted);
+    }
+
+    /**
+     * Decode modified UTF-8 and replace '/' with '.'.
+     */
+    private String readUtf8(int offset, int length) throws IOException
+    {
+        return readUtf8(offset, length, true);
+    }
+
+    /**
+     * Decode modified UTF-8.
+     * @param dotted whether '/' should get replaced with '.'
+     */
+    private String readUtf8(int offset, int length, boolean dotted) throws IOException
+    {
+        checkBounds(offset, length);
+        if (chars.length < length)
+        {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+
+        int end = offset + length;
+        int count = 0;
+        while (offset < end)
+        {
+            int c = b[offset++] & 0xFF;
+            char ch;
+            if (c < 0x80)
+            {
+                ch = (char) c;
+            }
+            else if ((c & 0xE0) == 0xC0)
+            {
+                checkUtf8(offset, 1, end);
+                ch = (char) (((c & 0x1F) << 6) | (b[offset++] & 0x3F));
+            }
+            else
+            {
+                checkUtf8(offset, 2, end);
+                ch = (char) (((c & 0x0F) << 12) | ((b[offset++] & 0x3F) << 6) | (b[offset++] & 0x3F));
+            }
+            if (ch == '/' && dotted)
+            {
+                ch = '.';
+            }
+            chars[count++] = ch;
+        }
+        return new String(chars, 0, count);
+    }
+
+    private static void checkUtf8(int offset, int size, int end) throws IOException
+    {
+        if (offset + size > end)
+        {
+            throw new IOException("malformed modified UTF-8 in the constant pool");
+        }
+    }
+
+    /**
+     * @param cpIndex index of an entry in the constant pool of the current class
+     * @return position of the entry, pointing to the byte after the tag
+     */
+    private int cpOffset(int cpIndex) throws IOException
+    {
+        if (cpIndex < 1 || cpIndex >= cpCount)
+        {
+            throw new IOException("invalid constant pool index " + cpIndex);
+        }
+        return cpOffsets[cpIndex];
+    }
+
+    /**
+     * Ensure that the given range lies within the valid bytes of the class file.
+     * The buffer itself might be longer and still contain bytes of a previous class.
+     */
+    private void checkBounds(int pos, int size) throws IOException
+    {
+        if (size < 0 || pos > limit - size)
+        {
+            throw new IOException("truncated class file, " + size + " bytes at offset " + pos
+                                  + " exceed the length of " + limit + " bytes");
+        }
+    }
+
+    private byte readByte(int pos) throws IOException
+    {
+        checkBounds(pos, 1);
+        return b[pos];
+    }
+
+    private int readUnsignedShort(int pos) throws IOException
+    {
+        checkBounds(pos, 2);
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+
+    private int readInt(int pos) throws IOException
+    {
+        checkBounds(pos, 4);
+        return readInt(b, pos);
+    }
+
+    private long readLong(int pos) throws IOException
+    {
+        checkBounds(pos, 8);
+        return ((long) readInt(b, pos) << 32) | (readInt(b, pos + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param descriptor a return descriptor with '.' as package separator, e.g. <code>[Ljava.lang.String;</code>
+     * @return the name as used in Java source, e.g. <code>java.lang.String[]</code>
+     */
+    private static String toClassName(String descriptor)
+    {
+        int dimensions = 0;
+        while (descriptor.charAt(dimensions) == '[')
+        {
+            dimensions++;
+        }
+
+        String name;
+        char type = descriptor.charAt(dimensions);
+        switch (type)
+        {
+            case 'L':
+                name = descriptor.substring(dimensions + 1, descriptor.length() - 1);
+                break;
+            case 'B':
+                name = "byte";
+                break;
+            case 'C':
+                name = "char";
+                break;
+            case 'D':
+                name = "double";
+                break;
+            case 'F':
+                name = "float";
+                break;
+            case 'I':
+                name = "int";
+                break;
+            case 'J':
+                name = "long";
+                break;
+            case 'S':
+                name = "short";
+                break;
+            case 'Z':
+                name = "boolean";
+                break;
+            default:
+                name = "void";
+                break;
+        }
+
+        if (dimensions == 0)
+        {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name);
+        for (int i = 0; i < dimensions; i++)
+        {
+            sb.append("[]");
+        }
+        return sb.toString();
+    }
+
+    private static int readInt(byte[] bytes, int pos)
+    {
+        return ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16)
+               | ((bytes[pos + 2] & 0xFF) << 8) | (bytes[pos + 3] & 0xFF);
+    }
+
+    private static byte[] ascii(String s)
+    {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>Frees the memory of direct and memory mapped ByteBuffers right away instead of
+ * waiting for their garbage collection. A mapped file can only get deleted on Windows
+ * after it got unmapped.</p>
+ *
+ * <p>The JDK has no public API for this, so the cleaner of the buffer gets invoked
+ * via reflection, either by <code>sun.misc.Unsafe#invokeCleaner</code> (Java 9 and later)
+ * or by the <code>cleaner()</code> of the buffer (Java 8). If neither is accessible,
+ * nothing happens and the memory gets freed with the garbage collection of the buffer.</p>
+ *
+ * <p>Any access to a released buffer crashes the JVM, so the owner must make sure
+ * that nobody uses the buffer or any duplicate of it afterwards.</p>
+ */
+final class DirectBuffers
+{
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static
+    {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try
+        {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        }
+        catch (Exception e)
+        {
+            // Java 8 or no access to Unsafe
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private DirectBuffers()
+    {
+        // utility class
+    }
+
+    /**
+     * Free the memory of the given buffer, respectively unmap it.
+     *
+     * @param buffer a buffer created by {@link ByteBuffer#allocateDirect(int)} or
+     *        {@link java.nio.channels.FileChannel#map}, not a duplicate or slice of it
+     * @return <code>false</code> if the buffer couldn't get released and stays valid
+     */
+    static boolean release(ByteBuffer buffer)
+    {
+        if (buffer == null || !buffer.isDirect())
+        {
+            return false;
+        }
+        try
+        {
+            if (INVOKE_CLEANER != null)
+            {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                return true;
+            }
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner == null)
+            {
+                return false;
+            }
+            cleaner.getClass().getMethod("clean").invoke(cleaner);
+            return true;
+        }
+        catch (Exception e)
+        {
+            // not accessible in this JVM, the garbage collection frees it later
+            return false;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Walks the class files of an exploded directory.</p>
+ *
+ * <p>In contrast to the scannotation FileIterator we don't collect all
+ * files upfront. Directories whose package is not accepted by the
+ * {@link ArchiveFilter} get skipped without even listing their content.</p>
+ */
+class DirectoryArchiveIterator implements ArchiveIterator
+{
+    private final ArchiveFilter filter;
+
+    /**
+     * directories still to visit and their package paths
+     */
+    private final List<File> directories = new ArrayList<File>();
+    private final List<String> packages = new ArrayList<String>();
+
+    private File[] files;
+    private int fileIndex;
+    private String currentPackage;
+    private boolean classesAccepted;
+
+    private byte[] buffer = new byte[8192];
+    private int length;
+
+    DirectoryArchiveIterator(File root, ArchiveFilter filter)
+    {
+        this.filter = filter;
+        if (filter.acceptsPackage(""))
+        {
+            directories.add(root);
+            packages.add("");
+        }
+    }
+
+    public boolean next() throws IOException
+    {
+        while (true)
+        {
+            while (files != null && fileIndex < files.length)
+            {
+                File file = files[fileIndex++];
+                String name = file.getName();
+                if (file.isDirectory())
+                {
+                    String packagePath = currentPackage.length() == 0 ? name : currentPackage + '/' + name;
+                    if (filter.acceptsPackage(packagePath))
+                    {
+                        directories.add(file);
+                        packages.add(packagePath);
+                    }
+                }
+                else if (name.endsWith(".class"))
+                {
+                    if (classesAccepted)
+                    {
+                        read(file);
+                        return true;
+                    }
+                    filter.skipClass();
+                }
+            }
+
+            if (directories.isEmpty())
+            {
+                files = null;
+                return false;
+            }
+
+            int last = directories.size() - 1;
+            files = directories.remove(last).listFiles();
+            currentPackage = packages.remove(last);
+            classesAccepted = filter.acceptsClassesIn(currentPackage);
+            fileIndex = 0;
+        }
+    }
+
+    private void read(File file) throws IOException
+    {
+        long size = file.length();
+        // one byte more, so we detect the end of the file without growing the buffer
+        if (buffer.length <= size)
+        {
+            buffer = new byte[(int) Math.max(size + 1, buffer.length * 2L)];
+        }
+
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            length = 0;
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) != -1)
+            {
+                length += read;
+                if (length == buffer.length)
+                {
+                    // the file grew since we asked for its size
+                    byte[] newBuffer = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, newBuffer, 0, length);
+                    buffer = newBuffer;
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public byte[] getBytes()
+    {
+        return buffer;
+    }
+
+    public int getLength()
+    {
+        return length;
+    }
+
+    public void close()
+    {
+        directories.clear();
+        packages.clear();
+        files = null;
+    }
+}
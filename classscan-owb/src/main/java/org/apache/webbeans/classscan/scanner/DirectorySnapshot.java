@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>The last modification time and size of all accepted class files of an
+ * exploded directory.</p>
+ *
+ * <p>Comparing a fresh snapshot with the one of the last scan tells which class
+ * files got added, changed or removed since. We don't use a WatchService as
+ * it would require Java 7, and polling is what a redeploy does anyway.</p>
+ */
+class DirectorySnapshot
+{
+    private static final String CLASS_SUFFIX = ".class";
+
+    /**
+     * relative path of the class file to its modification time and length
+     */
+    private final Map<String, long[]> files = new HashMap<String, long[]>();
+
+    private DirectorySnapshot()
+    {
+    }
+
+    /**
+     * List all class files of the directory accepted by the filter.
+     * Directories whose package is not accepted don't get listed at all.
+     */
+    static DirectorySnapshot take(File root, ArchiveFilter filter)
+    {
+        DirectorySnapshot snapshot = new DirectorySnapshot();
+        if (filter.acceptsPackage(""))
+        {
+            snapshot.walk(root, "", filter);
+        }
+        return snapshot;
+    }
+
+    private void walk(File directory, String packagePath, ArchiveFilter filter)
+    {
+        File[] children = directory.listFiles();
+        if (children == null)
+        {
+            return;
+        }
+
+        boolean classesAccepted = filter.acceptsClassesIn(packagePath);
+        for (File child : children)
+        {
+            String name = child.getName();
+            String path = packagePath.length() == 0 ? name : packagePath + '/' + name;
+            if (child.isDirectory())
+            {
+                if (filter.acceptsPackage(path))
+                {
+                    walk(child, path, filter);
+                }
+            }
+            else if (name.endsWith(CLASS_SUFFIX))
+            {
+                if (classesAccepted)
+                {
+                    files.put(path, new long[]{child.lastModified(), child.length()});
+                }
+                else
+                {
+                    filter.skipClass();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the names of all listed classes
+     */
+    Set<String> getClassNames()
+    {
+        Set<String> classNames = new HashSet<String>(files.size() * 2);
+        for (String path : files.keySet())
+        {
+            classNames.add(toClassName(path));
+        }
+        return classNames;
+    }
+
+    /**
+     * @return the latest modification time of all listed class files, <code>0</code> if there are none
+     */
+    long getLastModified()
+    {
+        long lastModified = 0;
+        for (long[] state : files.values())
+        {
+            lastModified = Math.max(lastModified, state[0]);
+        }
+        return lastModified;
+    }
+
+    /**
+     * @param previous the snapshot of the last scan, <code>null</code> if there was none
+     * @return the paths of the class files which got added or changed since the previous snapshot
+     */
+    List<String> getModifiedSince(DirectorySnapshot previous)
+    {
+        if (previous == null)
+        {
+            return new ArrayList<String>(files.keySet());
+        }
+
+        List<String> modified = new ArrayList<String>();
+        for (Map.Entry<String, long[]> entry : files.entrySet())
+        {
+            long[] previousState = previous.files.get(entry.getKey());
+            if (previousState == null
+                || previousState[0] != entry.getValue()[0] || previousState[1] != entry.getValue()[1])
+            {
+                modified.add(entry.getKey());
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * @param previous the snapshot of the last scan, <code>null</code> if there was none
+     * @return the paths of the class files which got removed since the previous snapshot
+     */
+    List<String> getRemovedSince(DirectorySnapshot previous)
+    {
+        if (previous == null)
+        {
+            return Collections.emptyList();
+        }
+
+        List<String> removed = new ArrayList<String>();
+        for (String path : previous.files.keySet())
+        {
+            if (!files.containsKey(path))
+            {
+                removed.add(path);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Reset the state of a class file to the one of the previous snapshot,
+     * so that a class file which didn't get indexed counts as modified again.
+     *
+     * @param path relative path of the class file
+     * @param previous the snapshot of the last scan, <code>null</code> if there was none
+     */
+    void revert(String path, DirectorySnapshot previous)
+    {
+        long[] previousState = previous != null ? previous.files.get(path) : null;
+        if (previousState != null)
+        {
+            files.put(path, previousState);
+        }
+        else
+        {
+            files.remove(path);
+        }
+    }
+
+    /**
+     * @param path relative path of a class file, e.g. <code>com/acme/Foo.class</code>
+     * @return the name of the class, e.g. <code>com.acme.Foo</code>
+     */
+    static String toClassName(String path)
+    {
+        return path.substring(0, path.length() - CLASS_SUFFIX.length()).replace('/', '.');
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Inverse of the super class and implements indexes of an {@link AnnotationDB}
+ * which doesn't change anymore.</p>
+ *
+ * <p>The direct subtypes of each type get stored as BitSet over the class ids of
+ * the {@link QueryIndex}. The transitive subtypes of a type get computed once
+ * the first time they get requested.</p>
+ */
+class HierarchyIndex
+{
+    private static final BitSet NO_CLASSES = new BitSet(0);
+
+    private final QueryIndex queryIndex;
+    private final Map<String, BitSet> directSubtypes = new HashMap<String, BitSet>();
+    private final ConcurrentMap<String, BitSet> transitiveSubtypes = new ConcurrentHashMap<String, BitSet>();
+
+    HierarchyIndex(QueryIndex queryIndex, AnnotationDB annotationDB)
+    {
+        this.queryIndex = queryIndex;
+
+        Map<String, String> superClassIndex = annotationDB.getSuperClassIndex();
+        Map<String, Set<String>> implementsIndex = annotationDB.getImplementsIndex();
+        for (int id = 0; id < queryIndex.getClassCount(); id++)
+        {
+            String className = queryIndex.nameOf(id);
+            String superClass = superClassIndex.get(className);
+            if (superClass != null)
+            {
+                addSubtype(superClass, id);
+            }
+            Set<String> interfaces = implementsIndex.get(className);
+            if (interfaces != null)
+            {
+                for (String intf : interfaces)
+                {
+                    addSubtype(intf, id);
+                }
+            }
+        }
+    }
+
+    private void addSubtype(String type, int subtype)
+    {
+        BitSet subtypes = directSubtypes.get(type);
+        if (subtypes == null)
+        {
+            subtypes = new BitSet(queryIndex.getClassCount());
+            directSubtypes.put(type, subtypes);
+        }
+        subtypes.set(subtype);
+    }
+
+    /**
+     * @param type the fully qualified name of a class or interface
+     * @param transitive <code>false</code> for only the direct subtypes
+     * @return the ids of all scanned classes extending or implementing the type, must not get changed
+     */
+    BitSet getSubtypes(String type, boolean transitive)
+    {
+        BitSet direct = directSubtypes.get(type);
+        if (direct == null)
+        {
+            return NO_CLASSES;
+        }
+        if (!transitive)
+        {
+            return direct;
+        }
+
+        BitSet subtypes = transitiveSubtypes.get(type);
+        if (subtypes == null)
+        {
+            subtypes = new BitSet(queryIndex.getClassCount());
+            collect(direct, subtypes);
+            BitSet existing = transitiveSubtypes.putIfAbsent(type, subtypes);
+            if (existing != null)
+            {
+                subtypes = existing;
+            }
+        }
+        return subtypes;
+    }
+
+    /**
+     * Add the given classes and all their subtypes to the result.
+     * Classes already contained in the result don't get visited again.
+     */
+    private void collect(BitSet classes, BitSet result)
+    {
+        int[] pending = new int[Math.max(16, classes.cardinality())];
+        int size = 0;
+        for (int id = classes.nextSetBit(0); id >= 0; id = classes.nextSetBit(id + 1))
+        {
+            pending[size++] = id;
+        }
+
+        while (size > 0)
+        {
+            int id = pending[--size];
+            if (result.get(id))
+            {
+                continue;
+            }
+            result.set(id);
+
+            BitSet subtypes = directSubtypes.get(queryIndex.nameOf(id));
+            if (subtypes != null)
+            {
+                for (int subtype = subtypes.nextSetBit(0); subtype >= 0; subtype = subtypes.nextSetBit(subtype + 1))
+                {
+                    if (!result.get(subtype))
+                    {
+                        if (size == pending.length)
+                        {
+                            int[] newPending = new int[size * 2];
+                            System.arraycopy(pending, 0, newPending, 0, size);
+                            pending = newPending;
+                        }
+                        pending[size++] = subtype;
+                    }
+                }
+            }
+        }
+    }
+}
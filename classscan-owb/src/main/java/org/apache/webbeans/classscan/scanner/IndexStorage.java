@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import org.apache.commons.classscan.api.AnnotatedMember;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Where the indexes of an {@link AnnotationDB} get stored once it got {@link AnnotationDB#compact() compacted}.
+ */
+public enum IndexStorage
+{
+    /**
+     * The {@link CompactIndex}, which stores the names once and the postings as <code>int[]</code>
+     * on the Java heap. This is the default and has the fastest lookups.
+     */
+    HEAP
+    {
+        @Override
+        ReadOnlyIndex createIndex(Map<String, Set<String>> classIndex, Map<String, Set<String>> annotationIndex,
+                                  Map<String, Set<String>> implementsIndex, Map<String, String> superClassIndex,
+                                  Map<String, Map<String, Integer>> elementKindIndex,
+                                  Map<String, Map<String, List<String>>> annotationValueIndex,
+                                  Map<String, Map<String, Set<AnnotatedMember>>> memberIndex,
+                                  File directory)
+        {
+            return CompactIndex.create(classIndex, annotationIndex, implementsIndex, superClassIndex,
+                                       elementKindIndex, annotationValueIndex, memberIndex);
+        }
+    },
+
+    /**
+     * The {@link OffHeapIndex} in a direct ByteBuffer. The index doesn't occupy the heap,
+     * but counts against <code>-XX:MaxDirectMemorySize</code>.
+     */
+    DIRECT
+    {
+        @Override
+        ReadOnlyIndex createIndex(Map<String, Set<String>> classIndex, Map<String, Set<String>> annotationIndex,
+                                  Map<String, Set<String>> implementsIndex, Map<String, String> superClassIndex,
+                                  Map<String, Map<String, Integer>> elementKindIndex,
+                                  Map<String, Map<String, List<String>>> annotationValueIndex,
+                                  Map<String, Map<String, Set<AnnotatedMember>>> memberIndex,
+                                  File directory) throws IOException
+        {
+            return OffHeapIndex.create(classIndex, annotationIndex, implementsIndex, superClassIndex,
+                                       elementKindIndex, annotationValueIndex, memberIndex, null);
+        }
+    },
+
+    /**
+     * The {@link OffHeapIndex} in a memory mapped file, so the OS can page out rarely used parts.
+     * The file gets created in the {@link AnnotationDB#setIndexStorageDirectory(File) index storage directory}.
+     * <p>Windows doesn't allow to delete a mapped file, so there each index leaves a file behind
+     * until it gets {@link AnnotationDB#release() released}. The OwbClassScanner only releases the indexes
+     * of an archive once its owner and all ClassLoaders which see it got garbage collected or
+     * {@link OwbClassScanner#evict(ClassLoader) evicted}, so don't use this storage on Windows
+     * for containers which redeploy without evicting.</p>
+     */
+    MAPPED
+    {
+        @Override
+        ReadOnlyIndex createIndex(Map<String, Set<String>> classIndex, Map<String, Set<String>> annotationIndex,
+                                  Map<String, Set<String>> implementsIndex, Map<String, String> superClassIndex,
+                                  Map<String, Map<String, Integer>> elementKindIndex,
+                                  Map<String, Map<String, List<String>>> annotationValueIndex,
+                                  Map<String, Map<String, Set<AnnotatedMember>>> memberIndex,
+                                  File directory) throws IOException
+        {
+            return OffHeapIndex.create(classIndex, annotationIndex, implementsIndex, superClassIndex,
+                                       elementKindIndex, annotationValueIndex, memberIndex,
+                                       directory != null ? directory : new File(System.getProperty("java.io.tmpdir")));
+        }
+    };
+
+    /**
+     * Create the read-only form of the given indexes. The indexes don't get changed.
+     *
+     * @param directory where files may get created, <code>null</code> for the default
+     */
+    abstract ReadOnlyIndex createIndex(Map<String, Set<String>> classIndex, Map<String, Set<String>> annotationIndex,
+                                       Map<String, Set<String>> implementsIndex, Map<String, String> superClassIndex,
+                                       Map<String, Map<String, Integer>> elementKindIndex,
+                                       Map<String, Map<String, List<String>>> annotationValueIndex,
+                                       Map<String, Map<String, Set<AnnotatedMember>>> memberIndex,
+                                       File directory) throws IOException;
+
+    /**
+     * Parse the name of a storage, ignoring the case.
+     *
+     * @param name e.g. <code>heap</code> or <code>mapped</code>
+     * @throws IllegalArgumentException for unknown storages
+     */
+    public static IndexStorage parse(String name)
+    {
+        return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.FieldInfo;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.ParameterAnnotationsAttribute;
+import javassist.bytecode.annotation.Annotation;
+import javassist.bytecode.annotation.AnnotationMemberValue;
+import javassist.bytecode.annotation.ArrayMemberValue;
+import javassist.bytecode.annotation.ClassMemberValue;
+import javassist.bytecode.annotation.EnumMemberValue;
+import javassist.bytecode.annotation.MemberValue;
+import javassist.bytecode.annotation.StringMemberValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>ClassFileReader based on the javassist ClassFile model.</p>
+ *
+ * <p>This is the way the classes got parsed originally. javassist reads the
+ * whole class file including all code attributes and annotation member values,
+ * so this reader is considerably slower than the {@link ConstantPoolClassReader}.</p>
+ */
+public class JavassistClassReader implements ClassFileReader
+{
+    public void read(byte[] bytes, int length, ClassFileVisitor visitor) throws IOException
+    {
+        ClassFile cf;
+        try
+        {
+            cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(bytes, 0, length)));
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("truncated or corrupt class file", e);
+        }
+
+        visitor.visitClass(cf.getName(), cf.getSuperclass(), cf.getInterfaces());
+
+        if (visitor.isInterested(ElementType.FIELD))
+        {
+            scanFields(cf, visitor);
+        }
+        if (visitor.isInterested(ElementType.METHOD) || visitor.isInterested(ElementType.PARAMETER))
+        {
+            scanMethods(cf, visitor);
+        }
+        if (visitor.isInterested(ElementType.TYPE))
+        {
+            scanClassAnnotations(cf, visitor);
+        }
+    }
+
+    /**
+     * Visits the annotations of the class declaration.
+     */
+    void scanClassAnnotations(ClassFile cf, ClassFileVisitor visitor)
+    {
+        populate((AnnotationsAttribute) cf.getAttribute(AnnotationsAttribute.visibleTag), visitor, ElementType.TYPE);
+        populate((AnnotationsAttribute) cf.getAttribute(AnnotationsAttribute.invisibleTag), visitor, ElementType.TYPE);
+    }
+
+    void scanFields(ClassFile cf, ClassFileVisitor visitor)
+    {
+        List fields = cf.getFields();
+        if (fields == null)
+        {
+            return;
+        }
+
+        for (Object obj : fields)
+        {
+            FieldInfo field = (FieldInfo) obj;
+            if (visitor.isInterestedInMembers())
+            {
+                visitor.visitMember(field.getName(), field.getDescriptor());
+            }
+            populate((AnnotationsAttribute) field.getAttribute(AnnotationsAttribute.visibleTag), visitor, ElementType.FIELD);
+            populate((AnnotationsAttribute) field.getAttribute(AnnotationsAttribute.invisibleTag), visitor, ElementType.FIELD);
+        }
+    }
+
+    /**
+     * Scans both the method and its parameters for annotations.
+     */
+    void scanMethods(ClassFile cf, ClassFileVisitor visitor)
+    {
+        List methods = cf.getMethods();
+        if (methods == null)
+        {
+            return;
+        }
+
+        boolean methodAnnotations = visitor.isInterested(ElementType.METHOD);
+        boolean parameterAnnotations = visitor.isInterested(ElementType.PARAMETER);
+        for (Object obj : methods)
+        {
+            MethodInfo method = (MethodInfo) obj;
+            if (visitor.isInterestedInMembers())
+            {
+                visitor.visitMember(method.getName(), method.getDescriptor());
+            }
+            if (methodAnnotations)
+            {
+                populate((AnnotationsAttribute) method.getAttribute(AnnotationsAttribute.visibleTag), visitor, ElementType.METHOD);
+                populate((AnnotationsAttribute) method.getAttribute(AnnotationsAttribute.invisibleTag), visitor, ElementType.METHOD);
+            }
+            if (parameterAnnotations)
+            {
+                populate((ParameterAnnotationsAttribute) method.getAttribute(ParameterAnnotationsAttribute.visibleTag), visitor);
+                populate((ParameterAnnotationsAttribute) method.getAttribute(ParameterAnnotationsAttribute.invisibleTag), visitor);
+            }
+        }
+    }
+
+    private void populate(AnnotationsAttribute attribute, ClassFileVisitor visitor, ElementType elementType)
+    {
+        if (attribute != null)
+        {
+            populate(attribute.getAnnotations(), visitor, elementType);
+        }
+    }
+
+    private void populate(ParameterAnnotationsAttribute attribute, ClassFileVisitor visitor)
+    {
+        if (attribute != null && attribute.getAnnotations() != null)
+        {
+            for (Annotation[] annotations : attribute.getAnnotations())
+            {
+                populate(annotations, visitor, ElementType.PARAMETER);
+            }
+        }
+    }
+
+    private void populate(Annotation[] annotations, ClassFileVisitor visitor, ElementType elementType)
+    {
+        if (annotations == null)
+        {
+            return;
+        }
+
+        for (Annotation ann : annotations)
+        {
+            visitor.visitAnnotation(ann.getTypeName(), elementType);
+            if (elementType == ElementType.TYPE && visitor.isInterestedInValues(ann.getTypeName()))
+            {
+                populateValues(ann, visitor);
+            }
+        }
+    }
+
+    private void populateValues(Annotation ann, ClassFileVisitor visitor)
+    {
+        Set<?> memberNames = ann.getMemberNames();
+        if (memberNames == null)
+        {
+            return;
+        }
+        for (Object memberName : memberNames)
+        {
+            populateValue(ann.getTypeName(), (String) memberName, ann.getMemberValue((String) memberName), visitor);
+        }
+    }
+
+    private void populateValue(String annotationType, String memberName, MemberValue value, ClassFileVisitor visitor)
+    {
+        if (value instanceof ArrayMemberValue)
+        {
+            MemberValue[] values = ((ArrayMemberValue) value).getValue();
+            if (values != null)
+            {
+                for (MemberValue element : values)
+                {
+                    populateValue(annotationType, memberName, element, visitor);
+                }
+            }
+        }
+        else if (value instanceof StringMemberValue)
+        {
+            visitor.visitAnnotationValue(annotationType, memberName, ((StringMemberValue) value).getValue());
+        }
+        else if (value instanceof EnumMemberValue)
+        {
+            visitor.visitAnnotationValue(annotationType, memberName, ((EnumMemberValue) value).getValue());
+        }
+        else if (value instanceof ClassMemberValue)
+        {
+            visitor.visitAnnotationValue(annotationType, memberName, ((ClassMemberValue) value).getValue());
+        }
+        else if (value != null && !(value instanceof AnnotationMemberValue))
+        {
+            // the primitive MemberValues print their value
+            visitor.visitAnnotationValue(annotationType, memberName, value.toString());
+        }
+    }
+}
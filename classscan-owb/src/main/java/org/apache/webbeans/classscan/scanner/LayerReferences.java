@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Counts the users of the shared scan results of single archives.</p>
+ *
+ * <p>An archive layer gets used by the archive layers of the ClassLoader which owns
+ * the archive and by the scan result of each ClassLoader which sees the archive,
+ * e.g. by the ones of all child ClassLoaders. Once the last of them dropped it,
+ * the off-heap {@link IndexStorage} of the layer gets {@link AnnotationDB#release() released}.</p>
+ */
+final class LayerReferences
+{
+    private final Map<AnnotationDB, Integer> counts = new IdentityHashMap<AnnotationDB, Integer>();
+
+    /**
+     * Start counting the users of a new layer.
+     *
+     * @param users the initial number of users
+     */
+    synchronized void register(AnnotationDB layer, int users)
+    {
+        counts.put(layer, users);
+    }
+
+    /**
+     * Add a user to a registered layer.
+     *
+     * @return <code>false</code> if the layer already got released and must not be used anymore
+     */
+    synchronized boolean acquire(AnnotationDB layer)
+    {
+        Integer count = counts.get(layer);
+        if (count == null)
+        {
+            return false;
+        }
+        counts.put(layer, count + 1);
+        return true;
+    }
+
+    /**
+     * Drop a user of each of the given layers, the ones which aren't used anymore get released.
+     * Layers which didn't get registered are ignored.
+     */
+    void release(Collection<AnnotationDB> layers)
+    {
+        List<AnnotationDB> unused = new ArrayList<AnnotationDB>();
+        synchronized (this)
+        {
+            for (AnnotationDB layer : layers)
+            {
+                Integer count = counts.get(layer);
+                if (count == null)
+                {
+                    continue;
+                }
+                if (count > 1)
+                {
+                    counts.put(layer, count - 1);
+                }
+                else
+                {
+                    counts.remove(layer);
+                    unused.add(layer);
+                }
+            }
+        }
+
+        // outside of the lock, releasing waits for the readers of the layer
+        for (AnnotationDB layer : unused)
+        {
+            layer.release();
+        }
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import org.apache.commons.classscan.api.AnnotatedMember;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>AnnotationDB which composes the indexes of several other AnnotationDBs
+ * without copying them.</p>
+ *
+ * <p>This is used to share the scan result of an archive between all
+ * ClassLoaders which see it. Each archive only gets scanned once for the
+ * ClassLoader which owns it. The AnnotationDB of a child ClassLoader consists
+ * of the archives of the child itself plus the layers of its parents.</p>
+ *
+ * <p>Classes scanned directly into this instance, e.g. via
+ * {@link #scanClasses(Set)}, form the first layer.
+ * {@link #getClassIndex()}, {@link #getAnnotationIndex()} and the
+ * hierarchy indexes return read-only views over all layers.</p>
+ */
+public class LayeredAnnotationDB extends AnnotationDB
+{
+    private final List<Map<String, Set<String>>> classIndexes = new ArrayList<Map<String, Set<String>>>();
+    private final List<Map<String, Set<String>>> annotationIndexes = new ArrayList<Map<String, Set<String>>>();
+    private final List<Map<String, Set<String>>> implementsIndexes = new ArrayList<Map<String, Set<String>>>();
+    private final List<Map<String, String>> superClassIndexes = new ArrayList<Map<String, String>>();
+    private final List<AnnotationDB> layers;
+
+    private transient Map<String, Set<String>> classIndexView;
+    private transient Map<String, Set<String>> annotationIndexView;
+    private transient Map<String, Set<String>> implementsIndexView;
+    private transient Map<String, String> superClassIndexView;
+
+    /**
+     * @param layers the scan results of single archives, they must not get changed anymore
+     */
+    public LayeredAnnotationDB(List<AnnotationDB> layers)
+    {
+        this.layers = new ArrayList<AnnotationDB>(layers);
+        classIndexes.add(classIndex);
+        annotationIndexes.add(annotationIndex);
+        implementsIndexes.add(implementsIndex);
+        superClassIndexes.add(superClassIndex);
+        for (AnnotationDB layer : layers)
+        {
+            classIndexes.add(layer.getClassIndex());
+            annotationIndexes.add(layer.getAnnotationIndex());
+            implementsIndexes.add(layer.getImplementsIndex());
+            superClassIndexes.add(layer.getSuperClassIndex());
+        }
+    }
+
+    @Override
+    public Map<String, Set<String>> getClassIndex()
+    {
+        if (classIndexView == null)
+        {
+            classIndexView = new FirstLayerView<Set<String>>(classIndexes);
+        }
+        return classIndexView;
+    }
+
+    @Override
+    public Map<String, Set<String>> getAnnotationIndex()
+    {
+        if (annotationIndexView == null)
+        {
+            annotationIndexView = new AnnotationIndexView();
+        }
+        return annotationIndexView;
+    }
+
+    @Override
+    public Map<String, Set<String>> getImplementsIndex()
+    {
+        if (implementsIndexView == null)
+        {
+            implementsIndexView = new FirstLayerView<Set<String>>(implementsIndexes);
+        }
+        return implementsIndexView;
+    }
+
+    @Override
+    public Map<String, String> getSuperClassIndex()
+    {
+        if (superClassIndexView == null)
+        {
+            superClassIndexView = new FirstLayerView<String>(superClassIndexes);
+        }
+        return superClassIndexView;
+    }
+
+    /**
+     * The element kinds get taken from the first layer which contains the class.
+     */
+    @Override
+    public int getElementKinds(String className, String annotation)
+    {
+        if (classIndex.containsKey(className))
+        {
+            return super.getElementKinds(className, annotation);
+        }
+        for (AnnotationDB layer : layers)
+        {
+            if (layer.getClassIndex().containsKey(className))
+            {
+                return layer.getElementKinds(className, annotation);
+            }
+        }
+        return ALL_ELEMENTS;
+    }
+
+    /**
+     * The annotation values get taken from the first layer which contains the class.
+     */
+    @Override
+    Map<String, List<String>> getAnnotationValues(String className)
+    {
+        if (classIndex.containsKey(className))
+        {
+            return super.getAnnotationValues(className);
+        }
+        for (AnnotationDB layer : layers)
+        {
+            if (layer.getClassIndex().containsKey(className))
+            {
+                return layer.getAnnotationValues(className);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The annotated members get taken from the first layer which contains the class.
+     */
+    @Override
+    Map<String, Set<AnnotatedMember>> getAnnotatedMembers(String className)
+    {
+        if (classIndex.containsKey(className))
+        {
+            return super.getAnnotatedMembers(className);
+        }
+        for (AnnotationDB layer : layers)
+        {
+            if (layer.getClassIndex().containsKey(className))
+            {
+                return layer.getAnnotatedMembers(className);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return <code>true</code> if the key is contained in one of the indexes before the given position
+     */
+    private static boolean containedBefore(List<? extends Map<String, ?>> indexes, int position, Object key)
+    {
+        for (int i = 0; i < position; i++)
+        {
+            if (indexes.get(i).containsKey(key))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A class is only contained in one archive. If it is contained in more, the first layer wins
+     * like in a ClassLoader.
+     */
+    private static class FirstLayerView<V> extends AbstractMap<String, V>
+    {
+        private final List<Map<String, V>> indexes;
+
+        private FirstLayerView(List<Map<String, V>> indexes)
+        {
+            this.indexes = indexes;
+        }
+
+        @Override
+        public V get(Object key)
+        {
+            for (Map<String, V> index : indexes)
+            {
+                V value = index.get(key);
+                if (value != null)
+                {
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, V>> entrySet()
+        {
+            return new LayeredKeySet<V, Entry<String, V>>(indexes)
+            {
+                @Override
+                protected Entry<String, V> element(Map.Entry<String, V> entry)
+                {
+                    return entry;
+                }
+            };
+        }
+    }
+
+    /**
+     * The classes of an annotation get united over all layers.
+     */
+    private class AnnotationIndexView extends AbstractMap<String, Set<String>>
+    {
+        @Override
+        public Set<String> get(Object key)
+        {
+            Set<String> first = null;
+            for (Map<String, Set<String>> index : annotationIndexes)
+            {
+                Set<String> classes = index.get(key);
+                if (classes != null)
+                {
+                    if (first != null)
+                    {
+                        return Collections.unmodifiableSet(new ClassUnionView(key));
+                    }
+                    first = classes;
+                }
+            }
+            return first;
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            for (Map<String, Set<String>> index : annotationIndexes)
+            {
+                if (index.containsKey(key))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Set<Entry<String, Set<String>>> entrySet()
+        {
+            return new LayeredKeySet<Set<String>, Entry<String, Set<String>>>(annotationIndexes)
+            {
+                @Override
+                protected Entry<String, Set<String>> element(Entry<String, Set<String>> entry)
+                {
+                    return new SimpleImmutableEntry<String, Set<String>>(entry.getKey(), get(entry.getKey()));
+                }
+            };
+        }
+    }
+
+    /**
+     * All classes annotated with a certain annotation over all layers.
+     */
+    private class ClassUnionView extends AbstractSet<String>
+    {
+        private final Object annotation;
+
+        private ClassUnionView(Object annotation)
+        {
+            this.annotation = annotation;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            for (Map<String, Set<String>> index : annotationIndexes)
+            {
+                Set<String> classes = index.get(annotation);
+                if (classes != null && classes.contains(o))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return new Iterator<String>()
+            {
+                private int layer = -1;
+                private Iterator<String> current;
+                private String next;
+
+                public boolean hasNext()
+                {
+                    while (next == null)
+                    {
+                        if (current != null && current.hasNext())
+                        {
+                            String candidate = current.next();
+                            if (!containedInLayerBefore(candidate))
+                            {
+                                next = candidate;
+                            }
+                        }
+                        else if (++layer < annotationIndexes.size())
+                        {
+                            Set<String> classes = annotationIndexes.get(layer).get(annotation);
+                            current = classes != null ? classes.iterator() : null;
+                        }
+                        else
+                        {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+
+                private boolean containedInLayerBefore(String className)
+                {
+                    for (int i = 0; i < layer; i++)
+                    {
+                        Set<String> classes = annotationIndexes.get(i).get(annotation);
+                        if (classes != null && classes.contains(className))
+                        {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+
+                public String next()
+                {
+                    if (!hasNext())
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    String result = next;
+                    next = null;
+                    return result;
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException("the index is read-only");
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            int size = 0;
+            for (Iterator<String> it = iterator(); it.hasNext(); it.next())
+            {
+                size++;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Iterates the entries of all layers, skipping keys already contained in an earlier layer.
+     */
+    private abstract static class LayeredKeySet<V, T> extends AbstractSet<T>
+    {
+        private final List<Map<String, V>> indexes;
+
+        private LayeredKeySet(List<Map<String, V>> indexes)
+        {
+            this.indexes = indexes;
+        }
+
+        protected abstract T element(Map.Entry<String, V> entry);
+
+        @Override
+        public Iterator<T> iterator()
+        {
+            return new Iterator<T>()
+            {
+                private int layer = -1;
+                private Iterator<Map.Entry<String, V>> current;
+                private Map.Entry<String, V> next;
+
+                public boolean hasNext()
+                {
+                    while (next == null)
+                    {
+                        if (current != null && current.hasNext())
+                        {
+                            Map.Entry<String, V> candidate = current.next();
+                            if (!containedBefore(indexes, layer, candidate.getKey()))
+                            {
+                                next = candidate;
+                            }
+                        }
+                        else if (++layer < indexes.size())
+                        {
+                            current = indexes.get(layer).entrySet().iterator();
+                        }
+                        else
+                        {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+
+                public T next()
+                {
+                    if (!hasNext())
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    Map.Entry<String, V> result = next;
+                    next = null;
+                    return element(result);
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException("the index is read-only");
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            int size = 0;
+            for (int i = 0; i < indexes.size(); i++)
+            {
+                if (i == 0)
+                {
+                    size += indexes.get(i).size();
+                    continue;
+                }
+                for (String key : indexes.get(i).keySet())
+                {
+                    if (!containedBefore(indexes, i, key))
+                    {
+                        size++;
+                    }
+                }
+            }
+            return size;
+        }
+    }
+}
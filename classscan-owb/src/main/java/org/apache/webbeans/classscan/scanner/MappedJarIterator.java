@@ -0,0 +1,370 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Reads the classes of a local jar file via a memory mapped buffer.</p>
+ *
+ * <p>Instead of streaming through all entries like a JarInputStream,
+ * we read the central directory at the end of the zip file and only look
+ * at the entries whose names pass the filter. Only those get inflated,
+ * into a buffer which gets reused for all classes of the jar.</p>
+ *
+ * <p>Zip64 archives and archives bigger than 2GB are not supported,
+ * {@link #open(File, ArchiveFilter)} returns <code>null</code> for them.</p>
+ *
+ * <p>{@link #close()} unmaps the jar right away, otherwise Windows wouldn't allow to
+ * delete or replace the jar until the mapping got garbage collected.</p>
+ */
+class MappedJarIterator implements ArchiveIterator
+{
+    private static final int END_OF_CENTRAL_DIR_SIG = 0x06054b50;
+    private static final int CENTRAL_DIR_SIG = 0x02014b50;
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+
+    private static final int END_OF_CENTRAL_DIR_SIZE = 22;
+    private static final int CENTRAL_DIR_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final byte[] CLASS_SUFFIX = {'.', 'c', 'l', 'a', 's', 's'};
+
+    private final RandomAccessFile file;
+    private MappedByteBuffer map;
+
+    /**
+     * used for the bulk reads
+     */
+    private ByteBuffer view;
+    private final ArchiveFilter filter;
+    private final EntryName entryName = new EntryName();
+
+    private int entriesLeft;
+    private int cdPos;
+
+    private Inflater inflater;
+    private byte[] input = new byte[8192];
+    private byte[] buffer = new byte[8192];
+    private int length;
+
+    private MappedJarIterator(RandomAccessFile file, MappedByteBuffer map, int entries, int cdPos, ArchiveFilter filter)
+    {
+        this.file = file;
+        this.map = map;
+        this.view = map.duplicate();
+        this.entriesLeft = entries;
+        this.cdPos = cdPos;
+        this.filter = filter;
+    }
+
+    /**
+     * @param jar the jar file
+     * @param filter only entries accepted by this filter get read
+     * @return the iterator or <code>null</code> if the jar file cannot be mapped
+     * @throws IOException
+     */
+    static MappedJarIterator open(File jar, ArchiveFilter filter) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(jar, "r");
+        MappedByteBuffer map = null;
+        boolean success = false;
+        try
+        {
+            long size = file.length();
+            if (size > Integer.MAX_VALUE || size < END_OF_CENTRAL_DIR_SIZE)
+            {
+                return null;
+            }
+
+            map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+
+            // the end of central directory record is followed by a comment of up to 64k
+            int eocd = -1;
+            int minPos = Math.max(0, (int) size - END_OF_CENTRAL_DIR_SIZE - 0xFFFF);
+            for (int pos = (int) size - END_OF_CENTRAL_DIR_SIZE; pos >= minPos; pos--)
+            {
+                if (map.getInt(pos) == END_OF_CENTRAL_DIR_SIG)
+                {
+                    eocd = pos;
+                    break;
+                }
+            }
+            if (eocd < 0)
+            {
+                throw new IOException("not a zip file: " + jar);
+            }
+
+            int entries = map.getShort(eocd + 10) & 0xFFFF;
+            long cdOffset = map.getInt(eocd + 16) & 0xFFFFFFFFL;
+            if (entries == 0xFFFF || cdOffset == 0xFFFFFFFFL)
+            {
+                // zip64
+                return null;
+            }
+
+            MappedJarIterator it = new MappedJarIterator(file, map, entries, (int) cdOffset, filter);
+            success = true;
+            return it;
+        }
+        finally
+        {
+            if (!success)
+            {
+                DirectBuffers.release(map);
+                file.close();
+            }
+        }
+    }
+
+    public boolean next() throws IOException
+    {
+        while (entriesLeft > 0)
+        {
+            entriesLeft--;
+            int pos = cdPos;
+            if (map.getInt(pos) != CENTRAL_DIR_SIG)
+            {
+                throw new IOException("corrupt zip central directory");
+            }
+            int method = map.getShort(pos + 10) & 0xFFFF;
+            int compressedSize = map.getInt(pos + 20);
+            int size = map.getInt(pos + 24);
+            int nameLength = map.getShort(pos + 28) & 0xFFFF;
+            int extraLength = map.getShort(pos + 30) & 0xFFFF;
+            int commentLength = map.getShort(pos + 32) & 0xFFFF;
+            int localHeader = map.getInt(pos + 42);
+            int namePos = pos + CENTRAL_DIR_HEADER_SIZE;
+            cdPos = namePos + nameLength + extraLength + commentLength;
+
+            if (!endsWith(namePos, nameLength, CLASS_SUFFIX) || !accepts(namePos, nameLength))
+            {
+                continue;
+            }
+
+            if (map.getInt(localHeader) != LOCAL_HEADER_SIG)
+            {
+                throw new IOException("corrupt zip entry " + readName(namePos, nameLength));
+            }
+            int dataPos = localHeader + LOCAL_HEADER_SIZE
+                          + (map.getShort(localHeader + 26) & 0xFFFF)
+                          + (map.getShort(localHeader + 28) & 0xFFFF);
+
+            if (buffer.length < size)
+            {
+                buffer = new byte[Math.max(size, buffer.length * 2)];
+            }
+            length = size;
+
+            if (method == STORED)
+            {
+                read(dataPos, buffer, size);
+            }
+            else if (method == DEFLATED)
+            {
+                inflate(dataPos, compressedSize, size);
+            }
+            else
+            {
+                throw new IOException("unsupported compression method " + method + " for " + readName(namePos, nameLength));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void inflate(int dataPos, int compressedSize, int size) throws IOException
+    {
+        // nowrap mode needs an extra dummy byte at the end of the input
+        if (input.length <= compressedSize)
+        {
+            input = new byte[Math.max(compressedSize + 1, input.length * 2)];
+        }
+        read(dataPos, input, compressedSize);
+
+        if (inflater == null)
+        {
+            inflater = new Inflater(true);
+        }
+        else
+        {
+            inflater.reset();
+        }
+
+        inflater.setInput(input, 0, compressedSize + 1);
+        try
+        {
+            int inflated = 0;
+            while (inflated < size)
+            {
+                int n = inflater.inflate(buffer, inflated, size - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != size)
+            {
+                throw new IOException("corrupt zip entry, expected " + size + " bytes but got " + inflated);
+            }
+        }
+        catch (DataFormatException e)
+        {
+            IOException ioe = new IOException("corrupt zip entry");
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    private void read(int pos, byte[] target, int count)
+    {
+        // absolute bulk gets are only available since Java 13
+        view.position(pos);
+        view.get(target, 0, count);
+    }
+
+    private boolean endsWith(int pos, int nameLength, byte[] suffix)
+    {
+        if (nameLength < suffix.length)
+        {
+            return false;
+        }
+        int start = pos + nameLength - suffix.length;
+        for (int i = 0; i < suffix.length; i++)
+        {
+            if (map.get(start + i) != suffix[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Most entry names are pure ASCII, those get checked directly on the mapped bytes.
+     */
+    private boolean accepts(int namePos, int nameLength) throws IOException
+    {
+        int classNameLength = nameLength - CLASS_SUFFIX.length;
+        for (int i = 0; i < nameLength; i++)
+        {
+            if (map.get(namePos + i) < 0)
+            {
+                String name = readName(namePos, nameLength);
+                int start = name.startsWith("/") ? 1 : 0;
+                return filter.acceptsClass(name, start, name.length() - CLASS_SUFFIX.length);
+            }
+        }
+
+        entryName.pos = namePos;
+        entryName.length = nameLength;
+        int start = map.get(namePos) == '/' ? 1 : 0;
+        return filter.acceptsClass(entryName, start, classNameLength);
+    }
+
+    private String readName(int pos, int nameLength) throws IOException
+    {
+        if (input.length < nameLength)
+        {
+            input = new byte[Math.max(nameLength, input.length * 2)];
+        }
+        read(pos, input, nameLength);
+        return new String(input, 0, nameLength, "UTF-8");
+    }
+
+    public byte[] getBytes()
+    {
+        return buffer;
+    }
+
+    public int getLength()
+    {
+        return length;
+    }
+
+    public void close()
+    {
+        if (inflater != null)
+        {
+            inflater.end();
+            inflater = null;
+        }
+        // the entries got copied into the buffer, so nothing references the mapping anymore
+        MappedByteBuffer released = map;
+        map = null;
+        view = null;
+        DirectBuffers.release(released);
+        try
+        {
+            file.close();
+        }
+        catch (IOException e)
+        {
+            // nothing we can do
+        }
+    }
+
+    /**
+     * Reusable view on an ASCII entry name in the mapped central directory.
+     */
+    private final class EntryName implements CharSequence
+    {
+        private int pos;
+        private int length;
+
+        public int length()
+        {
+            return length;
+        }
+
+        public char charAt(int index)
+        {
+            return (char) map.get(pos + index);
+        }
+
+        public CharSequence subSequence(int start, int end)
+        {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString()
+        {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++)
+            {
+                chars[i] = charAt(i);
+            }
+            return new String(chars);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * <p>The meta-annotations of all annotations in an {@link AnnotationDB}.</p>
+ *
+ * <p>The graph gets built in two stages by {@link AnnotationDB#resolveMetaAnnotations(ClassLoader)}:</p>
+ * <ol>
+ *   <li>The declaration of every annotation which didn't get scanned yet gets read exactly once.
+ *   The meta-annotations found this way get resolved as well, so arbitrary deep chains like
+ *   CDI stereotypes work. If the AnnotationDB has an ExecutorService, the declarations of each
+ *   level get read in parallel.</li>
+ *   <li>The transitive closure of the meta-annotations gets computed in a single pass over the
+ *   strongly connected components in topological order. Each class annotated with an annotation
+ *   then gets added to the classes of all its transitive meta-annotations.</li>
+ * </ol>
+ *
+ * <p>Annotations whose declaration cannot be found get reported as unresolved
+ * instead of failing the whole resolution.</p>
+ */
+public final class MetaAnnotationGraph
+{
+    private final Set<String> resolved;
+    private final Set<String> unresolved;
+    private final Map<String, Set<String>> metaAnnotations;
+
+    private MetaAnnotationGraph(Set<String> resolved, Set<String> unresolved, Map<String, Set<String>> metaAnnotations)
+    {
+        this.resolved = Collections.unmodifiableSet(resolved);
+        this.unresolved = Collections.unmodifiableSet(unresolved);
+        this.metaAnnotations = metaAnnotations;
+    }
+
+    /**
+     * @return the annotations whose declaration got scanned
+     */
+    public Set<String> getResolved()
+    {
+        return resolved;
+    }
+
+    /**
+     * @return the annotations whose declaration couldn't be found or read
+     */
+    public Set<String> getUnresolved()
+    {
+        return unresolved;
+    }
+
+    /**
+     * @param annotation the fully qualified name of an annotation
+     * @return the direct and transitive meta-annotations of the annotation, never <code>null</code>
+     */
+    public Set<String> getMetaAnnotations(String annotation)
+    {
+        Set<String> metas = metaAnnotations.get(annotation);
+        return metas != null ? Collections.unmodifiableSet(metas) : Collections.<String>emptySet();
+    }
+
+    /**
+     * Resolve the meta-annotations of the given AnnotationDB and add the classes of each annotation
+     * to the classes of its transitive meta-annotations.
+     */
+    static MetaAnnotationGraph resolve(AnnotationDB db, ClassLoader loader)
+    {
+        Set<String> resolved = new HashSet<String>();
+        Set<String> unresolved = new HashSet<String>();
+
+        // stage 1: read the missing declarations level by level
+        Set<String> seen = new HashSet<String>(db.annotationIndex.keySet());
+        List<String> level = new ArrayList<String>(seen);
+        while (!level.isEmpty())
+        {
+            List<String> missing = new ArrayList<String>();
+            for (String annotation : level)
+            {
+                if (db.ignoreScan(annotation))
+                {
+                    continue;
+                }
+                if (db.classIndex.containsKey(annotation))
+                {
+                    resolved.add(annotation);
+                }
+                else
+                {
+                    missing.add(annotation);
+                }
+            }
+
+            readDeclarations(db, loader, missing, resolved, unresolved);
+
+            List<String> nextLevel = new ArrayList<String>();
+            for (String annotation : level)
+            {
+                if (resolved.contains(annotation))
+                {
+                    for (String meta : db.classIndex.get(annotation))
+                    {
+                        if (seen.add(meta))
+                        {
+                            nextLevel.add(meta);
+                        }
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+
+        // stage 2: transitive closure and propagation of the annotated classes
+        Map<String, Set<String>> metaAnnotations = new Closure(db, resolved).compute();
+
+        Map<String, List<String>> annotatedClasses = new HashMap<String, List<String>>();
+        for (String annotation : metaAnnotations.keySet())
+        {
+            Set<String> classes = db.annotationIndex.get(annotation);
+            if (classes != null)
+            {
+                // copy first, the sets get changed while propagating
+                annotatedClasses.put(annotation, new ArrayList<String>(classes));
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : annotatedClasses.entrySet())
+        {
+            for (String meta : metaAnnotations.get(entry.getKey()))
+            {
+                Set<String> classes = db.annotationIndex.get(meta);
+                if (classes == null)
+                {
+                    classes = new HashSet<String>();
+                    db.annotationIndex.put(meta, classes);
+                }
+                classes.addAll(entry.getValue());
+            }
+        }
+
+        return new MetaAnnotationGraph(resolved, unresolved, metaAnnotations);
+    }
+
+    private static void readDeclarations(final AnnotationDB db, final ClassLoader loader, List<String> annotations,
+                                         Set<String> resolved, Set<String> unresolved)
+    {
+        ExecutorService executor = db.getExecutorService();
+        if (executor == null || annotations.size() < 2)
+        {
+            for (String annotation : annotations)
+            {
+                if (readDeclaration(db, loader, annotation))
+                {
+                    resolved.add(annotation);
+                }
+                else
+                {
+                    unresolved.add(annotation);
+                }
+            }
+            return;
+        }
+
+        List<Future<AnnotationDB>> partials = new ArrayList<Future<AnnotationDB>>();
+        for (final String annotation : annotations)
+        {
+            partials.add(executor.submit(new Callable<AnnotationDB>()
+            {
+                public AnnotationDB call()
+                {
+                    AnnotationDB partial = db.createPartialIndex();
+                    return readDeclaration(partial, loader, annotation) ? partial : null;
+                }
+            }));
+        }
+        try
+        {
+            for (int i = 0; i < annotations.size(); i++)
+            {
+                AnnotationDB partial = partials.get(i).get();
+                if (partial != null)
+                {
+                    db.merge(partial);
+                    resolved.add(annotations.get(i));
+                }
+                else
+                {
+                    unresolved.add(annotations.get(i));
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while resolving the meta-annotations", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException("Error while resolving the meta-annotations", e.getCause());
+        }
+        finally
+        {
+            for (Future<AnnotationDB> partial : partials)
+            {
+                partial.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the declaration of the annotation got scanned into the given AnnotationDB
+     */
+    private static boolean readDeclaration(AnnotationDB db, ClassLoader loader, String annotation)
+    {
+        InputStream bits = loader.getResourceAsStream(annotation.replace('.', '/') + ".class");
+        if (bits == null)
+        {
+            return false;
+        }
+        try
+        {
+            db.scanClass(bits);
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+        return db.classIndex.containsKey(annotation);
+    }
+
+    /**
+     * Computes the transitive meta-annotations of all resolved annotations with Tarjan's
+     * algorithm. The strongly connected components get completed in topological order,
+     * so the closure of each meta-annotation is known before it gets used. All annotations
+     * of a cycle share the same closure.
+     */
+    private static final class Closure
+    {
+        private final AnnotationDB db;
+        private final Set<String> resolved;
+
+        private final Map<String, Integer> index = new HashMap<String, Integer>();
+        private final Map<String, Integer> lowLink = new HashMap<String, Integer>();
+        private final List<String> stack = new ArrayList<String>();
+        private final Set<String> onStack = new HashSet<String>();
+        private final Map<String, Set<String>> closures = new HashMap<String, Set<String>>();
+
+        private Closure(AnnotationDB db, Set<String> resolved)
+        {
+            this.db = db;
+            this.resolved = resolved;
+        }
+
+        private Map<String, Set<String>> compute()
+        {
+            for (String annotation : resolved)
+            {
+                if (!index.containsKey(annotation))
+                {
+                    visit(annotation);
+                }
+            }
+            return closures;
+        }
+
+        /**
+         * @return the direct meta-annotations, only resolved annotations have any
+         */
+        private Set<String> metaAnnotationsOf(String annotation)
+        {
+            if (!resolved.contains(annotation))
+            {
+                return Collections.emptySet();
+            }
+            return db.classIndex.get(annotation);
+        }
+
+        private void visit(String annotation)
+        {
+            int id = index.size();
+            index.put(annotation, id);
+            lowLink.put(annotation, id);
+            stack.add(annotation);
+            onStack.add(annotation);
+
+            for (String meta : metaAnnotationsOf(annotation))
+            {
+                if (!index.containsKey(meta))
+                {
+                    visit(meta);
+                    lowLink.put(annotation, Math.min(lowLink.get(annotation), lowLink.get(meta)));
+                }
+                else if (onStack.contains(meta))
+                {
+                    lowLink.put(annotation, Math.min(lowLink.get(annotation), index.get(meta)));
+                }
+            }
+
+            if (lowLink.get(annotation).intValue() == id)
+            {
+                // the annotation is the root of a strongly connected component
+                List<String> component = new ArrayList<String>();
+                String member;
+                do
+                {
+                    member = stack.remove(stack.size() - 1);
+                    onStack.remove(member);
+                    component.add(member);
+                }
+                while (!member.equals(annotation));
+
+                Set<String> closure = new LinkedHashSet<String>();
+                for (String componentMember : component)
+                {
+                    for (String meta : metaAnnotationsOf(componentMember))
+                    {
+                        closure.add(meta);
+                        Set<String> metaClosure = closures.get(meta);
+                        if (metaClosure != null && metaClosure != closure)
+                        {
+                            closure.addAll(metaClosure);
+                        }
+                    }
+                }
+                if (!closure.isEmpty())
+                {
+                    for (String componentMember : component)
+                    {
+                        closures.put(componentMember, closure);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,1003 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import org.apache.commons.classscan.api.AnnotatedMember;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.annotation.ElementType;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Read-only form of the indexes of an {@link AnnotationDB} which keeps all data
+ * outside of the Java heap, either in a direct ByteBuffer or in a memory mapped file.</p>
+ *
+ * <p>The layout follows the {@link CompactIndex}: every name is stored once as UTF-8
+ * in a symbol table sorted by code points, its position is the id of the name.
+ * The buffer contains the symbols, followed by the records of the indexes and
+ * one table per index which maps the id of a key to the position of its record.
+ * A footer with the position of the tables and the sizes of the indexes ends the
+ * buffer. The records of the class, annotation and implements index are the
+ * number of ids followed by the sorted ids, the other records use the encoding
+ * of the CompactIndex.</p>
+ *
+ * <p>The heap only contains this object and the views. Lookups decode the names
+ * they return on each call, which costs more CPU than the CompactIndex.
+ * The Sets returned by the views are new instances on each call.</p>
+ *
+ * <p>{@link #release()} waits for the threads which are reading the buffer at that time
+ * before it frees the memory. All later accesses, also through views and iterators
+ * obtained before, throw an IllegalStateException instead of reading freed memory.</p>
+ */
+final class OffHeapIndex implements ReadOnlyIndex, Serializable
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int SYMBOLS = 0;
+    private static final int CLASSES = 1;
+    private static final int ANNOTATIONS = 2;
+    private static final int IMPLEMENTS = 3;
+    private static final int SUPER_CLASSES = 4;
+    private static final int ELEMENT_KINDS = 5;
+    private static final int ANNOTATION_VALUES = 6;
+    private static final int ANNOTATED_MEMBERS = 7;
+    private static final int TABLE_COUNT = 8;
+
+    /**
+     * tables position, symbol count and the sizes of the class, annotation, implements and super class index
+     */
+    private static final int FOOTER_SIZE = 6 * 4;
+
+    /**
+     * orders the names like the unsigned bytes of their UTF-8 form
+     */
+    private static final Comparator<String> CODE_POINT_ORDER = new Comparator<String>()
+    {
+        public int compare(String s1, String s2)
+        {
+            int i1 = 0;
+            int i2 = 0;
+            while (i1 < s1.length() && i2 < s2.length())
+            {
+                int c1 = s1.codePointAt(i1);
+                int c2 = s2.codePointAt(i2);
+                if (c1 != c2)
+                {
+                    return c1 < c2 ? -1 : 1;
+                }
+                i1 += Character.charCount(c1);
+                i2 += Character.charCount(c2);
+            }
+            return (s1.length() - i1) - (s2.length() - i2);
+        }
+    };
+
+    private transient ByteBuffer buffer;
+
+    /**
+     * set by {@link #release()}, afterwards all accessors throw an IllegalStateException
+     */
+    private transient volatile boolean released;
+
+    /**
+     * the number of reads of the buffer in progress, {@link #release()} waits for them
+     */
+    private transient AtomicInteger readers;
+
+    /**
+     * the mapped file if the OS didn't allow to delete it while it is mapped
+     */
+    private transient File file;
+    private transient int tablesPosition;
+    private transient int symbolCount;
+    private transient int[] sizes;
+
+    private final PostingsView classIndex = new PostingsView(CLASSES);
+    private final PostingsView annotationIndex = new PostingsView(ANNOTATIONS);
+    private final PostingsView implementsIndex = new PostingsView(IMPLEMENTS);
+    private final SuperClassView superClassIndex = new SuperClassView();
+
+    private OffHeapIndex(ByteBuffer buffer)
+    {
+        init(buffer);
+    }
+
+    private void init(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+        readers = new AtomicInteger();
+        int footer = buffer.limit() - FOOTER_SIZE;
+        tablesPosition = buffer.getInt(footer);
+        symbolCount = buffer.getInt(footer + 4);
+        sizes = new int[4];
+        for (int i = 0; i < sizes.length; i++)
+        {
+            sizes[i] = buffer.getInt(footer + 8 + i * 4);
+        }
+    }
+
+    /**
+     * Create the off-heap form of the given indexes. The indexes don't get changed.
+     *
+     * @param directory where the memory mapped file gets created or <code>null</code> for a direct ByteBuffer.
+     *        The file gets deleted right after mapping it where the OS allows it, otherwise in {@link #release()}.
+     */
+    static OffHeapIndex create(Map<String, Set<String>> classIndex, Map<String, Set<String>> annotationIndex,
+                               Map<String, Set<String>> implementsIndex, Map<String, String> superClassIndex,
+                               Map<String, Map<String, Integer>> elementKindIndex,
+                               Map<String, Map<String, List<String>>> annotationValueIndex,
+                               Map<String, Map<String, Set<AnnotatedMember>>> memberIndex,
+                               File directory) throws IOException
+    {
+        Set<String> names = CompactIndex.collectNames(classIndex, annotationIndex, implementsIndex, superClassIndex,
+                                                      annotationValueIndex, memberIndex);
+        String[] symbols = names.toArray(new String[names.size()]);
+        Arrays.sort(symbols, CODE_POINT_ORDER);
+        Map<String, Integer> ids = new HashMap<String, Integer>(symbols.length * 2);
+        for (int i = 0; i < symbols.length; i++)
+        {
+            ids.put(symbols[i], i);
+        }
+
+        if (directory == null)
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            write(new DataOutputStream(bytes), symbols, ids, classIndex, annotationIndex, implementsIndex,
+                  superClassIndex, elementKindIndex, annotationValueIndex, memberIndex);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.size());
+            buffer.put(bytes.toByteArray());
+            buffer.flip();
+            return new OffHeapIndex(buffer);
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+        {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        File file = File.createTempFile("classscan", ".idx", directory);
+        try
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 32768));
+            try
+            {
+                write(out, symbols, ids, classIndex, annotationIndex, implementsIndex,
+                      superClassIndex, elementKindIndex, annotationValueIndex, memberIndex);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            OffHeapIndex index;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try
+            {
+                // the mapping stays valid after closing the file
+                index = new OffHeapIndex(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+            }
+            finally
+            {
+                raf.close();
+            }
+            if (!file.delete())
+            {
+                // e.g. Windows doesn't allow to delete mapped files, so we delete it in release()
+                index.file = file;
+            }
+            return index;
+        }
+        catch (IOException e)
+        {
+            file.delete();
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            file.delete();
+            throw e;
+        }
+    }
+
+    private static void write(DataOutputStream out, String[] symbols, Map<String, Integer> ids,
+                              Map<String, Set<String>> classIndex, Map<String, Set<String>> annotationIndex,
+                              Map<String, Set<String>> implementsIndex, Map<String, String> superClassIndex,
+                              Map<String, Map<String, Integer>> elementKindIndex,
+                              Map<String, Map<String, List<String>>> annotationValueIndex,
+                              Map<String, Map<String, Set<AnnotatedMember>>> memberIndex) throws IOException
+    {
+        int[][] tables = new int[TABLE_COUNT][symbols.length];
+        for (int[] table : tables)
+        {
+            Arrays.fill(table, -1);
+        }
+
+        for (int i = 0; i < symbols.length; i++)
+        {
+            tables[SYMBOLS][i] = out.size();
+            byte[] bytes = symbols[i].getBytes(UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        writePostings(out, ids, classIndex, tables[CLASSES]);
+        writePostings(out, ids, annotationIndex, tables[ANNOTATIONS]);
+        writePostings(out, ids, implementsIndex, tables[IMPLEMENTS]);
+
+        for (Map.Entry<String, String> entry : superClassIndex.entrySet())
+        {
+            tables[SUPER_CLASSES][ids.get(entry.getKey())] = ids.get(entry.getValue());
+        }
+
+        for (Map.Entry<String, Map<String, Integer>> entry : elementKindIndex.entrySet())
+        {
+            Set<String> annotations = classIndex.get(entry.getKey());
+            if (annotations == null || annotations.isEmpty())
+            {
+                continue;
+            }
+            // in the order of the sorted annotation ids of the class record
+            int[] annotationIds = toIds(ids, annotations);
+            tables[ELEMENT_KINDS][ids.get(entry.getKey())] = out.size();
+            for (int annotationId : annotationIds)
+            {
+                Integer kinds = entry.getValue().get(symbols[annotationId]);
+                out.writeByte(kinds != null ? kinds : AnnotationDB.ALL_ELEMENTS);
+            }
+        }
+
+        for (Map.Entry<String, Map<String, List<String>>> entry : annotationValueIndex.entrySet())
+        {
+            int length = 0;
+            for (List<String> values : entry.getValue().values())
+            {
+                length += 2 + values.size();
+            }
+            tables[ANNOTATION_VALUES][ids.get(entry.getKey())] = out.size();
+            out.writeInt(length);
+            for (Map.Entry<String, List<String>> member : entry.getValue().entrySet())
+            {
+                out.writeInt(ids.get(member.getKey()));
+                out.writeInt(member.getValue().size());
+                for (String value : member.getValue())
+                {
+                    out.writeInt(ids.get(value));
+                }
+            }
+        }
+
+        for (Map.Entry<String, Map<String, Set<AnnotatedMember>>> entry : memberIndex.entrySet())
+        {
+            int length = 0;
+            for (Set<AnnotatedMember> members : entry.getValue().values())
+            {
+                length += 4 * members.size();
+            }
+            tables[ANNOTATED_MEMBERS][ids.get(entry.getKey())] = out.size();
+            out.writeInt(length);
+            for (Map.Entry<String, Set<AnnotatedMember>> annotation : entry.getValue().entrySet())
+            {
+                int annotationId = ids.get(annotation.getKey());
+                for (AnnotatedMember member : annotation.getValue())
+                {
+                    out.writeInt(annotationId);
+                    out.writeInt(ids.get(member.getMemberName()));
+                    out.writeInt(ids.get(member.getDescriptor()));
+                    out.writeInt(member.getElementKind().ordinal());
+                }
+            }
+        }
+
+        int tablesPosition = out.size();
+        for (int[] table : tables)
+        {
+            for (int position : table)
+            {
+                out.writeInt(position);
+            }
+        }
+
+        out.writeInt(tablesPosition);
+        out.writeInt(symbols.length);
+        out.writeInt(classIndex.size());
+        out.writeInt(annotationIndex.size());
+        out.writeInt(implementsIndex.size());
+        out.writeInt(superClassIndex.size());
+        out.flush();
+        if (out.size() == Integer.MAX_VALUE)
+        {
+            // the counter of DataOutputStream stops at Integer.MAX_VALUE
+            throw new IOException("the index exceeds 2 GB");
+        }
+    }
+
+    private static void writePostings(DataOutputStream out, Map<String, Integer> ids,
+                                      Map<String, Set<String>> index, int[] table) throws IOException
+    {
+        int empty = -1;
+        for (Map.Entry<String, Set<String>> entry : index.entrySet())
+        {
+            int id = ids.get(entry.getKey());
+            if (entry.getValue().isEmpty())
+            {
+                // all the classes without annotations share the same empty record
+                if (empty < 0)
+                {
+                    empty = out.size();
+                    out.writeInt(0);
+                }
+                table[id] = empty;
+                continue;
+            }
+            table[id] = out.size();
+            int[] postings = toIds(ids, entry.getValue());
+            out.writeInt(postings.length);
+            for (int posting : postings)
+            {
+                out.writeInt(posting);
+            }
+        }
+    }
+
+    private static int[] toIds(Map<String, Integer> ids, Set<String> names)
+    {
+        int[] result = new int[names.size()];
+        int i = 0;
+        for (String name : names)
+        {
+            result[i++] = ids.get(name);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    public Map<String, Set<String>> getClassIndex()
+    {
+        return classIndex;
+    }
+
+    public Map<String, Set<String>> getAnnotationIndex()
+    {
+        return annotationIndex;
+    }
+
+    public Map<String, Set<String>> getImplementsIndex()
+    {
+        return implementsIndex;
+    }
+
+    public Map<String, String> getSuperClassIndex()
+    {
+        return superClassIndex;
+    }
+
+    public int getElementKinds(String className, String annotation)
+    {
+        beginRead();
+        try
+        {
+            int classId = idOf(className);
+            int kinds = classId >= 0 ? table(ELEMENT_KINDS, classId) : -1;
+            if (kinds < 0)
+            {
+                return AnnotationDB.ALL_ELEMENTS;
+            }
+            int position = search(table(CLASSES, classId), idOf(annotation));
+            return position >= 0 ? buffer.get(kinds + position) : AnnotationDB.ALL_ELEMENTS;
+        }
+        finally
+        {
+            endRead();
+        }
+    }
+
+    public Map<String, List<String>> getAnnotationValues(String className)
+    {
+        beginRead();
+        try
+        {
+            int classId = idOf(className);
+            int record = classId >= 0 ? table(ANNOTATION_VALUES, classId) : -1;
+            if (record < 0)
+            {
+                return null;
+            }
+            Map<String, List<String>> values = new HashMap<String, List<String>>();
+            int pos = record + 4;
+            int end = pos + buffer.getInt(record) * 4;
+            while (pos < end)
+            {
+                String member = nameOf(buffer.getInt(pos));
+                String[] memberValues = new String[buffer.getInt(pos + 4)];
+                pos += 8;
+                for (int i = 0; i < memberValues.length; i++)
+                {
+                    memberValues[i] = nameOf(buffer.getInt(pos));
+                    pos += 4;
+                }
+                values.put(member, Collections.unmodifiableList(Arrays.asList(memberValues)));
+            }
+            return Collections.unmodifiableMap(values);
+        }
+        finally
+        {
+            endRead();
+        }
+    }
+
+    public Map<String, Set<AnnotatedMember>> getAnnotatedMembers(String className)
+    {
+        beginRead();
+        try
+        {
+            int classId = idOf(className);
+            int record = classId >= 0 ? table(ANNOTATED_MEMBERS, classId) : -1;
+            if (record < 0)
+            {
+                return null;
+            }
+            ElementType[] elementTypes = ElementType.values();
+            String declaringClass = nameOf(classId);
+            Map<String, Set<AnnotatedMember>> members = new HashMap<String, Set<AnnotatedMember>>();
+            int end = record + 4 + buffer.getInt(record) * 4;
+            for (int pos = record + 4; pos < end; pos += 16)
+            {
+                String annotation = nameOf(buffer.getInt(pos));
+                Set<AnnotatedMember> annotationMembers = members.get(annotation);
+                if (annotationMembers == null)
+                {
+                    annotationMembers = new LinkedHashSet<AnnotatedMember>();
+                    members.put(annotation, annotationMembers);
+                }
+                annotationMembers.add(new AnnotatedMember(declaringClass, nameOf(buffer.getInt(pos + 4)),
+                                                          nameOf(buffer.getInt(pos + 8)),
+                                                          elementTypes[buffer.getInt(pos + 12)]));
+            }
+            for (Map.Entry<String, Set<AnnotatedMember>> entry : members.entrySet())
+            {
+                entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+            }
+            return Collections.unmodifiableMap(members);
+        }
+        finally
+        {
+            endRead();
+        }
+    }
+
+    public int getSymbolCount()
+    {
+        return symbolCount;
+    }
+
+    /**
+     * Unmap the buffer and delete the mapped file if it couldn't get deleted before.
+     * Waits for the reads of the buffer which are in progress.
+     */
+    public synchronized void release()
+    {
+        if (released)
+        {
+            return;
+        }
+        released = true;
+        while (readers.get() > 0)
+        {
+            // the readers which started before the flag got set
+            Thread.yield();
+        }
+        ByteBuffer unused = buffer;
+        buffer = null;
+        DirectBuffers.release(unused);
+        if (file != null)
+        {
+            file.delete();
+            file = null;
+        }
+    }
+
+    /**
+     * Start a read of the buffer, must be followed by {@link #endRead()}.
+     *
+     * @throws IllegalStateException if the index got released
+     */
+    private void beginRead()
+    {
+        readers.incrementAndGet();
+        if (released)
+        {
+            readers.decrementAndGet();
+            throw new IllegalStateException("the index already got released");
+        }
+    }
+
+    private void endRead()
+    {
+        readers.decrementAndGet();
+    }
+
+    /**
+     * @throws IllegalStateException if the index got released
+     */
+    private void checkNotReleased()
+    {
+        if (released)
+        {
+            throw new IllegalStateException("the index already got released");
+        }
+    }
+
+    /**
+     * @return the number of bytes the index occupies outside of the heap
+     */
+    int getCapacity()
+    {
+        beginRead();
+        try
+        {
+            return buffer.capacity();
+        }
+        finally
+        {
+            endRead();
+        }
+    }
+
+    /**
+     * @return the entry of the given id in the given table, <code>-1</code> marks ids without entry
+     */
+    private int table(int table, int id)
+    {
+        return buffer.getInt(tablesPosition + (table * symbolCount + id) * 4);
+    }
+
+    /**
+     * @return the id of the given name or <code>-1</code> if it isn't contained in the index
+     */
+    int idOf(Object name)
+    {
+        if (!(name instanceof String))
+        {
+            return -1;
+        }
+        byte[] key = ((String) name).getBytes(UTF_8);
+        int low = 0;
+        int high = symbolCount - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int cmp = compareSymbol(mid, key);
+            if (cmp < 0)
+            {
+                low = mid + 1;
+            }
+            else if (cmp > 0)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareSymbol(int id, byte[] key)
+    {
+        int pos = table(SYMBOLS, id);
+        int length = buffer.getInt(pos);
+        pos += 4;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++)
+        {
+            int b1 = buffer.get(pos + i) & 0xFF;
+            int b2 = key[i] & 0xFF;
+            if (b1 != b2)
+            {
+                return b1 - b2;
+            }
+        }
+        return length - key.length;
+    }
+
+    String nameOf(int id)
+    {
+        int pos = table(SYMBOLS, id);
+        byte[] bytes = new byte[buffer.getInt(pos)];
+        pos += 4;
+        for (int i = 0; i < bytes.length; i++)
+        {
+            bytes[i] = buffer.get(pos + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @return the position of the id within the sorted ids of the given postings record or a negative value
+     */
+    private int search(int record, int id)
+    {
+        if (id < 0)
+        {
+            return -1;
+        }
+        int low = 0;
+        int high = buffer.getInt(record) - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int midId = buffer.getInt(record + 4 + mid * 4);
+            if (midId < id)
+            {
+                low = mid + 1;
+            }
+            else if (midId > id)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        byte[] bytes;
+        beginRead();
+        try
+        {
+            bytes = new byte[buffer.limit()];
+            ByteBuffer source = buffer.duplicate();
+            source.clear();
+            source.get(bytes);
+        }
+        finally
+        {
+            endRead();
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        init(buffer);
+    }
+
+    /**
+     * Read-only map over one of the postings tables.
+     */
+    final class PostingsView extends AbstractMap<String, Set<String>> implements Serializable
+    {
+        private final int table;
+
+        private PostingsView(int table)
+        {
+            this.table = table;
+        }
+
+        @Override
+        public Set<String> get(Object key)
+        {
+            beginRead();
+            try
+            {
+                int id = idOf(key);
+                int record = id >= 0 ? table(table, id) : -1;
+                return record >= 0 ? new IdSet(record) : null;
+            }
+            finally
+            {
+                endRead();
+            }
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            beginRead();
+            try
+            {
+                int id = idOf(key);
+                return id >= 0 && table(table, id) >= 0;
+            }
+            finally
+            {
+                endRead();
+            }
+        }
+
+        @Override
+        public int size()
+        {
+            checkNotReleased();
+            return sizes[table - CLASSES];
+        }
+
+        @Override
+        public Set<Entry<String, Set<String>>> entrySet()
+        {
+            return new AbstractSet<Entry<String, Set<String>>>()
+            {
+                @Override
+                public Iterator<Entry<String, Set<String>>> iterator()
+                {
+                    return new TableIterator<Entry<String, Set<String>>>(table)
+                    {
+                        @Override
+                        Entry<String, Set<String>> entry(int id, int value)
+                        {
+                            return new SimpleImmutableEntry<String, Set<String>>(nameOf(id), new IdSet(value));
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return PostingsView.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only map from class to super class.
+     */
+    final class SuperClassView extends AbstractMap<String, String> implements Serializable
+    {
+        @Override
+        public String get(Object key)
+        {
+            beginRead();
+            try
+            {
+                int id = idOf(key);
+                int superClass = id >= 0 ? table(SUPER_CLASSES, id) : -1;
+                return superClass >= 0 ? nameOf(superClass) : null;
+            }
+            finally
+            {
+                endRead();
+            }
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            beginRead();
+            try
+            {
+                int id = idOf(key);
+                return id >= 0 && table(SUPER_CLASSES, id) >= 0;
+            }
+            finally
+            {
+                endRead();
+            }
+        }
+
+        @Override
+        public int size()
+        {
+            checkNotReleased();
+            return sizes[SUPER_CLASSES - CLASSES];
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet()
+        {
+            return new AbstractSet<Entry<String, String>>()
+            {
+                @Override
+                public Iterator<Entry<String, String>> iterator()
+                {
+                    return new TableIterator<Entry<String, String>>(SUPER_CLASSES)
+                    {
+                        @Override
+                        Entry<String, String> entry(int id, int value)
+                        {
+                            return new SimpleImmutableEntry<String, String>(nameOf(id), nameOf(value));
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return SuperClassView.this.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Iterates over the ids which have an entry in the given table.
+     */
+    private abstract class TableIterator<E> implements Iterator<E>
+    {
+        private final int table;
+        private int next;
+
+        TableIterator(int table)
+        {
+            this.table = table;
+            next = advance(0);
+        }
+
+        abstract E entry(int id, int value);
+
+        private int advance(int id)
+        {
+            beginRead();
+            try
+            {
+                while (id < symbolCount && table(table, id) < 0)
+                {
+                    id++;
+                }
+                return id;
+            }
+            finally
+            {
+                endRead();
+            }
+        }
+
+        public boolean hasNext()
+        {
+            return next < symbolCount;
+        }
+
+        public E next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            int id = next;
+            next = advance(id + 1);
+            beginRead();
+            try
+            {
+                return entry(id, table(table, id));
+            }
+            finally
+            {
+                endRead();
+            }
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException("the index is read-only");
+        }
+    }
+
+    /**
+     * Read-only set of names, backed by a postings record.
+     */
+    final class IdSet extends AbstractSet<String>
+    {
+        private final int record;
+
+        private IdSet(int record)
+        {
+            this.record = record;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            beginRead();
+            try
+            {
+                return search(record, idOf(o)) >= 0;
+            }
+            finally
+            {
+                endRead();
+            }
+        }
+
+        @Override
+        public int size()
+        {
+            beginRead();
+            try
+            {
+                return buffer.getInt(record);
+            }
+            finally
+            {
+                endRead();
+            }
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return new Iterator<String>()
+            {
+                private int position;
+
+                public boolean hasNext()
+                {
+                    return position < size();
+                }
+
+                public String next()
+                {
+                    if (!hasNext())
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    beginRead();
+                    try
+                    {
+                        return nameOf(buffer.getInt(record + 4 + 4 * position++));
+                    }
+                    finally
+                    {
+                        endRead();
+                    }
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException("the index is read-only");
+                }
+            };
+        }
+    }
+}
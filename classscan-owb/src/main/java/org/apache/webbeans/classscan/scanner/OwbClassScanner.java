@@ -18,14 +18,28 @@
 */
 package org.apache.webbeans.classscan.scanner;
 
-import javax.enterprise.classscan.ClassScanClient;
-import javax.enterprise.classscan.ClassScanner;
-import javax.enterprise.classscan.ScanJob;
+import org.apache.commons.classscan.api.AnnotatedMember;
+import org.apache.commons.classscan.api.AnnotationQuery;
+import org.apache.commons.classscan.api.ClassScanClient;
+import org.apache.commons.classscan.api.ClassScanner;
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.commons.classscan.api.ScanListener;
 
+import java.io.File;
 import java.io.IOException;
-import java.net.URL;
+import java.lang.annotation.ElementType;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * ClassScanner implementation we originally programmed for Apache
@@ -34,15 +48,154 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class OwbClassScanner extends ClassScanner {
 
-    private Map<ClassLoader, ScanResult> scanResultMap = new ConcurrentHashMap<ClassLoader, ScanResult>();
+    /**
+     * System property to enable the parallel scanning of archives.
+     * The value is either the number of threads to use or <code>true</code>
+     * for using one thread per available processor.
+     */
+    public static final String PARALLEL_SCAN_PROPERTY = "org.apache.commons.classscan.parallel";
+
+    /**
+     * System property pointing to a directory which should be used
+     * to cache the scan results of jars between restarts.
+     */
+    public static final String CACHE_DIR_PROPERTY = "org.apache.commons.classscan.cache.dir";
+
+    /**
+     * System property to limit the number of ClassLoaders the scan results get kept for.
+     * If there are more, the results of the least recently used ClassLoader get dropped.
+     * Results of garbage collected ClassLoaders always get dropped.
+     * Default is <code>0</code>, which means no limit.
+     */
+    public static final String MAX_CLASSLOADERS_PROPERTY = "org.apache.commons.classscan.maxClassLoaders";
+
+    /**
+     * System property to register a {@link ScanStatistics} MBean
+     * which collects the metrics of all scans, if set to <code>true</code>.
+     */
+    public static final String JMX_PROPERTY = "org.apache.commons.classscan.jmx";
+
+    /**
+     * System property to choose the bytecode library for parsing the class files.
+     * The value is the name of a {@link ClassFileReaderEngine}, e.g. <code>asm</code>.
+     * Default is <code>constant_pool</code>.
+     */
+    public static final String CLASS_READER_PROPERTY = "org.apache.commons.classscan.reader";
+
+    /**
+     * System property to choose where the scan results of the archives get stored.
+     * The value is the name of an {@link IndexStorage}, e.g. <code>mapped</code>.
+     * Default is <code>heap</code>.
+     */
+    public static final String INDEX_STORAGE_PROPERTY = "org.apache.commons.classscan.storage";
+
+    /**
+     * System property pointing to the directory for the files of the {@link IndexStorage#MAPPED} storage.
+     * Default is <code>java.io.tmpdir</code>.
+     */
+    public static final String INDEX_STORAGE_DIR_PROPERTY = "org.apache.commons.classscan.storage.dir";
+
+    private final int maxClassLoaders = Integer.getInteger(MAX_CLASSLOADERS_PROPERTY, 0);
 
-    private Set<String> vetoedClients = new HashSet<String>();
+    private volatile ScanMetricsListener metricsListener;
 
+    /**
+     * the MBean registered because of the {@link #JMX_PROPERTY}, gets unregistered in {@link #close()}
+     */
+    private volatile ScanStatistics registeredStatistics;
+
+    /**
+     * The users of the archive layers, so their off-heap storage gets released once no ScanResult uses them.
+     */
+    private final LayerReferences layerReferences = new LayerReferences();
+
+    private ClassLoaderRegistry<ScanResult> scanResultMap = new ClassLoaderRegistry<ScanResult>(maxClassLoaders,
+            new ClassLoaderRegistry.EvictionListener<ScanResult>() {
+                public void evicted(ClassLoader loader, ScanResult scanResult, ClassLoaderRegistry.EvictionCause cause) {
+                    if (loader != null) {
+                        archiveLayers.remove(loader);
+                        archiveDiscovery.evict(loader);
+                    }
+                    layerReferences.release(scanResult.dropLayers());
+                    scanResultEvicted(loader, cause);
+                }
+            });
+
+    /**
+     * The scan results of single archives, stored for the ClassLoader which owns the archive.
+     * This way all child ClassLoaders share the scan result of the archives of their parents.
+     */
+    private ClassLoaderRegistry<ConcurrentMap<String, AnnotationDB>> archiveLayers
+            = new ClassLoaderRegistry<ConcurrentMap<String, AnnotationDB>>(maxClassLoaders,
+                    new ClassLoaderRegistry.EvictionListener<ConcurrentMap<String, AnnotationDB>>() {
+                        public void evicted(ClassLoader loader, ConcurrentMap<String, AnnotationDB> layers,
+                                            ClassLoaderRegistry.EvictionCause cause) {
+                            // the ScanResults of child ClassLoaders might still use the layers
+                            layerReferences.release(layers.values());
+                        }
+                    });
+
+    /**
+     * The archives containing the marker files, cached per ClassLoader.
+     */
+    private final ArchiveDiscovery archiveDiscovery = new ArchiveDiscovery(maxClassLoaders);
+
+    private Set<String> vetoedClients = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+
+    public OwbClassScanner() {
+        if (Boolean.getBoolean(JMX_PROPERTY)) {
+            ScanStatistics statistics = new ScanStatistics();
+            statistics.register();
+            registeredStatistics = statistics;
+            metricsListener = statistics;
+        }
+    }
+
+    /**
+     * Release this scanner, e.g. when the container which created it shuts down.
+     * Unregisters the {@link ScanStatistics} MBean registered because of the {@link #JMX_PROPERTY}
+     * and drops all cached scan results, releasing their off-heap {@link IndexStorage}s.
+     * The scanner must not be used afterwards.
+     */
+    public void close() {
+        unregisterStatistics();
+        scanResultMap.clear();
+        archiveLayers.clear();
+    }
+
+    private void unregisterStatistics() {
+        ScanStatistics statistics = registeredStatistics;
+        if (statistics != null) {
+            registeredStatistics = null;
+            statistics.unregister();
+        }
+    }
+
+    public ScanMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * The listener gets notified about the costs of each archive and about
+     * the first result of each client. Replaces the {@link ScanStatistics}
+     * registered because of the {@link #JMX_PROPERTY}, which then gets unregistered.
+     *
+     * @param metricsListener the listener or <code>null</code> to disable the metrics
+     */
+    public void setMetricsListener(ScanMetricsListener metricsListener) {
+        if (metricsListener != registeredStatistics) {
+            unregisterStatistics();
+        }
+        this.metricsListener = metricsListener;
+    }
 
     /**
      * This method initializes all {@link ClassScanClient}s.
      * It will get called lazily at the first time the scanning result
-     * get requested.
+     * get requested. If this happens concurrently, the clients register
+     * themselves multiple times, which is harmless as a registration with
+     * the same client name replaces the previous one.
      * @param loader the current ClassLoader to use
      * @return the ScanResult or <code>null</code> if not available.
      */
@@ -63,15 +216,19 @@ public class OwbClassScanner extends ClassScanner {
 
 
     @Override
-    public synchronized void registerClient(String clientName, ScanJob scanJob) {
+    public void registerClient(String clientName, ScanJob scanJob) {
         ClassLoader loader = getClassLoader();
         ScanResult scanResult = scanResultMap.get(loader);
         if (scanResult == null) {
             scanResult = new ScanResult();
-            scanResultMap.put(loader, scanResult);
+            ScanResult existing = scanResultMap.putIfAbsent(loader, scanResult);
+            if (existing != null) {
+                scanResult = existing;
+            }
         }
 
-        scanResult.addScanJob(clientName, scanJob);
+        scanResult.addScanJob(clientName, new RegisteredScanJob(scanJob, createPackageFilter(scanJob)),
+                              scanJob.getScanListener());
     }
 
     @Override
@@ -81,18 +238,49 @@ public class OwbClassScanner extends ClassScanner {
         ScanResult scanResult = scanResultMap.get(loader);
         if (scanResult != null) {
             scanResult.getScanJobs().remove(clientName);
+            scanResult.getScanListeners().remove(clientName);
+            scanResult.getClientViews().remove(clientName);
             if (scanResult.getScanJobs().isEmpty()) {
                 // once the last ScanJob got deregistered, we can clear all the AnnotationDb
-                scanResultMap.remove(loader);
+                scanResultMap.remove(loader, scanResult);
             }
         }
     }
 
+    /**
+     * Drop all scan results of the given ClassLoader, including the shared results
+     * of its archives. Containers should call this when undeploying an application.
+     * Scan results of garbage collected ClassLoaders get dropped automatically.
+     * The off-heap {@link IndexStorage}s of its archives get released as soon as
+     * the scan results of its child ClassLoaders don't use them anymore either.
+     *
+     * @param loader the ClassLoader of the undeployed application
+     */
+    public void evict(ClassLoader loader) {
+        archiveLayers.remove(loader);
+        scanResultMap.remove(loader);
+        archiveDiscovery.evict(loader);
+    }
+
+    /**
+     * Callback for each ScanResult which got dropped, either because its ClassLoader got
+     * garbage collected, got {@link #evict(ClassLoader) evicted}, its last client deregistered
+     * or because of the {@link #MAX_CLASSLOADERS_PROPERTY}.
+     * The default implementation does nothing.
+     *
+     * @param loader the ClassLoader or <code>null</code> if it already got garbage collected
+     * @param cause why the result got dropped
+     */
+    protected void scanResultEvicted(ClassLoader loader, ClassLoaderRegistry.EvictionCause cause) {
+        // nothing to do by default
+    }
+
     @Override
     public Map<String, Set<String>> getAnnotationsIndex(String clientName) {
         AnnotationDB annotationDB = getAnnotationDb(clientName);
         if (annotationDB != null) {
-            return annotationDB.getAnnotationIndex();
+            ClientIndexView view = getClientView(clientName, annotationDB);
+            return view != null ? view.getAnnotationIndex() : annotationDB.getAnnotationIndex();
         }
         return null;
     }
@@ -106,11 +294,131 @@ public class OwbClassScanner extends ClassScanner {
     public Map<String, Set<String>> getClassesIndex(String clientName) {
         AnnotationDB annotationDB = getAnnotationDb(clientName);
         if (annotationDB != null) {
-            return annotationDB.getClassIndex();
+            ClientIndexView view = getClientView(clientName, annotationDB);
+            return view != null ? view.getClassIndex() : annotationDB.getClassIndex();
         }
         return null;
     }
 
+    /**
+     * Evaluates the query on BitSets of the annotated classes, so no intermediate Sets get created.
+     */
+    @Override
+    public Set<String> query(String clientName, AnnotationQuery query) {
+        AnnotationDB annotationDB = getAnnotationDb(clientName);
+        if (annotationDB == null) {
+            return null;
+        }
+        ScanResult scanResult = scanResultMap.get(getClassLoader());
+        if (scanResult == null) {
+            // got evicted meanwhile
+            return super.query(clientName, query);
+        }
+
+        QueryIndex queryIndex = scanResult.getQueryIndex(annotationDB);
+        ClientIndexView view = getClientView(clientName, annotationDB);
+        BitSet result = queryIndex.evaluate(query, view != null ? view.getElementKinds() : AnnotationDB.ALL_ELEMENTS);
+        if (view != null) {
+            result.and(view.getVisibleClasses(queryIndex));
+        }
+        return queryIndex.toSet(result);
+    }
+
+    /**
+     * Classes which directly extend java.lang.Object don't get indexed,
+     * so it isn't supported as type.
+     */
+    @Override
+    public Set<String> getSubtypes(String clientName, String type, boolean transitive) {
+        AnnotationDB annotationDB = getAnnotationDb(clientName);
+        if (annotationDB == null) {
+            return null;
+        }
+        ScanResult scanResult = scanResultMap.get(getClassLoader());
+        if (scanResult == null) {
+            // got evicted meanwhile, so use a temporary index
+            QueryIndex queryIndex = new QueryIndex(annotationDB);
+            return queryIndex.toSet(new HierarchyIndex(queryIndex, annotationDB).getSubtypes(type, transitive));
+        }
+
+        QueryIndex queryIndex = scanResult.getQueryIndex(annotationDB);
+        BitSet subtypes = scanResult.getHierarchyIndex(annotationDB).getSubtypes(type, transitive);
+        ClientIndexView view = getClientView(clientName, annotationDB);
+        if (view != null) {
+            subtypes = (BitSet) subtypes.clone();
+            subtypes.and(view.getVisibleClasses(queryIndex));
+        }
+        return queryIndex.toSet(subtypes);
+    }
+
+    /**
+     * The values get read from the AnnotationDB, which only contains the class annotations.
+     * Only the classes the client sees get returned.
+     */
+    @Override
+    public Map<String, List<String>> getAnnotationValues(String clientName, String annotationType,
+                                                         String memberName) {
+        AnnotationDB annotationDB = getAnnotationDb(clientName);
+        if (annotationDB == null) {
+            return null;
+        }
+        ScanResult scanResult = scanResultMap.get(getClassLoader());
+        RegisteredScanJob scanJob = scanResult != null ? scanResult.getScanJobs().get(clientName) : null;
+        if (scanJob != null && !scanJob.getIndexedAnnotationMembers().contains(
+                AnnotationDB.annotationMember(annotationType, memberName))) {
+            throw new IllegalArgumentException("Client " + clientName + " didn't ask for the values of "
+                                               + AnnotationDB.annotationMember(annotationType, memberName));
+        }
+
+        Set<String> classes = getAnnotationsIndex(clientName).get(annotationType);
+        if (classes == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> values = new HashMap<String, List<String>>();
+        for (String className : classes) {
+            List<String> classValues = annotationDB.getAnnotationValues(className, annotationType, memberName);
+            if (classValues != null) {
+                values.put(className, classValues);
+            }
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * The members get read from the AnnotationDB. Only the members of the classes the client sees
+     * and of the element kinds the client scans for get returned.
+     */
+    @Override
+    public Set<AnnotatedMember> getAnnotatedMembers(String clientName, String annotationType) {
+        AnnotationDB annotationDB = getAnnotationDb(clientName);
+        if (annotationDB == null) {
+            return null;
+        }
+        ScanResult scanResult = scanResultMap.get(getClassLoader());
+        RegisteredScanJob scanJob = scanResult != null ? scanResult.getScanJobs().get(clientName) : null;
+        if (scanJob != null && !scanJob.isIndexMembers()) {
+            throw new IllegalArgumentException("Client " + clientName + " didn't ask for the member index");
+        }
+        int elementKinds = scanJob != null ? scanJob.getElementKinds() : AnnotationDB.ALL_ELEMENTS;
+
+        Set<String> classes = getAnnotationsIndex(clientName).get(annotationType);
+        if (classes == null) {
+            return Collections.emptySet();
+        }
+        Set<AnnotatedMember> members = new HashSet<AnnotatedMember>();
+        for (String className : classes) {
+            Set<AnnotatedMember> classMembers = annotationDB.getAnnotatedMembers(className, annotationType);
+            if (classMembers != null) {
+                for (AnnotatedMember member : classMembers) {
+                    if ((AnnotationDB.elementKind(member.getElementKind()) & elementKinds) != 0) {
+                        members.add(member);
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableSet(members);
+    }
+
     /**
      * @return the ClassLoader to use.
      */
@@ -129,7 +437,8 @@ public class OwbClassScanner extends ClassScanner {
 
     /**
      * This method will lazily trigger the classpath scanning the first
-     * time it creates the AnnotationDB.
+     * time the AnnotationDB gets requested. Concurrent callers for the same
+     * ClassLoader wait for this single scan instead of scanning themselves.
      * @param clientName
      * @return the AnnotationDB after a successful scan
      */
@@ -143,135 +452,721 @@ public class OwbClassScanner extends ClassScanner {
                 return null;
             }
         }
-        AnnotationDB annotationDB = scanResult.getAnnotationDB();
-        if (annotationDB == null) {
-            annotationDB = new AnnotationDB();
 
-            // drop vetoed clients
-            for (String vetoedClient : vetoedClients) {
-                scanResult.getScanJobs().remove(vetoedClient);
+        FutureTask<AnnotationDB> scan = scanResult.getScan();
+        if (scan == null) {
+            FutureTask<AnnotationDB> newScan = new FutureTask<AnnotationDB>(new ScanTask(scanResult, loader));
+            if (scanResult.startScan(newScan)) {
+                newScan.run();
             }
+            scan = scanResult.getScan();
+        }
 
-            // if requested by a single client, then we perform the respective task
-            boolean scanClassAnnotations = false;
-            boolean scanMethodAnnotations = false;
-            boolean scanFieldAnnotations = false;
-            boolean scanParameterAnnotations = false;
-
-            Set<Class<?>> classesToScan = new HashSet<Class<?>>();
-
-            // create filters
-            Set<String> urlPaths = new HashSet<String>();
-            for (ScanJob scanJob : scanResult.getScanJobs().values()) {
-
-                scanClassAnnotations |= scanJob.isScanClassAnnotations();
-                scanMethodAnnotations |= scanJob.isScanMethodAnnotations();
-                scanFieldAnnotations |= scanJob.isScanFieldAnnotations();
-                scanParameterAnnotations |= scanJob.isScanParameterAnnotations();
-                if (scanJob.getClassesToScan() != null) {
-                    for (Class<?> classToScan : scanJob.getClassesToScan()) {
-                        classesToScan.add(classToScan);
-                    }
+        AnnotationDB annotationDB;
+        try {
+            annotationDB = scan.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the classpath scanning", e);
+        } catch (ExecutionException e) {
+            // a failed scan must not stick, the next request tries again
+            scanResult.resetScan(scan);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Error in classpath scanning", cause);
+        }
+
+        ScanMetricsListener listener = metricsListener;
+        if (listener != null) {
+            RegisteredScanJob scanJob = scanResult.getScanJobs().get(clientName);
+            if (scanJob != null && scanJob.firstResult()) {
+                ClientIndexView view = getClientView(clientName, annotationDB);
+                int indexSize = view != null ? view.getClassIndex().size() : annotationDB.getClassIndex().size();
+                listener.clientScanned(new ClientMetrics(clientName, scanJob.getRegistrationTime(), indexSize,
+                                                         System.nanoTime() - scanJob.getRegistrationNanos()));
+            }
+        }
+        return annotationDB;
+    }
+
+    /**
+     * Perform the actual classpath scanning for all ScanJobs registered so far.
+     * ScanJobs which get registered after the scan started don't get considered.
+     */
+    private AnnotationDB scan(ScanResult scanResult, ClassLoader loader) {
+        // drop vetoed clients
+        for (String vetoedClient : vetoedClients) {
+            scanResult.getScanJobs().remove(vetoedClient);
+        }
+
+        // if requested by a single client, then we perform the respective task
+        boolean scanClassAnnotations = false;
+        boolean scanMethodAnnotations = false;
+        boolean scanFieldAnnotations = false;
+        boolean scanParameterAnnotations = false;
+
+        Set<String> classesToScan = new HashSet<String>();
+        List<PackageFilter> packageFilters = new ArrayList<PackageFilter>();
+
+        // sorted, so equal sets of members lead to the same scan settings
+        Set<String> indexedAnnotationMembers = new TreeSet<String>();
+        boolean indexMembers = false;
+
+        // create filters
+        Set<String> markerFiles = new LinkedHashSet<String>();
+        // the listeners only get used during this scan, they must not stay in the cached ScanResult
+        Map<String, ScanListener> scanListeners = new HashMap<String, ScanListener>(scanResult.getScanListeners());
+        Map<RegisteredScanJob, ScanListener> listeningJobs = new LinkedHashMap<RegisteredScanJob, ScanListener>();
+        for (Map.Entry<String, RegisteredScanJob> entry : scanResult.getScanJobs().entrySet()) {
+            RegisteredScanJob scanJob = entry.getValue();
+            ScanListener scanListener = scanListeners.get(entry.getKey());
+            if (scanListener != null) {
+                listeningJobs.put(scanJob, scanListener);
+            }
+
+            scanClassAnnotations |= scanJob.isScanClassAnnotations();
+            scanMethodAnnotations |= scanJob.isScanMethodAnnotations();
+            scanFieldAnnotations |= scanJob.isScanFieldAnnotations();
+            scanParameterAnnotations |= scanJob.isScanParameterAnnotations();
+            classesToScan.addAll(scanJob.getClassesToScan());
+            indexedAnnotationMembers.addAll(scanJob.getIndexedAnnotationMembers());
+            indexMembers |= scanJob.isIndexMembers();
+
+            if (scanJob.getMarkerFiles() != null) {
+                markerFiles.addAll(Arrays.asList(scanJob.getMarkerFiles()));
+            }
+
+            packageFilters.add(scanJob.getPackageFilter());
+        }
+
+        Map<String, ClassLoader> archiveOwners = new LinkedHashMap<String, ClassLoader>();
+        if (!markerFiles.isEmpty()) {
+            findArchiveOwners(markerFiles, loader, archiveOwners);
+        }
+
+        // and now we do the actual scanning
+        AnnotationDB template = new AnnotationDB();
+        template.setScanClassAnnotations(scanClassAnnotations);
+        template.setScanMethodAnnotations(scanMethodAnnotations);
+        template.setScanFieldAnnotations(scanFieldAnnotations);
+        template.setScanParameterAnnotations(scanParameterAnnotations);
+        template.setPackageFilter(PackageFilter.union(packageFilters));
+        template.setIndexedAnnotationMembers(
+                indexedAnnotationMembers.toArray(new String[indexedAnnotationMembers.size()]));
+        template.setIndexMembers(indexMembers);
+        template.setReaderEngine(getReaderEngine());
+        template.setIndexStorage(getIndexStorage());
+        String storageDir = System.getProperty(INDEX_STORAGE_DIR_PROPERTY);
+        if (storageDir != null && storageDir.length() > 0) {
+            template.setIndexStorageDirectory(new File(storageDir));
+        }
+        if (!listeningJobs.isEmpty()) {
+            template.setScanListener(new DispatchingScanListener(listeningJobs));
+        }
+        template.setMetricsListener(metricsListener);
+
+        List<AnnotationDB> layers;
+        try {
+            layers = getArchiveLayers(template, archiveOwners);
+        } catch (IOException e) {
+            throw new RuntimeException("Error in classpath scanning", e);
+        }
+
+        boolean used = false;
+        try {
+            AnnotationDB annotationDB = createAnnotationDb(layers);
+            annotationDB.setScanClassAnnotations(scanClassAnnotations);
+            annotationDB.setScanMethodAnnotations(scanMethodAnnotations);
+            annotationDB.setScanFieldAnnotations(scanFieldAnnotations);
+            annotationDB.setScanParameterAnnotations(scanParameterAnnotations);
+            annotationDB.setReaderEngine(template.getReaderEngine());
+            annotationDB.setIndexedAnnotationMembers(template.getIndexedAnnotationMembers());
+            annotationDB.setIndexMembers(indexMembers);
+
+            if (!classesToScan.isEmpty()) {
+                annotationDB.setScanListener(template.getScanListener());
+                try {
+                    annotationDB.scanClasses(classesToScan, loader);
+                } finally {
+                    // the result gets cached, it must not keep the listeners of the clients
+                    annotationDB.setScanListener(null);
                 }
+            }
 
-                String[] markerFiles = scanJob.getMarkerFiles();
-                if ( markerFiles != null && markerFiles.length > 0 ) {
+            // all listeners got notified, a later scan of the same ScanResult doesn't notify them again
+            for (Map.Entry<String, ScanListener> entry : scanListeners.entrySet()) {
+                scanResult.getScanListeners().remove(entry.getKey(), entry.getValue());
+            }
+            used = scanResult.useLayers(layers);
+            return annotationDB;
+        } finally {
+            if (!used) {
+                // the scan failed or the ScanResult got dropped meanwhile
+                layerReferences.release(layers);
+            }
+        }
+    }
 
-                    for (String markerFile : markerFiles) {
-                        String[] classPathUrls = findResourceBases(markerFile,  loader);
-                        for (String classPathUrl :classPathUrls) {
-                            urlPaths.add(classPathUrl);
+    /**
+     * Create the AnnotationDB which composes the scan results of all archives
+     * visible to a ClassLoader. Gets called once per scan.
+     *
+     * @param layers the scan results of the archives, parents first
+     */
+    protected AnnotationDB createAnnotationDb(List<AnnotationDB> layers) {
+        return new LayeredAnnotationDB(layers);
+    }
+
+    /**
+     * Get the scan results of the given archives. Archives which already got scanned
+     * with the same settings for the ClassLoader owning them get reused, all
+     * others get scanned and stored for their owner.
+     *
+     * @param template the AnnotationDB with the scan settings
+     * @param archiveOwners the archive urls and the ClassLoaders owning them, parents first
+     * @return the scan result of each archive in the order of the archiveOwners, the caller
+     *         must drop them from the {@link #layerReferences} once it doesn't use them anymore
+     */
+    private List<AnnotationDB> getArchiveLayers(AnnotationDB template, Map<String, ClassLoader> archiveOwners)
+            throws IOException {
+        String settings = template.getScanSettings() + '|' + template.getPackageFilter().getSpecification() + '|';
+
+        String[] urlPaths = archiveOwners.keySet().toArray(new String[archiveOwners.size()]);
+        AnnotationDB[] layers = new AnnotationDB[urlPaths.length];
+        List<String> missing = new ArrayList<String>();
+        for (int i = 0; i < urlPaths.length; i++) {
+            AnnotationDB layer = getArchiveLayer(archiveOwners.get(urlPaths[i])).get(settings + urlPaths[i]);
+            if (layer == null || !layerReferences.acquire(layer)) {
+                // not scanned yet or released because its owner got evicted meanwhile
+                missing.add(urlPaths[i]);
+            } else {
+                layers[i] = layer;
+                // shared archives don't get parsed again
+                if (template.getScanListener() != null) {
+                    layers[i].replay(template.getScanListener());
+                }
+                if (template.getMetricsListener() != null) {
+                    template.getMetricsListener().archiveScanned(new ArchiveMetrics(urlPaths[i],
+                            ArchiveMetrics.Source.SHARED, 0, 0, layers[i].getClassIndex().size(), 0));
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            ExecutorService executor = null;
+            boolean scanned = false;
+            try {
+                if (missing.size() > 1) {
+                    executor = createScanExecutor();
+                    template.setExecutorService(executor);
+                }
+                template.setIndexCache(createIndexCache());
+
+                AnnotationDB[] results = template.scanArchivesSeparately(missing.toArray(new String[missing.size()]));
+                for (int i = 0, j = 0; i < urlPaths.length; i++) {
+                    if (layers[i] == null) {
+                        AnnotationDB layer = results[j++];
+                        layer.setScanListener(null);
+                        layer.setMetricsListener(null);
+                        // the layers don't change anymore and stay in memory as long as they get used
+                        layer.compact();
+                        // another ClassLoader sharing the owner might have scanned it meanwhile
+                        AnnotationDB existing = getArchiveLayer(archiveOwners.get(urlPaths[i]))
+                                .putIfAbsent(settings + urlPaths[i], layer);
+                        if (existing == null) {
+                            // used by the owner and by this scan
+                            layerReferences.register(layer, 2);
+                        } else if (layerReferences.acquire(existing)) {
+                            layer.release();
+                            layer = existing;
+                        } else {
+                            layerReferences.register(layer, 1);
                         }
+                        layers[i] = layer;
                     }
                 }
+                scanned = true;
+            } finally {
+                template.setExecutorService(null);
+                if (executor != null) {
+                    executor.shutdownNow();
+                }
+                if (!scanned) {
+                    layerReferences.release(nonNull(layers));
+                }
+            }
+        }
+
+        return Arrays.asList(layers);
+    }
+
+    private static List<AnnotationDB> nonNull(AnnotationDB[] layers) {
+        List<AnnotationDB> result = new ArrayList<AnnotationDB>(layers.length);
+        for (AnnotationDB layer : layers) {
+            if (layer != null) {
+                result.add(layer);
+            }
+        }
+        return result;
+    }
 
-                //X TODO what about the other filters?
+    private ConcurrentMap<String, AnnotationDB> getArchiveLayer(ClassLoader owner) {
+        ConcurrentMap<String, AnnotationDB> layer = archiveLayers.get(owner);
+        if (layer == null) {
+            layer = new ConcurrentHashMap<String, AnnotationDB>();
+            ConcurrentMap<String, AnnotationDB> existing = archiveLayers.putIfAbsent(owner, layer);
+            if (existing != null) {
+                layer = existing;
             }
+        }
+        return layer;
+    }
 
-            // and now we do the actual scanning
-            try {
-                annotationDB.setScanClassAnnotations(scanClassAnnotations);
-                annotationDB.setScanMethodAnnotations(scanMethodAnnotations);
-                annotationDB.setScanFieldAnnotations(scanFieldAnnotations);
-                annotationDB.setScanParameterAnnotations(scanParameterAnnotations);
+    /**
+     * Find all archives containing one of the given resources which are visible to the loader.
+     * Each archive gets assigned to the top most ClassLoader in the parent chain
+     * which also sees it.
+     *
+     * @param markerFiles the names of the marker resources, e.g. 'META-INF/beans.xml'
+     * @param loader the ClassLoader which should be used
+     * @param archiveOwners the found archive urls and their owning ClassLoaders get added here
+     */
+    private void findArchiveOwners(Set<String> markerFiles, ClassLoader loader, Map<String, ClassLoader> archiveOwners) {
+        Set<String> urlPaths = findResourceBases(markerFiles, loader);
+        if (urlPaths.isEmpty()) {
+            return;
+        }
 
-                if (!urlPaths.isEmpty()) {
-                    annotationDB.scanArchives(urlPaths.toArray(new String[urlPaths.size()]));
-                }
+        List<ClassLoader> parents = new ArrayList<ClassLoader>();
+        for (ClassLoader parent = loader.getParent(); parent != null; parent = parent.getParent()) {
+            parents.add(0, parent);
+        }
 
-                if (!classesToScan.isEmpty()) {
-                    annotationDB.scanClasses(classesToScan);
+        for (ClassLoader parent : parents) {
+            for (String urlPath : findResourceBases(markerFiles, parent)) {
+                if (urlPaths.remove(urlPath)) {
+                    archiveOwners.put(urlPath, parent);
                 }
-            } catch (IOException e) {
-                throw new RuntimeException("Error in classpath scanning", e);
             }
+        }
+        for (String urlPath : urlPaths) {
+            archiveOwners.put(urlPath, loader);
+        }
+    }
 
-            scanResult.setAnnotationDB(annotationDB);
+    /**
+     * @return the base paths of the archives visible to the loader which contain any of the marker files
+     */
+    private Set<String> findResourceBases(Set<String> markerFiles, ClassLoader loader) {
+        Map<String, List<String>> resourceBases = archiveDiscovery.findResourceBases(loader, markerFiles);
+        Set<String> urlPaths = new LinkedHashSet<String>();
+        for (String markerFile : markerFiles) {
+            urlPaths.addAll(resourceBases.get(markerFile));
         }
-        return annotationDB;
+        return urlPaths;
     }
 
     /**
-     * Find the base paths of all available resources with the given
-     * resourceName in the classpath.
-     * The returned Strings will <i>NOT</i> contain the resourceName itself!
+     * The AnnotationDB contains the classes of all ScanJobs. Clients which
+     * restrict the packages get a view which only shows their classes.
+     * Clients which asked for less element kinds than got scanned, e.g. only for
+     * class level annotations, get a view which hides the annotations of the other elements.
      *
-     * @param resourceName the name of the resource, e.g. 'META-INF/beans.xml'
-     * @param loader the ClassLoader which should be used
-     * @return array of Strings with the URL path to the resources.
+     * @return the view or <code>null</code> if the client sees everything
      */
-    private String[] findResourceBases(String resourceName, ClassLoader loader)
-    {
-        ArrayList<String> list = new ArrayList<String>();
-        try
-        {
-            Enumeration<URL> urls = loader.getResources(resourceName);
+    private ClientIndexView getClientView(String clientName, AnnotationDB annotationDB) {
+        ScanResult scanResult = scanResultMap.get(getClassLoader());
+        if (scanResult == null) {
+            return null;
+        }
+        ClientIndexView view = scanResult.getClientViews().get(clientName);
+        if (view == null) {
+            RegisteredScanJob scanJob = scanResult.getScanJobs().get(clientName);
+            if (scanJob == null) {
+                return null;
+            }
+            int scannedKinds = annotationDB.getScannedElementKinds();
+            int elementKinds = (scannedKinds & ~scanJob.getElementKinds()) != 0
+                    ? scanJob.getElementKinds() : AnnotationDB.ALL_ELEMENTS;
+            if (scanJob.getPackageFilter().isAcceptAll() && elementKinds == AnnotationDB.ALL_ELEMENTS) {
+                return null;
+            }
+            view = new ClientIndexView(annotationDB, scanJob.getPackageFilter(), scanJob.getClassesToScan(),
+                                       elementKinds);
+            scanResult.getClientViews().put(clientName, view);
+        }
+        return view;
+    }
 
-            while (urls.hasMoreElements())
-            {
-                URL url = urls.nextElement();
-                String urlString = url.toString();
+    /**
+     * @return the compiled package includes and excludes of the given ScanJob
+     */
+    protected PackageFilter createPackageFilter(ScanJob scanJob) {
+        return PackageFilter.create(scanJob.getPackageIncludes(), scanJob.getPackageExcludes());
+    }
 
-                int idx = urlString.lastIndexOf(resourceName);
-                urlString = urlString.substring(0, idx);
+    /**
+     * Create the ExecutorService for scanning the archives in parallel.
+     * The default implementation evaluates the {@link #PARALLEL_SCAN_PROPERTY}.
+     * The returned ExecutorService will get shut down after the scan.
+     *
+     * @return the ExecutorService or <code>null</code> to scan sequentially
+     */
+    protected ExecutorService createScanExecutor() {
+        String parallel = System.getProperty(PARALLEL_SCAN_PROPERTY);
+        if (parallel == null || parallel.length() == 0 || "false".equalsIgnoreCase(parallel)) {
+            return null;
+        }
 
-                list.add(urlString);
+        int threads;
+        if ("true".equalsIgnoreCase(parallel)) {
+            threads = Runtime.getRuntime().availableProcessors();
+        } else {
+            try {
+                threads = Integer.parseInt(parallel.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + PARALLEL_SCAN_PROPERTY + ": " + parallel, e);
             }
         }
-        catch (IOException e)
-        {
-            throw new RuntimeException(e);
+        if (threads <= 1) {
+            return null;
         }
 
-        return list.toArray(new String[list.size()]);
+        return Executors.newFixedThreadPool(threads, new ScannerThreadFactory());
+    }
 
+    /**
+     * Choose the bytecode library for parsing the class files.
+     * The default implementation evaluates the {@link #CLASS_READER_PROPERTY}.
+     *
+     * @return the engine, never <code>null</code>
+     */
+    protected ClassFileReaderEngine getReaderEngine() {
+        String engine = System.getProperty(CLASS_READER_PROPERTY);
+        if (engine == null || engine.length() == 0) {
+            return ClassFileReaderEngine.CONSTANT_POOL;
+        }
+        try {
+            return ClassFileReaderEngine.parse(engine);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for " + CLASS_READER_PROPERTY + ": " + engine, e);
+        }
     }
 
+    /**
+     * Choose where the scan results of the archives get stored once they got compacted.
+     * The default implementation evaluates the {@link #INDEX_STORAGE_PROPERTY}.
+     *
+     * @return the storage, never <code>null</code>
+     */
+    protected IndexStorage getIndexStorage() {
+        String storage = System.getProperty(INDEX_STORAGE_PROPERTY);
+        if (storage == null || storage.length() == 0) {
+            return IndexStorage.HEAP;
+        }
+        try {
+            return IndexStorage.parse(storage);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid value for " + INDEX_STORAGE_PROPERTY + ": " + storage, e);
+        }
+    }
 
-    private class ScanResult {
-        private AnnotationDB annotationDB;
-        private Map<String, ScanJob> scanJobs = new HashMap<String, ScanJob>();
+    /**
+     * Create the persistent cache for the scan results of jars.
+     * The default implementation evaluates the {@link #CACHE_DIR_PROPERTY}.
+     *
+     * @return the ScanIndexCache or <code>null</code> to always scan all jars
+     */
+    protected ScanIndexCache createIndexCache() {
+        String cacheDir = System.getProperty(CACHE_DIR_PROPERTY);
+        if (cacheDir == null || cacheDir.length() == 0) {
+            return null;
+        }
+        return new ScanIndexCache(new File(cacheDir));
+    }
+
+    /**
+     * Daemon threads, so a forgotten scanner never blocks the JVM shutdown.
+     */
+    private static class ScannerThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+        private final int poolNumber = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "classscan-" + poolNumber + "-worker-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * The settings of a registered {@link ScanJob}. The classes to scan only get stored
+     * by name, so we don't keep a reference to the ClassLoader of the client.
+     */
+    private static class RegisteredScanJob {
+        private final boolean scanClassAnnotations;
+        private final boolean scanMethodAnnotations;
+        private final boolean scanFieldAnnotations;
+        private final boolean scanParameterAnnotations;
+        private final String[] markerFiles;
+        private final PackageFilter packageFilter;
+        private final Set<String> classesToScan = new HashSet<String>();
+        private final Set<String> indexedAnnotationMembers = new HashSet<String>();
+        private final boolean indexMembers;
+        private final long registrationTime = System.currentTimeMillis();
+        private final long registrationNanos = System.nanoTime();
+        private final AtomicBoolean firstResult = new AtomicBoolean(true);
+
+        public RegisteredScanJob(ScanJob scanJob, PackageFilter packageFilter) {
+            scanClassAnnotations = scanJob.isScanClassAnnotations();
+            scanMethodAnnotations = scanJob.isScanMethodAnnotations();
+            scanFieldAnnotations = scanJob.isScanFieldAnnotations();
+            scanParameterAnnotations = scanJob.isScanParameterAnnotations();
+            markerFiles = scanJob.getMarkerFiles();
+            indexMembers = scanJob.isIndexMembers();
+            this.packageFilter = packageFilter;
+            if (scanJob.getIndexedAnnotationMembers() != null) {
+                indexedAnnotationMembers.addAll(Arrays.asList(scanJob.getIndexedAnnotationMembers()));
+            }
+            if (scanJob.getClassesToScan() != null) {
+                for (Class<?> classToScan : scanJob.getClassesToScan()) {
+                    classesToScan.add(classToScan.getName());
+                }
+            }
+        }
+
+        public boolean isScanClassAnnotations() {
+            return scanClassAnnotations;
+        }
+
+        public boolean isScanMethodAnnotations() {
+            return scanMethodAnnotations;
+        }
+
+        public boolean isScanFieldAnnotations() {
+            return scanFieldAnnotations;
+        }
+
+        public boolean isScanParameterAnnotations() {
+            return scanParameterAnnotations;
+        }
+
+        public String[] getMarkerFiles() {
+            return markerFiles;
+        }
+
+        public PackageFilter getPackageFilter() {
+            return packageFilter;
+        }
+
+        /**
+         * @return the element kinds this ScanJob asked for
+         */
+        public int getElementKinds() {
+            return (scanClassAnnotations ? AnnotationDB.CLASS_ELEMENT : 0)
+                   | (scanMethodAnnotations ? AnnotationDB.METHOD_ELEMENT : 0)
+                   | (scanFieldAnnotations ? AnnotationDB.FIELD_ELEMENT : 0)
+                   | (scanParameterAnnotations ? AnnotationDB.PARAMETER_ELEMENT : 0);
+        }
+
+        public Set<String> getClassesToScan() {
+            return classesToScan;
+        }
+
+        public Set<String> getIndexedAnnotationMembers() {
+            return indexedAnnotationMembers;
+        }
+
+        public boolean isIndexMembers() {
+            return indexMembers;
+        }
+
+        public long getRegistrationTime() {
+            return registrationTime;
+        }
+
+        public long getRegistrationNanos() {
+            return registrationNanos;
+        }
+
+        /**
+         * @return <code>true</code> only for the first call
+         */
+        public boolean firstResult() {
+            return firstResult.getAndSet(false);
+        }
+
+        /**
+         * @return whether the ScanJob asked for the given annotation
+         */
+        public boolean isInterested(String className, ElementType elementType) {
+            return (getElementKinds() & AnnotationDB.elementKind(elementType)) != 0
+                   && (packageFilter.accepts(className) || classesToScan.contains(className));
+        }
+    }
+
+    /**
+     * Forwards the found annotations to the listeners of the ScanJobs which asked for them.
+     */
+    private static class DispatchingScanListener implements ScanListener {
+        private final Map<RegisteredScanJob, ScanListener> scanJobs;
+
+        public DispatchingScanListener(Map<RegisteredScanJob, ScanListener> scanJobs) {
+            this.scanJobs = scanJobs;
+        }
+
+        public void annotationFound(String className, String annotationType, ElementType elementType) {
+            for (Map.Entry<RegisteredScanJob, ScanListener> entry : scanJobs.entrySet()) {
+                if (entry.getKey().isInterested(className, elementType)) {
+                    entry.getValue().annotationFound(className, annotationType, elementType);
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs the scan of a ScanResult. The references get dropped after the
+     * scan, as some FutureTask implementations keep their Callable forever.
+     */
+    private class ScanTask implements Callable<AnnotationDB> {
+        private ScanResult scanResult;
+        private ClassLoader loader;
+
+        public ScanTask(ScanResult scanResult, ClassLoader loader) {
+            this.scanResult = scanResult;
+            this.loader = loader;
+        }
+
+        public AnnotationDB call() {
+            try {
+                return scan(scanResult, loader);
+            } finally {
+                scanResult = null;
+                loader = null;
+            }
+        }
+    }
+
+    private static class ScanResult {
+        private final AtomicReference<FutureTask<AnnotationDB>> scan = new AtomicReference<FutureTask<AnnotationDB>>();
+        private Map<String, RegisteredScanJob> scanJobs = new ConcurrentHashMap<String, RegisteredScanJob>();
+        private Map<String, ClientIndexView> clientViews = new ConcurrentHashMap<String, ClientIndexView>();
+
+        /**
+         * the listeners of the clients which didn't get notified by a scan yet. They usually
+         * come from the ClassLoader this ScanResult is registered for, so they must not stay here
+         * after the scan, otherwise the value of the ClassLoaderRegistry would keep its key alive.
+         */
+        private final ConcurrentMap<String, ScanListener> scanListeners = new ConcurrentHashMap<String, ScanListener>();
+        private volatile QueryIndex queryIndex;
+        private volatile HierarchyIndex hierarchyIndex;
+
+        /**
+         * the archive layers the result of the scan uses, counted by the {@link #layerReferences}
+         */
+        private List<AnnotationDB> layers = Collections.emptyList();
+        private boolean dropped;
 
         public ScanResult() {
         }
 
-        public void addScanJob(String clientName, ScanJob scanJob) {
+        /**
+         * @param scannedLayers the archive layers of a successful scan
+         * @return <code>false</code> if this ScanResult already got dropped, so the layers didn't get taken
+         */
+        public synchronized boolean useLayers(List<AnnotationDB> scannedLayers) {
+            if (dropped) {
+                return false;
+            }
+            layers = scannedLayers;
+            return true;
+        }
+
+        /**
+         * @return the archive layers which got used until this ScanResult got dropped
+         */
+        public synchronized List<AnnotationDB> dropLayers() {
+            dropped = true;
+            List<AnnotationDB> used = layers;
+            layers = Collections.emptyList();
+            return used;
+        }
+
+        public void addScanJob(String clientName, RegisteredScanJob scanJob, ScanListener scanListener) {
             scanJobs.put(clientName, scanJob);
+            if (scanListener != null) {
+                scanListeners.put(clientName, scanListener);
+            } else {
+                scanListeners.remove(clientName);
+            }
         }
 
-        public AnnotationDB getAnnotationDB() {
-            return annotationDB;
+        /**
+         * @return the running or finished scan or <code>null</code> if it didn't start yet
+         */
+        public FutureTask<AnnotationDB> getScan() {
+            return scan.get();
         }
 
-        public void setAnnotationDB(AnnotationDB annotationDB) {
-            this.annotationDB = annotationDB;
+        /**
+         * @return <code>true</code> if the given scan got installed and must be run by the caller
+         */
+        public boolean startScan(FutureTask<AnnotationDB> newScan) {
+            return scan.compareAndSet(null, newScan);
         }
 
-        public Map<String, ScanJob> getScanJobs() {
+        /**
+         * Drop the given failed scan, so the next request starts a new one.
+         */
+        public void resetScan(FutureTask<AnnotationDB> failedScan) {
+            scan.compareAndSet(failedScan, null);
+        }
+
+        /**
+         * @param annotationDB the result of the scan
+         * @return the QueryIndex of the scan result, created with the first query
+         */
+        public QueryIndex getQueryIndex(AnnotationDB annotationDB) {
+            QueryIndex index = queryIndex;
+            if (index == null) {
+                // concurrent queries might create it twice, which doesn't harm
+                index = new QueryIndex(annotationDB);
+                queryIndex = index;
+            }
+            return index;
+        }
+
+        /**
+         * @param annotationDB the result of the scan
+         * @return the HierarchyIndex of the scan result, created with the first subtype request
+         */
+        public HierarchyIndex getHierarchyIndex(AnnotationDB annotationDB) {
+            HierarchyIndex index = hierarchyIndex;
+            if (index == null) {
+                index = new HierarchyIndex(getQueryIndex(annotationDB), annotationDB);
+                hierarchyIndex = index;
+            }
+            return index;
+        }
+
+        public Map<String, RegisteredScanJob> getScanJobs() {
             return scanJobs;
         }
 
+        public Map<String, ClientIndexView> getClientViews() {
+            return clientViews;
+        }
 
+        public ConcurrentMap<String, ScanListener> getScanListeners() {
+            return scanListeners;
+        }
     }
 
 }
@@ -0,0 +1,442 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * <p>Immutable, pre-compiled filter for the package includes and excludes
+ * of one or more {@link org.apache.commons.classscan.api.ScanJob}s.</p>
+ *
+ * <p>All packages of all jobs get compiled into a single trie over the package
+ * segments. Each node knows which jobs include or exclude this package as bit masks.
+ * A class gets accepted if at least one job accepts it. A job accepts a class if the
+ * class lies in one of its included packages (or the job has no includes) and
+ * not in one of its excluded packages.</p>
+ *
+ * <p>Names can use either '.' or '/' as separator, so class names and paths
+ * of archive entries can be checked without any conversion.</p>
+ */
+public final class PackageFilter implements Serializable
+{
+    /**
+     * max number of different jobs we can handle with the bit masks
+     */
+    private static final int MAX_JOBS = 64;
+
+    public static final PackageFilter ACCEPT_ALL = new PackageFilter();
+
+    private final Node root;
+    private final long allJobs;
+
+    /**
+     * jobs without any include, they accept all packages which are not excluded
+     */
+    private final long unrestrictedJobs;
+
+    private final boolean acceptAll;
+    private final List<String> jobSpecifications;
+    private final String specification;
+
+    private PackageFilter()
+    {
+        root = new Node();
+        allJobs = 1L;
+        unrestrictedJobs = 1L;
+        acceptAll = true;
+        jobSpecifications = new ArrayList<String>();
+        specification = "";
+    }
+
+    private PackageFilter(List<String[][]> jobs, List<String> jobSpecifications)
+    {
+        Builder rootBuilder = new Builder();
+        long all = 0L;
+        long unrestricted = 0L;
+        for (int i = 0; i < jobs.size(); i++)
+        {
+            long bit = 1L << i;
+            all |= bit;
+
+            String[] includes = jobs.get(i)[0];
+            String[] excludes = jobs.get(i)[1];
+            if (includes.length == 0)
+            {
+                unrestricted |= bit;
+            }
+            for (String include : includes)
+            {
+                rootBuilder.add(include).includes |= bit;
+            }
+            for (String exclude : excludes)
+            {
+                rootBuilder.add(exclude).excludes |= bit;
+            }
+        }
+
+        root = rootBuilder.build();
+        allJobs = all;
+        unrestrictedJobs = unrestricted;
+        acceptAll = false;
+        this.jobSpecifications = jobSpecifications;
+
+        StringBuilder sb = new StringBuilder();
+        for (String jobSpecification : jobSpecifications)
+        {
+            if (sb.length() > 0)
+            {
+                sb.append('|');
+            }
+            sb.append(jobSpecification);
+        }
+        specification = sb.toString();
+    }
+
+    /**
+     * @param includes packages to scan, <code>null</code> or empty to scan all packages
+     * @param excludes packages which should not get scanned, might be <code>null</code>
+     * @return the filter for a single job
+     */
+    public static PackageFilter create(String[] includes, String[] excludes)
+    {
+        String[] normalizedIncludes = normalize(includes);
+        String[] normalizedExcludes = normalize(excludes);
+        if (normalizedIncludes.length == 0 && normalizedExcludes.length == 0)
+        {
+            return ACCEPT_ALL;
+        }
+
+        List<String[][]> jobs = new ArrayList<String[][]>(1);
+        jobs.add(new String[][]{normalizedIncludes, normalizedExcludes});
+        List<String> specs = new ArrayList<String>(1);
+        specs.add(specification(normalizedIncludes, normalizedExcludes));
+        return new PackageFilter(jobs, specs);
+    }
+
+    /**
+     * @return a filter which accepts all classes accepted by at least one of the given filters
+     */
+    public static PackageFilter union(Collection<PackageFilter> filters)
+    {
+        // sorted and without duplicates, so equal job sets lead to the same specification
+        TreeMap<String, String[][]> jobs = new TreeMap<String, String[][]>();
+        for (PackageFilter filter : filters)
+        {
+            if (filter.acceptAll)
+            {
+                return ACCEPT_ALL;
+            }
+            for (String jobSpecification : filter.jobSpecifications)
+            {
+                jobs.put(jobSpecification, parse(jobSpecification));
+            }
+        }
+        if (jobs.isEmpty() || jobs.size() > MAX_JOBS)
+        {
+            // no pruning at all is still correct, the client views filter anyway
+            return ACCEPT_ALL;
+        }
+        return new PackageFilter(new ArrayList<String[][]>(jobs.values()), new ArrayList<String>(jobs.keySet()));
+    }
+
+    /**
+     * @return <code>true</code> if this filter accepts every class
+     */
+    public boolean isAcceptAll()
+    {
+        return acceptAll;
+    }
+
+    /**
+     * A canonical String representation of this filter. Equal filters have the same specification.
+     */
+    public String getSpecification()
+    {
+        return specification;
+    }
+
+    /**
+     * @param className the fully qualified class name or path of the class file,
+     *                  separated by '.' or '/'. A leading '/' is not allowed.
+     * @return <code>true</code> if at least one job accepts the class
+     */
+    public boolean accepts(CharSequence className)
+    {
+        return accepts(className, 0, className.length());
+    }
+
+    /**
+     * Like {@link #accepts(CharSequence)} but only looks at the given range of the name.
+     * This allows to check e.g. <code>com/acme/Foo.class</code> without the file suffix.
+     */
+    public boolean accepts(CharSequence className, int start, int end)
+    {
+        return test(className, start, end, false, false);
+    }
+
+    /**
+     * @param packageName name of the package, separated by '.' or '/'. An empty String stands for the root.
+     * @return <code>true</code> if the classes directly located in this package get accepted
+     */
+    public boolean acceptsClassesIn(CharSequence packageName)
+    {
+        return test(packageName, 0, packageName.length(), true, false);
+    }
+
+    /**
+     * Used to prune whole directory trees.
+     *
+     * @param packageName name of the package, separated by '.' or '/'. An empty String stands for the root.
+     * @return <code>false</code> if no class in this package or any of its sub packages can get accepted
+     */
+    public boolean acceptsPackage(CharSequence packageName)
+    {
+        return test(packageName, 0, packageName.length(), true, true);
+    }
+
+    /**
+     * Walks the trie along the segments of the name and collects
+     * the jobs which include or exclude one of the visited packages.
+     *
+     * @param isPackage if <code>false</code> the last segment is the simple class name
+     * @param subPackages whether jobs which only include a sub package count as well
+     */
+    private boolean test(CharSequence name, int start, int end, boolean isPackage, boolean subPackages)
+    {
+        if (acceptAll)
+        {
+            return true;
+        }
+
+        long included = 0L;
+        long excluded = 0L;
+        Node node = root;
+        while (node != null && start < end)
+        {
+            int separator = nextSeparator(name, start, end);
+            if (separator == end && !isPackage)
+            {
+                break;
+            }
+            node = node.child(name, start, separator);
+            if (node != null)
+            {
+                included |= node.includes;
+                excluded |= node.excludes;
+            }
+            start = separator + 1;
+        }
+
+        long includedBelow = subPackages && node != null ? node.includesBelow : 0L;
+
+        return ((unrestrictedJobs | included | includedBelow) & ~excluded & allJobs) != 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return acceptAll ? "PackageFilter[*]" : "PackageFilter[" + specification + "]";
+    }
+
+    private static int nextSeparator(CharSequence name, int start, int length)
+    {
+        for (int i = start; i < length; i++)
+        {
+            char c = name.charAt(i);
+            if (c == '.' || c == '/')
+            {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private static String[] normalize(String[] packages)
+    {
+        if (packages == null)
+        {
+            return new String[0];
+        }
+        TreeSet<String> normalized = new TreeSet<String>();
+        for (String pkg : packages)
+        {
+            if (pkg == null)
+            {
+                continue;
+            }
+            pkg = pkg.trim().replace('/', '.');
+            while (pkg.endsWith(".") || pkg.endsWith("*"))
+            {
+                pkg = pkg.substring(0, pkg.length() - 1);
+            }
+            if (pkg.length() > 0)
+            {
+                normalized.add(pkg);
+            }
+        }
+        return normalized.toArray(new String[normalized.size()]);
+    }
+
+    private static String specification(String[] includes, String[] excludes)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String include : includes)
+        {
+            sb.append('+').append(include).append(',');
+        }
+        for (String exclude : excludes)
+        {
+            sb.append('-').append(exclude).append(',');
+        }
+        return sb.toString();
+    }
+
+    private static String[][] parse(String jobSpecification)
+    {
+        List<String> includes = new ArrayList<String>();
+        List<String> excludes = new ArrayList<String>();
+        for (String part : jobSpecification.split(","))
+        {
+            if (part.startsWith("+"))
+            {
+                includes.add(part.substring(1));
+            }
+            else if (part.startsWith("-"))
+            {
+                excludes.add(part.substring(1));
+            }
+        }
+        return new String[][]{includes.toArray(new String[includes.size()]), excludes.toArray(new String[excludes.size()])};
+    }
+
+    /**
+     * Immutable trie node. The segments of the children get compared char by char,
+     * so looking up a name doesn't need to create any Strings.
+     */
+    private static final class Node implements Serializable
+    {
+        private final char[][] segments;
+        private final Node[] children;
+        private final long includes;
+        private final long excludes;
+        private final long includesBelow;
+
+        private Node()
+        {
+            this(new char[0][], new Node[0], 0L, 0L);
+        }
+
+        private Node(char[][] segments, Node[] children, long includes, long excludes)
+        {
+            this.segments = segments;
+            this.children = children;
+            this.includes = includes;
+            this.excludes = excludes;
+
+            long below = includes;
+            for (Node child : children)
+            {
+                below |= child.includesBelow;
+            }
+            this.includesBelow = below;
+        }
+
+        private Node child(CharSequence name, int start, int end)
+        {
+            int length = end - start;
+            for (int i = 0; i < segments.length; i++)
+            {
+                char[] segment = segments[i];
+                if (segment.length != length)
+                {
+                    continue;
+                }
+                int j = 0;
+                while (j < length && segment[j] == name.charAt(start + j))
+                {
+                    j++;
+                }
+                if (j == length)
+                {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Mutable node used while compiling the trie.
+     */
+    private static final class Builder
+    {
+        private final Map<String, Builder> children = new TreeMap<String, Builder>();
+        private long includes;
+        private long excludes;
+
+        private Builder add(String packageName)
+        {
+            Builder node = this;
+            for (String segment : packageName.split("\\."))
+            {
+                Builder child = node.children.get(segment);
+                if (child == null)
+                {
+                    child = new Builder();
+                    node.children.put(segment, child);
+                }
+                node = child;
+            }
+            return node;
+        }
+
+        private Node build()
+        {
+            char[][] segments = new char[children.size()][];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<String, Builder> entry : children.entrySet())
+            {
+                segments[i] = entry.getKey().toCharArray();
+                nodes[i] = entry.getValue().build();
+                i++;
+            }
+            return new Node(segments, nodes, includes, excludes);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof PackageFilter && ((PackageFilter) o).acceptAll == acceptAll
+               && ((PackageFilter) o).specification.equals(specification);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return acceptAll ? 0 : specification.hashCode();
+    }
+}
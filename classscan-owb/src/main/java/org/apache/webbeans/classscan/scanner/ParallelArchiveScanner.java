@@ -0,0 +1,357 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Scans archives for an {@link AnnotationDB} with the help of an
+ * {@link ExecutorService}.</p>
+ *
+ * <p>Each archive gets iterated by its own task. The class bytes of an archive
+ * get collected in batches and every full batch gets scanned by another worker.
+ * Each batch gets scanned into its own partial AnnotationDB.
+ * After all tasks are done, the calling thread merges the partial indexes
+ * in archive and batch order. Thus the result is exactly the same as with
+ * a sequential scan.</p>
+ *
+ * <p>Tasks never wait for other tasks, so this works with bounded pools
+ * as well. Only the calling thread blocks.</p>
+ *
+ * <p>Archives with a pre-built index or an entry in the {@link ScanIndexCache}
+ * get loaded by the archive tasks instead of being scanned. The batches of all other cacheable
+ * archives get merged into one partial per archive which gets stored
+ * in the cache.</p>
+ */
+class ParallelArchiveScanner
+{
+    static final int DEFAULT_BATCH_SIZE = 256;
+
+    private final AnnotationDB target;
+    private final ExecutorService executor;
+    private final int batchSize;
+    private final ScanIndexCache indexCache;
+
+    ParallelArchiveScanner(AnnotationDB target, ExecutorService executor, int batchSize)
+    {
+        this.target = target;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.indexCache = target.getIndexCache();
+    }
+
+    /**
+     * Scan all given archives and merge the results into the target AnnotationDB.
+     *
+     * @param urls archive urls as accepted by {@link AnnotationDB#scanArchives(String...)}
+     * @throws IOException
+     */
+    void scan(String[] urls) throws IOException
+    {
+        scan(urls, null);
+    }
+
+    /**
+     * Scan all given archives into one partial AnnotationDB per archive.
+     * The target AnnotationDB only provides the settings and doesn't get changed.
+     *
+     * @param urls archive urls as accepted by {@link AnnotationDB#scanArchives(String...)}
+     * @return the partial indexes in the order of the urls
+     * @throws IOException
+     */
+    AnnotationDB[] scanSeparately(String[] urls) throws IOException
+    {
+        AnnotationDB[] archiveIndexes = new AnnotationDB[urls.length];
+        scan(urls, archiveIndexes);
+        return archiveIndexes;
+    }
+
+    /**
+     * @param archiveIndexes if <code>null</code> the results get merged into the target
+     */
+    private void scan(String[] urls, AnnotationDB[] archiveIndexes) throws IOException
+    {
+        List<Future<ArchiveResult>> archives = new ArrayList<Future<ArchiveResult>>(urls.length);
+        for (String urlPath : urls)
+        {
+            archives.add(executor.submit(new ArchiveTask(urlPath)));
+        }
+
+        try
+        {
+            for (int i = 0; i < urls.length; i++)
+            {
+                ArchiveResult archive = await(archives.get(i));
+                if (archive.cached == null && target.getMetricsListener() != null)
+                {
+                    reportMetrics(urls[i], archive);
+                }
+                boolean cacheable = indexCache != null && indexCache.isCacheable(urls[i]);
+
+                AnnotationDB archiveIndex = archive.cached;
+                if (archiveIndex == null && archiveIndexes == null && !cacheable)
+                {
+                    for (Future<AnnotationDB> batch : archive.batches)
+                    {
+                        target.merge(await(batch));
+                    }
+                    continue;
+                }
+
+                if (archiveIndex == null)
+                {
+                    archiveIndex = target.createPartialIndex();
+                    for (Future<AnnotationDB> batch : archive.batches)
+                    {
+                        archiveIndex.merge(await(batch));
+                    }
+                    if (cacheable)
+                    {
+                        indexCache.store(urls[i], archiveIndex);
+                    }
+                }
+
+                if (archiveIndexes != null)
+                {
+                    archiveIndexes[i] = archiveIndex;
+                }
+                else
+                {
+                    target.merge(archiveIndex);
+                }
+            }
+        }
+        finally
+        {
+            // in case of an error we don't need the remaining results
+            cancel(archives);
+        }
+    }
+
+    /**
+     * Cancel the archives which are still running and the batches of the completed ones.
+     */
+    private static void cancel(List<Future<ArchiveResult>> archives)
+    {
+        for (Future<ArchiveResult> archive : archives)
+        {
+            if (archive.cancel(true) || archive.isCancelled())
+            {
+                continue;
+            }
+            try
+            {
+                cancel(archive.get().batches);
+            }
+            catch (ExecutionException e)
+            {
+                // the archive didn't hand out any batches
+            }
+            catch (InterruptedException e)
+            {
+                // can't happen, the archive is done already
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void cancel(Iterable<Future<AnnotationDB>> batches)
+    {
+        for (Future<AnnotationDB> batch : batches)
+        {
+            batch.cancel(true);
+        }
+    }
+
+    /**
+     * Waits for all batches of the archive, the archive took until the last one got finished.
+     */
+    private void reportMetrics(String urlPath, ArchiveResult archive) throws IOException
+    {
+        for (Future<AnnotationDB> batch : archive.batches)
+        {
+            await(batch);
+        }
+        long nanos = Math.max(archive.iterated, archive.lastBatchFinished.get()) - archive.started;
+        target.getMetricsListener().archiveScanned(new ArchiveMetrics(urlPath, ArchiveMetrics.Source.SCANNED, nanos,
+                archive.bytesRead, archive.classesParsed, archive.classesSkipped));
+    }
+
+    private <T> T await(Future<T> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the classpath scanning");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Error in classpath scanning", cause);
+        }
+    }
+
+    /**
+     * Either the cached index of the archive or the batches it got split into.
+     */
+    private static class ArchiveResult
+    {
+        private AnnotationDB cached;
+        private List<Future<AnnotationDB>> batches = new ArrayList<Future<AnnotationDB>>();
+
+        // the metrics of the archive, all in System.nanoTime()
+        private long started;
+        private long iterated;
+        private final AtomicLong lastBatchFinished = new AtomicLong(Long.MIN_VALUE);
+        private long bytesRead;
+        private int classesParsed;
+        private int classesSkipped;
+    }
+
+    /**
+     * Iterates over a single archive and hands out the batches.
+     * The last batch gets scanned by the ArchiveTask itself.
+     */
+    private class ArchiveTask implements Callable<ArchiveResult>
+    {
+        private final String urlPath;
+
+        ArchiveTask(String urlPath)
+        {
+            this.urlPath = urlPath;
+        }
+
+        public ArchiveResult call() throws Exception
+        {
+            ArchiveResult result = new ArchiveResult();
+            result.started = System.nanoTime();
+            result.cached = target.loadArchiveIndex(urlPath);
+            if (result.cached != null)
+            {
+                return result;
+            }
+
+            List<Future<AnnotationDB>> batches = result.batches;
+
+            ArchiveFilter filter = new ArchiveFilter(target);
+            ArchiveIterator it = target.openArchive(urlPath, filter);
+            List<byte[]> batch = new ArrayList<byte[]>(batchSize);
+            boolean iterated = false;
+            try
+            {
+                while (it.next())
+                {
+                    if (Thread.currentThread().isInterrupted())
+                    {
+                        // the scan got cancelled
+                        throw new InterruptedIOException("interrupted while iterating " + urlPath);
+                    }
+                    // the iterator reuses its buffer
+                    batch.add(Arrays.copyOf(it.getBytes(), it.getLength()));
+                    result.bytesRead += it.getLength();
+                    result.classesParsed++;
+                    if (batch.size() == batchSize)
+                    {
+                        batches.add(executor.submit(new BatchTask(batch, result.lastBatchFinished)));
+                        batch = new ArrayList<byte[]>(batchSize);
+                    }
+                }
+                iterated = true;
+            }
+            finally
+            {
+                it.close();
+                if (!iterated)
+                {
+                    // nobody will wait for the batches which got handed out already
+                    cancel(batches);
+                }
+            }
+            result.classesSkipped = filter.getSkippedClasses();
+
+            if (!batch.isEmpty())
+            {
+                FutureTask<AnnotationDB> last = new FutureTask<AnnotationDB>(new BatchTask(batch, result.lastBatchFinished));
+                last.run();
+                batches.add(last);
+            }
+            result.iterated = System.nanoTime();
+
+            return result;
+        }
+    }
+
+    /**
+     * Scans a batch of classes into a fresh partial AnnotationDB.
+     */
+    private class BatchTask implements Callable<AnnotationDB>
+    {
+        private final List<byte[]> classes;
+        private final AtomicLong finished;
+
+        BatchTask(List<byte[]> classes, AtomicLong finished)
+        {
+            this.classes = classes;
+            this.finished = finished;
+        }
+
+        public AnnotationDB call() throws Exception
+        {
+            AnnotationDB partial = target.createPartialIndex();
+            for (byte[] classBytes : classes)
+            {
+                partial.scanClass(classBytes, classBytes.length);
+            }
+
+            long now = System.nanoTime();
+            long last;
+            while ((last = finished.get()) < now && !finished.compareAndSet(last, now))
+            {
+                // retry
+            }
+            return partial;
+        }
+    }
+}
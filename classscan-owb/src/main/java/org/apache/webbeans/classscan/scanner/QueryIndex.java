@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import org.apache.commons.classscan.api.AnnotationQuery;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Evaluates {@link AnnotationQuery}s over the indexes of an {@link AnnotationDB}
+ * which doesn't change anymore.</p>
+ *
+ * <p>Each scanned class gets the position in the sorted array of all class names as id.
+ * The classes of an annotation get stored as BitSet over those ids. The BitSets get
+ * created lazily the first time an annotation gets queried. A query needs a single
+ * BitSet for the result, the result Set is a view on it.</p>
+ */
+class QueryIndex
+{
+    private static final BitSet NO_CLASSES = new BitSet(0);
+
+    private final AnnotationDB annotationDB;
+    private final String[] classNames;
+    private final ConcurrentMap<String, BitSet> annotationBits = new ConcurrentHashMap<String, BitSet>();
+
+    QueryIndex(AnnotationDB annotationDB)
+    {
+        this.annotationDB = annotationDB;
+        Set<String> classes = annotationDB.getClassIndex().keySet();
+        classNames = classes.toArray(new String[classes.size()]);
+        Arrays.sort(classNames);
+    }
+
+    /**
+     * @return the number of classes, the ids range from 0 to this number - 1
+     */
+    int getClassCount()
+    {
+        return classNames.length;
+    }
+
+    String nameOf(int id)
+    {
+        return classNames[id];
+    }
+
+    /**
+     * @return the id of the class or <code>-1</code> if it isn't contained in the index
+     */
+    int idOf(Object className)
+    {
+        if (!(className instanceof String))
+        {
+            return -1;
+        }
+        int id = Arrays.binarySearch(classNames, className);
+        return id >= 0 ? id : -1;
+    }
+
+    /**
+     * @param elementKinds only classes which use the annotation at one of those element kinds get returned,
+     *        {@link AnnotationDB#ALL_ELEMENTS} for all
+     * @return the ids of all classes which use the given annotation, must not get changed
+     */
+    BitSet getClasses(String annotation, int elementKinds)
+    {
+        String key = elementKinds == AnnotationDB.ALL_ELEMENTS ? annotation : annotation + '|' + elementKinds;
+        BitSet bits = annotationBits.get(key);
+        if (bits == null)
+        {
+            Set<String> classes = annotationDB.getAnnotationIndex().get(annotation);
+            if (classes == null || classes.isEmpty())
+            {
+                // don't cache unknown annotations, the query might use arbitrary names
+                return NO_CLASSES;
+            }
+            bits = new BitSet(classNames.length);
+            for (String className : classes)
+            {
+                int id = idOf(className);
+                if (id >= 0 && (elementKinds == AnnotationDB.ALL_ELEMENTS
+                                || (annotationDB.getElementKinds(className, annotation) & elementKinds) != 0))
+                {
+                    bits.set(id);
+                }
+            }
+            BitSet existing = annotationBits.putIfAbsent(key, bits);
+            if (existing != null)
+            {
+                bits = existing;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @return the ids of all classes the given client view shows
+     */
+    BitSet select(ClientIndexView view)
+    {
+        BitSet bits = new BitSet(classNames.length);
+        for (int id = 0; id < classNames.length; id++)
+        {
+            if (view.isVisible(classNames[id]))
+            {
+                bits.set(id);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @param elementKinds the element kinds the annotations must be used at, {@link AnnotationDB#ALL_ELEMENTS} for all
+     * @return a new BitSet with the ids of all matching classes
+     */
+    BitSet evaluate(AnnotationQuery query, int elementKinds)
+    {
+        BitSet result = new BitSet(classNames.length);
+        for (int i = 0; i < query.size(); i++)
+        {
+            BitSet classes = getClasses(query.getAnnotation(i), elementKinds);
+            switch (query.getOperator(i))
+            {
+                case ALL:
+                case OR:
+                    result.or(classes);
+                    break;
+                case AND:
+                    result.and(classes);
+                    break;
+                case NOT:
+                    result.andNot(classes);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown operator " + query.getOperator(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param ids the ids of the classes, must not get changed anymore
+     * @return a read-only Set view with the names of the classes
+     */
+    Set<String> toSet(BitSet ids)
+    {
+        return new ClassSet(ids);
+    }
+
+    private class ClassSet extends AbstractSet<String>
+    {
+        private final BitSet ids;
+        private final int size;
+
+        private ClassSet(BitSet ids)
+        {
+            this.ids = ids;
+            this.size = ids.cardinality();
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            int id = idOf(o);
+            return id >= 0 && ids.get(id);
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return new Iterator<String>()
+            {
+                private int next = ids.nextSetBit(0);
+
+                public boolean hasNext()
+                {
+                    return next >= 0;
+                }
+
+                public String next()
+                {
+                    if (next < 0)
+                    {
+                        throw new NoSuchElementException();
+                    }
+                    String className = classNames[next];
+                    next = ids.nextSetBit(next + 1);
+                    return className;
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException("the query result is read-only");
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import org.apache.commons.classscan.api.AnnotatedMember;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Read-only form of the indexes of an {@link AnnotationDB} after it got
+ * {@link AnnotationDB#compact() compacted}. Where the data lives is up to
+ * the implementation, see {@link IndexStorage}.</p>
+ */
+interface ReadOnlyIndex
+{
+    Map<String, Set<String>> getClassIndex();
+
+    Map<String, Set<String>> getAnnotationIndex();
+
+    Map<String, Set<String>> getImplementsIndex();
+
+    Map<String, String> getSuperClassIndex();
+
+    /**
+     * @see AnnotationDB#getElementKinds(String, String)
+     */
+    int getElementKinds(String className, String annotation);
+
+    /**
+     * @see AnnotationDB#getAnnotationValues(String)
+     */
+    Map<String, List<String>> getAnnotationValues(String className);
+
+    /**
+     * @see AnnotationDB#getAnnotatedMembers(String)
+     */
+    Map<String, Set<AnnotatedMember>> getAnnotatedMembers(String className);
+
+    /**
+     * @return the number of distinct names in the symbol table
+     */
+    int getSymbolCount();
+
+    /**
+     * Free the memory and files held outside of the heap right away.
+     * The index must not be used afterwards.
+     */
+    void release();
+}
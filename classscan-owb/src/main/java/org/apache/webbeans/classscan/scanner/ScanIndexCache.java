@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>Persistent cache for the scan results of single jar archives.</p>
+ *
+ * <p>Each jar gets stored in its own file in the cache directory.
+ * An entry is only valid as long as path, size and last modification
+ * time of the jar and the scan settings didn't change. Exploded
+ * directories do not get cached as they usually change all the time.</p>
+ *
+ * <p>The cache is only an optimisation. Any problem with reading or writing
+ * an entry leads to a normal scan of the archive.</p>
+ */
+public class ScanIndexCache
+{
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File directory;
+
+    /**
+     * @param directory where the cache files get stored. Will be created if it doesn't exist.
+     */
+    public ScanIndexCache(File directory)
+    {
+        this.directory = directory;
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * @param urlPath archive url as used in {@link AnnotationDB#scanArchives(String...)}
+     * @return <code>true</code> if the scan result of this archive can get cached
+     */
+    public boolean isCacheable(String urlPath)
+    {
+        return getArchiveFile(urlPath) != null;
+    }
+
+    /**
+     * Load the cached scan result of the given archive.
+     *
+     * @param urlPath archive url as used in {@link AnnotationDB#scanArchives(String...)}
+     * @param partial empty AnnotationDB to fill, usually created via {@link AnnotationDB#createPartialIndex()}
+     * @return <code>true</code> if a valid cache entry got loaded into the partial AnnotationDB
+     */
+    public boolean load(String urlPath, AnnotationDB partial)
+    {
+        File archive = getArchiveFile(urlPath);
+        if (archive == null)
+        {
+            return false;
+        }
+        File cacheFile = getCacheFile(urlPath);
+        if (!cacheFile.isFile())
+        {
+            return false;
+        }
+
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 32768));
+            try
+            {
+                if (!urlPath.equals(in.readUTF()) || in.readLong() != archive.length()
+                    || in.readLong() != archive.lastModified())
+                {
+                    return false;
+                }
+                return ScanIndexFormat.read(partial, in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            discard(cacheFile, partial);
+            return false;
+        }
+        catch (RuntimeException e)
+        {
+            discard(cacheFile, partial);
+            return false;
+        }
+    }
+
+    /**
+     * Drop the corrupt entry and whatever got read from it already.
+     * The archive gets scanned and stored again.
+     */
+    private void discard(File cacheFile, AnnotationDB partial)
+    {
+        partial.classIndex.clear();
+        partial.annotationIndex.clear();
+        partial.implementsIndex.clear();
+        partial.superClassIndex.clear();
+        partial.elementKindIndex.clear();
+        partial.annotationValueIndex.clear();
+        partial.memberIndex.clear();
+        cacheFile.delete();
+    }
+
+    /**
+     * Store the scan result of the given archive.
+     *
+     * @param urlPath archive url as used in {@link AnnotationDB#scanArchives(String...)}
+     * @param partial AnnotationDB containing the scan result of this single archive
+     */
+    public void store(String urlPath, AnnotationDB partial)
+    {
+        File archive = getArchiveFile(urlPath);
+        if (archive == null)
+        {
+            return;
+        }
+
+        File cacheFile = getCacheFile(urlPath);
+        File tmpFile = null;
+        try
+        {
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+            {
+                return;
+            }
+
+            // write to a temp file first, so other JVMs never see half written entries
+            tmpFile = File.createTempFile(cacheFile.getName(), ".tmp", directory);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 32768));
+            try
+            {
+                out.writeUTF(urlPath);
+                out.writeLong(archive.length());
+                out.writeLong(archive.lastModified());
+                ScanIndexFormat.write(partial, out);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if (!tmpFile.renameTo(cacheFile))
+            {
+                cacheFile.delete();
+                if (tmpFile.renameTo(cacheFile))
+                {
+                    tmpFile = null;
+                }
+            }
+            else
+            {
+                tmpFile = null;
+            }
+        }
+        catch (IOException e)
+        {
+            // ignore, we will just scan the archive again next time
+        }
+        finally
+        {
+            if (tmpFile != null)
+            {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * @return the local jar file for a jar url or <code>null</code> for all other archives
+     */
+    protected File getArchiveFile(String urlPath)
+    {
+        String jarUrlPath = AnnotationDB.isJarUrl(urlPath);
+        if (jarUrlPath == null || !jarUrlPath.startsWith("file:"))
+        {
+            return null;
+        }
+
+        try
+        {
+            File file = AnnotationDB.toFile(jarUrlPath);
+            return file.isFile() ? file : null;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    protected File getCacheFile(String urlPath)
+    {
+        return new File(directory, hash(urlPath) + ".idx");
+    }
+
+    private static String hash(String s)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8"));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++)
+            {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+                hex[i * 2 + 1] = HEX[digest[i] & 0x0F];
+            }
+            return new String(hex);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
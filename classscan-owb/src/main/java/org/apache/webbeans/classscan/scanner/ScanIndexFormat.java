@@ -0,0 +1,430 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import org.apache.commons.classscan.api.AnnotatedMember;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.annotation.ElementType;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Compact binary format for storing the scan result of a single archive.</p>
+ *
+ * <p>The format consists of a header with the scan settings and the package
+ * filter the index got created with, a table of all distinct strings and one
+ * record per class. A class record contains the string ids of the class name,
+ * its annotations together with the element kinds they got found at, its
+ * interfaces, its super class, the values of the indexed annotation members
+ * and the annotated fields and methods. All numbers except the header are
+ * written as variable length ints. The strings of the table are written as
+ * their UTF-8 bytes prefixed with the length, so unlike with
+ * {@link DataOutput#writeUTF(String)} no annotation value is limited to 64KB.
+ * The annotation index is not stored but rebuilt from the class records
+ * while reading.</p>
+ *
+ * <p>An index created without a package filter contains all classes and
+ * can get used with any filter, the classes not accepted by the filter
+ * just get skipped while reading.</p>
+ */
+public final class ScanIndexFormat
+{
+    /**
+     * 'CSIX'
+     */
+    public static final int MAGIC = 0x43534958;
+    public static final int VERSION = 7;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ScanIndexFormat()
+    {
+        // utility class
+    }
+
+    /**
+     * Write the index of the given AnnotationDB.
+     *
+     * @param db the scan result of a single archive
+     * @param out
+     * @throws IOException
+     */
+    public static void write(AnnotationDB db, DataOutput out) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(db.getScanSettings());
+        out.writeUTF(db.getPackageFilter().getSpecification());
+
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        for (Map.Entry<String, Set<String>> entry : db.classIndex.entrySet())
+        {
+            id(ids, entry.getKey());
+            for (String annotation : entry.getValue())
+            {
+                id(ids, annotation);
+            }
+            Set<String> interfaces = db.implementsIndex.get(entry.getKey());
+            if (interfaces != null)
+            {
+                for (String intf : interfaces)
+                {
+                    id(ids, intf);
+                }
+            }
+            String superClass = db.superClassIndex.get(entry.getKey());
+            if (superClass != null)
+            {
+                id(ids, superClass);
+            }
+            Map<String, List<String>> values = db.getAnnotationValues(entry.getKey());
+            if (values != null)
+            {
+                for (Map.Entry<String, List<String>> member : values.entrySet())
+                {
+                    id(ids, member.getKey());
+                    for (String value : member.getValue())
+                    {
+                        id(ids, value);
+                    }
+                }
+            }
+            Map<String, Set<AnnotatedMember>> members = db.getAnnotatedMembers(entry.getKey());
+            if (members != null)
+            {
+                for (Map.Entry<String, Set<AnnotatedMember>> annotation : members.entrySet())
+                {
+                    for (AnnotatedMember member : annotation.getValue())
+                    {
+                        id(ids, member.getMemberName());
+                        id(ids, member.getDescriptor());
+                    }
+                }
+            }
+        }
+
+        String[] strings = new String[ids.size()];
+        for (Map.Entry<String, Integer> entry : ids.entrySet())
+        {
+            strings[entry.getValue()] = entry.getKey();
+        }
+        writeVarInt(out, strings.length);
+        for (String s : strings)
+        {
+            writeString(out, s);
+        }
+
+        writeVarInt(out, db.classIndex.size());
+        for (Map.Entry<String, Set<String>> entry : db.classIndex.entrySet())
+        {
+            writeVarInt(out, ids.get(entry.getKey()));
+            writeVarInt(out, entry.getValue().size());
+            for (String annotation : entry.getValue())
+            {
+                // 0 marks unknown element kinds
+                int elementKinds = db.getElementKinds(entry.getKey(), annotation);
+                writeVarInt(out, ids.get(annotation));
+                writeVarInt(out, elementKinds != AnnotationDB.ALL_ELEMENTS ? elementKinds : 0);
+            }
+
+            Set<String> interfaces = db.implementsIndex.get(entry.getKey());
+            if (interfaces == null)
+            {
+                // 0 marks a class without entry in the implementsIndex, otherwise we store the size + 1
+                writeVarInt(out, 0);
+            }
+            else
+            {
+                writeVarInt(out, interfaces.size() + 1);
+                for (String intf : interfaces)
+                {
+                    writeVarInt(out, ids.get(intf));
+                }
+            }
+
+            // 0 marks a class without super class, otherwise we store the id + 1
+            String superClass = db.superClassIndex.get(entry.getKey());
+            writeVarInt(out, superClass != null ? ids.get(superClass) + 1 : 0);
+
+            Map<String, List<String>> values = db.getAnnotationValues(entry.getKey());
+            if (values == null)
+            {
+                writeVarInt(out, 0);
+            }
+            else
+            {
+                writeVarInt(out, values.size());
+                for (Map.Entry<String, List<String>> member : values.entrySet())
+                {
+                    writeVarInt(out, ids.get(member.getKey()));
+                    writeVarInt(out, member.getValue().size());
+                    for (String value : member.getValue())
+                    {
+                        writeVarInt(out, ids.get(value));
+                    }
+                }
+            }
+
+            Map<String, Set<AnnotatedMember>> members = db.getAnnotatedMembers(entry.getKey());
+            int annotatedMemberCount = 0;
+            if (members != null)
+            {
+                for (Set<AnnotatedMember> annotationMembers : members.values())
+                {
+                    annotatedMemberCount += annotationMembers.size();
+                }
+            }
+            writeVarInt(out, annotatedMemberCount);
+            if (members != null)
+            {
+                for (Map.Entry<String, Set<AnnotatedMember>> annotation : members.entrySet())
+                {
+                    for (AnnotatedMember member : annotation.getValue())
+                    {
+                        writeVarInt(out, ids.get(annotation.getKey()));
+                        writeVarInt(out, ids.get(member.getMemberName()));
+                        writeVarInt(out, ids.get(member.getDescriptor()));
+                        writeVarInt(out, member.getElementKind().ordinal());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Read an index into the given empty AnnotationDB.
+     * The index will only get read if it has been created with the same scan settings
+     * and either without a package filter or with the same package filter.
+     *
+     * @param db the AnnotationDB to fill, usually created via {@link AnnotationDB#createPartialIndex()}
+     * @param in
+     * @return <code>false</code> if the index got created with different settings or in another version
+     * @throws IOException if the index is corrupt
+     */
+    public static boolean read(AnnotationDB db, DataInput in) throws IOException
+    {
+        if (in.readInt() != MAGIC)
+        {
+            throw new IOException("not a classscan index");
+        }
+        if (in.readInt() != VERSION || !db.getScanSettings().equals(in.readUTF()))
+        {
+            return false;
+        }
+        PackageFilter packageFilter = db.getPackageFilter();
+        String indexedFilter = in.readUTF();
+        if (indexedFilter.length() > 0 && !indexedFilter.equals(packageFilter.getSpecification()))
+        {
+            return false;
+        }
+        boolean filter = indexedFilter.length() == 0 && !packageFilter.isAcceptAll();
+
+        int stringCount = readVarInt(in);
+        if (stringCount < 0)
+        {
+            throw new IOException("invalid number of strings " + stringCount);
+        }
+        String[] strings = new String[stringCount];
+        for (int i = 0; i < strings.length; i++)
+        {
+            strings[i] = readString(in);
+        }
+
+        int classCount = readVarInt(in);
+        for (int i = 0; i < classCount; i++)
+        {
+            String className = string(strings, readVarInt(in));
+            if (filter && !packageFilter.accepts(className))
+            {
+                skipClassRecord(in);
+                continue;
+            }
+
+            int annotationCount = readVarInt(in);
+            Set<String> annotations = new HashSet<String>();
+            for (int j = 0; j < annotationCount; j++)
+            {
+                String annotation = string(strings, readVarInt(in));
+                annotations.add(annotation);
+                int elementKinds = readVarInt(in);
+                if (elementKinds != 0)
+                {
+                    db.addElementKinds(className, annotation, elementKinds);
+                }
+
+                Set<String> classes = db.annotationIndex.get(annotation);
+                if (classes == null)
+                {
+                    classes = new HashSet<String>();
+                    db.annotationIndex.put(annotation, classes);
+                }
+                classes.add(className);
+            }
+            db.classIndex.put(className, annotations);
+
+            int interfaceCount = readVarInt(in) - 1;
+            if (interfaceCount >= 0)
+            {
+                Set<String> interfaces = new HashSet<String>();
+                for (int j = 0; j < interfaceCount; j++)
+                {
+                    interfaces.add(string(strings, readVarInt(in)));
+                }
+                db.implementsIndex.put(className, interfaces);
+            }
+
+            int superClass = readVarInt(in) - 1;
+            if (superClass >= 0)
+            {
+                db.superClassIndex.put(className, string(strings, superClass));
+            }
+
+            int memberCount = readVarInt(in);
+            for (int j = 0; j < memberCount; j++)
+            {
+                String member = string(strings, readVarInt(in));
+                int valueCount = readVarInt(in);
+                for (int k = 0; k < valueCount; k++)
+                {
+                    db.addAnnotationValue(className, member, string(strings, readVarInt(in)));
+                }
+            }
+
+            int annotatedMemberCount = readVarInt(in);
+            ElementType[] elementTypes = ElementType.values();
+            for (int j = 0; j < annotatedMemberCount; j++)
+            {
+                String annotation = string(strings, readVarInt(in));
+                String memberName = string(strings, readVarInt(in));
+                String descriptor = string(strings, readVarInt(in));
+                int elementType = readVarInt(in);
+                if (elementType < 0 || elementType >= elementTypes.length)
+                {
+                    throw new IOException("unknown element kind " + elementType);
+                }
+                db.addAnnotatedMember(className, annotation,
+                                      new AnnotatedMember(className, memberName, descriptor, elementTypes[elementType]));
+            }
+        }
+        return true;
+    }
+
+    private static void skipClassRecord(DataInput in) throws IOException
+    {
+        int annotationCount = readVarInt(in);
+        for (int j = 0; j < annotationCount; j++)
+        {
+            readVarInt(in);
+            readVarInt(in);
+        }
+        int interfaceCount = readVarInt(in) - 1;
+        for (int j = 0; j < interfaceCount; j++)
+        {
+            readVarInt(in);
+        }
+        readVarInt(in);
+        int memberCount = readVarInt(in);
+        for (int j = 0; j < memberCount; j++)
+        {
+            readVarInt(in);
+            int valueCount = readVarInt(in);
+            for (int k = 0; k < valueCount; k++)
+            {
+                readVarInt(in);
+            }
+        }
+        int annotatedMemberCount = readVarInt(in);
+        for (int j = 0; j < annotatedMemberCount * 4; j++)
+        {
+            readVarInt(in);
+        }
+    }
+
+    /**
+     * @return the string with the given id
+     * @throws IOException if the id is not part of the string table
+     */
+    private static String string(String[] strings, int id) throws IOException
+    {
+        if (id < 0 || id >= strings.length)
+        {
+            throw new IOException("invalid string id " + id + ", the index contains " + strings.length + " strings");
+        }
+        return strings[id];
+    }
+
+    private static void id(Map<String, Integer> ids, String s)
+    {
+        if (!ids.containsKey(s))
+        {
+            ids.put(s, ids.size());
+        }
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes(UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException
+    {
+        int length = readVarInt(in);
+        if (length < 0)
+        {
+            throw new IOException("invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("malformed variable length int");
+    }
+}
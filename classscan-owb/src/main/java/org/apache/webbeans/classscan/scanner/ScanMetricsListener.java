@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+/**
+ * <p>Gets notified about the costs of the classpath scanning, e.g. to find the
+ * archives which slow down the boot or to tune the package filters of the ScanJobs.</p>
+ *
+ * <p>Archives might get scanned in parallel, so implementations must be thread safe.</p>
+ *
+ * @see OwbClassScanner#setMetricsListener(ScanMetricsListener)
+ * @see AnnotationDB#setMetricsListener(ScanMetricsListener)
+ * @see ScanStatistics
+ */
+public interface ScanMetricsListener
+{
+    /**
+     * Called once the index of an archive is available,
+     * either by scanning it or by loading a pre-computed index.
+     */
+    void archiveScanned(ArchiveMetrics metrics);
+
+    /**
+     * Called when a client receives its first scan result.
+     */
+    void clientScanned(ClientMetrics metrics);
+}
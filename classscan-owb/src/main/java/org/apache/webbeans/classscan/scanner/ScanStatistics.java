@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Collects the {@link ScanMetricsListener metrics} of the last scan of each
+ * archive and client. Can get registered as MBean, see
+ * {@link OwbClassScanner#JMX_PROPERTY}.</p>
+ */
+public class ScanStatistics implements ScanMetricsListener, ScanStatisticsMBean
+{
+    /**
+     * the number of archives reported by {@link #getSlowestArchives()}
+     */
+    private static final int SLOWEST_ARCHIVES = 20;
+
+    private final ConcurrentMap<String, ArchiveMetrics> archives = new ConcurrentHashMap<String, ArchiveMetrics>();
+    private final ConcurrentMap<String, ClientMetrics> clients = new ConcurrentHashMap<String, ClientMetrics>();
+
+    private volatile ObjectName objectName;
+
+    public void archiveScanned(ArchiveMetrics metrics)
+    {
+        archives.put(metrics.getUrlPath(), metrics);
+    }
+
+    public void clientScanned(ClientMetrics metrics)
+    {
+        clients.put(metrics.getClientName(), metrics);
+    }
+
+    /**
+     * @return the metrics of the last scan of each archive
+     */
+    public List<ArchiveMetrics> getArchiveMetrics()
+    {
+        return new ArrayList<ArchiveMetrics>(archives.values());
+    }
+
+    /**
+     * @return the metrics of the last registration of each client
+     */
+    public List<ClientMetrics> getClientMetrics()
+    {
+        return new ArrayList<ClientMetrics>(clients.values());
+    }
+
+    public int getArchiveCount()
+    {
+        return archives.size();
+    }
+
+    public long getScanTimeMillis()
+    {
+        long nanos = 0;
+        for (ArchiveMetrics metrics : archives.values())
+        {
+            nanos += metrics.getNanos();
+        }
+        return nanos / 1000000L;
+    }
+
+    public long getBytesRead()
+    {
+        long bytes = 0;
+        for (ArchiveMetrics metrics : archives.values())
+        {
+            bytes += metrics.getBytesRead();
+        }
+        return bytes;
+    }
+
+    public long getClassesParsed()
+    {
+        long classes = 0;
+        for (ArchiveMetrics metrics : archives.values())
+        {
+            classes += metrics.getClassesParsed();
+        }
+        return classes;
+    }
+
+    public long getClassesSkipped()
+    {
+        long classes = 0;
+        for (ArchiveMetrics metrics : archives.values())
+        {
+            classes += metrics.getClassesSkipped();
+        }
+        return classes;
+    }
+
+    public String[] getSlowestArchives()
+    {
+        List<ArchiveMetrics> sorted = getArchiveMetrics();
+        Collections.sort(sorted, new Comparator<ArchiveMetrics>()
+        {
+            public int compare(ArchiveMetrics m1, ArchiveMetrics m2)
+            {
+                return m1.getNanos() < m2.getNanos() ? 1 : (m1.getNanos() == m2.getNanos() ? 0 : -1);
+            }
+        });
+
+        int count = Math.min(SLOWEST_ARCHIVES, sorted.size());
+        String[] slowest = new String[count];
+        for (int i = 0; i < count; i++)
+        {
+            slowest[i] = sorted.get(i).toString();
+        }
+        return slowest;
+    }
+
+    public String[] getClients()
+    {
+        List<String> result = new ArrayList<String>();
+        for (ClientMetrics metrics : clients.values())
+        {
+            result.add(metrics.toString());
+        }
+        Collections.sort(result);
+        return result.toArray(new String[result.size()]);
+    }
+
+    public void reset()
+    {
+        archives.clear();
+        clients.clear();
+    }
+
+    /**
+     * Register this instance with the platform MBeanServer.
+     *
+     * @return the name it got registered with
+     */
+    public ObjectName register()
+    {
+        try
+        {
+            ObjectName name = new ObjectName("org.apache.commons.classscan:type=ScanStatistics,id="
+                                             + Integer.toHexString(System.identityHashCode(this)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+            return name;
+        }
+        catch (JMException e)
+        {
+            throw new RuntimeException("Could not register the scan statistics", e);
+        }
+    }
+
+    /**
+     * Remove this instance from the platform MBeanServer, if it got {@link #register() registered}.
+     */
+    public void unregister()
+    {
+        ObjectName name = objectName;
+        if (name == null)
+        {
+            return;
+        }
+        objectName = null;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            if (server.isRegistered(name))
+            {
+                server.unregisterMBean(name);
+            }
+        }
+        catch (JMException e)
+        {
+            throw new RuntimeException("Could not unregister the scan statistics", e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner;
+
+import org.scannotation.archiveiterator.StreamIterator;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Adapts a scannotation {@link StreamIterator} by reading each
+ * class into a reused buffer.
+ */
+class StreamArchiveIterator implements ArchiveIterator
+{
+    private final StreamIterator it;
+    private byte[] buffer = new byte[8192];
+    private int length;
+
+    StreamArchiveIterator(StreamIterator it)
+    {
+        this.it = it;
+    }
+
+    public boolean next() throws IOException
+    {
+        InputStream stream = it.next();
+        if (stream == null)
+        {
+            return false;
+        }
+
+        length = 0;
+        try
+        {
+            int read;
+            while ((read = stream.read(buffer, length, buffer.length - length)) != -1)
+            {
+                length += read;
+                if (length == buffer.length)
+                {
+                    byte[] newBuffer = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, newBuffer, 0, length);
+                    buffer = newBuffer;
+                }
+            }
+        }
+        finally
+        {
+            stream.close();
+        }
+        return true;
+    }
+
+    public byte[] getBytes()
+    {
+        return buffer;
+    }
+
+    public int getLength()
+    {
+        return length;
+    }
+
+    public void close()
+    {
+        it.close();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.api.AnnotatedMember;
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.ClassFileReaderEngine;
+import org.apache.webbeans.classscan.scanner.OwbClassScanner;
+import org.apache.webbeans.classscan.scanner.ScanIndexFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests the index of the annotated fields and methods.
+ */
+public class AnnotatedMembersTest {
+
+    private static final String MARK = Mark.class.getName();
+    private static final String HOLDER = Holder.class.getName();
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Mark {
+    }
+
+    @Mark
+    public static class Holder {
+        @Mark
+        private String name;
+
+        @Mark
+        private String alias;
+
+        private int unmarked;
+
+        @Mark
+        public void start() {
+        }
+
+        public void stop(@Mark String reason, int code) {
+        }
+
+        public void unmarked() {
+        }
+    }
+
+    @Test
+    public void testAllEngines() {
+        Set<AnnotatedMember> expected = expectedMembers();
+        for (ClassFileReaderEngine engine : ClassFileReaderEngine.values()) {
+            AnnotationDB db = scan(engine, true);
+            Assert.assertEquals(engine.name(), expected, db.getAnnotatedMembers(HOLDER, MARK));
+        }
+
+        AnnotationDB db = scan(ClassFileReaderEngine.CONSTANT_POOL, false);
+        Assert.assertNull(db.getAnnotatedMembers(HOLDER, MARK));
+    }
+
+    @Test
+    public void testDescriptorsGetInterned() {
+        AnnotationDB db = scan(ClassFileReaderEngine.CONSTANT_POOL, true);
+        AnnotatedMember name = null;
+        AnnotatedMember alias = null;
+        for (AnnotatedMember member : db.getAnnotatedMembers(HOLDER, MARK)) {
+            if (member.getMemberName().equals("name")) {
+                name = member;
+            } else if (member.getMemberName().equals("alias")) {
+                alias = member;
+            }
+        }
+        Assert.assertNotNull(name);
+        Assert.assertNotNull(alias);
+        Assert.assertSame(name.getDescriptor(), alias.getDescriptor());
+        Assert.assertSame(name.getClassName(), alias.getClassName());
+    }
+
+    @Test
+    public void testCompactAndStoredIndex() throws Exception {
+        AnnotationDB db = scan(ClassFileReaderEngine.CONSTANT_POOL, true);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ScanIndexFormat.write(db, new DataOutputStream(bytes));
+        AnnotationDB loaded = new AnnotationDB();
+        loaded.setIndexMembers(true);
+        Assert.assertTrue(ScanIndexFormat.read(loaded, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        Assert.assertEquals(expectedMembers(), loaded.getAnnotatedMembers(HOLDER, MARK));
+
+        // an index without members must not be used
+        AnnotationDB other = new AnnotationDB();
+        Assert.assertFalse(ScanIndexFormat.read(other, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+
+        db.compact();
+        Assert.assertEquals(expectedMembers(), db.getAnnotatedMembers(HOLDER, MARK));
+    }
+
+    @Test
+    public void testClientMembers() {
+        OwbClassScanner scanner = new OwbClassScanner();
+
+        ScanJob fields = new ScanJob(null, null, null, false, false, true, false);
+        fields.setClassesToScan(new Class<?>[]{Holder.class});
+        fields.setIndexMembers(true);
+        scanner.registerClient("fields", fields);
+
+        ScanJob other = new ScanJob(null, null, null, true, true, true, true);
+        other.setClassesToScan(new Class<?>[]{Holder.class});
+        scanner.registerClient("other", other);
+
+        Set<AnnotatedMember> members = scanner.getAnnotatedMembers("fields", MARK);
+        Assert.assertEquals(2, members.size());
+        for (AnnotatedMember field : members) {
+            Assert.assertEquals("Ljava/lang/String;", field.getDescriptor());
+            Assert.assertFalse(field.isMethod());
+        }
+
+        try {
+            scanner.getAnnotatedMembers("other", MARK);
+            Assert.fail("the client didn't ask for the member index");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private Set<AnnotatedMember> expectedMembers() {
+        return new HashSet<AnnotatedMember>(Arrays.asList(
+                new AnnotatedMember(HOLDER, "name", "Ljava/lang/String;", ElementType.FIELD),
+                new AnnotatedMember(HOLDER, "alias", "Ljava/lang/String;", ElementType.FIELD),
+                new AnnotatedMember(HOLDER, "start", "()V", ElementType.METHOD),
+                new AnnotatedMember(HOLDER, "stop", "(Ljava/lang/String;I)V", ElementType.PARAMETER)));
+    }
+
+    private AnnotationDB scan(ClassFileReaderEngine engine, boolean indexMembers) {
+        AnnotationDB db = new AnnotationDB();
+        db.setReaderEngine(engine);
+        db.setIndexMembers(indexMembers);
+        db.scanClasses(Arrays.asList(HOLDER), getClass().getClassLoader());
+        return db;
+    }
+}
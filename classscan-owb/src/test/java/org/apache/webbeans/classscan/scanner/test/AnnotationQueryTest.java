@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.api.AnnotationQuery;
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationA;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationB;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample1;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample2;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample3;
+import org.apache.commons.classscan.spi.test.pojos.NonAnnotatedSample1;
+import org.apache.webbeans.classscan.scanner.OwbClassScanner;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.annotation.Retention;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests the BitSet based evaluation of AnnotationQueries.
+ */
+public class AnnotationQueryTest {
+
+    private static final String SAMPLE1 = AnnotatedSample1.class.getName();
+    private static final String SAMPLE2 = AnnotatedSample2.class.getName();
+    private static final String SAMPLE3 = AnnotatedSample3.class.getName();
+
+    @Test
+    public void testQuery() {
+        OwbClassScanner scanner = new OwbClassScanner();
+        ScanJob scanJob = new ScanJob(null, null, null, true, true, true, true);
+        scanJob.setClassesToScan(new Class<?>[]{AnnotatedSample1.class, AnnotatedSample2.class,
+                AnnotatedSample3.class, NonAnnotatedSample1.class, SampleAnnotationA.class});
+        scanner.registerClient("client", scanJob);
+
+        assertQuery(scanner, AnnotationQuery.all(SampleAnnotationA.class), SAMPLE1, SAMPLE3);
+        assertQuery(scanner, AnnotationQuery.all(SampleAnnotationA.class).or(SampleAnnotationB.class),
+                    SAMPLE1, SAMPLE2, SAMPLE3);
+        assertQuery(scanner, AnnotationQuery.all(SampleAnnotationA.class).or(SampleAnnotationB.class)
+                                            .not(SampleAnnotationA.class), SAMPLE2);
+        assertQuery(scanner, AnnotationQuery.all(SampleAnnotationA.class).and(SampleAnnotationB.class));
+        assertQuery(scanner, AnnotationQuery.all("org.unknown.Annotation").or(SampleAnnotationB.class), SAMPLE2);
+        assertQuery(scanner, AnnotationQuery.all(Retention.class), SampleAnnotationA.class.getName());
+
+        Set<String> result = scanner.query("client", AnnotationQuery.all(SampleAnnotationA.class));
+        Assert.assertTrue(result.contains(SAMPLE1));
+        Assert.assertFalse(result.contains(SAMPLE2));
+        Assert.assertFalse(result.contains("org.unknown.Foo"));
+        Assert.assertEquals("all(@" + SampleAnnotationA.class.getName() + ").not(@" + Retention.class.getName() + ")",
+                            AnnotationQuery.all(SampleAnnotationA.class).not(Retention.class).toString());
+    }
+
+    @Test
+    public void testClientView() {
+        OwbClassScanner scanner = new OwbClassScanner();
+
+        ScanJob filteredJob = new ScanJob(null, new String[]{AnnotatedSample1.class.getPackage().getName()}, null,
+                                          true, true, true, true);
+        filteredJob.setClassesToScan(new Class<?>[]{AnnotatedSample1.class});
+        scanner.registerClient("filtered", filteredJob);
+
+        ScanJob otherJob = new ScanJob(null, null, null, true, true, true, true);
+        otherJob.setClassesToScan(new Class<?>[]{AnnotatedSample3.class, SampleAnnotationA.class});
+        scanner.registerClient("other", otherJob);
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(SAMPLE1, SAMPLE3)),
+                            scanner.query("filtered", AnnotationQuery.all(SampleAnnotationA.class)));
+        Assert.assertTrue(scanner.query("filtered", AnnotationQuery.all(Retention.class)).isEmpty());
+        Assert.assertEquals(1, scanner.query("other", AnnotationQuery.all(Retention.class)).size());
+    }
+
+    private void assertQuery(OwbClassScanner scanner, AnnotationQuery query, String... expected) {
+        Set<String> result = scanner.query("client", query);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(expected)), result);
+        Assert.assertEquals(expected.length, result.size());
+
+        // the same result as the generic evaluation
+        Assert.assertEquals(query.evaluate(scanner.getAnnotationsIndex("client")), result);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.ClassFileReaderEngine;
+import org.apache.webbeans.classscan.scanner.OwbClassScanner;
+import org.apache.webbeans.classscan.scanner.ScanIndexFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the indexing of annotation member values.
+ */
+public class AnnotationValuesTest {
+
+    private static final String ROUTE = Route.class.getName();
+    private static final String RESOURCE = Resource.class.getName();
+    private static final String UNNAMED = UnnamedResource.class.getName();
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Route {
+        String value() default "";
+        String[] methods() default {};
+        int priority() default 0;
+        char flag() default ' ';
+        long timeout() default 0L;
+        boolean secure() default false;
+        ElementType target() default ElementType.TYPE;
+        Class<?>[] types() default {};
+        int[] ports() default {};
+        Retention nested() default @Retention(RetentionPolicy.CLASS);
+    }
+
+    @Route(value = "/orders", methods = {"GET", "POST"}, priority = 42, flag = 'x', timeout = 5000000000L,
+           secure = true, target = ElementType.METHOD, types = {String.class, int[].class}, ports = {80, 443},
+           nested = @Retention(RetentionPolicy.RUNTIME))
+    public static class Resource {
+        @Route("/ignored")
+        public void method() {
+        }
+    }
+
+    @Route
+    public static class UnnamedResource {
+    }
+
+    @Test
+    public void testAllEngines() throws Exception {
+        for (ClassFileReaderEngine engine : ClassFileReaderEngine.values()) {
+            AnnotationDB db = scan(engine);
+            String message = engine.name();
+            Assert.assertEquals(message, list("/orders"), db.getAnnotationValues(RESOURCE, ROUTE, "value"));
+            Assert.assertEquals(message, list("GET", "POST"), db.getAnnotationValues(RESOURCE, ROUTE, "methods"));
+            Assert.assertEquals(message, list("42"), db.getAnnotationValues(RESOURCE, ROUTE, "priority"));
+            Assert.assertEquals(message, list("x"), db.getAnnotationValues(RESOURCE, ROUTE, "flag"));
+            Assert.assertEquals(message, list("5000000000"), db.getAnnotationValues(RESOURCE, ROUTE, "timeout"));
+            Assert.assertEquals(message, list("true"), db.getAnnotationValues(RESOURCE, ROUTE, "secure"));
+            Assert.assertEquals(message, list("METHOD"), db.getAnnotationValues(RESOURCE, ROUTE, "target"));
+            Assert.assertEquals(message, list("java.lang.String", "int[]"),
+                                db.getAnnotationValues(RESOURCE, ROUTE, "types"));
+            Assert.assertEquals(message, list("80", "443"), db.getAnnotationValues(RESOURCE, ROUTE, "ports"));
+
+            // not indexed
+            Assert.assertNull(message, db.getAnnotationValues(RESOURCE, ROUTE, "nested"));
+            // default values are not in the class file
+            Assert.assertNull(message, db.getAnnotationValues(UNNAMED, ROUTE, "value"));
+        }
+    }
+
+    @Test
+    public void testCompactAndStoredIndex() throws Exception {
+        AnnotationDB db = scan(ClassFileReaderEngine.CONSTANT_POOL);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ScanIndexFormat.write(db, new DataOutputStream(bytes));
+        AnnotationDB loaded = new AnnotationDB();
+        loaded.setIndexedAnnotationMembers(db.getIndexedAnnotationMembers());
+        Assert.assertTrue(ScanIndexFormat.read(loaded, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        Assert.assertEquals(list("GET", "POST"), loaded.getAnnotationValues(RESOURCE, ROUTE, "methods"));
+
+        // different members lead to different scan settings
+        AnnotationDB other = new AnnotationDB();
+        Assert.assertFalse(ScanIndexFormat.read(other, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+
+        db.compact();
+        Assert.assertEquals(list("/orders"), db.getAnnotationValues(RESOURCE, ROUTE, "value"));
+        Assert.assertEquals(list("GET", "POST"), db.getAnnotationValues(RESOURCE, ROUTE, "methods"));
+        Assert.assertNull(db.getAnnotationValues(UNNAMED, ROUTE, "value"));
+    }
+
+    @Test
+    public void testClientValues() {
+        OwbClassScanner scanner = new OwbClassScanner();
+
+        ScanJob routes = new ScanJob(null, null, null, true, false, false, false);
+        routes.setClassesToScan(new Class<?>[]{Resource.class, UnnamedResource.class});
+        routes.setIndexedAnnotationMembers(new String[]{ROUTE + "#value"});
+        scanner.registerClient("routes", routes);
+
+        ScanJob other = new ScanJob(null, null, null, true, false, false, false);
+        other.setClassesToScan(new Class<?>[]{Resource.class});
+        scanner.registerClient("other", other);
+
+        Map<String, List<String>> values = scanner.getAnnotationValues("routes", ROUTE, "value");
+        Assert.assertEquals(Collections.singletonMap(RESOURCE, list("/orders")), values);
+
+        try {
+            scanner.getAnnotationValues("other", ROUTE, "value");
+            Assert.fail("the client didn't ask for the values");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private AnnotationDB scan(ClassFileReaderEngine engine) {
+        AnnotationDB db = new AnnotationDB();
+        db.setReaderEngine(engine);
+        db.setIndexedAnnotationMembers(ROUTE + "#value", ROUTE + "#methods", ROUTE + "#priority", ROUTE + "#flag",
+                                       ROUTE + "#timeout", ROUTE + "#secure", ROUTE + "#target", ROUTE + "#types",
+                                       ROUTE + "#ports");
+        db.scanClasses(Arrays.asList(RESOURCE, UNNAMED), getClass().getClassLoader());
+        return db;
+    }
+
+    private List<String> list(String... values) {
+        return Arrays.asList(values);
+    }
+}
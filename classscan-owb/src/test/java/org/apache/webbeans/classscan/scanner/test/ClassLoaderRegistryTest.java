@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.webbeans.classscan.scanner.ClassLoaderRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the weak ClassLoader keys and the eviction of the ClassLoaderRegistry.
+ */
+public class ClassLoaderRegistryTest {
+
+    private List<String> evicted = new ArrayList<String>();
+
+    private ClassLoaderRegistry.EvictionListener<String> listener = new ClassLoaderRegistry.EvictionListener<String>() {
+        public void evicted(ClassLoader loader, String value, ClassLoaderRegistry.EvictionCause cause) {
+            evicted.add(value + ":" + cause);
+        }
+    };
+
+    @Test
+    public void testRemove() {
+        ClassLoaderRegistry<String> registry = new ClassLoaderRegistry<String>(0, listener);
+        ClassLoader loader = newLoader();
+
+        Assert.assertNull(registry.putIfAbsent(loader, "a"));
+        Assert.assertEquals("a", registry.putIfAbsent(loader, "b"));
+        Assert.assertEquals("a", registry.get(loader));
+        Assert.assertNull(registry.get(newLoader()));
+
+        Assert.assertFalse(registry.remove(loader, "b"));
+        Assert.assertEquals("a", registry.remove(loader));
+        Assert.assertNull(registry.get(loader));
+        Assert.assertEquals("[a:REMOVED]", evicted.toString());
+    }
+
+    @Test
+    public void testClear() {
+        ClassLoaderRegistry<String> registry = new ClassLoaderRegistry<String>(0, listener);
+        ClassLoader loader = newLoader();
+        registry.putIfAbsent(loader, "a");
+
+        Assert.assertEquals(Arrays.asList("a"), registry.values());
+        registry.clear();
+        Assert.assertEquals(0, registry.size());
+        Assert.assertTrue(registry.values().isEmpty());
+        Assert.assertNull(registry.get(loader));
+        Assert.assertEquals("[a:REMOVED]", evicted.toString());
+    }
+
+    @Test
+    public void testMaxSize() {
+        ClassLoaderRegistry<String> registry = new ClassLoaderRegistry<String>(2, listener);
+        ClassLoader loader1 = newLoader();
+        ClassLoader loader2 = newLoader();
+        ClassLoader loader3 = newLoader();
+
+        registry.putIfAbsent(loader1, "1");
+        registry.putIfAbsent(loader2, "2");
+        registry.get(loader1);
+        registry.putIfAbsent(loader3, "3");
+
+        Assert.assertEquals(2, registry.size());
+        Assert.assertEquals("[2:SIZE]", evicted.toString());
+        Assert.assertEquals("1", registry.get(loader1));
+        Assert.assertEquals("3", registry.get(loader3));
+    }
+
+    @Test
+    public void testCollectedLoaderGetsEvicted() throws Exception {
+        ClassLoaderRegistry<String> registry = new ClassLoaderRegistry<String>(0, listener);
+        registry.putIfAbsent(newLoader(), "collected");
+        ClassLoader loader = newLoader();
+        registry.putIfAbsent(loader, "alive");
+
+        for (int i = 0; i < 50 && registry.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        Assert.assertEquals(1, registry.size());
+        Assert.assertEquals("[collected:COLLECTED]", evicted.toString());
+        Assert.assertEquals("alive", registry.get(loader));
+    }
+
+    private ClassLoader newLoader() {
+        return new URLClassLoader(new URL[0], null);
+    }
+}
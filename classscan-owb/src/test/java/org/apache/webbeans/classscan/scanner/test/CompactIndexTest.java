@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.ScanIndexFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests that the compacted indexes contain the same information as the original ones.
+ */
+public class CompactIndexTest {
+
+    @Test
+    public void testCompact() throws Exception {
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.scanArchives(ParallelScanTest.archiveOf(Test.class), ParallelScanTest.archiveOf(getClass()));
+
+        Map<String, Set<String>> classIndex = copy(annotationDB.getClassIndex());
+        Map<String, Set<String>> annotationIndex = copy(annotationDB.getAnnotationIndex());
+
+        annotationDB.compact();
+        Assert.assertTrue(annotationDB.isCompact());
+
+        Assert.assertEquals(classIndex, annotationDB.getClassIndex());
+        Assert.assertEquals(annotationIndex, annotationDB.getAnnotationIndex());
+        Assert.assertEquals(classIndex.keySet(), annotationDB.getClassIndex().keySet());
+
+        Set<String> annotations = annotationDB.getClassIndex().get(getClass().getName());
+        Assert.assertSame(annotations, annotationDB.getClassIndex().get(getClass().getName()));
+        Assert.assertTrue(annotations.contains(Test.class.getName()));
+        Assert.assertTrue(annotationDB.getAnnotationIndex().get(Test.class.getName()).contains(getClass().getName()));
+        Assert.assertFalse(annotationDB.getAnnotationIndex().get(Test.class.getName()).contains("org.unknown.Foo"));
+        Assert.assertNull(annotationDB.getClassIndex().get("org.unknown.Foo"));
+
+        // a compacted index still can get stored
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ScanIndexFormat.write(annotationDB, new DataOutputStream(bytes));
+        AnnotationDB loaded = new AnnotationDB();
+        Assert.assertTrue(ScanIndexFormat.read(loaded, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        Assert.assertEquals(classIndex, loaded.getClassIndex());
+    }
+
+    @Test
+    public void testCompactReleasesParser() throws Exception {
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.setIndexMembers(true);
+        annotationDB.scanClasses(Arrays.asList(getClass().getName()), getClass().getClassLoader());
+        String[] parserFields = {"classReader", "indexingVisitor", "readBuffer"};
+        for (String parserField : parserFields) {
+            Assert.assertNotNull(parserField, get(annotationDB, parserField));
+        }
+
+        annotationDB.compact();
+        for (String parserField : parserFields) {
+            Assert.assertNull(parserField + " must not stay referenced by the compacted index",
+                              get(annotationDB, parserField));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly() throws Exception {
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.scanArchives(ParallelScanTest.archiveOf(getClass()));
+        annotationDB.compact();
+        annotationDB.getAnnotationIndex().get(Test.class.getName()).add("org.unknown.Foo");
+    }
+
+    private Map<String, Set<String>> copy(Map<String, Set<String>> index) {
+        Map<String, Set<String>> copy = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, Set<String>> entry : index.entrySet()) {
+            copy.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private Object get(AnnotationDB annotationDB, String fieldName) throws Exception {
+        Field field = AnnotationDB.class.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        return field.get(annotationDB);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.OwbClassScanner;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that concurrent requests of the same ClassLoader only trigger a single scan.
+ */
+public class ConcurrentScanTest {
+
+    private static final int THREADS = 8;
+
+    private final AtomicInteger scans = new AtomicInteger();
+
+    private final ClassLoader loader = getClass().getClassLoader();
+
+    private OwbClassScanner scanner = new OwbClassScanner() {
+        @Override
+        protected ClassLoader getClassLoader() {
+            return loader;
+        }
+
+        @Override
+        protected AnnotationDB createAnnotationDb(List<AnnotationDB> layers) {
+            scans.incrementAndGet();
+            return super.createAnnotationDb(layers);
+        }
+    };
+
+    @Test
+    public void testSingleScan() throws Exception {
+        scanner.registerClient("client", new ScanJob(new String[]{"org/junit/Test.class"}, null, null,
+                true, false, false, false));
+
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Map<String, Set<String>>>> results = new ArrayList<Future<Map<String, Set<String>>>>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(new Callable<Map<String, Set<String>>>() {
+                    public Map<String, Set<String>> call() throws Exception {
+                        start.await();
+                        return scanner.getClassesIndex("client");
+                    }
+                }));
+            }
+            start.countDown();
+
+            Map<String, Set<String>> first = results.get(0).get();
+            Assert.assertTrue(first.containsKey(Test.class.getName()));
+            for (Future<Map<String, Set<String>>> result : results) {
+                Assert.assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(1, scans.get());
+    }
+
+    @Test
+    public void testConcurrentRegistration() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> registrations = new ArrayList<Future<?>>();
+            for (int i = 0; i < THREADS; i++) {
+                final String clientName = "client" + i;
+                registrations.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        start.await();
+                        scanner.registerClient(clientName, new ScanJob(new String[]{"org/junit/Test.class"}, null,
+                                null, true, false, false, false));
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> registration : registrations) {
+                registration.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, Set<String>> classes = scanner.getClassesIndex("client0");
+        for (int i = 1; i < THREADS; i++) {
+            Assert.assertSame(classes, scanner.getClassesIndex("client" + i));
+        }
+        Assert.assertEquals(1, scans.get());
+    }
+}
@@ -0,0 +1,213 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.webbeans.classscan.scanner.test;
+
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.ClassFile;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationA;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationB;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.ClassFileReaderEngine;
+import org.apache.webbeans.classscan.scanner.ClassFileVisitor;
+import org.apache.webbeans.classscan.scanner.ConstantPoolClassReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.annotation.ElementType;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * Tests the annotation detection of the AnnotationDB class file parsing
+ * and that all {@link ClassFileReaderEngine}s lead to the same result.
+ */
+public class ConstantPoolClassReaderTest {
+
+    private static final String A = SampleAnnotationA.class.getName();
+    private static final String B = SampleAnnotationB.class.getName();
+
+    @Test
+    public void testAllElementTypes() throws Exception {
+        for (ClassFileReaderEngine engine : ClassFileReaderEngine.values()) {
+            AnnotationDB db = new AnnotationDB();
+            db.setReaderEngine(engine);
+            scan(db);
+
+            String sample = MemberAnnotatedSample.class.getName();
+            Assert.assertEquals(engine.name(), new HashSet<String>(Arrays.asList(A, B)), db.getClassIndex().get(sample));
+            Assert.assertTrue(db.getAnnotationIndex().get(A).contains(sample));
+            Assert.assertTrue(db.getAnnotationIndex().get(B).contains(sample));
+            Assert.assertEquals(AnnotationDB.CLASS_ELEMENT | AnnotationDB.FIELD_ELEMENT, db.getElementKinds(sample, A));
+            Assert.assertEquals(AnnotationDB.PARAMETER_ELEMENT, db.getElementKinds(sample, B));
+            Assert.assertEquals(Collections.singleton(Serializable.class.getName()),
+                                db.getImplementsIndex().get(sample));
+        }
+    }
+
+    @Test
+    public void testClassAnnotationsOnly() throws Exception {
+        AnnotationDB db = new AnnotationDB();
+        db.setScanMethodAnnotations(false);
+        db.setScanFieldAnnotations(false);
+        db.setScanParameterAnnotations(false);
+        scan(db);
+
+        Assert.assertEquals(Collections.singleton(A), db.getClassIndex().get(MemberAnnotatedSample.class.getName()));
+        Assert.assertNull(db.getAnnotationIndex().get(B));
+    }
+
+    @Test
+    public void testParameterAnnotationsOnly() throws Exception {
+        AnnotationDB db = new AnnotationDB();
+        db.setScanClassAnnotations(false);
+        db.setScanMethodAnnotations(false);
+        db.setScanFieldAnnotations(false);
+        scan(db);
+
+        Assert.assertEquals(Collections.singleton(B), db.getClassIndex().get(MemberAnnotatedSample.class.getName()));
+    }
+
+    @Test
+    public void testSameResultForAllEngines() throws Exception {
+        String[] archives = {ParallelScanTest.archiveOf(Test.class), ParallelScanTest.archiveOf(getClass())};
+
+        AnnotationDB db = new AnnotationDB();
+        db.scanArchives(archives);
+        Assert.assertFalse(db.getClassIndex().isEmpty());
+
+        for (ClassFileReaderEngine engine : ClassFileReaderEngine.values()) {
+            AnnotationDB engineDb = new AnnotationDB();
+            engineDb.setReaderEngine(engine);
+            engineDb.scanArchives(archives);
+
+            Assert.assertEquals(engine.name(), db.getClassIndex(), engineDb.getClassIndex());
+            Assert.assertEquals(engine.name(), db.getAnnotationIndex(), engineDb.getAnnotationIndex());
+            Assert.assertEquals(engine.name(), db.getImplementsIndex(), engineDb.getImplementsIndex());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedJavassistHooks() throws Exception {
+        DataInputStream in = new DataInputStream(MemberAnnotatedSample.class.getResourceAsStream(
+                "ConstantPoolClassReaderTest$MemberAnnotatedSample.class"));
+        final ClassFile cf = new ClassFile(in);
+        in.close();
+        String sample = MemberAnnotatedSample.class.getName();
+
+        AnnotationDB db = new AnnotationDB() {
+            {
+                scanClass(cf);
+                scanFields(cf);
+                scanMethods(cf);
+            }
+        };
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(A, B)), db.getClassIndex().get(sample));
+        Assert.assertEquals(AnnotationDB.CLASS_ELEMENT | AnnotationDB.FIELD_ELEMENT, db.getElementKinds(sample, A));
+        Assert.assertEquals(AnnotationDB.PARAMETER_ELEMENT, db.getElementKinds(sample, B));
+
+        AnnotationDB classOnly = new AnnotationDB() {
+            {
+                AnnotationsAttribute visible = (AnnotationsAttribute) cf.getAttribute(AnnotationsAttribute.visibleTag);
+                populate(visible.getAnnotations(), cf.getName());
+            }
+        };
+        Assert.assertEquals(Collections.singleton(A), classOnly.getClassIndex().get(sample));
+        Assert.assertTrue(classOnly.getAnnotationIndex().get(A).contains(sample));
+    }
+
+    @Test
+    public void testTruncatedClassInReusedBuffer() throws Exception {
+        byte[] sample = classBytes(MemberAnnotatedSample.class);
+        byte[] buffer = classBytes(AnnotationDB.class);
+        Assert.assertTrue(buffer.length > sample.length);
+        // the buffer still holds the complete sample and the rest of the longer class behind the valid bytes
+        System.arraycopy(sample, 0, buffer, 0, sample.length);
+
+        ConstantPoolClassReader reader = new ConstantPoolClassReader();
+        reader.read(buffer, sample.length, new InterestedVisitor());
+        for (int length = 10; length < sample.length; length++) {
+            try {
+                reader.read(buffer, length, new InterestedVisitor());
+                Assert.fail("read a class file truncated to " + length + " of " + sample.length + " bytes");
+            } catch (IOException expected) {
+                // the bytes behind length must not get used
+            }
+        }
+    }
+
+    private static byte[] classBytes(Class<?> clazz) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TestFiles.copy(clazz.getClassLoader().getResourceAsStream(TestFiles.resourceOf(clazz)), out);
+        return out.toByteArray();
+    }
+
+    private AnnotationDB scan(AnnotationDB db) throws Exception {
+        db.scanClass(MemberAnnotatedSample.class.getResourceAsStream("ConstantPoolClassReaderTest$MemberAnnotatedSample.class"));
+        return db;
+    }
+
+    @SampleAnnotationA
+    public static class MemberAnnotatedSample implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final long LONG_CONSTANT = 42L;
+        private static final double DOUBLE_CONSTANT = 4.2d;
+
+        @SampleAnnotationA
+        private String field;
+
+        public long method(@SampleAnnotationB String param) {
+            return param.length() + LONG_CONSTANT + (long) DOUBLE_CONSTANT;
+        }
+    }
+
+    /**
+     * Asks for everything, so that all parts of the class file get parsed.
+     */
+    private static class InterestedVisitor implements ClassFileVisitor {
+        public void visitClass(String className, String superClassName, String[] interfaces) {
+        }
+
+        public boolean isInterested(ElementType elementType) {
+            return true;
+        }
+
+        public boolean isInterestedInMembers() {
+            return true;
+        }
+
+        public void visitMember(String memberName, String descriptor) {
+        }
+
+        public void visitAnnotation(String annotationType, ElementType elementType) {
+        }
+
+        public boolean isInterestedInValues(String annotationType) {
+            return true;
+        }
+
+        public void visitAnnotationValue(String annotationType, String memberName, String value) {
+        }
+    }
+}
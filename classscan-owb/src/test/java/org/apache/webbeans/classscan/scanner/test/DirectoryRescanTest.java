@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationA;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationB;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample1;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample2;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample3;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+
+/**
+ * Tests the incremental rescanning of exploded directories.
+ */
+public class DirectoryRescanTest {
+
+    private static final String A = SampleAnnotationA.class.getName();
+    private static final String B = SampleAnnotationB.class.getName();
+
+    private File dir;
+    private AnnotationDB annotationDB;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("classscan", "rescan");
+        dir.delete();
+        dir.mkdirs();
+
+        annotationDB = new AnnotationDB();
+        annotationDB.setIncrementalDirectoryScanning(true);
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void testRescan() throws IOException {
+        File sample1 = copy(AnnotatedSample1.class);
+        copy(AnnotatedSample3.class);
+        annotationDB.scanArchives(dir.toURI().toURL().toExternalForm());
+        Assert.assertEquals(set(AnnotatedSample1.class, AnnotatedSample3.class), annotationDB.getAnnotationIndex().get(A));
+
+        // nothing changed
+        Assert.assertEquals(0, annotationDB.rescanDirectories());
+
+        copy(AnnotatedSample2.class);
+        Assert.assertTrue(sample1.delete());
+        Assert.assertEquals(1, annotationDB.rescanDirectories());
+
+        Assert.assertEquals(set(AnnotatedSample3.class), annotationDB.getAnnotationIndex().get(A));
+        Assert.assertEquals(set(AnnotatedSample2.class), annotationDB.getAnnotationIndex().get(B));
+        Assert.assertFalse(annotationDB.getClassIndex().containsKey(AnnotatedSample1.class.getName()));
+        Assert.assertFalse(annotationDB.getImplementsIndex().containsKey(AnnotatedSample1.class.getName()));
+    }
+
+    @Test
+    public void testChangedFile() throws IOException {
+        File sample1 = copy(AnnotatedSample1.class);
+        String url = dir.toURI().toURL().toExternalForm();
+        annotationDB.scanArchives(url);
+
+        // overwrite the class file with the bytes of another class
+        String resource = TestFiles.resourceOf(AnnotatedSample2.class);
+        TestFiles.copy(AnnotatedSample2.class.getClassLoader().getResourceAsStream(resource), sample1);
+        sample1.setLastModified(sample1.lastModified() + 2000);
+        annotationDB.scanArchives(url);
+
+        Assert.assertNull(annotationDB.getAnnotationIndex().get(A));
+        Assert.assertEquals(set(AnnotatedSample2.class), annotationDB.getAnnotationIndex().get(B));
+        Assert.assertEquals(1, annotationDB.getClassIndex().size());
+    }
+
+    @Test
+    public void testFailedFileGetsParsedAgain() throws IOException {
+        File sample1 = copy(AnnotatedSample1.class);
+        RandomAccessFile corrupt = new RandomAccessFile(sample1, "rw");
+        try {
+            corrupt.writeInt(0xBADC0DE);
+        } finally {
+            corrupt.close();
+        }
+        String url = dir.toURI().toURL().toExternalForm();
+        try {
+            annotationDB.scanArchives(url);
+            Assert.fail("the class file without magic number can't get parsed");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertNull(annotationDB.getAnnotationIndex().get(A));
+
+        // fixed without changing the timestamp or the length
+        long lastModified = sample1.lastModified();
+        copy(AnnotatedSample1.class);
+        sample1.setLastModified(lastModified);
+        Assert.assertEquals(1, annotationDB.rescanDirectories());
+        Assert.assertEquals(set(AnnotatedSample1.class), annotationDB.getAnnotationIndex().get(A));
+        Assert.assertEquals(0, annotationDB.rescanDirectories());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCompacted() throws IOException {
+        copy(AnnotatedSample1.class);
+        annotationDB.scanArchives(dir.toURI().toURL().toExternalForm());
+        annotationDB.compact();
+        annotationDB.rescanDirectories();
+    }
+
+    private HashSet<String> set(Class<?>... classes) {
+        HashSet<String> names = new HashSet<String>();
+        for (Class<?> clazz : classes) {
+            names.add(clazz.getName());
+        }
+        return names;
+    }
+
+    private File copy(Class<?> clazz) throws IOException {
+        return TestFiles.copy(clazz, dir);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.api.AnnotationQuery;
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationA;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationB;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.OwbClassScanner;
+import org.apache.webbeans.classscan.scanner.ScanIndexFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests the element kinds of the annotations and the client views filtered by them.
+ */
+public class ElementKindsTest {
+
+    private static final String A = SampleAnnotationA.class.getName();
+    private static final String B = SampleAnnotationB.class.getName();
+    private static final String MIXED = Mixed.class.getName();
+
+    @SampleAnnotationA
+    public static class Mixed {
+        @SampleAnnotationB
+        private String field;
+
+        @SampleAnnotationA
+        public void method(@SampleAnnotationB String parameter) {
+        }
+    }
+
+    @Test
+    public void testElementKinds() throws Exception {
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.scanClasses(Arrays.asList(MIXED), getClass().getClassLoader());
+        assertElementKinds(annotationDB);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ScanIndexFormat.write(annotationDB, new DataOutputStream(bytes));
+        AnnotationDB loaded = new AnnotationDB();
+        Assert.assertTrue(ScanIndexFormat.read(loaded, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        assertElementKinds(loaded);
+
+        loaded.compact();
+        assertElementKinds(loaded);
+    }
+
+    @Test
+    public void testClientViews() {
+        OwbClassScanner scanner = new OwbClassScanner();
+
+        ScanJob classJob = new ScanJob(null, null, null, true, false, false, false);
+        classJob.setClassesToScan(new Class<?>[]{Mixed.class});
+        scanner.registerClient("class", classJob);
+
+        ScanJob memberJob = new ScanJob(null, null, null, false, true, true, false);
+        memberJob.setClassesToScan(new Class<?>[]{Mixed.class});
+        scanner.registerClient("member", memberJob);
+
+        ScanJob allJob = new ScanJob(null, null, null, true, true, true, true);
+        allJob.setClassesToScan(new Class<?>[]{Mixed.class});
+        scanner.registerClient("all", allJob);
+
+        Assert.assertEquals(set(A), scanner.getClassesIndex("class").get(MIXED));
+        Assert.assertNull(scanner.getAnnotationsIndex("class").get(B));
+        Assert.assertEquals(set(MIXED), scanner.getAnnotationsIndex("class").get(A));
+        Assert.assertTrue(scanner.query("class", AnnotationQuery.all(B)).isEmpty());
+
+        Map<String, Set<String>> memberAnnotations = scanner.getAnnotationsIndex("member");
+        Assert.assertEquals(set(MIXED), memberAnnotations.get(A));
+        Assert.assertEquals(set(MIXED), memberAnnotations.get(B));
+
+        Assert.assertEquals(set(A, B), scanner.getClassesIndex("all").get(MIXED));
+        Assert.assertEquals(set(MIXED), scanner.query("all", AnnotationQuery.all(A).and(B)));
+    }
+
+    private void assertElementKinds(AnnotationDB annotationDB) {
+        Assert.assertEquals(AnnotationDB.CLASS_ELEMENT | AnnotationDB.METHOD_ELEMENT,
+                            annotationDB.getElementKinds(MIXED, A));
+        Assert.assertEquals(AnnotationDB.FIELD_ELEMENT | AnnotationDB.PARAMETER_ELEMENT,
+                            annotationDB.getElementKinds(MIXED, B));
+        Assert.assertEquals(AnnotationDB.ALL_ELEMENTS, annotationDB.getElementKinds("org.unknown.Foo", A));
+    }
+
+    private Set<String> set(String... names) {
+        return names.length == 0 ? Collections.<String>emptySet() : new HashSet<String>(Arrays.asList(names));
+    }
+}
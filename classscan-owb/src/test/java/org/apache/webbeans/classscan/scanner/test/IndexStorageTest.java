@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.api.AnnotatedMember;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.IndexStorage;
+import org.apache.webbeans.classscan.scanner.ScanIndexFormat;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that the off-heap index storages contain the same information as the heap.
+ */
+public class IndexStorageTest {
+
+    private static final String TEST = Test.class.getName();
+    private static final String ROUTE = AnnotationValuesTest.Route.class.getName();
+    private static final String RESOURCE = AnnotationValuesTest.Resource.class.getName();
+    private static final String MARK = AnnotatedMembersTest.Mark.class.getName();
+    private static final String HOLDER = AnnotatedMembersTest.Holder.class.getName();
+
+    private File directory;
+
+    @After
+    public void tearDown() {
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testDirect() throws Exception {
+        assertSameContent(IndexStorage.DIRECT);
+    }
+
+    @Test
+    public void testMapped() throws Exception {
+        directory = File.createTempFile("classscan", "storage");
+        directory.delete();
+        assertSameContent(IndexStorage.MAPPED);
+
+        // the mapping stays valid, the file itself is gone
+        File[] files = directory.listFiles();
+        Assert.assertTrue(files == null || files.length == 0);
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        directory = File.createTempFile("classscan", "storage");
+        directory.delete();
+        for (IndexStorage storage : IndexStorage.values()) {
+            AnnotationDB annotationDB = scan(storage);
+            annotationDB.release();
+            annotationDB.compact();
+            Map<String, Set<String>> classIndex = annotationDB.getClassIndex();
+            Assert.assertTrue(classIndex.containsKey(getClass().getName()));
+            annotationDB.release();
+            annotationDB.release();
+            if (storage != IndexStorage.HEAP) {
+                try {
+                    classIndex.containsKey(getClass().getName());
+                    Assert.fail(storage + " must not read the released index");
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+            }
+        }
+        File[] files = directory.listFiles();
+        Assert.assertTrue(files == null || files.length == 0);
+    }
+
+    @Test
+    public void testConcurrentRelease() throws Exception {
+        final AnnotationDB annotationDB = scan(IndexStorage.DIRECT);
+        annotationDB.compact();
+        final AtomicInteger reads = new AtomicInteger();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            for (Map.Entry<String, Set<String>> entry : annotationDB.getClassIndex().entrySet()) {
+                                for (String annotation : entry.getValue()) {
+                                    annotationDB.getElementKinds(entry.getKey(), annotation);
+                                }
+                            }
+                            reads.incrementAndGet();
+                        }
+                    } catch (IllegalStateException e) {
+                        // the index got released
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        while (reads.get() < readers.length) {
+            Thread.sleep(1);
+        }
+
+        annotationDB.release();
+        for (Thread reader : readers) {
+            reader.join(10000);
+            Assert.assertFalse(reader.isAlive());
+        }
+        Assert.assertEquals(Collections.<Throwable>emptyList(), failures);
+    }
+
+    @Test
+    public void testSerializable() throws Exception {
+        AnnotationDB annotationDB = scan(IndexStorage.DIRECT);
+        Map<String, Set<String>> classIndex = copy(annotationDB.getClassIndex());
+        annotationDB.compact();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(annotationDB);
+        out.close();
+        AnnotationDB loaded = (AnnotationDB) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))
+                .readObject();
+
+        Assert.assertTrue(loaded.isCompact());
+        Assert.assertEquals(classIndex, loaded.getClassIndex());
+        Assert.assertTrue(loaded.getAnnotationIndex().get(TEST).contains(getClass().getName()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly() throws Exception {
+        AnnotationDB annotationDB = scan(IndexStorage.DIRECT);
+        annotationDB.compact();
+        annotationDB.getAnnotationIndex().get(TEST).add("org.unknown.Foo");
+    }
+
+    @Test
+    public void testParse() {
+        Assert.assertSame(IndexStorage.MAPPED, IndexStorage.parse(" mapped "));
+        Assert.assertSame(IndexStorage.HEAP, IndexStorage.parse("HEAP"));
+    }
+
+    private void assertSameContent(IndexStorage storage) throws IOException {
+        AnnotationDB annotationDB = scan(storage);
+
+        Map<String, Set<String>> classIndex = copy(annotationDB.getClassIndex());
+        Map<String, Set<String>> annotationIndex = copy(annotationDB.getAnnotationIndex());
+        Map<String, Set<String>> implementsIndex = copy(annotationDB.getImplementsIndex());
+        Map<String, String> superClassIndex = new HashMap<String, String>(annotationDB.getSuperClassIndex());
+        Map<String, Integer> elementKinds = new HashMap<String, Integer>();
+        for (Map.Entry<String, Set<String>> entry : classIndex.entrySet()) {
+            for (String annotation : entry.getValue()) {
+                elementKinds.put(entry.getKey() + '|' + annotation,
+                                 annotationDB.getElementKinds(entry.getKey(), annotation));
+            }
+        }
+        List<String> values = annotationDB.getAnnotationValues(RESOURCE, ROUTE, "methods");
+        Set<AnnotatedMember> members = new HashSet<AnnotatedMember>(annotationDB.getAnnotatedMembers(HOLDER, MARK));
+        Assert.assertEquals(2, values.size());
+        Assert.assertEquals(4, members.size());
+
+        annotationDB.compact();
+        Assert.assertTrue(annotationDB.isCompact());
+
+        Assert.assertEquals(classIndex, annotationDB.getClassIndex());
+        Assert.assertEquals(annotationIndex, annotationDB.getAnnotationIndex());
+        Assert.assertEquals(implementsIndex, annotationDB.getImplementsIndex());
+        Assert.assertEquals(superClassIndex, annotationDB.getSuperClassIndex());
+        Assert.assertEquals(classIndex.size(), annotationDB.getClassIndex().size());
+        for (Map.Entry<String, Set<String>> entry : classIndex.entrySet()) {
+            for (String annotation : entry.getValue()) {
+                Assert.assertEquals(elementKinds.get(entry.getKey() + '|' + annotation).intValue(),
+                                    annotationDB.getElementKinds(entry.getKey(), annotation));
+            }
+        }
+        Assert.assertEquals(values, annotationDB.getAnnotationValues(RESOURCE, ROUTE, "methods"));
+        Assert.assertEquals(members, annotationDB.getAnnotatedMembers(HOLDER, MARK));
+
+        Assert.assertNull(annotationDB.getClassIndex().get("org.unknown.Foo"));
+        Assert.assertFalse(annotationDB.getAnnotationIndex().get(TEST).contains("org.unknown.Foo"));
+        Assert.assertNull(annotationDB.getAnnotatedMembers("org.unknown.Foo", MARK));
+
+        // an off-heap index still can get stored
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ScanIndexFormat.write(annotationDB, new DataOutputStream(bytes));
+        AnnotationDB loaded = new AnnotationDB();
+        loaded.setIndexMembers(true);
+        loaded.setIndexedAnnotationMembers(ROUTE + "#methods");
+        Assert.assertTrue(ScanIndexFormat.read(loaded, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        Assert.assertEquals(classIndex, loaded.getClassIndex());
+    }
+
+    private AnnotationDB scan(IndexStorage storage) throws IOException {
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.setIndexStorage(storage);
+        annotationDB.setIndexStorageDirectory(directory);
+        annotationDB.setIndexMembers(true);
+        annotationDB.setIndexedAnnotationMembers(ROUTE + "#methods");
+        annotationDB.scanArchives(ParallelScanTest.archiveOf(Test.class), ParallelScanTest.archiveOf(getClass()));
+        return annotationDB;
+    }
+
+    private Map<String, Set<String>> copy(Map<String, Set<String>> index) {
+        Map<String, Set<String>> copy = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, Set<String>> entry : index.entrySet()) {
+            copy.put(entry.getKey(), new HashSet<String>(entry.getValue()));
+        }
+        return copy;
+    }
+}
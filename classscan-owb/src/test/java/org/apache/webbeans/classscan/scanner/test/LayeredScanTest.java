@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample1;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample2;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample3;
+import org.apache.webbeans.classscan.scanner.IndexStorage;
+import org.apache.webbeans.classscan.scanner.OwbClassScanner;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests that child ClassLoaders share the scan results of their parents.
+ */
+public class LayeredScanTest {
+
+    private static final String MARKER = "META-INF/classscan-layer.marker";
+
+    private List<File> tempDirs = new ArrayList<File>();
+
+    private ClassLoader currentLoader;
+
+    private OwbClassScanner scanner = new OwbClassScanner() {
+        @Override
+        protected ClassLoader getClassLoader() {
+            return currentLoader;
+        }
+    };
+
+    private ClassLoader parent;
+    private ClassLoader child1;
+    private ClassLoader child2;
+
+    @Before
+    public void setUp() throws IOException {
+        parent = new URLClassLoader(new URL[]{createArchive(AnnotatedSample1.class)}, null);
+        child1 = new URLClassLoader(new URL[]{createArchive(AnnotatedSample2.class)}, parent);
+        child2 = new URLClassLoader(new URL[]{createArchive(AnnotatedSample3.class)}, parent);
+    }
+
+    @After
+    public void tearDown() {
+        for (File dir : tempDirs) {
+            TestFiles.delete(dir);
+        }
+    }
+
+    @Test
+    public void testParentArchiveIsShared() {
+        register(child1);
+        register(child2);
+
+        Map<String, Set<String>> classes1 = getClassesIndex(child1);
+        Map<String, Set<String>> classes2 = getClassesIndex(child2);
+
+        Assert.assertEquals(2, classes1.size());
+        Assert.assertTrue(classes1.containsKey(AnnotatedSample1.class.getName()));
+        Assert.assertTrue(classes1.containsKey(AnnotatedSample2.class.getName()));
+
+        Assert.assertEquals(2, classes2.size());
+        Assert.assertTrue(classes2.containsKey(AnnotatedSample1.class.getName()));
+        Assert.assertTrue(classes2.containsKey(AnnotatedSample3.class.getName()));
+
+        // the archive of the parent only got scanned once
+        Assert.assertSame(classes1.get(AnnotatedSample1.class.getName()), classes2.get(AnnotatedSample1.class.getName()));
+
+        currentLoader = child1;
+        Map<String, Set<String>> annotations = scanner.getAnnotationsIndex("client");
+        int annotated = 0;
+        for (Set<String> annotatedClasses : annotations.values()) {
+            annotated += annotatedClasses.size();
+        }
+        Assert.assertTrue(annotated >= 2);
+    }
+
+    @Test
+    public void testEvict() {
+        register(child1);
+        Map<String, Set<String>> classes = getClassesIndex(child1);
+        Assert.assertEquals(2, classes.size());
+
+        scanner.evict(child1);
+        register(child1);
+        Assert.assertNotSame(classes, getClassesIndex(child1));
+        Assert.assertEquals(classes, getClassesIndex(child1));
+    }
+
+    @Test
+    public void testEvictReleasesOnlyOwnLayers() {
+        scanner = new OwbClassScanner() {
+            @Override
+            protected ClassLoader getClassLoader() {
+                return currentLoader;
+            }
+
+            @Override
+            protected IndexStorage getIndexStorage() {
+                return IndexStorage.DIRECT;
+            }
+        };
+        register(child1);
+        register(child2);
+        Map<String, Set<String>> classes1 = getClassesIndex(child1);
+        Assert.assertEquals(2, getClassesIndex(child2).size());
+
+        // the layer of the parent still gets used by child1
+        scanner.evict(child2);
+        Assert.assertEquals(classes1, getClassesIndex(child1));
+        Assert.assertTrue(getClassesIndex(child1).get(AnnotatedSample1.class.getName()).size() > 0);
+
+        register(child2);
+        Assert.assertTrue(getClassesIndex(child2).containsKey(AnnotatedSample3.class.getName()));
+        scanner.close();
+    }
+
+    @Test
+    public void testEvictParentKeepsLayersOfChildren() {
+        System.setProperty(OwbClassScanner.INDEX_STORAGE_PROPERTY, IndexStorage.DIRECT.name());
+        try {
+            register(parent);
+            register(child1);
+            Assert.assertEquals(1, getClassesIndex(parent).size());
+            Map<String, Set<String>> classes = getClassesIndex(child1);
+            Set<String> annotations = classes.get(AnnotatedSample1.class.getName());
+            Assert.assertFalse(annotations.isEmpty());
+
+            // the layer of the parent archive still gets used by child1
+            scanner.evict(parent);
+            Assert.assertEquals(annotations, getClassesIndex(child1).get(AnnotatedSample1.class.getName()));
+            currentLoader = child1;
+            for (Set<String> annotatedClasses : scanner.getAnnotationsIndex("client").values()) {
+                Assert.assertFalse(annotatedClasses.isEmpty());
+            }
+
+            // now nobody uses the layers anymore
+            scanner.evict(child1);
+            try {
+                classes.get(AnnotatedSample1.class.getName());
+                Assert.fail("the layers of the evicted ClassLoaders got released");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            System.clearProperty(OwbClassScanner.INDEX_STORAGE_PROPERTY);
+            scanner.close();
+        }
+    }
+
+    private void register(ClassLoader loader) {
+        currentLoader = loader;
+        scanner.registerClient("client", new ScanJob(new String[]{MARKER}, null, null, true, true, true, true));
+    }
+
+    private Map<String, Set<String>> getClassesIndex(ClassLoader loader) {
+        currentLoader = loader;
+        return scanner.getClassesIndex("client");
+    }
+
+    /**
+     * @return the url of a directory containing the marker file and the given class
+     */
+    private URL createArchive(Class<?> clazz) throws IOException {
+        File dir = File.createTempFile("classscan", "layer");
+        dir.delete();
+        tempDirs.add(dir);
+
+        TestFiles.copy(clazz, dir);
+        TestFiles.touch(new File(dir, MARKER));
+
+        return dir.toURI().toURL();
+    }
+}
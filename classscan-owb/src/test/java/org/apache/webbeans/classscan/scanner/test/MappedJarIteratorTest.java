@@ -0,0 +1,120 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.junit.Assert;
+import org.junit.Test;
+import org.scannotation.archiveiterator.Filter;
+import org.scannotation.archiveiterator.JarIterator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Tests reading local jars via the memory mapped central directory.
+ */
+public class MappedJarIteratorTest {
+
+    @Test
+    public void testDeflatedJar() throws Exception {
+        String jar = ParallelScanTest.archiveOf(Test.class);
+        assertSameAsJarIterator(jar, new File(new URI(jar.substring(4, jar.length() - 2))));
+    }
+
+    @Test
+    public void testStoredJar() throws Exception {
+        File jarFile = File.createTempFile("classscan", ".jar");
+        try {
+            JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile));
+            try {
+                addStored(out, "META-INF/beans.xml", "<beans/>".getBytes("UTF-8"));
+                addStored(out, ParallelScanTest.class.getName().replace('.', '/') + ".class",
+                          readClass(ParallelScanTest.class));
+                addStored(out, MappedJarIteratorTest.class.getName().replace('.', '/') + ".class",
+                          readClass(MappedJarIteratorTest.class));
+            } finally {
+                out.close();
+            }
+
+            String jar = "jar:" + jarFile.toURI().toURL().toExternalForm() + "!/";
+            AnnotationDB db = assertSameAsJarIterator(jar, jarFile);
+            Assert.assertEquals(2, db.getClassIndex().size());
+
+            // the jar got unmapped after the scan, so even Windows allows to delete it
+            Assert.assertTrue(jarFile.delete());
+        } finally {
+            jarFile.delete();
+        }
+    }
+
+    private AnnotationDB assertSameAsJarIterator(String jar, File jarFile) throws Exception {
+        AnnotationDB mapped = new AnnotationDB();
+        mapped.scanArchives(jar);
+
+        AnnotationDB streamed = new AnnotationDB();
+        JarIterator it = new JarIterator(jarFile, new Filter() {
+            public boolean accepts(String filename) {
+                return filename.endsWith(".class") && !filename.startsWith("javax/") && !filename.startsWith("java/");
+            }
+        });
+        InputStream stream;
+        while ((stream = it.next()) != null) {
+            streamed.scanClass(stream);
+        }
+        it.close();
+
+        Assert.assertFalse(mapped.getClassIndex().isEmpty());
+        Assert.assertEquals(streamed.getClassIndex(), mapped.getClassIndex());
+        Assert.assertEquals(streamed.getAnnotationIndex(), mapped.getAnnotationIndex());
+        return mapped;
+    }
+
+    private void addStored(JarOutputStream out, String name, byte[] bytes) throws Exception {
+        JarEntry entry = new JarEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    private byte[] readClass(Class<?> clazz) throws Exception {
+        String name = clazz.getName();
+        InputStream in = clazz.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample1;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample2;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample3;
+import org.apache.webbeans.classscan.scanner.OwbClassScanner;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Tests the discovery of the archives containing the marker files.
+ */
+public class MarkerDiscoveryTest {
+
+    private static final String MARKER_A = "META-INF/classscan-a.marker";
+    private static final String MARKER_B = "META-INF/classscan-b.marker";
+
+    private List<File> tempFiles = new ArrayList<File>();
+
+    private ClassLoader currentLoader;
+
+    private OwbClassScanner scanner = new OwbClassScanner() {
+        @Override
+        protected ClassLoader getClassLoader() {
+            return currentLoader;
+        }
+    };
+
+    private AtomicInteger resourceLookups = new AtomicInteger();
+
+    private URL jarA;
+    private URL dirB;
+    private URL unmarked;
+
+    @Before
+    public void setUp() throws IOException {
+        jarA = createJar(AnnotatedSample1.class, MARKER_A);
+        dirB = createDirectory(AnnotatedSample2.class, MARKER_B);
+        unmarked = createDirectory(AnnotatedSample3.class, null);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : tempFiles) {
+            TestFiles.delete(file);
+        }
+    }
+
+    @Test
+    public void testClasspathRootsGetCheckedDirectly() {
+        ClassLoader parent = new CountingLoader(new URL[]{jarA}, null);
+        ClassLoader child1 = new CountingLoader(new URL[]{dirB, unmarked}, parent);
+        ClassLoader child2 = new CountingLoader(new URL[]{unmarked}, parent);
+
+        Map<String, Set<String>> classes = scan(child1, MARKER_A, MARKER_B);
+        Assert.assertEquals(2, classes.size());
+        Assert.assertTrue(classes.containsKey(AnnotatedSample1.class.getName()));
+        Assert.assertTrue(classes.containsKey(AnnotatedSample2.class.getName()));
+
+        classes = scan(child2, MARKER_A, MARKER_B);
+        Assert.assertEquals(1, classes.size());
+        Assert.assertTrue(classes.containsKey(AnnotatedSample1.class.getName()));
+
+        Assert.assertEquals(0, resourceLookups.get());
+    }
+
+    @Test
+    public void testFallbackToResources() {
+        ClassLoader parent = new CountingLoader(new URL[]{jarA}, null) {
+            @Override
+            public URL[] getURLs() {
+                // we can't check a http root ourselves
+                return new URL[]{jarA, createHttpUrl()};
+            }
+        };
+        ClassLoader child1 = new URLClassLoader(new URL[]{dirB}, parent);
+        ClassLoader child2 = new URLClassLoader(new URL[]{unmarked}, parent);
+
+        Map<String, Set<String>> classes = scan(child1, MARKER_A, MARKER_B);
+        Assert.assertEquals(2, classes.size());
+        Assert.assertEquals(2, resourceLookups.get());
+
+        // the archives of the parent got cached
+        classes = scan(child2, MARKER_A, MARKER_B);
+        Assert.assertEquals(1, classes.size());
+        Assert.assertTrue(classes.containsKey(AnnotatedSample1.class.getName()));
+        Assert.assertEquals(2, resourceLookups.get());
+    }
+
+    private Map<String, Set<String>> scan(ClassLoader loader, String... markerFiles) {
+        currentLoader = loader;
+        scanner.registerClient("client", new ScanJob(markerFiles, null, null, true, true, true, true));
+        return scanner.getClassesIndex("client");
+    }
+
+    private URL createHttpUrl() {
+        try {
+            return new URL("http://localhost/unknown/");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private URL createDirectory(Class<?> clazz, String marker) throws IOException {
+        File dir = File.createTempFile("classscan", "discovery");
+        dir.delete();
+        tempFiles.add(dir);
+
+        TestFiles.copy(clazz, dir);
+        if (marker != null) {
+            TestFiles.touch(new File(dir, marker));
+        }
+        return dir.toURI().toURL();
+    }
+
+    private URL createJar(Class<?> clazz, String marker) throws IOException {
+        File jar = File.createTempFile("classscan", ".jar");
+        tempFiles.add(jar);
+
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            String resource = TestFiles.resourceOf(clazz);
+            out.putNextEntry(new JarEntry(resource));
+            TestFiles.copy(clazz.getClassLoader().getResourceAsStream(resource), out);
+            out.putNextEntry(new JarEntry(marker));
+        } finally {
+            out.close();
+        }
+        return jar.toURI().toURL();
+    }
+
+    private class CountingLoader extends URLClassLoader {
+        public CountingLoader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        @Override
+        public Enumeration<URL> getResources(String name) throws IOException {
+            resourceLookups.incrementAndGet();
+            return super.getResources(name);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.MetaAnnotationGraph;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests the resolution of meta-annotation chains.
+ */
+public class MetaAnnotationTest {
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Stereotype {
+    }
+
+    @Stereotype
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Composed {
+    }
+
+    @Composed
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface DeepComposed {
+    }
+
+    @CycleB
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface CycleA {
+    }
+
+    @CycleA
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface CycleB {
+    }
+
+    @DeepComposed
+    public static class DeepBean {
+    }
+
+    @CycleA
+    public static class CycleBean {
+    }
+
+    @Test
+    public void testResolveChain() {
+        AnnotationDB annotationDB = scan();
+        MetaAnnotationGraph graph = annotationDB.resolveMetaAnnotations(getClass().getClassLoader());
+        assertChain(annotationDB, graph);
+        Assert.assertTrue(graph.getUnresolved().isEmpty());
+    }
+
+    @Test
+    public void testResolveInParallel() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            AnnotationDB annotationDB = scan();
+            annotationDB.setExecutorService(executor);
+            assertChain(annotationDB, annotationDB.resolveMetaAnnotations(getClass().getClassLoader()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUnresolved() {
+        AnnotationDB annotationDB = new AnnotationDB() {
+            {
+                scanClasses(Arrays.asList(DeepBean.class.getName()), MetaAnnotationTest.class.getClassLoader());
+                populate("org.unknown.Missing", DeepBean.class.getName());
+            }
+        };
+
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
+        try {
+            annotationDB.crossReferenceMetaAnnotations();
+            Assert.fail("CrossReferenceException expected");
+        } catch (AnnotationDB.CrossReferenceException e) {
+            Assert.assertEquals(new HashSet<String>(Arrays.asList("org.unknown.Missing")), e.getUnresolved());
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+
+        // everything else still got resolved
+        Assert.assertTrue(annotationDB.getAnnotationIndex().get(Stereotype.class.getName())
+                                      .contains(DeepBean.class.getName()));
+    }
+
+    private AnnotationDB scan() {
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.scanClasses(Arrays.asList(DeepBean.class.getName(), CycleBean.class.getName()),
+                                 getClass().getClassLoader());
+        return annotationDB;
+    }
+
+    private void assertChain(AnnotationDB annotationDB, MetaAnnotationGraph graph) {
+        Assert.assertTrue(graph.getResolved().containsAll(Arrays.asList(DeepComposed.class.getName(),
+                Composed.class.getName(), Stereotype.class.getName(), CycleA.class.getName(), CycleB.class.getName())));
+
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(Composed.class.getName(), Stereotype.class.getName(),
+                                                              Retention.class.getName())),
+                            graph.getMetaAnnotations(DeepComposed.class.getName()));
+        Assert.assertTrue(graph.getMetaAnnotations(CycleA.class.getName()).contains(CycleA.class.getName()));
+
+        String deepBean = DeepBean.class.getName();
+        Assert.assertTrue(annotationDB.getAnnotationIndex().get(DeepComposed.class.getName()).contains(deepBean));
+        Assert.assertTrue(annotationDB.getAnnotationIndex().get(Composed.class.getName()).contains(deepBean));
+        Assert.assertTrue(annotationDB.getAnnotationIndex().get(Stereotype.class.getName()).contains(deepBean));
+        Assert.assertTrue(annotationDB.getAnnotationIndex().get(CycleB.class.getName()).contains(CycleBean.class.getName()));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationA;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample1;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample2;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.OwbClassScanner;
+import org.apache.webbeans.classscan.scanner.PackageFilter;
+import org.apache.webbeans.classscan.scanner.ScanIndexFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests the package includes and excludes of the ScanJobs.
+ */
+public class PackageFilterTest {
+
+    @Test
+    public void testIncludesAndExcludes() {
+        PackageFilter filter = PackageFilter.create(new String[]{"com.acme"}, new String[]{"com.acme.internal"});
+
+        Assert.assertTrue(filter.accepts("com.acme.Foo"));
+        Assert.assertTrue(filter.accepts("com/acme/sub/Foo"));
+        Assert.assertFalse(filter.accepts("com.acme.internal.Foo"));
+        Assert.assertFalse(filter.accepts("com.acmex.Foo"));
+        Assert.assertFalse(filter.accepts("com.Foo"));
+        Assert.assertFalse(filter.accepts("Foo"));
+        Assert.assertTrue(filter.accepts("/com/acme/Foo.class", 1, 15));
+
+        Assert.assertTrue(filter.acceptsPackage(""));
+        Assert.assertTrue(filter.acceptsPackage("com"));
+        Assert.assertTrue(filter.acceptsPackage("com/acme/sub"));
+        Assert.assertFalse(filter.acceptsPackage("com/acme/internal"));
+        Assert.assertFalse(filter.acceptsPackage("org"));
+
+        Assert.assertFalse(filter.acceptsClassesIn("com"));
+        Assert.assertTrue(filter.acceptsClassesIn("com.acme"));
+    }
+
+    @Test
+    public void testUnion() {
+        PackageFilter acme = PackageFilter.create(new String[]{"com.acme"}, new String[]{"com.acme.internal"});
+        PackageFilter internal = PackageFilter.create(new String[]{"com.acme.internal"}, null);
+        PackageFilter excludeOnly = PackageFilter.create(null, new String[]{"org.junit"});
+
+        PackageFilter union = PackageFilter.union(Arrays.asList(acme, internal));
+        Assert.assertTrue(union.accepts("com.acme.internal.Foo"));
+        Assert.assertTrue(union.accepts("com.acme.Foo"));
+        Assert.assertFalse(union.accepts("org.acme.Foo"));
+        Assert.assertEquals(union, PackageFilter.union(Arrays.asList(internal, acme, acme)));
+
+        PackageFilter all = PackageFilter.union(Arrays.asList(acme, excludeOnly));
+        Assert.assertTrue(all.accepts("org.acme.Foo"));
+        Assert.assertFalse(all.accepts("org.junit.Test"));
+        Assert.assertFalse(all.acceptsPackage("org.junit"));
+
+        Assert.assertTrue(PackageFilter.union(Arrays.asList(acme, PackageFilter.create(null, null))).isAcceptAll());
+    }
+
+    @Test
+    public void testFilteredScan() throws Exception {
+        String jar = ParallelScanTest.archiveOf(Test.class);
+        String dir = ParallelScanTest.archiveOf(getClass());
+        PackageFilter filter = PackageFilter.create(new String[]{"org.junit.runner", getClass().getPackage().getName()},
+                                                    new String[]{"org.junit.runner.notification"});
+
+        AnnotationDB all = new AnnotationDB();
+        all.scanArchives(jar, dir);
+
+        AnnotationDB filtered = new AnnotationDB();
+        filtered.setPackageFilter(filter);
+        filtered.scanArchives(jar, dir);
+
+        Map<String, Set<String>> expected = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, Set<String>> entry : all.getClassIndex().entrySet()) {
+            if (filter.accepts(entry.getKey())) {
+                expected.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Assert.assertTrue(expected.containsKey(getClass().getName()));
+        Assert.assertTrue(expected.containsKey("org.junit.runner.RunWith"));
+        Assert.assertFalse(filtered.getClassIndex().containsKey("org.junit.runner.notification.RunListener"));
+        Assert.assertEquals(expected, filtered.getClassIndex());
+
+        // an unfiltered index can get read with any filter
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ScanIndexFormat.write(all, new DataOutputStream(bytes));
+        AnnotationDB loaded = new AnnotationDB();
+        loaded.setPackageFilter(filter);
+        Assert.assertTrue(ScanIndexFormat.read(loaded, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        Assert.assertEquals(expected, loaded.getClassIndex());
+
+        // but a filtered index only with the same filter
+        bytes.reset();
+        ScanIndexFormat.write(filtered, new DataOutputStream(bytes));
+        Assert.assertFalse(ScanIndexFormat.read(new AnnotationDB(), new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    @Test
+    public void testIgnoredPackages() throws Exception {
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.addIgnoredPackages("org.junit", getClass().getPackage().getName());
+        Assert.assertEquals(7, annotationDB.getIgnoredPackages().length);
+
+        annotationDB.scanArchives(ParallelScanTest.archiveOf(Test.class), ParallelScanTest.archiveOf(getClass()));
+        Assert.assertTrue(annotationDB.getClassIndex().containsKey("junit.framework.TestCase"));
+        for (String className : annotationDB.getClassIndex().keySet()) {
+            Assert.assertFalse(className, className.startsWith("org.junit."));
+            Assert.assertFalse(className, className.startsWith(getClass().getPackage().getName() + "."));
+        }
+    }
+
+    @Test
+    public void testChangedIgnoredPackages() throws Exception {
+        String[] ignored = {"org.junit"};
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.setIgnoredPackages(ignored);
+        annotationDB.scanArchives(ParallelScanTest.archiveOf(Test.class));
+        Assert.assertFalse(annotationDB.getClassIndex().containsKey("org.junit.runner.RunWith"));
+
+        // the same array with a changed content must not reuse the compiled filter
+        ignored[0] = "junit";
+        annotationDB.scanArchives(ParallelScanTest.archiveOf(Test.class));
+        Assert.assertTrue(annotationDB.getClassIndex().containsKey("org.junit.runner.RunWith"));
+    }
+
+    @Test
+    public void testClientView() {
+        OwbClassScanner scanner = new OwbClassScanner();
+
+        ScanJob filteredJob = new ScanJob(null, new String[]{AnnotatedSample1.class.getPackage().getName()}, null,
+                                          true, true, true, true);
+        filteredJob.setClassesToScan(new Class<?>[]{AnnotatedSample1.class});
+        scanner.registerClient("filtered", filteredJob);
+
+        ScanJob otherJob = new ScanJob(null, null, null, true, true, true, true);
+        otherJob.setClassesToScan(new Class<?>[]{AnnotatedSample2.class, SampleAnnotationA.class});
+        scanner.registerClient("other", otherJob);
+
+        Assert.assertEquals(3, scanner.getClassesIndex("other").size());
+
+        Map<String, Set<String>> classes = scanner.getClassesIndex("filtered");
+        Assert.assertEquals(2, classes.size());
+        Assert.assertTrue(classes.containsKey(AnnotatedSample2.class.getName()));
+        Assert.assertNull(classes.get(SampleAnnotationA.class.getName()));
+
+        Map<String, Set<String>> annotations = scanner.getAnnotationsIndex("filtered");
+        int count = 0;
+        for (Map.Entry<String, Set<String>> entry : annotations.entrySet()) {
+            Set<String> annotatedClasses = entry.getValue();
+            Assert.assertFalse(annotatedClasses.isEmpty());
+            Assert.assertFalse(annotatedClasses.contains(SampleAnnotationA.class.getName()));
+            Assert.assertEquals(new HashSet<String>(annotatedClasses).size(), annotatedClasses.size());
+            Assert.assertEquals(annotatedClasses, annotations.get(entry.getKey()));
+            Assert.assertTrue(annotations.containsKey(entry.getKey()));
+            count++;
+        }
+        Assert.assertEquals(count, annotations.size());
+        Assert.assertFalse(annotations.containsKey("org.unknown.Foo"));
+        Assert.assertEquals(annotations.size(), scanner.getAnnotationsIndex("filtered").size());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that a parallel scan leads to the same indexes as a sequential one.
+ */
+public class ParallelScanTest {
+
+    @Test
+    public void testParallelScanEqualsSequentialScan() throws Exception {
+        String[] archives = {archiveOf(Test.class), archiveOf(getClass())};
+
+        AnnotationDB sequential = new AnnotationDB();
+        sequential.scanArchives(archives);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            AnnotationDB parallel = new AnnotationDB();
+            parallel.setExecutorService(executor);
+            // small batches to also split up the classes of a single jar
+            parallel.setParallelBatchSize(7);
+            parallel.scanArchives(archives);
+
+            Assert.assertFalse(sequential.getClassIndex().isEmpty());
+            Assert.assertEquals(sequential.getClassIndex(), parallel.getClassIndex());
+            Assert.assertEquals(sequential.getAnnotationIndex(), parallel.getAnnotationIndex());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedScanCancelsPendingBatches() throws Exception {
+        String[] archives = {"jar:file:/does/not/exist.jar!/", archiveOf(Test.class)};
+
+        // runs both archive tasks right away, but holds back all batches
+        HoldingExecutor executor = new HoldingExecutor(archives.length);
+        AnnotationDB db = new AnnotationDB();
+        db.setExecutorService(executor);
+        db.setParallelBatchSize(7);
+        try {
+            db.scanArchives(archives);
+            Assert.fail("scanned a missing archive");
+        } catch (IOException expected) {
+            // the first archive failed while the batches of the second one were still pending
+        }
+
+        Assert.assertFalse(executor.held.isEmpty());
+        for (Runnable batch : executor.held) {
+            Assert.assertTrue(((Future<?>) batch).isCancelled());
+        }
+    }
+
+    /**
+     * Runs the first tasks in the calling thread and keeps all later ones without running them.
+     */
+    private static class HoldingExecutor extends AbstractExecutorService {
+        private final List<Runnable> held = Collections.synchronizedList(new ArrayList<Runnable>());
+        private int direct;
+
+        HoldingExecutor(int direct) {
+            this.direct = direct;
+        }
+
+        public synchronized void execute(Runnable command) {
+            if (direct > 0) {
+                direct--;
+                command.run();
+            } else {
+                held.add(command);
+            }
+        }
+
+        public void shutdown() {
+        }
+
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        public boolean isShutdown() {
+            return false;
+        }
+
+        public boolean isTerminated() {
+            return false;
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the archive url in the format used by the OwbClassScanner
+     */
+    static String archiveOf(Class<?> clazz) {
+        String location = clazz.getProtectionDomain().getCodeSource().getLocation().toExternalForm();
+        if (location.endsWith(".jar")) {
+            return "jar:" + location + "!/";
+        }
+        return location;
+    }
+}
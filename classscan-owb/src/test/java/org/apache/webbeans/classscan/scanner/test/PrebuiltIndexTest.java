@@ -0,0 +1,190 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample1;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample2;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.ArchiveMetrics;
+import org.apache.webbeans.classscan.scanner.ClientMetrics;
+import org.apache.webbeans.classscan.scanner.ScanIndexFormat;
+import org.apache.webbeans.classscan.scanner.ScanMetricsListener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Tests that archives containing a pre-built index don't get scanned.
+ */
+public class PrebuiltIndexTest {
+
+    private File archiveDir;
+    private File indexFile;
+    private File jarFile;
+
+    @Before
+    public void setUp() throws IOException {
+        archiveDir = File.createTempFile("classscan", "archive");
+        archiveDir.delete();
+        indexFile = new File(archiveDir, AnnotationDB.PREBUILT_INDEX_RESOURCE);
+        indexFile.getParentFile().mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(archiveDir);
+        if (jarFile != null) {
+            jarFile.delete();
+        }
+    }
+
+    @Test
+    public void testPrebuiltIndexGetsUsed() throws Exception {
+        // the index of the junit jar, pretending to be the index of our jar without classes
+        AnnotationDB junit = new AnnotationDB();
+        junit.scanArchives(ParallelScanTest.archiveOf(Test.class));
+        String archive = writeIndexJar(junit);
+
+        AnnotationDB db = new AnnotationDB();
+        db.scanArchives(archive);
+        Assert.assertFalse(db.getClassIndex().isEmpty());
+        Assert.assertEquals(junit.getClassIndex(), db.getClassIndex());
+        Assert.assertEquals(junit.getAnnotationIndex(), db.getAnnotationIndex());
+
+        AnnotationDB withoutIndex = new AnnotationDB();
+        withoutIndex.setUsePrebuiltIndexes(false);
+        withoutIndex.scanArchives(archive);
+        Assert.assertTrue(withoutIndex.getClassIndex().isEmpty());
+
+        // the index got created with different settings, so we need to scan
+        AnnotationDB otherSettings = new AnnotationDB();
+        otherSettings.setScanFieldAnnotations(false);
+        otherSettings.scanArchives(archive);
+        Assert.assertTrue(otherSettings.getClassIndex().isEmpty());
+    }
+
+    @Test
+    public void testCorruptIndexGetsIgnored() throws Exception {
+        AnnotationDB junit = new AnnotationDB();
+        junit.scanArchives(ParallelScanTest.archiveOf(Test.class));
+        writeIndex(junit);
+
+        // cut off the index in the middle of the class entries
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        try {
+            file.setLength(file.length() / 2);
+        } finally {
+            file.close();
+        }
+
+        // the directory gets scanned instead, it doesn't contain any class
+        AnnotationDB db = new AnnotationDB();
+        db.scanArchives(archiveDir.toURI().toURL().toExternalForm());
+        Assert.assertTrue(db.getClassIndex().isEmpty());
+    }
+
+    @Test
+    public void testOutdatedDirectoryIndexGetsIgnored() throws Exception {
+        long now = System.currentTimeMillis();
+        String archive = archiveDir.toURI().toURL().toExternalForm();
+        File sample1 = TestFiles.copy(AnnotatedSample1.class, archiveDir);
+        Assert.assertTrue(sample1.setLastModified(now - 20000));
+        AnnotationDB scanned = new AnnotationDB();
+        scanned.setUsePrebuiltIndexes(false);
+        scanned.scanArchives(archive);
+        writeIndex(scanned);
+        Assert.assertTrue(indexFile.setLastModified(now - 10000));
+
+        // e.g. written by the maven plugin after the compilation
+        Assert.assertEquals(ArchiveMetrics.Source.PREBUILT, scan(archive).getSource());
+
+        // recompiled by the IDE
+        Assert.assertTrue(sample1.setLastModified(now));
+        Assert.assertEquals(ArchiveMetrics.Source.SCANNED, scan(archive).getSource());
+
+        // a new class which is older than the index, e.g. copied with its timestamp
+        Assert.assertTrue(sample1.setLastModified(now - 20000));
+        File sample2 = TestFiles.copy(AnnotatedSample2.class, archiveDir);
+        Assert.assertTrue(sample2.setLastModified(now - 20000));
+        AnnotationDB db = new AnnotationDB();
+        Assert.assertEquals(ArchiveMetrics.Source.SCANNED, scan(db, archive).getSource());
+        Assert.assertTrue(db.getClassIndex().containsKey(AnnotatedSample2.class.getName()));
+
+        // a deleted class
+        Assert.assertTrue(sample2.delete());
+        Assert.assertTrue(sample1.delete());
+        db = new AnnotationDB();
+        Assert.assertEquals(ArchiveMetrics.Source.SCANNED, scan(db, archive).getSource());
+        Assert.assertTrue(db.getClassIndex().isEmpty());
+    }
+
+    private ArchiveMetrics scan(String archive) throws IOException {
+        return scan(new AnnotationDB(), archive);
+    }
+
+    private ArchiveMetrics scan(AnnotationDB db, String archive) throws IOException {
+        final List<ArchiveMetrics> metrics = new ArrayList<ArchiveMetrics>();
+        db.setMetricsListener(new ScanMetricsListener() {
+            public void archiveScanned(ArchiveMetrics archiveMetrics) {
+                metrics.add(archiveMetrics);
+            }
+
+            public void clientScanned(ClientMetrics clientMetrics) {
+            }
+        });
+        db.scanArchives(archive);
+        Assert.assertEquals(1, metrics.size());
+        return metrics.get(0);
+    }
+
+    /**
+     * @return the url of a jar which only contains the index of the given AnnotationDB
+     */
+    private String writeIndexJar(AnnotationDB db) throws IOException {
+        jarFile = File.createTempFile("classscan", ".jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile));
+        try {
+            out.putNextEntry(new JarEntry(AnnotationDB.PREBUILT_INDEX_RESOURCE));
+            ScanIndexFormat.write(db, new DataOutputStream(out));
+        } finally {
+            out.close();
+        }
+        return "jar:" + jarFile.toURI().toURL().toExternalForm() + "!/";
+    }
+
+    private void writeIndex(AnnotationDB db) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile));
+        try {
+            ScanIndexFormat.write(db, out);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.ScanIndexCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests the persistent cache of jar scan results.
+ */
+public class ScanIndexCacheTest {
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = File.createTempFile("classscan", "cache");
+        cacheDir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @Test
+    public void testCachedResultEqualsScanResult() throws Exception {
+        String jar = ParallelScanTest.archiveOf(Test.class);
+        String dir = ParallelScanTest.archiveOf(getClass());
+        ScanIndexCache cache = new ScanIndexCache(cacheDir);
+
+        AnnotationDB scanned = new AnnotationDB();
+        scanned.setIndexCache(cache);
+        scanned.scanArchives(jar, dir);
+
+        // only jars get cached
+        Assert.assertEquals(1, cacheDir.listFiles().length);
+
+        AnnotationDB partial = new AnnotationDB();
+        Assert.assertTrue(cache.load(jar, partial));
+        Assert.assertFalse(partial.getClassIndex().isEmpty());
+
+        AnnotationDB cached = new AnnotationDB();
+        cached.setIndexCache(cache);
+        cached.scanArchives(jar, dir);
+        Assert.assertEquals(scanned.getClassIndex(), cached.getClassIndex());
+        Assert.assertEquals(scanned.getAnnotationIndex(), cached.getAnnotationIndex());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AnnotationDB parallel = new AnnotationDB();
+            parallel.setIndexCache(cache);
+            parallel.setExecutorService(executor);
+            parallel.scanArchives(jar, dir);
+            Assert.assertEquals(scanned.getClassIndex(), parallel.getClassIndex());
+            Assert.assertEquals(scanned.getAnnotationIndex(), parallel.getAnnotationIndex());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDifferentSettingsAreNoCacheHit() throws Exception {
+        String jar = ParallelScanTest.archiveOf(Test.class);
+        ScanIndexCache cache = new ScanIndexCache(cacheDir);
+
+        AnnotationDB scanned = new AnnotationDB();
+        scanned.setIndexCache(cache);
+        scanned.scanArchives(jar);
+
+        AnnotationDB other = new AnnotationDB();
+        other.setScanMethodAnnotations(false);
+        Assert.assertFalse(cache.load(jar, other));
+        Assert.assertTrue(other.getClassIndex().isEmpty());
+    }
+
+    @Test
+    public void testCorruptEntryGetsDeleted() throws Exception {
+        String jar = ParallelScanTest.archiveOf(Test.class);
+        ScanIndexCache cache = new ScanIndexCache(cacheDir);
+
+        AnnotationDB scanned = new AnnotationDB();
+        scanned.setIndexCache(cache);
+        scanned.scanArchives(jar);
+        File entry = cacheDir.listFiles()[0];
+
+        // let the name of the first class point behind the string table
+        RandomAccessFile file = new RandomAccessFile(entry, "rw");
+        try {
+            byte[] content = new byte[(int) file.length()];
+            file.readFully(content);
+            ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+            DataInputStream in = new DataInputStream(bytes);
+            in.readUTF();
+            in.readLong();
+            in.readLong();
+            in.readInt();
+            in.readInt();
+            in.readUTF();
+            in.readUTF();
+            int stringCount = readVarInt(in);
+            for (int i = 0; i < stringCount; i++) {
+                in.skipBytes(readVarInt(in));
+            }
+            readVarInt(in);
+            file.seek(content.length - bytes.available());
+            file.write(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F});
+        } finally {
+            file.close();
+        }
+
+        AnnotationDB partial = new AnnotationDB();
+        Assert.assertFalse(cache.load(jar, partial));
+        Assert.assertTrue(partial.getClassIndex().isEmpty());
+        Assert.assertTrue(partial.getAnnotationIndex().isEmpty());
+        Assert.assertFalse(entry.exists());
+
+        // the archive gets scanned and cached again
+        AnnotationDB rescanned = new AnnotationDB();
+        rescanned.setIndexCache(cache);
+        rescanned.scanArchives(jar);
+        Assert.assertEquals(scanned.getClassIndex(), rescanned.getClassIndex());
+        Assert.assertTrue(entry.exists());
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.commons.classscan.api.ScanListener;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationA;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationB;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.OwbClassScanner;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.annotation.ElementType;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests the notification of the ScanListeners about the found annotations.
+ */
+public class ScanListenerTest {
+
+    private static final String A = SampleAnnotationA.class.getSimpleName();
+    private static final String B = SampleAnnotationB.class.getSimpleName();
+
+    @SampleAnnotationA
+    public static class Listened {
+        @SampleAnnotationB
+        private String field;
+
+        @SampleAnnotationA
+        public void method(@SampleAnnotationB String parameter) {
+        }
+    }
+
+    @Test
+    public void testListenersOfClients() {
+        OwbClassScanner scanner = new OwbClassScanner();
+
+        CollectingListener classListener = new CollectingListener();
+        ScanJob classJob = new ScanJob(null, null, null, true, false, false, false);
+        classJob.setClassesToScan(new Class<?>[]{Listened.class});
+        classJob.setScanListener(classListener);
+        scanner.registerClient("class", classJob);
+
+        CollectingListener allListener = new CollectingListener();
+        ScanJob allJob = new ScanJob(null, null, null, true, true, true, true);
+        allJob.setClassesToScan(new Class<?>[]{Listened.class});
+        allJob.setScanListener(allListener);
+        scanner.registerClient("all", allJob);
+
+        Assert.assertTrue(classListener.events.isEmpty());
+        scanner.getClassesIndex("class");
+
+        Assert.assertEquals(set(A + ":TYPE"), classListener.events);
+        Assert.assertEquals(set(A + ":TYPE", A + ":METHOD", B + ":FIELD", B + ":PARAMETER"), allListener.events);
+
+        // the result of the scan gets reused
+        scanner.getClassesIndex("all");
+        Assert.assertEquals(1, classListener.events.size());
+        Assert.assertEquals(4, allListener.events.size());
+    }
+
+    @Test
+    public void testListenerDoesNotPinClassLoader() throws Exception {
+        final ClassLoader[] currentLoader = new ClassLoader[1];
+        OwbClassScanner scanner = new OwbClassScanner() {
+            @Override
+            protected ClassLoader getClassLoader() {
+                return currentLoader[0];
+            }
+        };
+
+        ClassLoader loader = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        WeakReference<ClassLoader> loaderReference = new WeakReference<ClassLoader>(loader);
+        currentLoader[0] = loader;
+
+        // like a listener of a webapp, which references its ClassLoader
+        CollectingListener listener = new LoaderListener(loader);
+        ScanJob job = new ScanJob(null, null, null, true, true, true, true);
+        job.setClassesToScan(new Class<?>[]{Listened.class});
+        job.setScanListener(listener);
+        scanner.registerClient("client", job);
+        Assert.assertFalse(scanner.getClassesIndex("client").isEmpty());
+        Assert.assertFalse(listener.events.isEmpty());
+
+        currentLoader[0] = null;
+        loader = null;
+        listener = null;
+        job = null;
+        for (int i = 0; i < 50 && loaderReference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        Assert.assertNull("the ScanListener must not keep the ClassLoader of the client", loaderReference.get());
+    }
+
+    @Test
+    public void testReplay() {
+        AnnotationDB annotationDB = new AnnotationDB();
+        CollectingListener scanned = new CollectingListener();
+        annotationDB.setScanListener(scanned);
+        annotationDB.scanClasses(Arrays.asList(Listened.class.getName()), getClass().getClassLoader());
+        annotationDB.compact();
+
+        CollectingListener replayed = new CollectingListener();
+        annotationDB.replay(replayed);
+        Assert.assertEquals(scanned.events, replayed.events);
+        Assert.assertEquals(4, replayed.events.size());
+    }
+
+    private Set<String> set(String... events) {
+        return events.length == 0 ? Collections.<String>emptySet() : new HashSet<String>(Arrays.asList(events));
+    }
+
+    private static class LoaderListener extends CollectingListener {
+        private final ClassLoader loader;
+
+        public LoaderListener(ClassLoader loader) {
+            this.loader = loader;
+        }
+    }
+
+    private static class CollectingListener implements ScanListener {
+        private final Set<String> events = Collections.synchronizedSet(new HashSet<String>());
+
+        public void annotationFound(String className, String annotationType, ElementType elementKind) {
+            Assert.assertEquals(Listened.class.getName(), className);
+            events.add(annotationType.substring(annotationType.lastIndexOf('.') + 1) + ":" + elementKind);
+        }
+    }
+}
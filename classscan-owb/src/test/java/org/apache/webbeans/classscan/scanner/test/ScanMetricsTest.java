@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationA;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample1;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample3;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.ArchiveMetrics;
+import org.apache.webbeans.classscan.scanner.ClientMetrics;
+import org.apache.webbeans.classscan.scanner.OwbClassScanner;
+import org.apache.webbeans.classscan.scanner.PackageFilter;
+import org.apache.webbeans.classscan.scanner.ScanMetricsListener;
+import org.apache.webbeans.classscan.scanner.ScanStatistics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Tests the metrics of the archives and clients.
+ */
+public class ScanMetricsTest {
+
+    private static final String MARKER = "META-INF/classscan-metrics.marker";
+
+    private File jar;
+
+    private List<ArchiveMetrics> archives = new CopyOnWriteArrayList<ArchiveMetrics>();
+    private List<ClientMetrics> clients = new CopyOnWriteArrayList<ClientMetrics>();
+
+    private ScanMetricsListener listener = new ScanMetricsListener() {
+        public void archiveScanned(ArchiveMetrics metrics) {
+            archives.add(metrics);
+        }
+
+        public void clientScanned(ClientMetrics metrics) {
+            clients.add(metrics);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        jar = File.createTempFile("classscan", "metrics.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new JarEntry(MARKER));
+            for (Class<?> clazz : new Class<?>[]{AnnotatedSample1.class, AnnotatedSample3.class, SampleAnnotationA.class}) {
+                String resource = clazz.getName().replace('.', '/') + ".class";
+                out.putNextEntry(new JarEntry(resource));
+                InputStream in = clazz.getClassLoader().getResourceAsStream(resource);
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                in.close();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        jar.delete();
+    }
+
+    @Test
+    public void testArchiveMetrics() throws IOException {
+        AnnotationDB annotationDB = createAnnotationDb();
+        annotationDB.scanArchives(getArchiveUrl());
+        assertScanned();
+    }
+
+    @Test
+    public void testParallelArchiveMetrics() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AnnotationDB annotationDB = createAnnotationDb();
+            annotationDB.setExecutorService(executor);
+            annotationDB.scanArchives(getArchiveUrl());
+            assertScanned();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testClientMetrics() throws IOException {
+        final ClassLoader parent = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+        final ClassLoader[] currentLoader = {new URLClassLoader(new URL[0], parent)};
+        OwbClassScanner scanner = new OwbClassScanner() {
+            @Override
+            protected ClassLoader getClassLoader() {
+                return currentLoader[0];
+            }
+        };
+        scanner.setMetricsListener(listener);
+
+        String pojos = AnnotatedSample1.class.getPackage().getName();
+        scanner.registerClient("client", new ScanJob(new String[]{MARKER}, new String[]{pojos}, null,
+                                                     true, true, true, true));
+        Assert.assertEquals(2, scanner.getClassesIndex("client").size());
+        scanner.getClassesIndex("client");
+
+        Assert.assertEquals(1, clients.size());
+        Assert.assertEquals("client", clients.get(0).getClientName());
+        Assert.assertEquals(2, clients.get(0).getIndexSize());
+        Assert.assertTrue(clients.get(0).getNanosToFirstResult() > 0);
+        assertScanned();
+
+        // a sibling ClassLoader reuses the archive of the parent
+        archives.clear();
+        currentLoader[0] = new URLClassLoader(new URL[0], parent);
+        scanner.registerClient("client", new ScanJob(new String[]{MARKER}, new String[]{pojos}, null,
+                                                     true, true, true, true));
+        scanner.getClassesIndex("client");
+        Assert.assertEquals(1, archives.size());
+        Assert.assertEquals(ArchiveMetrics.Source.SHARED, archives.get(0).getSource());
+        Assert.assertEquals(2, clients.size());
+    }
+
+    @Test
+    public void testStatisticsMBean() throws Exception {
+        ScanStatistics statistics = new ScanStatistics();
+        ObjectName name = statistics.register();
+        try {
+            AnnotationDB annotationDB = createAnnotationDb();
+            annotationDB.setMetricsListener(statistics);
+            annotationDB.scanArchives(getArchiveUrl());
+
+            Assert.assertEquals(1, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ArchiveCount"));
+            Assert.assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ClassesParsed"));
+            Assert.assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ClassesSkipped"));
+            String[] slowest = (String[]) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "SlowestArchives");
+            Assert.assertEquals(1, slowest.length);
+            Assert.assertTrue(slowest[0].startsWith(getArchiveUrl()));
+        } finally {
+            statistics.unregister();
+        }
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void testCloseUnregistersStatistics() throws Exception {
+        ObjectName pattern = new ObjectName("org.apache.commons.classscan:type=ScanStatistics,*");
+        int registered = ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size();
+
+        OwbClassScanner scanner;
+        System.setProperty(OwbClassScanner.JMX_PROPERTY, "true");
+        try {
+            scanner = new OwbClassScanner();
+        } finally {
+            System.clearProperty(OwbClassScanner.JMX_PROPERTY);
+        }
+        Assert.assertTrue(scanner.getMetricsListener() instanceof ScanStatistics);
+        Assert.assertEquals(registered + 1, ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size());
+
+        scanner.close();
+        Assert.assertEquals(registered, ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size());
+
+        // replacing the statistics unregisters them as well
+        System.setProperty(OwbClassScanner.JMX_PROPERTY, "true");
+        try {
+            scanner = new OwbClassScanner();
+        } finally {
+            System.clearProperty(OwbClassScanner.JMX_PROPERTY);
+        }
+        scanner.setMetricsListener(listener);
+        Assert.assertEquals(registered, ManagementFactory.getPlatformMBeanServer().queryNames(pattern, null).size());
+        scanner.close();
+    }
+
+    private AnnotationDB createAnnotationDb() {
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.setPackageFilter(PackageFilter.create(new String[]{AnnotatedSample1.class.getPackage().getName()}, null));
+        annotationDB.setMetricsListener(listener);
+        return annotationDB;
+    }
+
+    private String getArchiveUrl() throws IOException {
+        return "jar:" + jar.toURI().toURL() + "!/";
+    }
+
+    private void assertScanned() throws IOException {
+        Assert.assertEquals(1, archives.size());
+        ArchiveMetrics metrics = archives.get(0);
+        Assert.assertEquals(getArchiveUrl(), metrics.getUrlPath());
+        Assert.assertEquals(ArchiveMetrics.Source.SCANNED, metrics.getSource());
+        Assert.assertEquals(2, metrics.getClassesParsed());
+        Assert.assertEquals(1, metrics.getClassesSkipped());
+        Assert.assertTrue(metrics.getBytesRead() > 0);
+        Assert.assertTrue(metrics.getNanos() > 0);
+    }
+}
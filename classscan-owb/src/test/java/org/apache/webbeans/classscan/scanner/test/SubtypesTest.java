@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.webbeans.classscan.scanner.AnnotationDB;
+import org.apache.webbeans.classscan.scanner.OwbClassScanner;
+import org.apache.webbeans.classscan.scanner.ScanIndexFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests the super class index and the subtype queries.
+ */
+public class SubtypesTest {
+
+    public interface Shape {
+    }
+
+    public interface RoundShape extends Shape {
+    }
+
+    public abstract static class AbstractShape implements Shape {
+    }
+
+    public static class Circle extends AbstractShape implements RoundShape {
+    }
+
+    public static class Square extends AbstractShape implements Serializable {
+    }
+
+    public static class ColoredSquare extends Square {
+    }
+
+    private static final Class<?>[] CLASSES = {Shape.class, RoundShape.class, AbstractShape.class,
+            Circle.class, Square.class, ColoredSquare.class};
+
+    @Test
+    public void testSubtypes() {
+        OwbClassScanner scanner = new OwbClassScanner();
+        ScanJob scanJob = new ScanJob(null, null, null, true, false, false, false);
+        scanJob.setClassesToScan(CLASSES);
+        scanner.registerClient("client", scanJob);
+
+        Assert.assertEquals(names(RoundShape.class, AbstractShape.class),
+                            scanner.getSubtypes("client", Shape.class.getName(), false));
+        Assert.assertEquals(names(RoundShape.class, AbstractShape.class, Circle.class, Square.class, ColoredSquare.class),
+                            scanner.getSubtypes("client", Shape.class.getName(), true));
+        Assert.assertEquals(names(Circle.class), scanner.getSubtypes("client", RoundShape.class.getName(), true));
+        Assert.assertEquals(names(Square.class, ColoredSquare.class),
+                            scanner.getSubtypes("client", Serializable.class.getName(), true));
+        Assert.assertEquals(names(), scanner.getSubtypes("client", ColoredSquare.class.getName(), true));
+        Assert.assertEquals(names(), scanner.getSubtypes("client", "org.unknown.Type", true));
+    }
+
+    @Test
+    public void testSuperClassIndex() throws Exception {
+        AnnotationDB annotationDB = new AnnotationDB();
+        annotationDB.scanClasses(Arrays.asList(Circle.class.getName(), ColoredSquare.class.getName(), Shape.class.getName()),
+                                 getClass().getClassLoader());
+
+        Assert.assertEquals(AbstractShape.class.getName(), annotationDB.getSuperClassIndex().get(Circle.class.getName()));
+        Assert.assertEquals(Square.class.getName(), annotationDB.getSuperClassIndex().get(ColoredSquare.class.getName()));
+        Assert.assertNull(annotationDB.getSuperClassIndex().get(Shape.class.getName()));
+        Assert.assertEquals(names(RoundShape.class), annotationDB.getImplementsIndex().get(Circle.class.getName()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ScanIndexFormat.write(annotationDB, new DataOutputStream(bytes));
+        AnnotationDB loaded = new AnnotationDB();
+        Assert.assertTrue(ScanIndexFormat.read(loaded, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+        Assert.assertEquals(annotationDB.getSuperClassIndex(), loaded.getSuperClassIndex());
+
+        loaded.compact();
+        Assert.assertEquals(annotationDB.getSuperClassIndex(), loaded.getSuperClassIndex());
+        Assert.assertEquals(annotationDB.getImplementsIndex(), loaded.getImplementsIndex());
+    }
+
+    private Set<String> names(Class<?>... classes) {
+        if (classes.length == 0) {
+            return Collections.emptySet();
+        }
+        Set<String> names = new HashSet<String>();
+        for (Class<?> clazz : classes) {
+            names.add(clazz.getName());
+        }
+        return names;
+    }
+}
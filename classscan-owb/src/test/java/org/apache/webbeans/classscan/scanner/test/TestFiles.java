@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.webbeans.classscan.scanner.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Creates and deletes the class files and directories the tests scan.
+ */
+final class TestFiles {
+
+    private TestFiles() {
+        // utility class
+    }
+
+    /**
+     * @return the path of the class file, e.g. <code>com/acme/Foo.class</code>
+     */
+    static String resourceOf(Class<?> clazz) {
+        return clazz.getName().replace('.', '/') + ".class";
+    }
+
+    /**
+     * Copy the class file of the given class into the package directories below dir.
+     *
+     * @return the copied class file
+     */
+    static File copy(Class<?> clazz, File dir) throws IOException {
+        File target = new File(dir, resourceOf(clazz));
+        copy(clazz.getClassLoader().getResourceAsStream(resourceOf(clazz)), target);
+        return target;
+    }
+
+    /**
+     * Write the content of the stream into the target file and close the stream.
+     */
+    static void copy(InputStream in, File target) throws IOException {
+        target.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(target);
+        try {
+            copy(in, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Create an empty file, e.g. a marker file.
+     */
+    static void touch(File target) throws IOException {
+        target.getParentFile().mkdirs();
+        new FileOutputStream(target).close();
+    }
+
+    /**
+     * Write the content of the stream into out and close the stream.
+     */
+    static void copy(InputStream in, OutputStream out) throws IOException {
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Delete the file or the directory with all its content.
+     */
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
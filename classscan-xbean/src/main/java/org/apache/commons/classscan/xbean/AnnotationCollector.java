@@ -0,0 +1,123 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.xbean;
+
+import org.apache.xbean.asm5.AnnotationVisitor;
+import org.apache.xbean.asm5.ClassReader;
+import org.apache.xbean.asm5.ClassVisitor;
+import org.apache.xbean.asm5.FieldVisitor;
+import org.apache.xbean.asm5.MethodVisitor;
+import org.apache.xbean.asm5.Opcodes;
+import org.apache.xbean.asm5.Type;
+
+/**
+ * <p>Collects the annotations of a class into a {@link ScanIndex}.</p>
+ *
+ * <p>The ClassReader skips the code, debug information and frames and the visitor
+ * ignores the annotation values, so nothing but the annotation names gets
+ * materialized. The field and method visitors get reused for all members.</p>
+ *
+ * <p>Not thread safe, use one instance per thread.</p>
+ */
+class AnnotationCollector extends ClassVisitor {
+
+    private static final int PARSING_OPTIONS = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+    private final ScanIndex index;
+    private final int elementKinds;
+
+    private final FieldVisitor fieldVisitor = new FieldVisitor(Opcodes.ASM5) {
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            add(desc, ScanIndex.FIELD_ELEMENT);
+            return null;
+        }
+    };
+
+    private final MethodVisitor methodVisitor = new MethodVisitor(Opcodes.ASM5) {
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            add(desc, ScanIndex.METHOD_ELEMENT);
+            return null;
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible) {
+            add(desc, ScanIndex.PARAMETER_ELEMENT);
+            return null;
+        }
+    };
+
+    private String className;
+
+    /**
+     * @param index the index to fill
+     * @param elementKinds the element kinds to collect the annotations of
+     */
+    AnnotationCollector(ScanIndex index, int elementKinds) {
+        super(Opcodes.ASM5);
+        this.index = index;
+        this.elementKinds = elementKinds;
+    }
+
+    /**
+     * @param classBytes the bytes of a class file
+     * @throws IllegalArgumentException if the class file is invalid or of an unsupported version
+     */
+    void collect(byte[] classBytes) {
+        try {
+            new ClassReader(classBytes).accept(this, PARSING_OPTIONS);
+        } finally {
+            className = null;
+        }
+    }
+
+    ScanIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName,
+                      String[] interfaces) {
+        className = name.replace('/', '.');
+        index.addClass(className);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+        add(desc, ScanIndex.CLASS_ELEMENT);
+        return null;
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        return (elementKinds & ScanIndex.FIELD_ELEMENT) != 0 ? fieldVisitor : null;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        return (elementKinds & (ScanIndex.METHOD_ELEMENT | ScanIndex.PARAMETER_ELEMENT)) != 0 ? methodVisitor : null;
+    }
+
+    private void add(String desc, int elementKind) {
+        if ((elementKinds & elementKind) != 0) {
+            index.addAnnotation(className, Type.getType(desc).getClassName(), elementKind);
+        }
+    }
+}
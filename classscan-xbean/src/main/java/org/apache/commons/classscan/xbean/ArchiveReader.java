@@ -0,0 +1,183 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.xbean;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+
+/**
+ * Reads the class files of an archive, which is either a jar or a directory.
+ */
+class ArchiveReader {
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    /**
+     * the classes of multi-release jars for newer Java versions, the ASM5 ClassReader can't read them
+     */
+    private static final String VERSIONED_PREFIX = "META-INF.versions.";
+
+    private static final String MODULE_INFO = "module-info";
+
+    /**
+     * Gets called for each class file of the archive.
+     */
+    interface ClassHandler {
+        /**
+         * @param className the class name derived from the path of the class file
+         * @return <code>true</code> if the class file should get read
+         */
+        boolean accepts(String className);
+
+        void handle(String className, byte[] classBytes);
+    }
+
+    private final byte[] buffer = new byte[8192];
+
+    /**
+     * @param urlPath the base url of the archive, e.g. <code>jar:file:/lib/foo.jar!/</code>
+     *                or <code>file:/classes/</code>
+     */
+    void read(String urlPath, ClassHandler handler) throws IOException {
+        if (urlPath.startsWith("jar:") && urlPath.endsWith("!/")) {
+            String jarUrl = urlPath.substring(4, urlPath.length() - 2);
+            if (jarUrl.startsWith("file:")) {
+                readJarFile(toFile(jarUrl), handler);
+            } else {
+                readJarStream(new URL(jarUrl).openStream(), handler);
+            }
+        } else if (urlPath.startsWith("file:")) {
+            File root = toFile(urlPath);
+            readDirectory(root, "", handler);
+        } else {
+            throw new IOException("Unsupported archive " + urlPath);
+        }
+    }
+
+    private void readJarFile(File file, ClassHandler handler) throws IOException {
+        JarFile jarFile = new JarFile(file);
+        try {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                String className = toClassName(entry);
+                if (className != null && handler.accepts(className)) {
+                    handler.handle(className, readBytes(jarFile.getInputStream(entry), true));
+                }
+            }
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    private void readJarStream(InputStream in, ClassHandler handler) throws IOException {
+        JarInputStream jar = new JarInputStream(in);
+        try {
+            JarEntry entry;
+            while ((entry = jar.getNextJarEntry()) != null) {
+                String className = toClassName(entry);
+                if (className != null && handler.accepts(className)) {
+                    handler.handle(className, readBytes(jar, false));
+                }
+            }
+        } finally {
+            jar.close();
+        }
+    }
+
+    private void readDirectory(File directory, String packagePrefix, ClassHandler handler) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                readDirectory(file, packagePrefix + name + '.', handler);
+            } else if (name.endsWith(CLASS_SUFFIX)) {
+                String className = packagePrefix + name.substring(0, name.length() - CLASS_SUFFIX.length());
+                if (isScannable(className) && handler.accepts(className)) {
+                    handler.handle(className, readBytes(new FileInputStream(file), true));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param close whether the stream should get closed afterwards
+     */
+    byte[] readBytes(InputStream in, boolean close) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            if (close) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * @return the class name or <code>null</code> if the entry is no class file or no class which can get scanned
+     */
+    private static String toClassName(JarEntry entry) {
+        String name = entry.getName();
+        if (entry.isDirectory() || !name.endsWith(CLASS_SUFFIX)) {
+            return null;
+        }
+        int start = name.startsWith("/") ? 1 : 0;
+        String className = name.substring(start, name.length() - CLASS_SUFFIX.length()).replace('/', '.');
+        return isScannable(className) ? className : null;
+    }
+
+    /**
+     * @return <code>false</code> for the module descriptors, which are no classes at all,
+     *         and the versioned classes of multi-release jars
+     */
+    private static boolean isScannable(String className) {
+        return !className.startsWith(VERSIONED_PREFIX)
+               && !className.equals(MODULE_INFO) && !className.endsWith('.' + MODULE_INFO);
+    }
+
+    private static File toFile(String fileUrl) throws IOException {
+        try {
+            return new File(new URI(fileUrl));
+        } catch (URISyntaxException e) {
+            // not properly encoded, e.g. containing spaces
+            return new File(new URL(fileUrl).getFile());
+        } catch (IllegalArgumentException e) {
+            // not a hierarchical file uri
+            return new File(new URL(fileUrl).getFile());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.xbean;
+
+/**
+ * The package includes and excludes of a ScanJob. A package matches an include or
+ * exclude if it is the same package or one of its sub packages.
+ */
+class PackageMatcher {
+
+    private final String[] includes;
+    private final String[] excludes;
+
+    /**
+     * @param includes packages to scan, <code>null</code> or empty to scan all packages
+     * @param excludes packages which should not get scanned, might be <code>null</code>
+     */
+    PackageMatcher(String[] includes, String[] excludes) {
+        this.includes = includes != null ? includes : new String[0];
+        this.excludes = excludes != null ? excludes : new String[0];
+    }
+
+    /**
+     * @param className the fully qualified name of a class
+     */
+    boolean accepts(String className) {
+        int lastDot = className.lastIndexOf('.');
+        String packageName = lastDot > 0 ? className.substring(0, lastDot) : "";
+
+        for (String exclude : excludes) {
+            if (contains(exclude, packageName)) {
+                return false;
+            }
+        }
+        if (includes.length == 0) {
+            return true;
+        }
+        for (String include : includes) {
+            if (contains(include, packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean contains(String parent, String packageName) {
+        return packageName.startsWith(parent)
+               && (packageName.length() == parent.length() || packageName.charAt(parent.length()) == '.');
+    }
+}
@@ -0,0 +1,90 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.xbean;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * All scanned classes of a ClassLoader and the annotations found on them,
+ * together with the element kinds they got found at. The indexes of the
+ * single clients get derived from it.
+ */
+class ScanIndex {
+
+    static final int CLASS_ELEMENT = 1;
+    static final int METHOD_ELEMENT = 2;
+    static final int FIELD_ELEMENT = 4;
+    static final int PARAMETER_ELEMENT = 8;
+
+    /**
+     * class name to annotation name to the element kinds the annotation got found at
+     */
+    private final Map<String, Map<String, Integer>> classes = new HashMap<String, Map<String, Integer>>();
+
+    void addClass(String className) {
+        if (!classes.containsKey(className)) {
+            classes.put(className, new HashMap<String, Integer>());
+        }
+    }
+
+    void addAnnotation(String className, String annotation, int elementKind) {
+        Map<String, Integer> annotations = classes.get(className);
+        Integer known = annotations.get(annotation);
+        annotations.put(annotation, known != null ? known | elementKind : elementKind);
+    }
+
+    void removeClass(String className) {
+        classes.remove(className);
+    }
+
+    /**
+     * @return the annotations of the class with the element kinds they got found at,
+     *         <code>null</code> if the class didn't get scanned
+     */
+    Map<String, Integer> getElementKinds(String className) {
+        Map<String, Integer> annotations = classes.get(className);
+        return annotations != null ? Collections.unmodifiableMap(annotations) : null;
+    }
+
+    /**
+     * @return the annotations of the class found at the given element kinds,
+     *         <code>null</code> if the class didn't get scanned
+     */
+    Set<String> getAnnotations(String className, int elementKinds) {
+        Map<String, Integer> annotations = classes.get(className);
+        if (annotations == null) {
+            return null;
+        }
+        Set<String> result = new HashSet<String>();
+        for (Map.Entry<String, Integer> annotation : annotations.entrySet()) {
+            if ((annotation.getValue() & elementKinds) != 0) {
+                result.add(annotation.getKey());
+            }
+        }
+        return result;
+    }
+
+    Set<String> getClassNames() {
+        return Collections.unmodifiableSet(classes.keySet());
+    }
+}
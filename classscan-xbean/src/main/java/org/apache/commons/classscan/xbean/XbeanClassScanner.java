@@ -0,0 +1,457 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.xbean;
+
+import org.apache.commons.classscan.api.ClassScanClient;
+import org.apache.commons.classscan.api.ClassScanner;
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.commons.classscan.api.ScanListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.ElementType;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>ClassScanner implementation based on the ASM ClassReader shipped with XBean.</p>
+ *
+ * <p>In contrast to the OpenWebBeans scanner no class model gets built at all.
+ * The visitor only collects the names of the annotations. The classpath gets scanned
+ * once per ClassLoader for the ScanJobs of all clients, each client gets an index
+ * containing only the packages and element kinds it asked for.</p>
+ */
+public class XbeanClassScanner extends ClassScanner {
+
+    private static final Logger logger = Logger.getLogger(XbeanClassScanner.class.getName());
+
+    private final Map<ClassLoader, ScanResult> scanResults
+            = Collections.synchronizedMap(new WeakHashMap<ClassLoader, ScanResult>());
+
+    private static final int[] ELEMENT_KINDS = {ScanIndex.CLASS_ELEMENT, ScanIndex.METHOD_ELEMENT,
+                                                ScanIndex.FIELD_ELEMENT, ScanIndex.PARAMETER_ELEMENT};
+    private static final ElementType[] ELEMENT_TYPES = {ElementType.TYPE, ElementType.METHOD,
+                                                        ElementType.FIELD, ElementType.PARAMETER};
+
+    private final Set<String> vetoedClients = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final PackageMatcher ignoredPackages = new PackageMatcher(null, DEFAULT_IGNORED_PACKAGES);
+
+    @Override
+    public void registerClient(String clientName, ScanJob scanJob) {
+        ClassLoader loader = getClassLoader();
+        ScanResult scanResult;
+        synchronized (scanResults) {
+            scanResult = scanResults.get(loader);
+            if (scanResult == null) {
+                scanResult = new ScanResult();
+                scanResults.put(loader, scanResult);
+            }
+        }
+        scanResult.getScanJobs().put(clientName, new RegisteredScanJob(scanJob));
+        if (scanJob.getScanListener() != null) {
+            scanResult.getScanListeners().put(clientName, scanJob.getScanListener());
+        } else {
+            scanResult.getScanListeners().remove(clientName);
+        }
+    }
+
+    @Override
+    public void deregisterClient(String clientName) {
+        ClassLoader loader = getClassLoader();
+        synchronized (scanResults) {
+            ScanResult scanResult = scanResults.get(loader);
+            if (scanResult != null) {
+                scanResult.getScanJobs().remove(clientName);
+                scanResult.getScanListeners().remove(clientName);
+                scanResult.getClientIndexes().remove(clientName);
+                if (scanResult.getScanJobs().isEmpty()) {
+                    scanResults.remove(loader);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void vetoClient(String clientName) {
+        vetoedClients.add(clientName);
+    }
+
+    @Override
+    public Map<String, Set<String>> getAnnotationsIndex(String clientName) {
+        ClientIndex clientIndex = getClientIndex(clientName);
+        return clientIndex != null ? clientIndex.getAnnotationsIndex() : null;
+    }
+
+    @Override
+    public Map<String, Set<String>> getClassesIndex(String clientName) {
+        ClientIndex clientIndex = getClientIndex(clientName);
+        return clientIndex != null ? clientIndex.getClassesIndex() : null;
+    }
+
+    /**
+     * @return the ClassLoader to use.
+     */
+    protected ClassLoader getClassLoader() {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null) {
+            loader = XbeanClassScanner.class.getClassLoader();
+        }
+        return loader;
+    }
+
+    /**
+     * Let all {@link ClassScanClient}s register themselves.
+     *
+     * @return the ScanResult or <code>null</code> if no client registered
+     */
+    private ScanResult initializeScannerClients(ClassLoader loader) {
+        ServiceLoader<ClassScanClient> sl = ServiceLoader.load(ClassScanClient.class);
+        Iterator<ClassScanClient> it = sl.iterator();
+        while (it.hasNext()) {
+            it.next().invokeRegistration(this);
+        }
+        return scanResults.get(loader);
+    }
+
+    /**
+     * The scan gets performed the first time any client asks for its index.
+     *
+     * @return the index of the client or <code>null</code> if no scan result is available
+     */
+    private ClientIndex getClientIndex(String clientName) {
+        ClassLoader loader = getClassLoader();
+        ScanResult scanResult = scanResults.get(loader);
+        if (scanResult == null) {
+            scanResult = initializeScannerClients(loader);
+            if (scanResult == null) {
+                return null;
+            }
+        }
+
+        ScanIndex scanIndex = scanResult.getScanIndex(loader);
+        ClientIndex clientIndex = scanResult.getClientIndexes().get(clientName);
+        if (clientIndex == null) {
+            // unknown clients see everything
+            clientIndex = new ClientIndex(scanIndex, scanResult.getScanJobs().get(clientName));
+            ClientIndex existing = scanResult.getClientIndexes().putIfAbsent(clientName, clientIndex);
+            if (existing != null) {
+                clientIndex = existing;
+            }
+        }
+        return clientIndex;
+    }
+
+    /**
+     * Scan the archives and classes of all ScanJobs registered so far.
+     */
+    private ScanIndex scan(ScanResult scanResult, ClassLoader loader) {
+        for (String vetoedClient : vetoedClients) {
+            scanResult.getScanJobs().remove(vetoedClient);
+        }
+
+        int elementKinds = 0;
+        Set<String> markerFiles = new LinkedHashSet<String>();
+        Set<String> classesToScan = new LinkedHashSet<String>();
+        final List<PackageMatcher> packageMatchers = new ArrayList<PackageMatcher>();
+        for (RegisteredScanJob scanJob : scanResult.getScanJobs().values()) {
+            elementKinds |= scanJob.getElementKinds();
+            markerFiles.addAll(scanJob.getMarkerFiles());
+            classesToScan.addAll(scanJob.getClassesToScan());
+            packageMatchers.add(scanJob.getPackageMatcher());
+        }
+
+        // the listeners only get used during this scan, they must not stay in the ScanResult
+        Map<String, ScanListener> scanListeners = new HashMap<String, ScanListener>(scanResult.getScanListeners());
+        final Map<RegisteredScanJob, ScanListener> listeningJobs = new HashMap<RegisteredScanJob, ScanListener>();
+        for (Map.Entry<String, ScanListener> entry : scanListeners.entrySet()) {
+            RegisteredScanJob scanJob = scanResult.getScanJobs().get(entry.getKey());
+            if (scanJob != null) {
+                listeningJobs.put(scanJob, entry.getValue());
+            }
+        }
+
+        final ScanIndex scanIndex = new ScanIndex();
+        final AnnotationCollector collector = new AnnotationCollector(scanIndex, elementKinds);
+        ArchiveReader reader = new ArchiveReader();
+        ArchiveReader.ClassHandler handler = new ArchiveReader.ClassHandler() {
+            public boolean accepts(String className) {
+                if (!ignoredPackages.accepts(className)) {
+                    return false;
+                }
+                for (PackageMatcher packageMatcher : packageMatchers) {
+                    if (packageMatcher.accepts(className)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            public void handle(String className, byte[] classBytes) {
+                collect(collector, className, classBytes, listeningJobs);
+            }
+        };
+
+        try {
+            for (String urlPath : findResourceBases(markerFiles, loader)) {
+                reader.read(urlPath, handler);
+            }
+
+            for (String className : classesToScan) {
+                if (scanIndex.getAnnotations(className, 0) != null) {
+                    // already found in one of the archives
+                    continue;
+                }
+                InputStream in = loader.getResourceAsStream(className.replace('.', '/') + ".class");
+                if (in != null) {
+                    collect(collector, className, reader.readBytes(in, true), listeningJobs);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error in classpath scanning", e);
+        }
+
+        for (Map.Entry<String, ScanListener> entry : scanListeners.entrySet()) {
+            scanResult.getScanListeners().remove(entry.getKey(), entry.getValue());
+        }
+        return scanIndex;
+    }
+
+    /**
+     * Collect the annotations of a single class. Classes the ClassReader can't read get skipped.
+     */
+    private void collect(AnnotationCollector collector, String className, byte[] classBytes,
+                         Map<RegisteredScanJob, ScanListener> listeningJobs) {
+        try {
+            collector.collect(classBytes);
+        } catch (IllegalArgumentException e) {
+            // thrown by the ClassReader for unsupported class file versions
+            skip(collector, className, e);
+            return;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // thrown by the ClassReader for corrupt class files
+            skip(collector, className, e);
+            return;
+        }
+
+        if (!listeningJobs.isEmpty()) {
+            notifyListeners(collector.getIndex(), className, listeningJobs);
+        }
+    }
+
+    private void skip(AnnotationCollector collector, String className, RuntimeException e) {
+        collector.getIndex().removeClass(className);
+        logger.log(Level.WARNING, "Skipping the unreadable class " + className, e);
+    }
+
+    /**
+     * Notify the listeners about the annotations of a class which got collected completely.
+     */
+    private void notifyListeners(ScanIndex scanIndex, String className,
+                                 Map<RegisteredScanJob, ScanListener> listeningJobs) {
+        Map<String, Integer> annotations = scanIndex.getElementKinds(className);
+        if (annotations == null) {
+            return;
+        }
+        for (Map.Entry<RegisteredScanJob, ScanListener> listeningJob : listeningJobs.entrySet()) {
+            RegisteredScanJob scanJob = listeningJob.getKey();
+            if (!scanJob.isVisible(className)) {
+                continue;
+            }
+            for (Map.Entry<String, Integer> annotation : annotations.entrySet()) {
+                int elementKinds = annotation.getValue() & scanJob.getElementKinds();
+                for (int i = 0; i < ELEMENT_KINDS.length; i++) {
+                    if ((elementKinds & ELEMENT_KINDS[i]) != 0) {
+                        listeningJob.getValue().annotationFound(className, annotation.getKey(), ELEMENT_TYPES[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the base paths of all archives containing one of the marker files, without the marker file itself
+     */
+    private Set<String> findResourceBases(Set<String> markerFiles, ClassLoader loader) throws IOException {
+        Set<String> urlPaths = new LinkedHashSet<String>();
+        for (String markerFile : markerFiles) {
+            Enumeration<URL> urls = loader.getResources(markerFile);
+            while (urls.hasMoreElements()) {
+                String urlString = urls.nextElement().toString();
+                urlPaths.add(urlString.substring(0, urlString.lastIndexOf(markerFile)));
+            }
+        }
+        return urlPaths;
+    }
+
+    /**
+     * The ScanJobs and scan result of a single ClassLoader.
+     */
+    private class ScanResult {
+        private final Map<String, RegisteredScanJob> scanJobs = new ConcurrentHashMap<String, RegisteredScanJob>();
+        private final ConcurrentHashMap<String, ClientIndex> clientIndexes
+                = new ConcurrentHashMap<String, ClientIndex>();
+
+        /**
+         * the listeners of the clients which didn't get notified by a scan yet,
+         * they usually come from the ClassLoader this ScanResult is the value for
+         */
+        private final ConcurrentMap<String, ScanListener> scanListeners = new ConcurrentHashMap<String, ScanListener>();
+        private volatile ScanIndex scanIndex;
+
+        public Map<String, RegisteredScanJob> getScanJobs() {
+            return scanJobs;
+        }
+
+        public ConcurrentHashMap<String, ClientIndex> getClientIndexes() {
+            return clientIndexes;
+        }
+
+        public ConcurrentMap<String, ScanListener> getScanListeners() {
+            return scanListeners;
+        }
+
+        /**
+         * Concurrent callers wait for the scan of the first one.
+         */
+        public ScanIndex getScanIndex(ClassLoader loader) {
+            ScanIndex index = scanIndex;
+            if (index == null) {
+                synchronized (this) {
+                    index = scanIndex;
+                    if (index == null) {
+                        index = scan(this, loader);
+                        scanIndex = index;
+                    }
+                }
+            }
+            return index;
+        }
+    }
+
+    /**
+     * The settings of a registered {@link ScanJob}. The classes to scan only get stored
+     * by name, so we don't keep a reference to the ClassLoader of the client.
+     */
+    private static class RegisteredScanJob {
+        private final int elementKinds;
+        private final List<String> markerFiles;
+        private final PackageMatcher packageMatcher;
+        private final Set<String> classesToScan = new HashSet<String>();
+
+        public RegisteredScanJob(ScanJob scanJob) {
+            elementKinds = (scanJob.isScanClassAnnotations() ? ScanIndex.CLASS_ELEMENT : 0)
+                           | (scanJob.isScanMethodAnnotations() ? ScanIndex.METHOD_ELEMENT : 0)
+                           | (scanJob.isScanFieldAnnotations() ? ScanIndex.FIELD_ELEMENT : 0)
+                           | (scanJob.isScanParameterAnnotations() ? ScanIndex.PARAMETER_ELEMENT : 0);
+            markerFiles = scanJob.getMarkerFiles() != null
+                          ? Arrays.asList(scanJob.getMarkerFiles()) : Collections.<String>emptyList();
+            packageMatcher = new PackageMatcher(scanJob.getPackageIncludes(), scanJob.getPackageExcludes());
+            if (scanJob.getClassesToScan() != null) {
+                for (Class<?> classToScan : scanJob.getClassesToScan()) {
+                    classesToScan.add(classToScan.getName());
+                }
+            }
+        }
+
+        public int getElementKinds() {
+            return elementKinds;
+        }
+
+        public List<String> getMarkerFiles() {
+            return markerFiles;
+        }
+
+        public PackageMatcher getPackageMatcher() {
+            return packageMatcher;
+        }
+
+        public Set<String> getClassesToScan() {
+            return classesToScan;
+        }
+
+        /**
+         * @return whether the class lies in the packages of this job or got passed explicitly
+         */
+        public boolean isVisible(String className) {
+            return classesToScan.contains(className) || packageMatcher.accepts(className);
+        }
+    }
+
+    /**
+     * The indexes of a single client, containing only its packages and element kinds.
+     */
+    private static class ClientIndex {
+        private final Map<String, Set<String>> classesIndex;
+        private final Map<String, Set<String>> annotationsIndex;
+
+        /**
+         * @param scanJob the job of the client, <code>null</code> for everything
+         */
+        public ClientIndex(ScanIndex scanIndex, RegisteredScanJob scanJob) {
+            int elementKinds = scanJob != null ? scanJob.getElementKinds() : -1;
+            Map<String, Set<String>> classes = new HashMap<String, Set<String>>();
+            Map<String, Set<String>> annotations = new HashMap<String, Set<String>>();
+            for (String className : scanIndex.getClassNames()) {
+                if (scanJob != null && !scanJob.isVisible(className)) {
+                    continue;
+                }
+                Set<String> classAnnotations = scanIndex.getAnnotations(className, elementKinds);
+                classes.put(className, Collections.unmodifiableSet(classAnnotations));
+                for (String annotation : classAnnotations) {
+                    Set<String> annotatedClasses = annotations.get(annotation);
+                    if (annotatedClasses == null) {
+                        annotatedClasses = new HashSet<String>();
+                        annotations.put(annotation, annotatedClasses);
+                    }
+                    annotatedClasses.add(className);
+                }
+            }
+            for (Map.Entry<String, Set<String>> entry : annotations.entrySet()) {
+                entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+            }
+            classesIndex = Collections.unmodifiableMap(classes);
+            annotationsIndex = Collections.unmodifiableMap(annotations);
+        }
+
+        public Map<String, Set<String>> getClassesIndex() {
+            return classesIndex;
+        }
+
+        public Map<String, Set<String>> getAnnotationsIndex() {
+            return annotationsIndex;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements. See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership. The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License. You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.commons.classscan.xbean.test;
+
+import org.apache.commons.classscan.api.ClassScanClient;
+import org.apache.commons.classscan.api.ClassScanner;
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample1;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample2;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample3;
+import org.apache.commons.classscan.spi.test.pojos.NonAnnotatedSample1;
+
+/**
+ * Registers the client which gets used by the ClassScannerTestTck.
+ */
+public class TckClassScanClient implements ClassScanClient {
+
+    public static final String NAME = "org.apache.commons.classscan.test1";
+
+    @Override
+    public void invokeRegistration(ClassScanner scanner) {
+        ScanJob scanJob = new ScanJob(null, null, null, true, true, true, true);
+        scanJob.setClassesToScan(new Class<?>[]{AnnotatedSample1.class, AnnotatedSample2.class,
+                                                AnnotatedSample3.class, NonAnnotatedSample1.class});
+        scanner.registerClient(NAME, scanJob);
+    }
+}
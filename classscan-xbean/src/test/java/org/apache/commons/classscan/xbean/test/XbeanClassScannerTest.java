@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.commons.classscan.xbean.test;
+
+import org.apache.commons.classscan.api.ScanJob;
+import org.apache.commons.classscan.api.ScanListener;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationA;
+import org.apache.commons.classscan.spi.test.annotations.SampleAnnotationB;
+import org.apache.commons.classscan.spi.test.pojos.AnnotatedSample1;
+import org.apache.commons.classscan.xbean.XbeanClassScanner;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.ElementType;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Tests the element kinds, package filters and listeners of the XbeanClassScanner.
+ */
+public class XbeanClassScannerTest {
+
+    private static final String MARKER = "META-INF/classscan-xbean.marker";
+
+    private static final String A = SampleAnnotationA.class.getName();
+    private static final String B = SampleAnnotationB.class.getName();
+    private static final String MIXED = Mixed.class.getName();
+
+    private File tempDir;
+
+    private ClassLoader currentLoader;
+
+    private XbeanClassScanner scanner = new XbeanClassScanner() {
+        @Override
+        protected ClassLoader getClassLoader() {
+            return currentLoader != null ? currentLoader : super.getClassLoader();
+        }
+    };
+
+    @SampleAnnotationA
+    public static class Mixed {
+        @SampleAnnotationB
+        private String field;
+
+        @SampleAnnotationA
+        public void method(@SampleAnnotationB String parameter) {
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (tempDir != null) {
+            delete(tempDir);
+        }
+    }
+
+    @Test
+    public void testElementKinds() {
+        ScanJob classJob = new ScanJob(null, null, null, true, false, false, false);
+        classJob.setClassesToScan(new Class<?>[]{Mixed.class});
+        scanner.registerClient("class", classJob);
+
+        ScanJob parameterJob = new ScanJob(null, null, null, false, false, false, true);
+        parameterJob.setClassesToScan(new Class<?>[]{Mixed.class});
+        scanner.registerClient("parameter", parameterJob);
+
+        ScanJob allJob = new ScanJob(null, null, null, true, true, true, true);
+        allJob.setClassesToScan(new Class<?>[]{Mixed.class});
+        scanner.registerClient("all", allJob);
+
+        Assert.assertEquals(set(A), scanner.getClassesIndex("class").get(MIXED));
+        Assert.assertNull(scanner.getAnnotationsIndex("class").get(B));
+
+        Assert.assertEquals(set(B), scanner.getClassesIndex("parameter").get(MIXED));
+        Assert.assertEquals(set(MIXED), scanner.getAnnotationsIndex("parameter").get(B));
+
+        Assert.assertEquals(set(A, B), scanner.getClassesIndex("all").get(MIXED));
+        Assert.assertNull(scanner.getClassesIndex("unknown").get(AnnotatedSample1.class.getName()));
+    }
+
+    @Test
+    public void testPackageFilter() throws IOException {
+        tempDir = File.createTempFile("classscan", "xbean");
+        tempDir.delete();
+        copy(AnnotatedSample1.class);
+        copy(Mixed.class);
+        copy(null, new File(tempDir, MARKER));
+        currentLoader = new URLClassLoader(new URL[]{tempDir.toURI().toURL()}, null);
+
+        scanner.registerClient("pojos", new ScanJob(new String[]{MARKER}, new String[]{"org.apache.commons.classscan"},
+                                                    new String[]{"org.apache.commons.classscan.xbean"},
+                                                    true, true, true, true));
+        scanner.registerClient("everything", new ScanJob(new String[]{MARKER}, null, null, true, true, true, true));
+
+        Map<String, Set<String>> pojos = scanner.getClassesIndex("pojos");
+        Assert.assertEquals(Collections.singleton(AnnotatedSample1.class.getName()), pojos.keySet());
+
+        Map<String, Set<String>> everything = scanner.getClassesIndex("everything");
+        Assert.assertEquals(set(AnnotatedSample1.class.getName(), MIXED), everything.keySet());
+        Assert.assertEquals(set(A, B), everything.get(MIXED));
+    }
+
+    @Test
+    public void testScanListener() {
+        final Set<String> events = new CopyOnWriteArraySet<String>();
+        ScanJob scanJob = new ScanJob(null, null, null, true, false, false, true);
+        scanJob.setClassesToScan(new Class<?>[]{Mixed.class});
+        scanJob.setScanListener(new ScanListener() {
+            public void annotationFound(String className, String annotationType, ElementType elementKind) {
+                events.add(className + '|' + annotationType + '|' + elementKind);
+            }
+        });
+        scanner.registerClient("listening", scanJob);
+
+        ScanJob otherJob = new ScanJob(null, null, null, true, true, true, true);
+        otherJob.setClassesToScan(new Class<?>[]{Mixed.class});
+        scanner.registerClient("other", otherJob);
+
+        scanner.getClassesIndex("listening");
+        Assert.assertEquals(set(MIXED + '|' + A + '|' + ElementType.TYPE,
+                                MIXED + '|' + B + '|' + ElementType.PARAMETER), events);
+    }
+
+    @Test
+    public void testUnreadableClassesGetSkipped() throws IOException {
+        tempDir = File.createTempFile("classscan", "xbean");
+        tempDir.delete();
+        copy(Mixed.class);
+        copy(null, new File(tempDir, MARKER));
+
+        // a class file version the ASM5 ClassReader doesn't support
+        byte[] java9 = {(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 53, 0, 0, 0, 0};
+        copy(new ByteArrayInputStream(java9), new File(tempDir, "module-info.class"));
+        copy(new ByteArrayInputStream(java9), new File(tempDir, "META-INF/versions/9/org/acme/Versioned.class"));
+        copy(new ByteArrayInputStream(java9), new File(tempDir, "org/acme/Java9.class"));
+        // truncated class file
+        byte[] truncated = {(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 50, 0, 10};
+        copy(new ByteArrayInputStream(truncated), new File(tempDir, "org/acme/Truncated.class"));
+        currentLoader = new URLClassLoader(new URL[]{tempDir.toURI().toURL()}, null);
+
+        scanner.registerClient("everything", new ScanJob(new String[]{MARKER}, null, null, true, true, true, true));
+        Assert.assertEquals(set(MIXED), scanner.getClassesIndex("everything").keySet());
+    }
+
+    private Set<String> set(String... names) {
+        return new HashSet<String>(Arrays.asList(names));
+    }
+
+    private void copy(Class<?> clazz) throws IOException {
+        String resource = clazz.getName().replace('.', '/') + ".class";
+        copy(clazz.getClassLoader().getResourceAsStream(resource), new File(tempDir, resource));
+    }
+
+    private void copy(InputStream in, File target) throws IOException {
+        target.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(target);
+        try {
+            if (in != null) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                in.close();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}